@@ -1,6 +1,12 @@
 #!/bin/bash
 
-mvn clean package -q
+mvn clean package -Pcds -q
+
+# Start from the AppCDS archive of mvn -Pcds package when there is one
+JAVA_OPTS=()
+if [[ -f target/dd-mandate-processor-1.0.0-SNAPSHOT.jsa ]]; then
+    JAVA_OPTS=(-XX:SharedArchiveFile=target/dd-mandate-processor-1.0.0-SNAPSHOT.jsa)
+fi
 
 RECORD_COUNT=${1:-10k}
 BATCH_SIZE=${2:-1000}
@@ -12,7 +18,7 @@ export MONGODB_DATABASE="${MONGODB_DATABASE:-mandate_db}"
 mkdir -p "$DATA_DIR"
 
 echo "Generating $RECORD_COUNT test records..."
-java -cp target/dd-mandate-processor-1.0.0-SNAPSHOT.jar \
+java "${JAVA_OPTS[@]}" -cp target/dd-mandate-processor-1.0.0-SNAPSHOT.jar \
     com.mongodb.mandate.generator.MandateDataGenerator "$RECORD_COUNT" "$DATA_DIR"
 
 LATEST_FILE=$(ls -t "$DATA_DIR"/mandates_*.txt 2>/dev/null | grep -v modified | head -1)
@@ -26,4 +32,4 @@ echo ""
 echo "Processing file: $LATEST_FILE (batch size: $BATCH_SIZE)"
 echo ""
 
-java -jar target/dd-mandate-processor-1.0.0-SNAPSHOT.jar "$LATEST_FILE" "$BATCH_SIZE"
+java "${JAVA_OPTS[@]}" -jar target/dd-mandate-processor-1.0.0-SNAPSHOT.jar "$LATEST_FILE" "$BATCH_SIZE"
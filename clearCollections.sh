@@ -10,12 +10,14 @@ mongosh "$MONGODB_URI/$MONGODB_DATABASE" --eval '
     print("Before deletion:");
     print("  mandates:       " + db.mandates.countDocuments({}) + " documents");
     print("  mandate_audits: " + db.mandate_audits.countDocuments({}) + " documents");
+    print("  mandate_audit_buckets: " + db.mandate_audit_buckets.countDocuments({}) + " documents");
     print("  creditors:      " + db.creditors.countDocuments({}) + " documents");
     print("  debtors:        " + db.debtors.countDocuments({}) + " documents");
     print("");
 
     db.mandates.deleteMany({});
     db.mandate_audits.deleteMany({});
+    db.mandate_audit_buckets.deleteMany({});
     db.creditors.deleteMany({});
     db.debtors.deleteMany({});
 
@@ -28,4 +28,15 @@ db.mandate_audits.createIndex(
     { name: "idx_audit_mandate_time" }
 );
 
+// Bucketed audits (audit.layout=bucket): mandate lookups go through the entries
+db.mandate_audit_buckets.createIndex(
+    { "entries.mandateId": 1 },
+    { name: "idx_audit_bucket_mandateId" }
+);
+
+db.mandate_audit_buckets.createIndex(
+    { "changeTimestamp": -1 },
+    { name: "idx_audit_bucket_timestamp" }
+);
+
 print("Indexes created successfully");
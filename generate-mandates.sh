@@ -5,4 +5,10 @@ COUNT=${1:-10k}
 OUTPUT_DIR=${2:-.}
 
 echo "Generating $COUNT mandate records..."
-java -jar target/mandate-generator.jar "$COUNT" "$OUTPUT_DIR"
+# Start from the AppCDS archive of mvn -Pcds package when there is one
+JAVA_OPTS=()
+if [[ -f target/mandate-generator.jsa ]]; then
+    JAVA_OPTS=(-XX:SharedArchiveFile=target/mandate-generator.jsa)
+fi
+
+java "${JAVA_OPTS[@]}" -jar target/mandate-generator.jar "$COUNT" "$OUTPUT_DIR"
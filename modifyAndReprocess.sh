@@ -6,6 +6,12 @@ INPUT_FILE=${2:-$(ls -t ./data/mandates_*.txt 2>/dev/null | grep -v modified | h
 BATCH_SIZE=${3:-200}
 DATA_DIR="./data"
 
+# Start from the AppCDS archive of mvn -Pcds package when there is one
+JAVA_OPTS=()
+if [[ -f target/dd-mandate-processor-1.0.0-SNAPSHOT.jsa ]]; then
+    JAVA_OPTS=(-XX:SharedArchiveFile=target/dd-mandate-processor-1.0.0-SNAPSHOT.jsa)
+fi
+
 export MONGODB_URI="${MONGODB_URI:-mongodb://localhost:27017}"
 export MONGODB_DATABASE="${MONGODB_DATABASE:-mandate_db}"
 
@@ -31,7 +37,7 @@ echo ""
 # Step 1: Modify the file
 echo "Step 1: Modifying records with ${EDIT_PERCENTAGE}% edit chance..."
 echo ""
-java -cp target/dd-mandate-processor-1.0.0-SNAPSHOT.jar \
+java "${JAVA_OPTS[@]}" -cp target/dd-mandate-processor-1.0.0-SNAPSHOT.jar \
     com.mongodb.mandate.generator.MandateDataModifier \
     "$INPUT_FILE" "$EDIT_PERCENTAGE" "$DATA_DIR"
 
@@ -50,7 +56,7 @@ echo ""
 # Step 2: Process the modified file
 echo "Step 2: Processing modified file against MongoDB..."
 echo ""
-java -jar target/dd-mandate-processor-1.0.0-SNAPSHOT.jar "$MODIFIED_FILE" "$BATCH_SIZE"
+java "${JAVA_OPTS[@]}" -jar target/dd-mandate-processor-1.0.0-SNAPSHOT.jar "$MODIFIED_FILE" "$BATCH_SIZE"
 
 echo ""
 echo "════════════════════════════════════════════════════════════════"
@@ -1,7 +1,20 @@
 package com.mongodb.mandate;
 
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.FieldChange;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AsyncMandateRepository;
+import com.mongodb.mandate.repository.CodecMode;
+import com.mongodb.mandate.repository.InMemoryMandateStore;
 import com.mongodb.mandate.repository.MandateRepository;
+import com.mongodb.mandate.repository.MandateStore;
+import com.mongodb.mandate.repository.StoreType;
+import com.mongodb.mandate.service.AuditLayout;
+import com.mongodb.mandate.service.AuditMode;
+import com.mongodb.mandate.service.ChangeStreamAuditWriter;
+import com.mongodb.mandate.service.InboxDaemon;
 import com.mongodb.mandate.service.MandateProcessor;
+import com.mongodb.mandate.service.ProcessingMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,37 +22,109 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 public class MandateProcessorApplication {
 
     private static final Logger logger = LoggerFactory.getLogger(MandateProcessorApplication.class);
 
-    public static void main(String[] args) {
+    public static void main(String[] rawArgs) {
+        List<String> flags = Arrays.stream(rawArgs).filter(a -> a.startsWith("--")).toList();
+        boolean resume = flags.contains("--resume");
+        boolean watch = flags.contains("--watch");
+        String[] args = Arrays.stream(rawArgs).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+
+        if (flags.contains("--audit-stream")) {
+            runAuditStream(loadProperties());
+            return;
+        }
+
+        if (flags.contains("--audit-history") && args.length == 1) {
+            printAuditHistory(loadProperties(), args[0]);
+            return;
+        }
+
         if (args.length < 1) {
-            System.err.println("Usage: java -jar mandate-processor.jar <input-file> [batch-size]");
+            System.err.println("Usage: java -jar mandate-processor.jar <input-file> [batch-size] [--resume]");
+            System.err.println("       java -jar mandate-processor.jar --watch <inbox-dir>");
+            System.err.println("       java -jar mandate-processor.jar --audit-stream");
+            System.err.println("       java -jar mandate-processor.jar --audit-history <mandate-id>");
             System.err.println("Example: java -jar mandate-processor.jar mandates.txt 200");
             System.exit(1);
         }
 
         String inputFile = args[0];
-        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
 
         // Load configuration
         Properties props = loadProperties();
         String connectionString = props.getProperty("mongodb.uri", "mongodb://localhost:27017");
         String databaseName = props.getProperty("mongodb.database", "mandate_db");
+        CodecMode codecMode = CodecMode.fromString(props.getProperty("mongodb.codec", "pojo"));
+        StoreType storeType = StoreType.fromString(props.getProperty("store", "mongo"));
+
+        ProcessorOptions options = ProcessorOptions.fromProperties(props);
+        if (args.length > 1) {
+            options.setBatchSize(Integer.parseInt(args[1]));
+        }
+        // A file the daemon was processing when it stopped carries on from its checkpoint
+        if (resume || watch) {
+            options.setResume(true);
+        }
 
         logger.info("Starting Mandate Processor");
-        logger.info("Input file: {}", inputFile);
-        logger.info("Batch size: {}", batchSize);
-        logger.info("Database: {}", databaseName);
+        logger.info(watch ? "Inbox: {}" : "Input file: {}", inputFile);
+        logger.info("Batch size: {}", options.getBatchSize());
+        logger.info("Reader mode: {}", options.getReaderMode());
+        logger.info("Processing mode: {}", options.getProcessingMode());
+        logger.info("Database: {}", storeType == StoreType.MEMORY ? "in-memory" : databaseName);
+
+        if (storeType == StoreType.MEMORY && options.getProcessingMode() == ProcessingMode.ASYNC) {
+            System.err.println("processing.mode=async needs store=mongo");
+            System.exit(1);
+        }
+        if (storeType == StoreType.MEMORY && options.getAuditMode() == AuditMode.CHANGE_STREAM) {
+            System.err.println("audit.mode=change-stream needs store=mongo");
+            System.exit(1);
+        }
+        if (options.getAuditLayout() == AuditLayout.BUCKET && options.getAuditMode() == AuditMode.ASYNC) {
+            System.err.println("audit.layout=bucket does not work with audit.mode=async");
+            System.exit(1);
+        }
+        if (options.getAuditMode() == AuditMode.CHANGE_STREAM) {
+            logger.info("Audit mode: change stream; run --audit-stream to write the audit records");
+        } else if (options.getAuditMode() == AuditMode.ASYNC) {
+            logger.info("Audit mode: async, spooling to {} when MongoDB falls behind",
+                    options.getAuditSpoolDir() != null ? options.getAuditSpoolDir() : "the working directory");
+        }
 
-        try (MandateRepository repository = new MandateRepository(connectionString, databaseName)) {
-            MandateProcessor processor = new MandateProcessor(repository, batchSize);
+        // The blocking repository also creates the indexes, so it is opened first
+        try (MandateStore store = storeType == StoreType.MEMORY
+                     ? new InMemoryMandateStore(Long.parseLong(props.getProperty("store.memory.latency.us", "0").trim()))
+                     : new MandateRepository(connectionString, databaseName, codecMode);
+             AsyncMandateRepository asyncRepository = options.getProcessingMode() == ProcessingMode.ASYNC
+                     ? new AsyncMandateRepository(connectionString, databaseName, codecMode,
+                             options.getAsyncMaxInFlight())
+                     : null) {
+            String preload = props.getProperty("store.memory.preload", "").trim();
+            if (storeType == StoreType.MEMORY && !preload.isEmpty()) {
+                preload(store, Paths.get(preload), props);
+            }
 
-            Path filePath = Paths.get(inputFile);
-            processor.processFile(filePath);
+            try (MandateProcessor processor = new MandateProcessor(store, asyncRepository, options)) {
+                if (watch) {
+                    watchInbox(processor, options, Paths.get(inputFile));
+                    return;
+                }
+                if (options.getAuditMode() == AuditMode.ASYNC) {
+                    // On Ctrl-C or SIGTERM, queued audits are written or spooled before the JVM exits
+                    Runtime.getRuntime().addShutdownHook(new Thread(processor::close, "audit-sink-shutdown"));
+                }
+
+                Path filePath = Paths.get(inputFile);
+                processor.processFile(filePath);
+            }
 
             logger.info("Processing completed successfully");
 
@@ -49,6 +134,83 @@ public class MandateProcessorApplication {
         }
     }
 
+    /**
+     * Processes files dropped into the inbox until the process is stopped.
+     * On Ctrl-C or SIGTERM the files in progress are finished, and queued
+     * audits written, before the JVM exits.
+     */
+    private static void watchInbox(MandateProcessor processor, ProcessorOptions options,
+                                   Path inbox) throws IOException {
+        InboxDaemon daemon = new InboxDaemon(processor, options, inbox);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            processor.close();
+        }, "inbox-daemon-shutdown"));
+        daemon.run();
+    }
+
+    /**
+     * Tails the mandates change stream and writes the audit records for
+     * audit.mode=change-stream until the process is stopped. Meant to run
+     * alongside the ingest processes, started before the first of them.
+     */
+    private static void runAuditStream(Properties props) {
+        String connectionString = props.getProperty("mongodb.uri", "mongodb://localhost:27017");
+        String databaseName = props.getProperty("mongodb.database", "mandate_db");
+        CodecMode codecMode = CodecMode.fromString(props.getProperty("mongodb.codec", "pojo"));
+        ProcessorOptions options = ProcessorOptions.fromProperties(props);
+
+        logger.info("Starting the change stream audit writer on {}", databaseName);
+        try (MandateRepository repository = new MandateRepository(connectionString, databaseName, codecMode)) {
+            ChangeStreamAuditWriter writer = new ChangeStreamAuditWriter(repository, options);
+            // On Ctrl-C or SIGTERM, pending audits are written before the JVM exits
+            Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "audit-stream-shutdown"));
+            writer.run();
+        } catch (Exception e) {
+            logger.error("Audit stream stopped: {}", e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    // Every audit of one mandate, oldest first, from audit documents and audit buckets alike
+    private static void printAuditHistory(Properties props, String mandateId) {
+        String connectionString = props.getProperty("mongodb.uri", "mongodb://localhost:27017");
+        String databaseName = props.getProperty("mongodb.database", "mandate_db");
+        CodecMode codecMode = CodecMode.fromString(props.getProperty("mongodb.codec", "pojo"));
+
+        try (MandateRepository repository = new MandateRepository(connectionString, databaseName, codecMode)) {
+            List<MandateAudit> audits = repository.findAudits(mandateId);
+            System.out.println(audits.size() + " audit records for " + mandateId);
+            for (MandateAudit audit : audits) {
+                System.out.println(audit.getChangeTimestamp() + " " + audit.getChangeType()
+                        + " " + audit.getPreviousUpdateDate() + " -> " + audit.getNewUpdateDate()
+                        + " from " + audit.getSourceFile() + " (batch " + audit.getBatchId() + ")");
+                if (audit.getFieldChanges() != null) {
+                    for (FieldChange change : audit.getFieldChanges()) {
+                        System.out.println("    " + change.getFieldName() + ": " + change.getOldValue()
+                                + " -> " + change.getNewValue());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Could not read the audit history: {}", e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    // Fills the in-memory store so the timed run also finds existing mandates to skip and update
+    private static void preload(MandateStore store, Path preloadFile, Properties props) throws IOException {
+        ProcessorOptions preloadOptions = ProcessorOptions.fromProperties(props);
+        preloadOptions.setCheckpointEnabled(false);
+        preloadOptions.setResume(false);
+        preloadOptions.setSnapshotFile(null);
+
+        logger.info("Preloading the in-memory store from {}", preloadFile);
+        try (MandateProcessor processor = new MandateProcessor(store, preloadOptions)) {
+            processor.processFile(preloadFile);
+        }
+    }
+
     private static Properties loadProperties() {
         Properties props = new Properties();
 
@@ -74,6 +236,13 @@ public class MandateProcessorApplication {
             props.setProperty("mongodb.database", mongoDb);
         }
 
+        // Allow -Dkey=value overrides for any setting
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (props.containsKey(key)) {
+                props.setProperty(key, System.getProperty(key));
+            }
+        }
+
         return props;
     }
 }
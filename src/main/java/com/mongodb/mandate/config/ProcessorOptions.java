@@ -0,0 +1,310 @@
+package com.mongodb.mandate.config;
+
+import com.mongodb.mandate.service.AuditLayout;
+import com.mongodb.mandate.service.AuditMode;
+import com.mongodb.mandate.service.LookupMode;
+import com.mongodb.mandate.service.ProcessingMode;
+import com.mongodb.mandate.service.ReaderMode;
+import com.mongodb.mandate.service.WriteMode;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+public class ProcessorOptions {
+
+    private int batchSize = 200;
+    private boolean adaptiveBatchSize = false;
+    private int batchTargetLatencyMs = 250;
+    private int batchMinSize = 50;
+    private int batchMaxSize = 10_000;
+    private ReaderMode readerMode = ReaderMode.BUFFERED;
+    private int readerParallelism = Runtime.getRuntime().availableProcessors();
+    private long readerChunkSize = 4L * 1024 * 1024;
+    private boolean strictParsing = false;
+    private boolean amountsAsMinorUnits = false;
+    private boolean lazyRecords = false;
+    private int decompressBuffers = 8;
+    private int decompressBufferSize = 1024 * 1024;
+    private boolean checkpointEnabled = true;
+    private Path checkpointDir = null;
+    private boolean resume = false;
+    private Path snapshotFile = null;
+    private ProcessingMode processingMode = ProcessingMode.SEQUENTIAL;
+    private int pipelineLookupThreads = 2;
+    private int pipelineBuildThreads = 2;
+    private int pipelineWriteThreads = 2;
+    private int pipelineQueueCapacity = 4;
+    private int concurrentBatches = 8;
+    private int asyncMaxInFlight = 32;
+    private String shardRanges = "";
+    private int shardWriters = 4;
+    private int shardQueueCapacity = 4;
+    private LookupMode lookupMode = LookupMode.IN;
+    private int lookupRangeBatches = 8;
+    private WriteMode writeMode = WriteMode.LOOKUP;
+    private AuditMode auditMode = AuditMode.INLINE;
+    private int auditStreamBatchSize = 500;
+    private int auditStreamMaxWaitMs = 1000;
+    private int auditStreamIdleSaveMs = 60_000;
+    private int auditSinkQueueCapacity = 50_000;
+    private int auditSinkWriters = 2;
+    private int auditSinkMaxBatch = 5_000;
+    private Path auditSpoolDir = null;
+    private AuditLayout auditLayout = AuditLayout.DOCUMENT;
+    private int auditBucketMaxEntries = 1000;
+    private boolean contentHashEnabled = false;
+    private boolean updateNewerOnly = false;
+    private boolean referenceCacheEnabled = true;
+    private int referenceCacheMaxDebtors = 100_000;
+    private int transactionAttempts = 4;
+    private long transactionRetryBackoffMs = 50;
+    private Path rejectDir = null;
+    private int daemonFileConcurrency = 1;
+    private String daemonFileGlob = "*";
+    private int daemonSettleMs = 2000;
+    private Path daemonDoneDir = null;
+    private Path daemonFailedDir = null;
+
+    public ProcessorOptions() {}
+
+    public static ProcessorOptions fromProperties(Properties props) {
+        return builder()
+                .batchSize(Integer.parseInt(props.getProperty("batch.size", "200")))
+                .adaptiveBatchSize(Boolean.parseBoolean(props.getProperty("batch.adaptive", "false")))
+                .batchTargetLatencyMs(intProperty(props, "batch.target.latency.ms", 250))
+                .batchMinSize(intProperty(props, "batch.min.size", 50))
+                .batchMaxSize(intProperty(props, "batch.max.size", 10_000))
+                .readerMode(ReaderMode.fromString(props.getProperty("reader.mode", "buffered")))
+                .readerParallelism(intProperty(props, "reader.parallelism",
+                        Runtime.getRuntime().availableProcessors()))
+                .readerChunkSize(intProperty(props, "reader.chunk.size.mb", 4) * 1024L * 1024)
+                .strictParsing(Boolean.parseBoolean(props.getProperty("reader.strict", "false")))
+                .amountsAsMinorUnits(Boolean.parseBoolean(props.getProperty("reader.amounts.minor.units", "false")))
+                .lazyRecords(Boolean.parseBoolean(props.getProperty("reader.lazy", "false")))
+                .decompressBuffers(intProperty(props, "reader.decompress.buffers", 8))
+                .decompressBufferSize(intProperty(props, "reader.decompress.buffer.kb", 1024) * 1024)
+                .checkpointEnabled(Boolean.parseBoolean(props.getProperty("checkpoint.enabled", "true")))
+                .checkpointDir(pathProperty(props, "checkpoint.dir"))
+                .resume(Boolean.parseBoolean(props.getProperty("checkpoint.resume", "false")))
+                .snapshotFile(pathProperty(props, "snapshot.file"))
+                .processingMode(ProcessingMode.fromString(props.getProperty("processing.mode", "sequential")))
+                .pipelineLookupThreads(intProperty(props, "pipeline.lookup.threads", 2))
+                .pipelineBuildThreads(intProperty(props, "pipeline.build.threads", 2))
+                .pipelineWriteThreads(intProperty(props, "pipeline.write.threads", 2))
+                .pipelineQueueCapacity(intProperty(props, "pipeline.queue.capacity", 4))
+                .concurrentBatches(intProperty(props, "concurrent.batches", 8))
+                .asyncMaxInFlight(intProperty(props, "async.max.in.flight", 32))
+                .shardRanges(props.getProperty("shard.ranges", "").trim())
+                .shardWriters(intProperty(props, "shard.writers", 4))
+                .shardQueueCapacity(intProperty(props, "shard.queue.capacity", 4))
+                .lookupMode(LookupMode.fromString(props.getProperty("lookup.mode", "in")))
+                .lookupRangeBatches(intProperty(props, "lookup.range.batches", 8))
+                .writeMode(WriteMode.fromString(props.getProperty("write.mode", "lookup")))
+                .auditMode(AuditMode.fromString(props.getProperty("audit.mode", "inline")))
+                .auditStreamBatchSize(intProperty(props, "audit.stream.batch.size", 500))
+                .auditStreamMaxWaitMs(intProperty(props, "audit.stream.max.wait.ms", 1000))
+                .auditStreamIdleSaveMs(intProperty(props, "audit.stream.idle.save.ms", 60_000))
+                .auditSinkQueueCapacity(intProperty(props, "audit.sink.queue.capacity", 50_000))
+                .auditSinkWriters(intProperty(props, "audit.sink.writers", 2))
+                .auditSinkMaxBatch(intProperty(props, "audit.sink.max.batch", 5_000))
+                .auditSpoolDir(pathProperty(props, "audit.spool.dir"))
+                .auditLayout(AuditLayout.fromString(props.getProperty("audit.layout", "document")))
+                .auditBucketMaxEntries(intProperty(props, "audit.bucket.max.entries", 1000))
+                .contentHashEnabled(Boolean.parseBoolean(props.getProperty("lookup.content.hash", "false")))
+                .updateNewerOnly(Boolean.parseBoolean(props.getProperty("update.newer.only", "false")))
+                .referenceCacheEnabled(Boolean.parseBoolean(props.getProperty("reference.cache.enabled", "true")))
+                .referenceCacheMaxDebtors(intProperty(props, "reference.cache.max.debtors", 100_000))
+                .transactionAttempts(intProperty(props, "transaction.attempts", 4))
+                .transactionRetryBackoffMs(intProperty(props, "transaction.retry.backoff.ms", 50))
+                .rejectDir(pathProperty(props, "reject.dir"))
+                .daemonFileConcurrency(intProperty(props, "daemon.file.concurrency", 1))
+                .daemonFileGlob(props.getProperty("daemon.file.glob", "*").trim())
+                .daemonSettleMs(intProperty(props, "daemon.settle.ms", 2000))
+                .daemonDoneDir(pathProperty(props, "daemon.done.dir"))
+                .daemonFailedDir(pathProperty(props, "daemon.failed.dir"))
+                .build();
+    }
+
+    // Blank or non-positive values fall back to the default
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key, "").trim();
+        if (value.isEmpty()) return defaultValue;
+        int parsed = Integer.parseInt(value);
+        return parsed > 0 ? parsed : defaultValue;
+    }
+
+    private static Path pathProperty(Properties props, String key) {
+        String value = props.getProperty(key, "").trim();
+        return value.isEmpty() ? null : Paths.get(value);
+    }
+
+    // Getters
+    public int getBatchSize() { return batchSize; }
+    public boolean isAdaptiveBatchSize() { return adaptiveBatchSize; }
+    public int getBatchTargetLatencyMs() { return batchTargetLatencyMs; }
+    public int getBatchMinSize() { return batchMinSize; }
+    public int getBatchMaxSize() { return batchMaxSize; }
+    public ReaderMode getReaderMode() { return readerMode; }
+    public int getReaderParallelism() { return readerParallelism; }
+    public long getReaderChunkSize() { return readerChunkSize; }
+    public boolean isStrictParsing() { return strictParsing; }
+    public boolean isAmountsAsMinorUnits() { return amountsAsMinorUnits; }
+    public boolean isLazyRecords() { return lazyRecords; }
+    public int getDecompressBuffers() { return decompressBuffers; }
+    public int getDecompressBufferSize() { return decompressBufferSize; }
+    public boolean isCheckpointEnabled() { return checkpointEnabled; }
+    public Path getCheckpointDir() { return checkpointDir; }
+    public boolean isResume() { return resume; }
+    public Path getSnapshotFile() { return snapshotFile; }
+    public ProcessingMode getProcessingMode() { return processingMode; }
+    public int getPipelineLookupThreads() { return pipelineLookupThreads; }
+    public int getPipelineBuildThreads() { return pipelineBuildThreads; }
+    public int getPipelineWriteThreads() { return pipelineWriteThreads; }
+    public int getPipelineQueueCapacity() { return pipelineQueueCapacity; }
+    public int getConcurrentBatches() { return concurrentBatches; }
+    public int getAsyncMaxInFlight() { return asyncMaxInFlight; }
+    public String getShardRanges() { return shardRanges; }
+    public int getShardWriters() { return shardWriters; }
+    public int getShardQueueCapacity() { return shardQueueCapacity; }
+    public LookupMode getLookupMode() { return lookupMode; }
+    public int getLookupRangeBatches() { return lookupRangeBatches; }
+    public WriteMode getWriteMode() { return writeMode; }
+    public AuditMode getAuditMode() { return auditMode; }
+    public int getAuditStreamBatchSize() { return auditStreamBatchSize; }
+    public int getAuditStreamMaxWaitMs() { return auditStreamMaxWaitMs; }
+    public int getAuditStreamIdleSaveMs() { return auditStreamIdleSaveMs; }
+    public int getAuditSinkQueueCapacity() { return auditSinkQueueCapacity; }
+    public int getAuditSinkWriters() { return auditSinkWriters; }
+    public int getAuditSinkMaxBatch() { return auditSinkMaxBatch; }
+    public Path getAuditSpoolDir() { return auditSpoolDir; }
+    public AuditLayout getAuditLayout() { return auditLayout; }
+    public int getAuditBucketMaxEntries() { return auditBucketMaxEntries; }
+    public boolean isContentHashEnabled() { return contentHashEnabled; }
+    public boolean isUpdateNewerOnly() { return updateNewerOnly; }
+    public boolean isReferenceCacheEnabled() { return referenceCacheEnabled; }
+    public int getReferenceCacheMaxDebtors() { return referenceCacheMaxDebtors; }
+    public int getTransactionAttempts() { return transactionAttempts; }
+    public long getTransactionRetryBackoffMs() { return transactionRetryBackoffMs; }
+    public Path getRejectDir() { return rejectDir; }
+    public int getDaemonFileConcurrency() { return daemonFileConcurrency; }
+    public String getDaemonFileGlob() { return daemonFileGlob; }
+    public int getDaemonSettleMs() { return daemonSettleMs; }
+    public Path getDaemonDoneDir() { return daemonDoneDir; }
+    public Path getDaemonFailedDir() { return daemonFailedDir; }
+
+    // Setters
+    public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+    public void setAdaptiveBatchSize(boolean adaptiveBatchSize) { this.adaptiveBatchSize = adaptiveBatchSize; }
+    public void setBatchTargetLatencyMs(int batchTargetLatencyMs) { this.batchTargetLatencyMs = batchTargetLatencyMs; }
+    public void setBatchMinSize(int batchMinSize) { this.batchMinSize = batchMinSize; }
+    public void setBatchMaxSize(int batchMaxSize) { this.batchMaxSize = batchMaxSize; }
+    public void setReaderMode(ReaderMode readerMode) { this.readerMode = readerMode; }
+    public void setReaderParallelism(int readerParallelism) { this.readerParallelism = readerParallelism; }
+    public void setReaderChunkSize(long readerChunkSize) { this.readerChunkSize = readerChunkSize; }
+    public void setStrictParsing(boolean strictParsing) { this.strictParsing = strictParsing; }
+    public void setAmountsAsMinorUnits(boolean amountsAsMinorUnits) { this.amountsAsMinorUnits = amountsAsMinorUnits; }
+    public void setLazyRecords(boolean lazyRecords) { this.lazyRecords = lazyRecords; }
+    public void setDecompressBuffers(int decompressBuffers) { this.decompressBuffers = decompressBuffers; }
+    public void setDecompressBufferSize(int decompressBufferSize) { this.decompressBufferSize = decompressBufferSize; }
+    public void setCheckpointEnabled(boolean checkpointEnabled) { this.checkpointEnabled = checkpointEnabled; }
+    public void setCheckpointDir(Path checkpointDir) { this.checkpointDir = checkpointDir; }
+    public void setResume(boolean resume) { this.resume = resume; }
+    public void setSnapshotFile(Path snapshotFile) { this.snapshotFile = snapshotFile; }
+    public void setProcessingMode(ProcessingMode processingMode) { this.processingMode = processingMode; }
+    public void setPipelineLookupThreads(int pipelineLookupThreads) { this.pipelineLookupThreads = pipelineLookupThreads; }
+    public void setPipelineBuildThreads(int pipelineBuildThreads) { this.pipelineBuildThreads = pipelineBuildThreads; }
+    public void setPipelineWriteThreads(int pipelineWriteThreads) { this.pipelineWriteThreads = pipelineWriteThreads; }
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) { this.pipelineQueueCapacity = pipelineQueueCapacity; }
+    public void setConcurrentBatches(int concurrentBatches) { this.concurrentBatches = concurrentBatches; }
+    public void setAsyncMaxInFlight(int asyncMaxInFlight) { this.asyncMaxInFlight = asyncMaxInFlight; }
+    public void setShardRanges(String shardRanges) { this.shardRanges = shardRanges; }
+    public void setShardWriters(int shardWriters) { this.shardWriters = shardWriters; }
+    public void setShardQueueCapacity(int shardQueueCapacity) { this.shardQueueCapacity = shardQueueCapacity; }
+    public void setLookupMode(LookupMode lookupMode) { this.lookupMode = lookupMode; }
+    public void setLookupRangeBatches(int lookupRangeBatches) { this.lookupRangeBatches = lookupRangeBatches; }
+    public void setWriteMode(WriteMode writeMode) { this.writeMode = writeMode; }
+    public void setAuditMode(AuditMode auditMode) { this.auditMode = auditMode; }
+    public void setAuditStreamBatchSize(int auditStreamBatchSize) { this.auditStreamBatchSize = auditStreamBatchSize; }
+    public void setAuditStreamMaxWaitMs(int auditStreamMaxWaitMs) { this.auditStreamMaxWaitMs = auditStreamMaxWaitMs; }
+    public void setAuditStreamIdleSaveMs(int auditStreamIdleSaveMs) { this.auditStreamIdleSaveMs = auditStreamIdleSaveMs; }
+    public void setAuditSinkQueueCapacity(int auditSinkQueueCapacity) { this.auditSinkQueueCapacity = auditSinkQueueCapacity; }
+    public void setAuditSinkWriters(int auditSinkWriters) { this.auditSinkWriters = auditSinkWriters; }
+    public void setAuditSinkMaxBatch(int auditSinkMaxBatch) { this.auditSinkMaxBatch = auditSinkMaxBatch; }
+    public void setAuditSpoolDir(Path auditSpoolDir) { this.auditSpoolDir = auditSpoolDir; }
+    public void setAuditLayout(AuditLayout auditLayout) { this.auditLayout = auditLayout; }
+    public void setAuditBucketMaxEntries(int auditBucketMaxEntries) { this.auditBucketMaxEntries = auditBucketMaxEntries; }
+    public void setContentHashEnabled(boolean contentHashEnabled) { this.contentHashEnabled = contentHashEnabled; }
+    public void setUpdateNewerOnly(boolean updateNewerOnly) { this.updateNewerOnly = updateNewerOnly; }
+    public void setReferenceCacheEnabled(boolean referenceCacheEnabled) { this.referenceCacheEnabled = referenceCacheEnabled; }
+    public void setReferenceCacheMaxDebtors(int referenceCacheMaxDebtors) { this.referenceCacheMaxDebtors = referenceCacheMaxDebtors; }
+    public void setTransactionAttempts(int transactionAttempts) { this.transactionAttempts = transactionAttempts; }
+    public void setTransactionRetryBackoffMs(long transactionRetryBackoffMs) { this.transactionRetryBackoffMs = transactionRetryBackoffMs; }
+    public void setRejectDir(Path rejectDir) { this.rejectDir = rejectDir; }
+    public void setDaemonFileConcurrency(int daemonFileConcurrency) { this.daemonFileConcurrency = daemonFileConcurrency; }
+    public void setDaemonFileGlob(String daemonFileGlob) { this.daemonFileGlob = daemonFileGlob; }
+    public void setDaemonSettleMs(int daemonSettleMs) { this.daemonSettleMs = daemonSettleMs; }
+    public void setDaemonDoneDir(Path daemonDoneDir) { this.daemonDoneDir = daemonDoneDir; }
+    public void setDaemonFailedDir(Path daemonFailedDir) { this.daemonFailedDir = daemonFailedDir; }
+
+    public static Builder builder() { return new Builder(); }
+
+    public static class Builder {
+        private final ProcessorOptions o = new ProcessorOptions();
+
+        public Builder batchSize(int v) { o.batchSize = v; return this; }
+        public Builder adaptiveBatchSize(boolean v) { o.adaptiveBatchSize = v; return this; }
+        public Builder batchTargetLatencyMs(int v) { o.batchTargetLatencyMs = v; return this; }
+        public Builder batchMinSize(int v) { o.batchMinSize = v; return this; }
+        public Builder batchMaxSize(int v) { o.batchMaxSize = v; return this; }
+        public Builder readerMode(ReaderMode v) { o.readerMode = v; return this; }
+        public Builder readerParallelism(int v) { o.readerParallelism = v; return this; }
+        public Builder readerChunkSize(long v) { o.readerChunkSize = v; return this; }
+        public Builder strictParsing(boolean v) { o.strictParsing = v; return this; }
+        public Builder amountsAsMinorUnits(boolean v) { o.amountsAsMinorUnits = v; return this; }
+        public Builder lazyRecords(boolean v) { o.lazyRecords = v; return this; }
+        public Builder decompressBuffers(int v) { o.decompressBuffers = v; return this; }
+        public Builder decompressBufferSize(int v) { o.decompressBufferSize = v; return this; }
+        public Builder checkpointEnabled(boolean v) { o.checkpointEnabled = v; return this; }
+        public Builder checkpointDir(Path v) { o.checkpointDir = v; return this; }
+        public Builder resume(boolean v) { o.resume = v; return this; }
+        public Builder snapshotFile(Path v) { o.snapshotFile = v; return this; }
+        public Builder processingMode(ProcessingMode v) { o.processingMode = v; return this; }
+        public Builder pipelineLookupThreads(int v) { o.pipelineLookupThreads = v; return this; }
+        public Builder pipelineBuildThreads(int v) { o.pipelineBuildThreads = v; return this; }
+        public Builder pipelineWriteThreads(int v) { o.pipelineWriteThreads = v; return this; }
+        public Builder pipelineQueueCapacity(int v) { o.pipelineQueueCapacity = v; return this; }
+        public Builder concurrentBatches(int v) { o.concurrentBatches = v; return this; }
+        public Builder asyncMaxInFlight(int v) { o.asyncMaxInFlight = v; return this; }
+        public Builder shardRanges(String v) { o.shardRanges = v; return this; }
+        public Builder shardWriters(int v) { o.shardWriters = v; return this; }
+        public Builder shardQueueCapacity(int v) { o.shardQueueCapacity = v; return this; }
+        public Builder lookupMode(LookupMode v) { o.lookupMode = v; return this; }
+        public Builder lookupRangeBatches(int v) { o.lookupRangeBatches = v; return this; }
+        public Builder writeMode(WriteMode v) { o.writeMode = v; return this; }
+        public Builder auditMode(AuditMode v) { o.auditMode = v; return this; }
+        public Builder auditStreamBatchSize(int v) { o.auditStreamBatchSize = v; return this; }
+        public Builder auditStreamMaxWaitMs(int v) { o.auditStreamMaxWaitMs = v; return this; }
+        public Builder auditStreamIdleSaveMs(int v) { o.auditStreamIdleSaveMs = v; return this; }
+        public Builder auditSinkQueueCapacity(int v) { o.auditSinkQueueCapacity = v; return this; }
+        public Builder auditSinkWriters(int v) { o.auditSinkWriters = v; return this; }
+        public Builder auditSinkMaxBatch(int v) { o.auditSinkMaxBatch = v; return this; }
+        public Builder auditSpoolDir(Path v) { o.auditSpoolDir = v; return this; }
+        public Builder auditLayout(AuditLayout v) { o.auditLayout = v; return this; }
+        public Builder auditBucketMaxEntries(int v) { o.auditBucketMaxEntries = v; return this; }
+        public Builder contentHashEnabled(boolean v) { o.contentHashEnabled = v; return this; }
+        public Builder updateNewerOnly(boolean v) { o.updateNewerOnly = v; return this; }
+        public Builder referenceCacheEnabled(boolean v) { o.referenceCacheEnabled = v; return this; }
+        public Builder referenceCacheMaxDebtors(int v) { o.referenceCacheMaxDebtors = v; return this; }
+        public Builder transactionAttempts(int v) { o.transactionAttempts = v; return this; }
+        public Builder transactionRetryBackoffMs(long v) { o.transactionRetryBackoffMs = v; return this; }
+        public Builder rejectDir(Path v) { o.rejectDir = v; return this; }
+        public Builder daemonFileConcurrency(int v) { o.daemonFileConcurrency = v; return this; }
+        public Builder daemonFileGlob(String v) { o.daemonFileGlob = v; return this; }
+        public Builder daemonSettleMs(int v) { o.daemonSettleMs = v; return this; }
+        public Builder daemonDoneDir(Path v) { o.daemonDoneDir = v; return this; }
+        public Builder daemonFailedDir(Path v) { o.daemonFailedDir = v; return this; }
+
+        public ProcessorOptions build() { return o; }
+    }
+}
@@ -73,6 +73,17 @@ public class DirectDebitMandate {
     @BsonProperty("version")
     private Integer version;
 
+    // Hash of the business fields, see MandateContentHash
+    @BsonProperty("contentHash")
+    private Long contentHash;
+
+    // File and batch that last wrote the mandate, read by the change stream audit writer; only set with audit.mode=change-stream
+    @BsonProperty("sourceFile")
+    private String sourceFile;
+
+    @BsonProperty("batchId")
+    private String batchId;
+
     public DirectDebitMandate() {}
 
     // Getters
@@ -96,6 +107,9 @@ public class DirectDebitMandate {
     public String getSchemeType() { return schemeType; }
     public LocalDateTime getCreatedAt() { return createdAt; }
     public Integer getVersion() { return version; }
+    public Long getContentHash() { return contentHash; }
+    public String getSourceFile() { return sourceFile; }
+    public String getBatchId() { return batchId; }
 
     // Setters
     public void setId(ObjectId id) { this.id = id; }
@@ -118,6 +132,9 @@ public class DirectDebitMandate {
     public void setSchemeType(String schemeType) { this.schemeType = schemeType; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     public void setVersion(Integer version) { this.version = version; }
+    public void setContentHash(Long contentHash) { this.contentHash = contentHash; }
+    public void setSourceFile(String sourceFile) { this.sourceFile = sourceFile; }
+    public void setBatchId(String batchId) { this.batchId = batchId; }
 
     public static Builder builder() { return new Builder(); }
 
@@ -144,6 +161,9 @@ public class DirectDebitMandate {
         public Builder schemeType(String v) { m.schemeType = v; return this; }
         public Builder createdAt(LocalDateTime v) { m.createdAt = v; return this; }
         public Builder version(Integer v) { m.version = v; return this; }
+        public Builder contentHash(Long v) { m.contentHash = v; return this; }
+        public Builder sourceFile(String v) { m.sourceFile = v; return this; }
+        public Builder batchId(String v) { m.batchId = v; return this; }
 
         public DirectDebitMandate build() { return m; }
     }
@@ -0,0 +1,14 @@
+package com.mongodb.mandate.model;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * An in-place update of one stored mandate: the new value of each changed
+ * field, keyed by field name (a null value removes the field). It applies
+ * only while the mandate still has the previousUpdateDate it was compared
+ * against.
+ */
+public record MandateFieldUpdate(String mandateId, LocalDateTime previousUpdateDate,
+                                 LocalDateTime newUpdateDate, Map<String, Object> changedValues) {
+}
@@ -6,6 +6,9 @@ import java.time.LocalDateTime;
 
 public class MandateFileRecord {
 
+    // Marker for an amount that is not held as scaled minor units
+    public static final long NO_MINOR_UNITS = Long.MIN_VALUE;
+
     // Mandate fields
     private String mandateId;
     private LocalDateTime lastUpdateDate;
@@ -18,6 +21,9 @@ public class MandateFileRecord {
     private LocalDate expiryDate;
     private BigDecimal maxAmountPerTransaction;
     private BigDecimal maxAmountPerMonth;
+    // Two-decimal amounts may instead be held as hundredths, see getters
+    private long maxAmountPerTransactionMinorUnits = NO_MINOR_UNITS;
+    private long maxAmountPerMonthMinorUnits = NO_MINOR_UNITS;
     private Integer maxTransactionsPerMonth;
     private String currency;
     private String description;
@@ -40,6 +46,9 @@ public class MandateFileRecord {
     private String debtorEmail;
     private String debtorPhone;
 
+    // Hash of the raw file line; only set when a delta snapshot is in use
+    private long lineHash;
+
     public MandateFileRecord() {}
 
     // Getters
@@ -52,8 +61,10 @@ public class MandateFileRecord {
     public LocalDate getSignatureDate() { return signatureDate; }
     public LocalDate getEffectiveDate() { return effectiveDate; }
     public LocalDate getExpiryDate() { return expiryDate; }
-    public BigDecimal getMaxAmountPerTransaction() { return maxAmountPerTransaction; }
-    public BigDecimal getMaxAmountPerMonth() { return maxAmountPerMonth; }
+    public BigDecimal getMaxAmountPerTransaction() { return toBigDecimal(maxAmountPerTransaction, maxAmountPerTransactionMinorUnits); }
+    public BigDecimal getMaxAmountPerMonth() { return toBigDecimal(maxAmountPerMonth, maxAmountPerMonthMinorUnits); }
+    public long getMaxAmountPerTransactionMinorUnits() { return maxAmountPerTransactionMinorUnits; }
+    public long getMaxAmountPerMonthMinorUnits() { return maxAmountPerMonthMinorUnits; }
     public Integer getMaxTransactionsPerMonth() { return maxTransactionsPerMonth; }
     public String getCurrency() { return currency; }
     public String getDescription() { return description; }
@@ -71,6 +82,7 @@ public class MandateFileRecord {
     public String getDebtorBic() { return debtorBic; }
     public String getDebtorEmail() { return debtorEmail; }
     public String getDebtorPhone() { return debtorPhone; }
+    public long getLineHash() { return lineHash; }
 
     // Setters
     public void setMandateId(String mandateId) { this.mandateId = mandateId; }
@@ -82,8 +94,10 @@ public class MandateFileRecord {
     public void setSignatureDate(LocalDate signatureDate) { this.signatureDate = signatureDate; }
     public void setEffectiveDate(LocalDate effectiveDate) { this.effectiveDate = effectiveDate; }
     public void setExpiryDate(LocalDate expiryDate) { this.expiryDate = expiryDate; }
-    public void setMaxAmountPerTransaction(BigDecimal maxAmountPerTransaction) { this.maxAmountPerTransaction = maxAmountPerTransaction; }
-    public void setMaxAmountPerMonth(BigDecimal maxAmountPerMonth) { this.maxAmountPerMonth = maxAmountPerMonth; }
+    public void setMaxAmountPerTransaction(BigDecimal maxAmountPerTransaction) { this.maxAmountPerTransaction = maxAmountPerTransaction; this.maxAmountPerTransactionMinorUnits = NO_MINOR_UNITS; }
+    public void setMaxAmountPerMonth(BigDecimal maxAmountPerMonth) { this.maxAmountPerMonth = maxAmountPerMonth; this.maxAmountPerMonthMinorUnits = NO_MINOR_UNITS; }
+    public void setMaxAmountPerTransactionMinorUnits(long minorUnits) { this.maxAmountPerTransactionMinorUnits = minorUnits; this.maxAmountPerTransaction = null; }
+    public void setMaxAmountPerMonthMinorUnits(long minorUnits) { this.maxAmountPerMonthMinorUnits = minorUnits; this.maxAmountPerMonth = null; }
     public void setMaxTransactionsPerMonth(Integer maxTransactionsPerMonth) { this.maxTransactionsPerMonth = maxTransactionsPerMonth; }
     public void setCurrency(String currency) { this.currency = currency; }
     public void setDescription(String description) { this.description = description; }
@@ -101,10 +115,19 @@ public class MandateFileRecord {
     public void setDebtorBic(String debtorBic) { this.debtorBic = debtorBic; }
     public void setDebtorEmail(String debtorEmail) { this.debtorEmail = debtorEmail; }
     public void setDebtorPhone(String debtorPhone) { this.debtorPhone = debtorPhone; }
+    public void setLineHash(long lineHash) { this.lineHash = lineHash; }
+
+    // BigDecimal is only built when the amount is read
+    private static BigDecimal toBigDecimal(BigDecimal value, long minorUnits) {
+        if (minorUnits != NO_MINOR_UNITS) {
+            return BigDecimal.valueOf(minorUnits, 2);
+        }
+        return value;
+    }
 
     // Generate unique debtor ID from account details
     public String generateDebtorId() {
-        return "DBT-" + debtorSortCode.replace("-", "") + "-" + debtorAccountNumber;
+        return "DBT-" + getDebtorSortCode().replace("-", "") + "-" + getDebtorAccountNumber();
     }
 
     public static Builder builder() { return new Builder(); }
@@ -123,6 +146,8 @@ public class MandateFileRecord {
         public Builder expiryDate(LocalDate v) { r.expiryDate = v; return this; }
         public Builder maxAmountPerTransaction(BigDecimal v) { r.maxAmountPerTransaction = v; return this; }
         public Builder maxAmountPerMonth(BigDecimal v) { r.maxAmountPerMonth = v; return this; }
+        public Builder maxAmountPerTransactionMinorUnits(long v) { r.maxAmountPerTransactionMinorUnits = v; return this; }
+        public Builder maxAmountPerMonthMinorUnits(long v) { r.maxAmountPerMonthMinorUnits = v; return this; }
         public Builder maxTransactionsPerMonth(Integer v) { r.maxTransactionsPerMonth = v; return this; }
         public Builder currency(String v) { r.currency = v; return this; }
         public Builder description(String v) { r.description = v; return this; }
@@ -140,6 +165,7 @@ public class MandateFileRecord {
         public Builder debtorBic(String v) { r.debtorBic = v; return this; }
         public Builder debtorEmail(String v) { r.debtorEmail = v; return this; }
         public Builder debtorPhone(String v) { r.debtorPhone = v; return this; }
+        public Builder lineHash(long v) { r.lineHash = v; return this; }
 
         public MandateFileRecord build() { return r; }
     }
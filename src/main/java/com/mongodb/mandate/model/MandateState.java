@@ -0,0 +1,11 @@
+package com.mongodb.mandate.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * What the lookup index knows about a stored mandate: its lastUpdateDate
+ * and, when content hashing is enabled, the hash of its business fields
+ * (null for mandates written without one).
+ */
+public record MandateState(LocalDateTime lastUpdateDate, Long contentHash) {
+}
@@ -0,0 +1,268 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.*;
+import com.mongodb.mandate.model.*;
+import com.mongodb.reactivestreams.client.*;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The batch operations of {@link MandateRepository} on the Reactive Streams
+ * driver. Each call returns at once with a future that completes on a
+ * driver thread when the server replies, so no thread waits out a round
+ * trip. At most maxInFlight requests are outstanding; later ones queue
+ * without blocking the caller.
+ *
+ * Indexes are created by the {@link MandateRepository} opened alongside.
+ */
+public class AsyncMandateRepository implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncMandateRepository.class);
+
+    private final MongoClient mongoClient;
+    private final MongoCollection<DirectDebitMandate> mandateCollection;
+    private final MongoCollection<MandateAudit> auditCollection;
+    private final MongoCollection<BsonDocument> auditBucketCollection;
+    private final MongoCollection<Creditor> creditorCollection;
+    private final MongoCollection<Debtor> debtorCollection;
+    // Lookup rows decoded without a full mandate; null with the POJO codec
+    private final MongoCollection<MandateStateRow> stateCollection;
+    private final InFlightWindow window;
+
+    private volatile boolean contentHashLookups;
+    private volatile int auditBucketEntries;
+
+    public AsyncMandateRepository(String connectionString, String databaseName, CodecMode codecMode,
+                                  int maxInFlight) {
+        this.mongoClient = MongoClients.create(connectionString);
+        MongoDatabase database = mongoClient.getDatabase(databaseName)
+                .withCodecRegistry(MandateRepository.codecRegistry(codecMode));
+        this.mandateCollection = database.getCollection("mandates", DirectDebitMandate.class);
+        this.auditCollection = database.getCollection("mandate_audits", MandateAudit.class);
+        this.auditBucketCollection = database.getCollection(AuditBuckets.COLLECTION, BsonDocument.class);
+        this.creditorCollection = database.getCollection("creditors", Creditor.class);
+        this.debtorCollection = database.getCollection("debtors", Debtor.class);
+        this.stateCollection = codecMode == CodecMode.EXPLICIT
+                ? database.getCollection("mandates", MandateStateRow.class)
+                : null;
+        this.window = new InFlightWindow(maxInFlight);
+
+        logger.info("Async repository: at most {} requests in flight", maxInFlight);
+    }
+
+    // Lookups also return contentHash; the index comes from MandateRepository.enableContentHashLookups
+    public void enableContentHashLookups() {
+        contentHashLookups = true;
+    }
+
+    // Audits are written as buckets; the indexes come from MandateRepository.enableAuditBuckets
+    public void enableAuditBuckets(int maxEntries) {
+        auditBucketEntries = maxEntries;
+    }
+
+    public CompletableFuture<Map<String, MandateState>> batchGetMandateStates(List<String> mandateIds) {
+        Map<String, MandateState> result = new HashMap<>();
+        if (mandateIds.isEmpty()) return CompletableFuture.completedFuture(result);
+
+        Bson filter = Filters.in("mandateId", mandateIds);
+        Bson projection = MandateRepository.lookupProjection(contentHashLookups);
+        return window.submit(() -> stateCollection != null
+                ? Publishers.forEach(stateCollection.find(filter).projection(projection),
+                        row -> result.put(row.mandateId(), row.state()))
+                : Publishers.forEach(mandateCollection.find(filter).projection(projection),
+                        mandate -> result.put(mandate.getMandateId(), MandateRepository.stateOf(mandate))))
+                .thenApply(v -> result);
+    }
+
+    public CompletableFuture<Map<String, DirectDebitMandate>> batchGetMandates(List<String> mandateIds) {
+        Map<String, DirectDebitMandate> result = new HashMap<>();
+        if (mandateIds.isEmpty()) return CompletableFuture.completedFuture(result);
+
+        return window.submit(() -> Publishers.forEach(mandateCollection.find(Filters.in("mandateId", mandateIds)),
+                        mandate -> result.put(mandate.getMandateId(), mandate)))
+                .thenApply(v -> result);
+    }
+
+    public CompletableFuture<Set<String>> getExistingCreditorIds(Set<String> creditorIds) {
+        Set<String> existing = new HashSet<>();
+        if (creditorIds.isEmpty()) return CompletableFuture.completedFuture(existing);
+
+        return window.submit(() -> Publishers.forEach(creditorCollection.find(Filters.in("creditorId", creditorIds))
+                                .projection(Projections.include("creditorId")),
+                        c -> existing.add(c.getCreditorId())))
+                .thenApply(v -> existing);
+    }
+
+    public CompletableFuture<Set<String>> getExistingDebtorIds(Set<String> debtorIds) {
+        Set<String> existing = new HashSet<>();
+        if (debtorIds.isEmpty()) return CompletableFuture.completedFuture(existing);
+
+        return window.submit(() -> Publishers.forEach(debtorCollection.find(Filters.in("debtorId", debtorIds))
+                                .projection(Projections.include("debtorId")),
+                        d -> existing.add(d.getDebtorId())))
+                .thenApply(v -> existing);
+    }
+
+    // A session with a transaction started; the caller commits or aborts it and closes it
+    public CompletableFuture<ClientSession> startTransaction() {
+        return Publishers.last(mongoClient.startSession())
+                .thenApply(session -> {
+                    session.startTransaction();
+                    return session;
+                });
+    }
+
+    public CompletableFuture<Void> commitTransaction(ClientSession session) {
+        return window.submit(() -> Publishers.last(session.commitTransaction()));
+    }
+
+    public CompletableFuture<Void> abortTransaction(ClientSession session) {
+        return window.submit(() -> Publishers.last(session.abortTransaction()));
+    }
+
+    public CompletableFuture<Void> batchInsertCreditors(ClientSession session, List<Creditor> creditors) {
+        return insertMany(creditorCollection, session, creditors);
+    }
+
+    public CompletableFuture<Void> batchInsertDebtors(ClientSession session, List<Debtor> debtors) {
+        return insertMany(debtorCollection, session, debtors);
+    }
+
+    public CompletableFuture<Void> batchInsertMandates(ClientSession session, List<DirectDebitMandate> mandates) {
+        return insertMany(mandateCollection, session, mandates);
+    }
+
+    public CompletableFuture<Void> batchInsertAudits(ClientSession session, List<MandateAudit> audits) {
+        return auditBucketEntries > 0
+                ? insertMany(auditBucketCollection, session, buckets(audits))
+                : insertMany(auditCollection, session, audits);
+    }
+
+    // Without a session (for updates)
+    public CompletableFuture<Void> batchInsertAudits(List<MandateAudit> audits) {
+        return batchInsertAudits(null, audits);
+    }
+
+    private List<BsonDocument> buckets(List<MandateAudit> audits) {
+        return AuditBuckets.of(audits, auditCollection.getCodecRegistry().get(MandateAudit.class), auditBucketEntries);
+    }
+
+    private <T> CompletableFuture<Void> insertMany(MongoCollection<T> collection, ClientSession session,
+                                                   List<T> documents) {
+        if (documents.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        InsertManyOptions options = new InsertManyOptions().ordered(false);
+        return window.submit(() -> Publishers.last(session != null
+                        ? collection.insertMany(session, documents, options)
+                        : collection.insertMany(documents, options)))
+                .thenApply(result -> null);
+    }
+
+    // Same as MandateRepository.batchUpdateMandateFields
+    public CompletableFuture<Set<String>> batchUpdateMandateFields(List<MandateFieldUpdate> mandateUpdates) {
+        if (mandateUpdates.isEmpty()) return CompletableFuture.completedFuture(Collections.emptySet());
+
+        return window.submit(() -> Publishers.last(mandateCollection.bulkWrite(
+                        MandateRepository.fieldUpdateModels(mandateUpdates), new BulkWriteOptions().ordered(false))))
+                .thenCompose(result -> result.getMatchedCount() == mandateUpdates.size()
+                        ? CompletableFuture.completedFuture(Collections.<String>emptySet())
+                        : batchGetMandateStates(mandateUpdates.stream()
+                                .map(MandateFieldUpdate::mandateId)
+                                .toList())
+                                .thenApply(states -> MandateRepository.unapplied(mandateUpdates, states)));
+    }
+
+    // Same as MandateRepository.mergeMandates
+    public CompletableFuture<MergeResult> mergeMandates(List<DirectDebitMandate> mandates, String mergeId) {
+        MandateMerge merge = new MandateMerge(mandates, mergeId, mandateCollection.getCodecRegistry()
+                .get(DirectDebitMandate.class));
+        if (merge.models().isEmpty()) return CompletableFuture.completedFuture(merge.notSent());
+
+        return window.submit(() -> Publishers.last(mandateCollection.bulkWrite(merge.models(),
+                        new BulkWriteOptions().ordered(false))))
+                .handle((result, error) -> {
+                    if (error == null) {
+                        merge.written(result, Collections.emptyList());
+                        return null;
+                    }
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (!(cause instanceof MongoBulkWriteException e)) {
+                        throw error instanceof CompletionException c ? c : new CompletionException(error);
+                    }
+                    merge.written(e.getWriteResult(), e.getWriteErrors());
+                    return null;
+                })
+                .thenCompose(v -> {
+                    List<String> unresolved = merge.unresolvedIds();
+                    Set<String> replaced = ConcurrentHashMap.newKeySet();
+                    if (unresolved.isEmpty()) return CompletableFuture.completedFuture(merge.result(replaced));
+
+                    return window.submit(() -> Publishers.forEach(mandateCollection.find(Filters.and(
+                                            Filters.in("mandateId", unresolved),
+                                            Filters.eq(MandateMerge.MERGE_ID, mergeId)))
+                                    .projection(Projections.include("mandateId")),
+                            m -> replaced.add(m.getMandateId())))
+                            .thenApply(x -> merge.result(replaced));
+                })
+                .thenCompose(result -> removeStamp(merge.writtenIds(result), mergeId).thenApply(x -> result));
+    }
+
+    // As in MandateRepository.mergeMandates, a failure here leaves the stamp and keeps the result
+    private CompletableFuture<Void> removeStamp(List<String> written, String mergeId) {
+        if (written.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        return window.submit(() -> Publishers.last(mandateCollection.updateMany(
+                        MandateMerge.stamped(written, mergeId), MandateMerge.removeStamp())))
+                .handle((result, error) -> {
+                    if (error != null) {
+                        logger.warn("Could not remove the merge stamp from {} mandates: {}", written.size(),
+                                error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    public CompletableFuture<Integer> insertMissingCreditors(List<Creditor> creditors) {
+        return insertMissing(creditorCollection, creditors);
+    }
+
+    public CompletableFuture<Integer> insertMissingDebtors(List<Debtor> debtors) {
+        return insertMissing(debtorCollection, debtors);
+    }
+
+    private <T> CompletableFuture<Integer> insertMissing(MongoCollection<T> collection, List<T> documents) {
+        if (documents.isEmpty()) return CompletableFuture.completedFuture(0);
+
+        return window.submit(() -> Publishers.last(collection.insertMany(documents,
+                        new InsertManyOptions().ordered(false))))
+                .handle((result, error) -> {
+                    if (error == null) {
+                        return result.getInsertedIds().size();
+                    }
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof MongoBulkWriteException e && MandateRepository.onlyDuplicateKeys(e.getWriteErrors())) {
+                        return e.getWriteResult().getInsertedCount();
+                    }
+                    throw error instanceof CompletionException c ? c : new CompletionException(error);
+                });
+    }
+
+    public String describeWindow() {
+        return window.describe();
+    }
+
+    @Override
+    public void close() {
+        mongoClient.close();
+        logger.info("Async MongoDB connection closed");
+    }
+}
@@ -0,0 +1,109 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.mandate.model.MandateAudit;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bucketed audit layout: the audits of one write that share a batchId,
+ * change type, source file and processedBy become one document in
+ * mandate_audit_buckets, with those fields stored once and one compact
+ * entry per mandate:
+ *
+ * <pre>
+ * { _id, batchId, changeType, sourceFile, processedBy, changeTimestamp, count,
+ *   entries: [ { mandateId, previousUpdateDate, newUpdateDate, fieldChanges }, ... ] }
+ * </pre>
+ *
+ * An entry keeps its own changeTimestamp only when it differs from the
+ * bucket's. Entries are encoded with the collection's audit codec, so they
+ * have the same field names and types as audit documents, and a bucket
+ * unwinds back into them.
+ */
+final class AuditBuckets {
+
+    static final String COLLECTION = "mandate_audit_buckets";
+
+    // Fields every audit in a bucket has in common, kept once on the bucket
+    private static final List<String> SHARED = List.of("batchId", "changeType", "sourceFile", "processedBy");
+
+    private AuditBuckets() {}
+
+    static List<BsonDocument> of(List<MandateAudit> audits, Codec<MandateAudit> codec, int maxEntries) {
+        Map<List<BsonValue>, List<BsonDocument>> groups = new LinkedHashMap<>();
+        for (MandateAudit audit : audits) {
+            BsonDocument entry = new BsonDocument();
+            codec.encode(new BsonDocumentWriter(entry), audit, EncoderContext.builder().build());
+            entry.remove("_id");
+
+            List<BsonValue> key = new ArrayList<>(SHARED.size());
+            for (String field : SHARED) {
+                key.add(entry.remove(field));
+            }
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+
+        List<BsonDocument> buckets = new ArrayList<>();
+        groups.forEach((key, entries) -> {
+            for (int from = 0; from < entries.size(); from += maxEntries) {
+                buckets.add(bucket(key, entries.subList(from, Math.min(entries.size(), from + maxEntries))));
+            }
+        });
+        return buckets;
+    }
+
+    private static BsonDocument bucket(List<BsonValue> key, List<BsonDocument> entries) {
+        BsonDocument bucket = new BsonDocument("_id", new BsonObjectId());
+        for (int i = 0; i < SHARED.size(); i++) {
+            if (key.get(i) != null) {
+                bucket.append(SHARED.get(i), key.get(i));
+            }
+        }
+
+        BsonValue timestamp = entries.get(0).get("changeTimestamp");
+        if (timestamp != null) {
+            bucket.append("changeTimestamp", timestamp);
+        }
+        BsonArray array = new BsonArray(entries.size());
+        for (BsonDocument entry : entries) {
+            if (timestamp != null && timestamp.equals(entry.get("changeTimestamp"))) {
+                entry.remove("changeTimestamp");
+            }
+            array.add(entry);
+        }
+        return bucket.append("count", new BsonInt32(entries.size()))
+                .append("entries", array);
+    }
+
+    // The mandate's entries as audit documents, oldest first; _id is the bucket's
+    static List<Bson> byMandate(String mandateId) {
+        Document shared = new Document("_id", "$_id");
+        for (String field : SHARED) {
+            shared.append(field, "$" + field);
+        }
+        shared.append("changeTimestamp", "$changeTimestamp");
+
+        return List.of(
+                Aggregates.match(Filters.eq("entries.mandateId", mandateId)),
+                Aggregates.unwind("$entries"),
+                Aggregates.match(Filters.eq("entries.mandateId", mandateId)),
+                Aggregates.replaceRoot(new Document("$mergeObjects", List.of(shared, "$entries"))),
+                Aggregates.sort(Sorts.ascending("changeTimestamp")));
+    }
+}
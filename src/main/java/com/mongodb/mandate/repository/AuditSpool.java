@@ -0,0 +1,242 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.MandateAudit;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A local append-only file of audits waiting to be written to MongoDB. Each
+ * audit is stored as the BSON document it would be in mandate_audits, _id
+ * included, so writing one again after a failure that may have stored it is
+ * a duplicate key rather than a second audit.
+ *
+ * The first 8 bytes hold the offset of the first audit not known to be
+ * written; the file is cut back to that header once every audit in it has
+ * been, and removed when it is closed empty.
+ * Appends are forced to disk before they return. A partial audit left at
+ * the end by a crash is dropped when the file is next opened, and the file
+ * is locked so only one process uses it at a time.
+ */
+public class AuditSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSpool.class);
+
+    public static final String FILE_NAME = "mandate_audits.spool";
+
+    private static final int HEADER_BYTES = Long.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MandateAuditCodec codec = new MandateAuditCodec(new FieldChangeCodec());
+
+    // Guarded by this
+    private long readOffset;
+    private long pendingAudits;
+
+    // Audits read by the drainer, and the offset just past them
+    public record Chunk(List<MandateAudit> audits, long endOffset) {}
+
+    // Where an append, or what is left from an earlier run, is in the file
+    public record Extent(long startOffset, long endOffset) {}
+
+    public AuditSpool(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.path = directory.resolve(FILE_NAME);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.lock = lock(channel, path);
+
+        if (channel.size() < HEADER_BYTES) {
+            channel.truncate(0);
+            writeHeader(HEADER_BYTES);
+        }
+        readOffset = readLong(0);
+        if (readOffset < HEADER_BYTES || readOffset > channel.size()) {
+            lock.release();
+            channel.close();
+            throw new IOException("Audit spool " + path + " has an invalid header");
+        }
+        recover();
+    }
+
+    private static FileLock lock(FileChannel channel, Path path) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Audit spool " + path + " is already in use");
+        }
+        return lock;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Counts what is left from an earlier run and drops a partial audit at the end
+    private void recover() throws IOException {
+        long size = channel.size();
+        long offset = readOffset;
+        while (offset + Integer.BYTES <= size) {
+            int length = readInt(offset);
+            if (length < 5 || offset + length > size) {
+                break;
+            }
+            pendingAudits++;
+            offset += length;
+        }
+        if (offset < size) {
+            logger.warn("Audit spool {}: dropping {} bytes of a partial audit at the end", path, size - offset);
+            channel.truncate(offset);
+            channel.force(true);
+        }
+        if (pendingAudits > 0) {
+            logger.info("Audit spool {}: {} audits left from an earlier run", path, pendingAudits);
+        }
+    }
+
+    // The audits are on disk when this returns
+    public synchronized Extent append(List<MandateAudit> audits) {
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        for (MandateAudit audit : audits) {
+            codec.encode(new BsonBinaryWriter(buffer), audit, EncoderContext.builder()
+                    .isEncodingCollectibleDocument(true)
+                    .build());
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.getInternalBuffer(), 0, buffer.getPosition());
+            long start = channel.size();
+            long position = start;
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            channel.force(false);
+            pendingAudits += audits.size();
+            return new Extent(start, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to audit spool " + path, e);
+        }
+    }
+
+    // The audits not yet written, from the header to the end of the file
+    public synchronized Extent pending() {
+        try {
+            return new Extent(readOffset, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read audit spool " + path, e);
+        }
+    }
+
+    // Up to maxAudits from fromOffset, stopping at toOffset
+    public synchronized Chunk read(long fromOffset, long toOffset, int maxAudits) {
+        List<MandateAudit> audits = new ArrayList<>();
+        long offset = fromOffset;
+        try {
+            while (audits.size() < maxAudits && offset + Integer.BYTES <= toOffset) {
+                int length = readInt(offset);
+                ByteBuffer document = readFully(ByteBuffer.allocate(length), offset);
+                try (BsonBinaryReader reader = new BsonBinaryReader(document)) {
+                    audits.add(codec.decode(reader, DecoderContext.builder().build()));
+                }
+                offset += length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read audit spool " + path, e);
+        }
+        return new Chunk(audits, offset);
+    }
+
+    // The count audits before endOffset are in MongoDB
+    public synchronized void written(long endOffset, long count) {
+        try {
+            pendingAudits -= count;
+            if (endOffset == channel.size()) {
+                channel.truncate(HEADER_BYTES);
+                writeHeader(HEADER_BYTES);
+            } else {
+                writeHeader(endOffset);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not update audit spool " + path, e);
+        }
+    }
+
+    public synchronized long getPendingAudits() {
+        return pendingAudits;
+    }
+
+    public synchronized long getPendingBytes() {
+        try {
+            return channel.size() - readOffset;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void writeHeader(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putLong(0, offset);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+        readOffset = offset;
+    }
+
+    private long readLong(long position) throws IOException {
+        return readFully(ByteBuffer.allocate(Long.BYTES), position).getLong();
+    }
+
+    // BSON documents start with their length, little-endian
+    private int readInt(long position) throws IOException {
+        return readFully(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN), position).getInt();
+    }
+
+    private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Audit spool " + path + " ends inside an audit");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // An empty spool is removed
+    @Override
+    public synchronized void close() {
+        try {
+            lock.release();
+            channel.close();
+            if (pendingAudits == 0) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not close audit spool {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import com.mongodb.mandate.model.MandateAudit;
+import org.bson.BsonDocument;
+
+import java.util.List;
+
+/**
+ * The mandates change stream and the resume token saved with its audits,
+ * as tailed by the --audit-stream writer. {@link MandateRepository} keeps
+ * them in MongoDB.
+ */
+public interface AuditStream {
+
+    // Pre- and post-images for mandates, so an update's event carries both
+    void enableChangeStreamImages();
+
+    // Audits are written as buckets of at most maxEntries
+    void enableAuditBuckets(int maxEntries);
+
+    // Mandate inserts, updates and replacements after resumeToken, or from now when it is null
+    MongoChangeStreamCursor<ChangeStreamDocument<DirectDebitMandate>> watchMandates(
+            BsonDocument resumeToken, int batchSize, long maxAwaitMs);
+
+    // The last token saved, or null before the first
+    BsonDocument getAuditResumeToken();
+
+    // The audits and the token of the last event they came from, together
+    void insertStreamAudits(List<MandateAudit> audits, BsonDocument resumeToken);
+
+    // A token past which there is nothing to audit, saved on its own
+    void saveAuditResumeToken(BsonDocument resumeToken);
+}
@@ -0,0 +1,106 @@
+package com.mongodb.mandate.repository;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Field-level helpers for the explicit codecs. Values are stored exactly as
+ * the driver's default codecs store them (dates as UTC date-times, amounts
+ * as Decimal128) so both codec modes read each other's documents. Null
+ * fields are left out, as PojoCodecProvider does; readers return null for
+ * BSON null.
+ */
+final class BsonFields {
+
+    private BsonFields() {}
+
+    static void writeObjectId(BsonWriter writer, String name, ObjectId value) {
+        if (value != null) writer.writeObjectId(name, value);
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) writer.writeString(name, value);
+    }
+
+    static void writeDateTime(BsonWriter writer, String name, LocalDateTime value) {
+        if (value != null) writer.writeDateTime(name, value.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    static void writeDate(BsonWriter writer, String name, LocalDate value) {
+        if (value != null) writer.writeDateTime(name, value.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+    }
+
+    static void writeDecimal(BsonWriter writer, String name, BigDecimal value) {
+        if (value != null) writer.writeDecimal128(name, new Decimal128(value));
+    }
+
+    static void writeInt32(BsonWriter writer, String name, Integer value) {
+        if (value != null) writer.writeInt32(name, value);
+    }
+
+    static void writeInt64(BsonWriter writer, String name, Long value) {
+        if (value != null) writer.writeInt64(name, value);
+    }
+
+    static ObjectId readObjectId(BsonReader reader) {
+        return readNull(reader) ? null : reader.readObjectId();
+    }
+
+    static String readString(BsonReader reader) {
+        return readNull(reader) ? null : reader.readString();
+    }
+
+    static LocalDateTime readDateTime(BsonReader reader) {
+        return readNull(reader) ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(reader.readDateTime()), ZoneOffset.UTC);
+    }
+
+    static LocalDate readDate(BsonReader reader) {
+        return readNull(reader) ? null
+                : LocalDate.ofInstant(Instant.ofEpochMilli(reader.readDateTime()), ZoneOffset.UTC);
+    }
+
+    static BigDecimal readDecimal(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case NULL -> { reader.readNull(); yield null; }
+            case INT32 -> BigDecimal.valueOf(reader.readInt32());
+            case INT64 -> BigDecimal.valueOf(reader.readInt64());
+            case DOUBLE -> BigDecimal.valueOf(reader.readDouble());
+            default -> reader.readDecimal128().bigDecimalValue();
+        };
+    }
+
+    static Integer readInt32(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case NULL -> { reader.readNull(); yield null; }
+            case INT64 -> Math.toIntExact(reader.readInt64());
+            case DOUBLE -> (int) reader.readDouble();
+            default -> reader.readInt32();
+        };
+    }
+
+    static Long readInt64(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case NULL -> { reader.readNull(); yield null; }
+            case INT32 -> (long) reader.readInt32();
+            default -> reader.readInt64();
+        };
+    }
+
+    private static boolean readNull(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return true;
+        }
+        return false;
+    }
+}
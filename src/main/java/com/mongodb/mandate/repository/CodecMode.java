@@ -0,0 +1,14 @@
+package com.mongodb.mandate.repository;
+
+public enum CodecMode {
+
+    // PojoCodecProvider in automatic mode: reflective property access
+    POJO,
+
+    // Hand-written codecs writing each field in a fixed order
+    EXPLICIT;
+
+    public static CodecMode fromString(String value) {
+        return CodecMode.valueOf(value.trim().toUpperCase());
+    }
+}
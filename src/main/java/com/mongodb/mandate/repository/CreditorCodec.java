@@ -0,0 +1,63 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.Creditor;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+final class CreditorCodec implements Codec<Creditor> {
+
+    @Override
+    public void encode(BsonWriter writer, Creditor c, EncoderContext encoderContext) {
+        if (c.getId() == null && encoderContext.isEncodingCollectibleDocument()) {
+            c.setId(new ObjectId());
+        }
+
+        writer.writeStartDocument();
+        writeObjectId(writer, "_id", c.getId());
+        writeString(writer, "creditorId", c.getCreditorId());
+        writeString(writer, "creditorName", c.getCreditorName());
+        writeString(writer, "accountNumber", c.getAccountNumber());
+        writeString(writer, "sortCode", c.getSortCode());
+        writeString(writer, "iban", c.getIban());
+        writeString(writer, "bic", c.getBic());
+        writeDateTime(writer, "createdAt", c.getCreatedAt());
+        writeDateTime(writer, "updatedAt", c.getUpdatedAt());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Creditor decode(BsonReader reader, DecoderContext decoderContext) {
+        Creditor c = new Creditor();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> c.setId(readObjectId(reader));
+                case "creditorId" -> c.setCreditorId(readString(reader));
+                case "creditorName" -> c.setCreditorName(readString(reader));
+                case "accountNumber" -> c.setAccountNumber(readString(reader));
+                case "sortCode" -> c.setSortCode(readString(reader));
+                case "iban" -> c.setIban(readString(reader));
+                case "bic" -> c.setBic(readString(reader));
+                case "createdAt" -> c.setCreatedAt(readDateTime(reader));
+                case "updatedAt" -> c.setUpdatedAt(readDateTime(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return c;
+    }
+
+    @Override
+    public Class<Creditor> getEncoderClass() {
+        return Creditor.class;
+    }
+}
@@ -0,0 +1,67 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.Debtor;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+final class DebtorCodec implements Codec<Debtor> {
+
+    @Override
+    public void encode(BsonWriter writer, Debtor d, EncoderContext encoderContext) {
+        if (d.getId() == null && encoderContext.isEncodingCollectibleDocument()) {
+            d.setId(new ObjectId());
+        }
+
+        writer.writeStartDocument();
+        writeObjectId(writer, "_id", d.getId());
+        writeString(writer, "debtorId", d.getDebtorId());
+        writeString(writer, "name", d.getName());
+        writeString(writer, "accountNumber", d.getAccountNumber());
+        writeString(writer, "sortCode", d.getSortCode());
+        writeString(writer, "iban", d.getIban());
+        writeString(writer, "bic", d.getBic());
+        writeString(writer, "email", d.getEmail());
+        writeString(writer, "phone", d.getPhone());
+        writeDateTime(writer, "createdAt", d.getCreatedAt());
+        writeDateTime(writer, "updatedAt", d.getUpdatedAt());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Debtor decode(BsonReader reader, DecoderContext decoderContext) {
+        Debtor d = new Debtor();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> d.setId(readObjectId(reader));
+                case "debtorId" -> d.setDebtorId(readString(reader));
+                case "name" -> d.setName(readString(reader));
+                case "accountNumber" -> d.setAccountNumber(readString(reader));
+                case "sortCode" -> d.setSortCode(readString(reader));
+                case "iban" -> d.setIban(readString(reader));
+                case "bic" -> d.setBic(readString(reader));
+                case "email" -> d.setEmail(readString(reader));
+                case "phone" -> d.setPhone(readString(reader));
+                case "createdAt" -> d.setCreatedAt(readDateTime(reader));
+                case "updatedAt" -> d.setUpdatedAt(readDateTime(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return d;
+    }
+
+    @Override
+    public Class<Debtor> getEncoderClass() {
+        return Debtor.class;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.DirectDebitMandate;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+/**
+ * Writes mandates in declaration order, mandateId and lastUpdateDate first
+ * (the POJO codec orders properties alphabetically). Like the POJO codec,
+ * an insert without an id gets a new ObjectId, which is also set on the
+ * mandate.
+ */
+final class DirectDebitMandateCodec implements Codec<DirectDebitMandate> {
+
+    @Override
+    public void encode(BsonWriter writer, DirectDebitMandate m, EncoderContext encoderContext) {
+        if (m.getId() == null && encoderContext.isEncodingCollectibleDocument()) {
+            m.setId(new ObjectId());
+        }
+
+        writer.writeStartDocument();
+        writeObjectId(writer, "_id", m.getId());
+        writeString(writer, "mandateId", m.getMandateId());
+        writeDateTime(writer, "lastUpdateDate", m.getLastUpdateDate());
+        writeString(writer, "creditorId", m.getCreditorId());
+        writeString(writer, "debtorId", m.getDebtorId());
+        writeString(writer, "mandateReference", m.getMandateReference());
+        writeString(writer, "mandateType", m.getMandateType());
+        writeString(writer, "frequency", m.getFrequency());
+        writeString(writer, "status", m.getStatus());
+        writeDate(writer, "signatureDate", m.getSignatureDate());
+        writeDate(writer, "effectiveDate", m.getEffectiveDate());
+        writeDate(writer, "expiryDate", m.getExpiryDate());
+        writeDecimal(writer, "maxAmountPerTransaction", m.getMaxAmountPerTransaction());
+        writeDecimal(writer, "maxAmountPerMonth", m.getMaxAmountPerMonth());
+        writeInt32(writer, "maxTransactionsPerMonth", m.getMaxTransactionsPerMonth());
+        writeString(writer, "currency", m.getCurrency());
+        writeString(writer, "description", m.getDescription());
+        writeString(writer, "schemeType", m.getSchemeType());
+        writeDateTime(writer, "createdAt", m.getCreatedAt());
+        writeInt32(writer, "version", m.getVersion());
+        writeInt64(writer, "contentHash", m.getContentHash());
+        writeString(writer, "sourceFile", m.getSourceFile());
+        writeString(writer, "batchId", m.getBatchId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public DirectDebitMandate decode(BsonReader reader, DecoderContext decoderContext) {
+        DirectDebitMandate m = new DirectDebitMandate();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> m.setId(readObjectId(reader));
+                case "mandateId" -> m.setMandateId(readString(reader));
+                case "lastUpdateDate" -> m.setLastUpdateDate(readDateTime(reader));
+                case "creditorId" -> m.setCreditorId(readString(reader));
+                case "debtorId" -> m.setDebtorId(readString(reader));
+                case "mandateReference" -> m.setMandateReference(readString(reader));
+                case "mandateType" -> m.setMandateType(readString(reader));
+                case "frequency" -> m.setFrequency(readString(reader));
+                case "status" -> m.setStatus(readString(reader));
+                case "signatureDate" -> m.setSignatureDate(readDate(reader));
+                case "effectiveDate" -> m.setEffectiveDate(readDate(reader));
+                case "expiryDate" -> m.setExpiryDate(readDate(reader));
+                case "maxAmountPerTransaction" -> m.setMaxAmountPerTransaction(readDecimal(reader));
+                case "maxAmountPerMonth" -> m.setMaxAmountPerMonth(readDecimal(reader));
+                case "maxTransactionsPerMonth" -> m.setMaxTransactionsPerMonth(readInt32(reader));
+                case "currency" -> m.setCurrency(readString(reader));
+                case "description" -> m.setDescription(readString(reader));
+                case "schemeType" -> m.setSchemeType(readString(reader));
+                case "createdAt" -> m.setCreatedAt(readDateTime(reader));
+                case "version" -> m.setVersion(readInt32(reader));
+                case "contentHash" -> m.setContentHash(readInt64(reader));
+                case "sourceFile" -> m.setSourceFile(readString(reader));
+                case "batchId" -> m.setBatchId(readString(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return m;
+    }
+
+    @Override
+    public Class<DirectDebitMandate> getEncoderClass() {
+        return DirectDebitMandate.class;
+    }
+}
@@ -0,0 +1,46 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.FieldChange;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+final class FieldChangeCodec implements Codec<FieldChange> {
+
+    @Override
+    public void encode(BsonWriter writer, FieldChange change, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "fieldName", change.getFieldName());
+        writeString(writer, "oldValue", change.getOldValue());
+        writeString(writer, "newValue", change.getNewValue());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public FieldChange decode(BsonReader reader, DecoderContext decoderContext) {
+        FieldChange change = new FieldChange();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "fieldName" -> change.setFieldName(readString(reader));
+                case "oldValue" -> change.setOldValue(readString(reader));
+                case "newValue" -> change.setNewValue(readString(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return change;
+    }
+
+    @Override
+    public Class<FieldChange> getEncoderClass() {
+        return FieldChange.class;
+    }
+}
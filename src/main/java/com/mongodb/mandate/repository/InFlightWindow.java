@@ -0,0 +1,102 @@
+package com.mongodb.mandate.repository;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of requests outstanding at once without blocking the
+ * caller. A request over the limit is queued and sent by whichever
+ * earlier request completes first, in submission order.
+ *
+ * One thread at a time sends queued requests, in a loop. A request that
+ * completes while it is being sent frees its slot for that same loop, so
+ * a long queue of quick requests never nests one completion inside
+ * another on the stack.
+ */
+final class InFlightWindow {
+
+    private final int limit;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+    // A thread is in drain(); others leave the queue to it
+    private boolean draining;
+
+    private long submitted;
+    private long queued;
+    private int peakInFlight;
+    private int peakWaiting;
+
+    InFlightWindow(int limit) {
+        this.limit = limit;
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable send = () -> {
+            CompletableFuture<T> sent;
+            try {
+                sent = request.get();
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((value, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        synchronized (this) {
+            submitted++;
+            waiting.add(send);
+            if (inFlight >= limit) {
+                queued++;
+                peakWaiting = Math.max(peakWaiting, waiting.size());
+            }
+            if (draining) {
+                return result;
+            }
+            draining = true;
+        }
+        drain();
+        return result;
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        drain();
+    }
+
+    // Sends waiting requests, oldest first, while there are free slots
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (inFlight >= limit || waiting.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                next = waiting.poll();
+                inFlight++;
+                peakInFlight = Math.max(peakInFlight, inFlight);
+            }
+            next.run();
+        }
+    }
+
+    synchronized String describe() {
+        return String.format("%d requests, at most %d of %d in flight; %d waited for a slot (peak queue %d)",
+                submitted, peakInFlight, limit, queued, peakWaiting);
+    }
+}
@@ -0,0 +1,437 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.*;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MandateStore} held in concurrent maps, for measuring parsing,
+ * classification and diffing without a server. Mandates are kept sorted by
+ * mandateId so range scans work; creditors, debtors and mandates are unique
+ * on their id (stricter than idx_mandate_lookup, which also takes
+ * lastUpdateDate), and a duplicate fails the whole transaction.
+ *
+ * Each call, and each insert and commit within a transaction, counts as a
+ * round trip and first waits out the injected latency, if any.
+ * Transactions buffer their inserts and apply them at commit under one
+ * lock; readers never block, so a lookup may see part of a commit.
+ * Updates replace a mandate with an updated copy, so a mandate returned by
+ * a lookup never changes afterwards.
+ */
+public class InMemoryMandateStore implements MandateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryMandateStore.class);
+
+    private static final Map<String, Field> MANDATE_FIELDS = mandateFields();
+
+    private final ConcurrentSkipListMap<String, DirectDebitMandate> mandates = new ConcurrentSkipListMap<>();
+    private final Map<String, Creditor> creditors = new ConcurrentHashMap<>();
+    private final Map<String, Debtor> debtors = new ConcurrentHashMap<>();
+    private final Queue<MandateAudit> audits = new ConcurrentLinkedQueue<>();
+    // Ids of audits inserted by insertMissingAudits
+    private final Set<ObjectId> auditIds = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final CodecRegistry codecRegistry = MandateRepository.codecRegistry(CodecMode.POJO);
+
+    private final long latencyNanos;
+    private final LongAdder roundTrips = new LongAdder();
+    private volatile boolean contentHashLookups;
+
+    public InMemoryMandateStore() {
+        this(0);
+    }
+
+    public InMemoryMandateStore(long latencyMicros) {
+        this.latencyNanos = latencyMicros * 1_000;
+        logger.info("Using the in-memory store, {} microseconds per round trip", latencyMicros);
+    }
+
+    private void roundTrip() {
+        roundTrips.increment();
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    @Override
+    public void enableContentHashLookups() {
+        contentHashLookups = true;
+    }
+
+    // Audits are kept one per mandate whatever the layout; bucketing only changes what MongoDB stores
+    @Override
+    public void enableAuditBuckets(int maxEntries) {
+    }
+
+    @Override
+    public Map<String, MandateState> batchGetMandateStates(List<String> mandateIds) {
+        Map<String, MandateState> result = new HashMap<>();
+        if (mandateIds.isEmpty()) return result;
+
+        roundTrip();
+        for (String mandateId : mandateIds) {
+            DirectDebitMandate mandate = mandates.get(mandateId);
+            if (mandate != null) {
+                result.put(mandateId, stateOf(mandate));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public LinkedHashMap<String, MandateState> scanMandateStates(String fromMandateId, int limit) {
+        LinkedHashMap<String, MandateState> result = new LinkedHashMap<>();
+
+        roundTrip();
+        for (DirectDebitMandate mandate : mandates.tailMap(fromMandateId, true).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.put(mandate.getMandateId(), stateOf(mandate));
+        }
+        return result;
+    }
+
+    private MandateState stateOf(DirectDebitMandate mandate) {
+        return new MandateState(mandate.getLastUpdateDate(), contentHashLookups ? mandate.getContentHash() : null);
+    }
+
+    @Override
+    public Map<String, DirectDebitMandate> batchGetMandates(List<String> mandateIds) {
+        Map<String, DirectDebitMandate> result = new HashMap<>();
+        if (mandateIds.isEmpty()) return result;
+
+        roundTrip();
+        for (String mandateId : mandateIds) {
+            DirectDebitMandate mandate = mandates.get(mandateId);
+            if (mandate != null) {
+                result.put(mandateId, mandate);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> getExistingCreditorIds(Set<String> creditorIds) {
+        return existing(creditors, creditorIds);
+    }
+
+    @Override
+    public Set<String> getAllCreditorIds() {
+        roundTrip();
+        return new HashSet<>(creditors.keySet());
+    }
+
+    @Override
+    public Set<String> getExistingDebtorIds(Set<String> debtorIds) {
+        return existing(debtors, debtorIds);
+    }
+
+    private Set<String> existing(Map<String, ?> stored, Set<String> ids) {
+        Set<String> existing = new HashSet<>();
+        if (ids.isEmpty()) return existing;
+
+        roundTrip();
+        for (String id : ids) {
+            if (stored.containsKey(id)) {
+                existing.add(id);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public InsertTransaction startInsertTransaction() {
+        return new Transaction();
+    }
+
+    @Override
+    public Set<String> batchUpdateMandateFields(List<MandateFieldUpdate> mandateUpdates) {
+        if (mandateUpdates.isEmpty()) return Collections.emptySet();
+
+        roundTrip();
+        Set<String> unapplied = new HashSet<>();
+        for (MandateFieldUpdate update : mandateUpdates) {
+            if (!apply(update)) {
+                unapplied.add(update.mandateId());
+            }
+        }
+        return unapplied;
+    }
+
+    // Retried if another update replaced the mandate in between
+    private boolean apply(MandateFieldUpdate update) {
+        while (true) {
+            DirectDebitMandate existing = mandates.get(update.mandateId());
+            if (existing == null || !Objects.equals(existing.getLastUpdateDate(), update.previousUpdateDate())) {
+                return false;
+            }
+
+            DirectDebitMandate updated = copy(existing);
+            update.changedValues().forEach((name, value) -> setField(updated, name, value));
+            updated.setVersion(existing.getVersion() != null ? existing.getVersion() + 1 : 1);
+
+            if (mandates.replace(update.mandateId(), existing, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void batchInsertAudits(List<MandateAudit> audits) {
+        if (audits.isEmpty()) return;
+
+        roundTrip();
+        this.audits.addAll(audits);
+    }
+
+    // The merge id is not kept: the outcome of each mandate is known directly
+    @Override
+    public MergeResult mergeMandates(List<DirectDebitMandate> mandates, String mergeId) {
+        Set<Integer> inserted = new HashSet<>();
+        Set<Integer> updated = new HashSet<>();
+        if (mandates.isEmpty()) return new MergeResult(inserted, updated, Collections.emptyMap());
+
+        roundTrip();
+        for (int i = 0; i < mandates.size(); i++) {
+            DirectDebitMandate incoming = copy(mandates.get(i));
+            while (true) {
+                DirectDebitMandate existing = this.mandates.get(incoming.getMandateId());
+                if (existing == null) {
+                    incoming.setVersion(1);
+                    if (this.mandates.putIfAbsent(incoming.getMandateId(), incoming) == null) {
+                        inserted.add(i);
+                        break;
+                    }
+                } else if (isOlder(existing.getLastUpdateDate(), incoming.getLastUpdateDate())
+                        && !Objects.equals(existing.getContentHash(), incoming.getContentHash())) {
+                    incoming.setCreatedAt(existing.getCreatedAt());
+                    incoming.setVersion(existing.getVersion() != null ? existing.getVersion() + 1 : 1);
+                    if (this.mandates.replace(incoming.getMandateId(), existing, incoming)) {
+                        updated.add(i);
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+        return new MergeResult(inserted, updated, Collections.emptyMap());
+    }
+
+    // As the merge pipeline's $lt: a missing date sorts first
+    private static boolean isOlder(LocalDateTime stored, LocalDateTime incoming) {
+        return incoming != null && (stored == null || stored.isBefore(incoming));
+    }
+
+    @Override
+    public int insertMissingCreditors(List<Creditor> creditors) {
+        if (creditors.isEmpty()) return 0;
+
+        roundTrip();
+        int inserted = 0;
+        for (Creditor creditor : creditors) {
+            if (this.creditors.putIfAbsent(creditor.getCreditorId(), creditor) == null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public int insertMissingDebtors(List<Debtor> debtors) {
+        if (debtors.isEmpty()) return 0;
+
+        roundTrip();
+        int inserted = 0;
+        for (Debtor debtor : debtors) {
+            if (this.debtors.putIfAbsent(debtor.getDebtorId(), debtor) == null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public int insertMissingAudits(List<MandateAudit> audits) {
+        if (audits.isEmpty()) return 0;
+
+        roundTrip();
+        int inserted = 0;
+        for (MandateAudit audit : audits) {
+            if (auditIds.add(audit.getId())) {
+                this.audits.add(audit);
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public WriteLimits getWriteLimits() {
+        return WriteLimits.DEFAULT;
+    }
+
+    // Nothing is sharded in memory
+    @Override
+    public ShardRanges getShardRanges() {
+        return null;
+    }
+
+    // As the POJO codec would write it to MongoDB
+    @Override
+    public <T> int encodedSize(T document) {
+        @SuppressWarnings("unchecked")
+        Codec<T> codec = (Codec<T>) codecRegistry.get(document.getClass());
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.getPosition();
+    }
+
+    public int getMandateCount() {
+        return mandates.size();
+    }
+
+    public int getAuditCount() {
+        return audits.size();
+    }
+
+    @Override
+    public void close() {
+        logger.info("In-memory store closed: {} mandates, {} audits, {} creditors, {} debtors after {} round trips",
+                mandates.size(), audits.size(), creditors.size(), debtors.size(), roundTrips.sum());
+    }
+
+    private final class Transaction implements InsertTransaction {
+
+        private final List<Creditor> creditorsToInsert = new ArrayList<>();
+        private final List<Debtor> debtorsToInsert = new ArrayList<>();
+        private final List<DirectDebitMandate> mandatesToInsert = new ArrayList<>();
+        private final List<MandateAudit> auditsToInsert = new ArrayList<>();
+        private boolean committed;
+
+        @Override
+        public void insertCreditors(List<Creditor> creditors) {
+            roundTrip();
+            creditorsToInsert.addAll(creditors);
+        }
+
+        @Override
+        public void insertDebtors(List<Debtor> debtors) {
+            roundTrip();
+            debtorsToInsert.addAll(debtors);
+        }
+
+        @Override
+        public void insertMandates(List<DirectDebitMandate> mandates) {
+            roundTrip();
+            mandatesToInsert.addAll(mandates);
+        }
+
+        @Override
+        public void insertAudits(List<MandateAudit> audits) {
+            roundTrip();
+            auditsToInsert.addAll(audits);
+        }
+
+        @Override
+        public void commit() {
+            if (committed) {
+                return;
+            }
+            roundTrip();
+
+            commitLock.lock();
+            try {
+                checkUnique("creditorId", creditors, creditorsToInsert.stream().map(Creditor::getCreditorId));
+                checkUnique("debtorId", debtors, debtorsToInsert.stream().map(Debtor::getDebtorId));
+                checkUnique("mandateId", mandates, mandatesToInsert.stream().map(DirectDebitMandate::getMandateId));
+
+                creditorsToInsert.forEach(c -> creditors.put(c.getCreditorId(), c));
+                debtorsToInsert.forEach(d -> debtors.put(d.getDebtorId(), d));
+                mandatesToInsert.forEach(m -> mandates.put(m.getMandateId(), m));
+                audits.addAll(auditsToInsert);
+            } finally {
+                commitLock.unlock();
+            }
+            committed = true;
+        }
+
+        private void checkUnique(String key, Map<String, ?> stored, Stream<String> ids) {
+            Set<String> seen = new HashSet<>();
+            ids.forEach(id -> {
+                if (stored.containsKey(id) || !seen.add(id)) {
+                    throw new IllegalStateException("Duplicate " + key + " " + id);
+                }
+            });
+        }
+
+        @Override
+        public void abort() {
+            creditorsToInsert.clear();
+            debtorsToInsert.clear();
+            mandatesToInsert.clear();
+            auditsToInsert.clear();
+        }
+
+        @Override
+        public void close() {
+            if (!committed) {
+                abort();
+            }
+        }
+    }
+
+    private static Map<String, Field> mandateFields() {
+        Map<String, Field> fields = new HashMap<>();
+        for (Field field : DirectDebitMandate.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                fields.put(field.getName(), field);
+            }
+        }
+        return fields;
+    }
+
+    private static DirectDebitMandate copy(DirectDebitMandate mandate) {
+        DirectDebitMandate copy = new DirectDebitMandate();
+        try {
+            for (Field field : MANDATE_FIELDS.values()) {
+                field.set(copy, field.get(mandate));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot copy mandate " + mandate.getMandateId(), e);
+        }
+        return copy;
+    }
+
+    private static void setField(DirectDebitMandate mandate, String name, Object value) {
+        Field field = MANDATE_FIELDS.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Unknown mandate field " + name);
+        }
+        try {
+            field.set(mandate, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot set mandate field " + name, e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.*;
+
+import java.util.List;
+
+/**
+ * Inserts that become visible together on {@link #commit()}, or not at all.
+ * Closing a transaction that was neither committed nor aborted aborts it.
+ */
+public interface InsertTransaction extends AutoCloseable {
+
+    void insertCreditors(List<Creditor> creditors);
+
+    void insertDebtors(List<Debtor> debtors);
+
+    void insertMandates(List<DirectDebitMandate> mandates);
+
+    void insertAudits(List<MandateAudit> audits);
+
+    // Safe to call again after an unknown commit result
+    void commit();
+
+    void abort();
+
+    @Override
+    void close();
+}
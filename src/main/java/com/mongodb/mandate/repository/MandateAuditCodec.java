@@ -0,0 +1,100 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.FieldChange;
+import com.mongodb.mandate.model.MandateAudit;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+/**
+ * Writes audits in declaration order, with the field changes as an array of
+ * embedded documents written directly by {@link FieldChangeCodec}.
+ */
+final class MandateAuditCodec implements Codec<MandateAudit> {
+
+    private final FieldChangeCodec fieldChangeCodec;
+
+    MandateAuditCodec(FieldChangeCodec fieldChangeCodec) {
+        this.fieldChangeCodec = fieldChangeCodec;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, MandateAudit audit, EncoderContext encoderContext) {
+        if (audit.getId() == null && encoderContext.isEncodingCollectibleDocument()) {
+            audit.setId(new ObjectId());
+        }
+
+        writer.writeStartDocument();
+        writeObjectId(writer, "_id", audit.getId());
+        writeString(writer, "mandateId", audit.getMandateId());
+        writeString(writer, "changeType", audit.getChangeType());
+        writeDateTime(writer, "changeTimestamp", audit.getChangeTimestamp());
+        writeString(writer, "sourceFile", audit.getSourceFile());
+        writeDateTime(writer, "previousUpdateDate", audit.getPreviousUpdateDate());
+        writeDateTime(writer, "newUpdateDate", audit.getNewUpdateDate());
+        if (audit.getFieldChanges() != null) {
+            writer.writeStartArray("fieldChanges");
+            for (FieldChange change : audit.getFieldChanges()) {
+                fieldChangeCodec.encode(writer, change, encoderContext);
+            }
+            writer.writeEndArray();
+        }
+        writeString(writer, "processedBy", audit.getProcessedBy());
+        writeString(writer, "batchId", audit.getBatchId());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public MandateAudit decode(BsonReader reader, DecoderContext decoderContext) {
+        MandateAudit audit = new MandateAudit();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> audit.setId(readObjectId(reader));
+                case "mandateId" -> audit.setMandateId(readString(reader));
+                case "changeType" -> audit.setChangeType(readString(reader));
+                case "changeTimestamp" -> audit.setChangeTimestamp(readDateTime(reader));
+                case "sourceFile" -> audit.setSourceFile(readString(reader));
+                case "previousUpdateDate" -> audit.setPreviousUpdateDate(readDateTime(reader));
+                case "newUpdateDate" -> audit.setNewUpdateDate(readDateTime(reader));
+                case "fieldChanges" -> audit.setFieldChanges(readFieldChanges(reader, decoderContext));
+                case "processedBy" -> audit.setProcessedBy(readString(reader));
+                case "batchId" -> audit.setBatchId(readString(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return audit;
+    }
+
+    private List<FieldChange> readFieldChanges(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+
+        List<FieldChange> changes = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            changes.add(fieldChangeCodec.decode(reader, decoderContext));
+        }
+        reader.readEndArray();
+        return changes;
+    }
+
+    @Override
+    public Class<MandateAudit> getEncoderClass() {
+        return MandateAudit.class;
+    }
+}
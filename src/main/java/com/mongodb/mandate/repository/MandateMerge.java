@@ -0,0 +1,158 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+
+/**
+ * The conditional upserts behind {@link MandateStore#mergeMandates}, shared
+ * by the blocking and async repositories.
+ *
+ * Each mandate becomes an update pipeline on its mandateId that replaces
+ * the stored document only if the stored lastUpdateDate is older and the
+ * stored contentHash differs, keeping _id and createdAt and incrementing
+ * version. A missing document compares as older with no hash, so the
+ * same pipeline inserts it. Written documents are stamped with the merge
+ * id; the bulk write result only counts modifications, so when some but
+ * not all matched mandates were replaced, one query for that stamp tells
+ * which. The stamp is not part of a stored mandate: once the outcome is
+ * known it is removed from the written mandates with one update.
+ */
+final class MandateMerge {
+
+    static final String MERGE_ID = "mergeId";
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private final List<DirectDebitMandate> mandates;
+    private final List<WriteModel<DirectDebitMandate>> models = new ArrayList<>();
+    // Index in mandates of each model
+    private final List<Integer> indexes = new ArrayList<>();
+    private final Map<Integer, String> failed = new HashMap<>();
+
+    private final Set<Integer> inserted = new HashSet<>();
+    private final List<Integer> matched = new ArrayList<>();
+    private long modified;
+
+    // A mandate that cannot be encoded fails here and is never sent
+    MandateMerge(List<DirectDebitMandate> mandates, String mergeId, Codec<DirectDebitMandate> codec) {
+        this.mandates = mandates;
+        for (int i = 0; i < mandates.size(); i++) {
+            DirectDebitMandate mandate = mandates.get(i);
+            try {
+                models.add(new UpdateOneModel<>(Filters.eq("mandateId", mandate.getMandateId()),
+                        List.of(replaceIfChanged(encode(mandate, codec), mergeId)), UPSERT));
+                indexes.add(i);
+            } catch (RuntimeException e) {
+                failed.put(i, e.getMessage());
+            }
+        }
+    }
+
+    private static BsonDocument encode(DirectDebitMandate mandate, Codec<DirectDebitMandate> codec) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), mandate, EncoderContext.builder().build());
+        return document;
+    }
+
+    private static BsonDocument replaceIfChanged(BsonDocument incoming, String mergeId) {
+        BsonValue createdAt = incoming.remove("createdAt");
+        incoming.remove("_id");
+        incoming.remove("version");
+        incoming.put(MERGE_ID, new BsonString(mergeId));
+
+        BsonDocument kept = new BsonDocument("_id", new BsonString("$_id"))
+                .append("createdAt", operator("$ifNull", new BsonString("$createdAt"),
+                        createdAt != null ? createdAt : BsonNull.VALUE))
+                .append("version", operator("$add",
+                        operator("$ifNull", new BsonString("$version"), new BsonInt32(0)), new BsonInt32(1)));
+
+        BsonDocument changed = operator("$and",
+                operator("$lt", new BsonString("$lastUpdateDate"), incoming.get("lastUpdateDate", BsonNull.VALUE)),
+                operator("$ne", new BsonString("$contentHash"), incoming.get("contentHash", BsonNull.VALUE)));
+
+        // $literal so that string values starting with $ are not read as field paths
+        return new BsonDocument("$replaceWith", new BsonDocument("$cond", new BsonDocument("if", changed)
+                .append("then", operator("$mergeObjects", kept, new BsonDocument("$literal", incoming)))
+                .append("else", new BsonString("$$ROOT"))));
+    }
+
+    private static BsonDocument operator(String name, BsonValue... arguments) {
+        return new BsonDocument(name, new BsonArray(Arrays.asList(arguments)));
+    }
+
+    List<WriteModel<DirectDebitMandate>> models() {
+        return models;
+    }
+
+    // The result of the bulk write, with the per-operation errors if some failed
+    void written(BulkWriteResult result, List<BulkWriteError> errors) {
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            inserted.add(indexes.get(upsert.getIndex()));
+        }
+        for (BulkWriteError error : errors) {
+            failed.put(indexes.get(error.getIndex()), error.getMessage());
+        }
+        for (int index : indexes) {
+            if (!inserted.contains(index) && !failed.containsKey(index)) {
+                matched.add(index);
+            }
+        }
+        modified = result.getModifiedCount();
+    }
+
+    // Matched mandateIds whose outcome the counts leave open; empty when none or all were replaced
+    List<String> unresolvedIds() {
+        if (modified == 0 || modified == matched.size()) {
+            return Collections.emptyList();
+        }
+        return matched.stream().map(i -> mandates.get(i).getMandateId()).toList();
+    }
+
+    // replacedIds holds the mandateIds found stamped with the merge id, if unresolvedIds asked for them
+    MergeResult result(Set<String> replacedIds) {
+        Set<Integer> updated = new HashSet<>();
+        for (int index : matched) {
+            if (modified == matched.size() || (modified > 0 && replacedIds.contains(mandates.get(index).getMandateId()))) {
+                updated.add(index);
+            }
+        }
+        return new MergeResult(inserted, updated, failed);
+    }
+
+    // mandateIds the merge inserted or replaced, and so stamped
+    List<String> writtenIds(MergeResult result) {
+        List<String> ids = new ArrayList<>();
+        for (int index : indexes) {
+            if (result.inserted().contains(index) || result.updated().contains(index)) {
+                ids.add(mandates.get(index).getMandateId());
+            }
+        }
+        return ids;
+    }
+
+    static Bson stamped(List<String> mandateIds, String mergeId) {
+        return Filters.and(Filters.in("mandateId", mandateIds), Filters.eq(MERGE_ID, mergeId));
+    }
+
+    static Bson removeStamp() {
+        return Updates.unset(MERGE_ID);
+    }
+
+    // Nothing could be encoded, so nothing was sent
+    MergeResult notSent() {
+        return new MergeResult(inserted, Collections.emptySet(), failed);
+    }
+}
@@ -1,103 +1,360 @@
 package com.mongodb.mandate.repository;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.*;
 import com.mongodb.client.model.*;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
 import com.mongodb.mandate.model.*;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.io.BasicOutputBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static com.mongodb.MongoClientSettings.getDefaultCodecRegistry;
 
-public class MandateRepository implements Closeable {
+public class MandateRepository implements MandateStore, AuditStream {
 
     private static final Logger logger = LoggerFactory.getLogger(MandateRepository.class);
 
+    // _id of the audit writer's entry in audit_stream_checkpoints
+    private static final String AUDIT_STREAM = "mandate_audits";
+
     private final MongoClient mongoClient;
     private final MongoDatabase database;
     private final MongoCollection<DirectDebitMandate> mandateCollection;
     private final MongoCollection<MandateAudit> auditCollection;
     private final MongoCollection<Creditor> creditorCollection;
     private final MongoCollection<Debtor> debtorCollection;
+    private final MongoCollection<BsonDocument> streamCheckpointCollection;
+    private final MongoCollection<BsonDocument> auditBucketCollection;
+    // Lookup rows decoded without a full mandate; null with the POJO codec
+    private final MongoCollection<MandateStateRow> stateCollection;
+
+    // Lookups also return contentHash, covered by idx_mandate_change_lookup
+    private volatile boolean contentHashLookups;
+    // Most audits per bucket with the bucketed audit layout; 0 writes one document per audit
+    private volatile int auditBucketEntries;
 
     public MandateRepository(String connectionString, String databaseName) {
-        CodecRegistry pojoCodecRegistry = CodecRegistries.fromRegistries(
-                getDefaultCodecRegistry(),
-                CodecRegistries.fromProviders(
-                        PojoCodecProvider.builder().automatic(true).build()
-                )
-        );
+        this(connectionString, databaseName, CodecMode.POJO);
+    }
 
+    public MandateRepository(String connectionString, String databaseName, CodecMode codecMode) {
         this.mongoClient = MongoClients.create(connectionString);
-        this.database = mongoClient.getDatabase(databaseName).withCodecRegistry(pojoCodecRegistry);
+        this.database = mongoClient.getDatabase(databaseName).withCodecRegistry(codecRegistry(codecMode));
         this.mandateCollection = database.getCollection("mandates", DirectDebitMandate.class);
         this.auditCollection = database.getCollection("mandate_audits", MandateAudit.class);
         this.creditorCollection = database.getCollection("creditors", Creditor.class);
         this.debtorCollection = database.getCollection("debtors", Debtor.class);
+        this.streamCheckpointCollection = database.getCollection("audit_stream_checkpoints", BsonDocument.class);
+        this.auditBucketCollection = database.getCollection(AuditBuckets.COLLECTION, BsonDocument.class);
+        this.stateCollection = codecMode == CodecMode.EXPLICIT
+                ? database.getCollection("mandates", MandateStateRow.class)
+                : null;
 
+        logger.info("Using {} codecs", codecMode.name().toLowerCase());
         ensureIndexes();
     }
 
+    static CodecRegistry codecRegistry(CodecMode codecMode) {
+        if (codecMode == CodecMode.EXPLICIT) {
+            FieldChangeCodec fieldChangeCodec = new FieldChangeCodec();
+            return CodecRegistries.fromRegistries(
+                    CodecRegistries.fromCodecs(
+                            new DirectDebitMandateCodec(),
+                            new MandateAuditCodec(fieldChangeCodec),
+                            fieldChangeCodec,
+                            new CreditorCodec(),
+                            new DebtorCodec(),
+                            new MandateStateRowCodec()
+                    ),
+                    getDefaultCodecRegistry()
+            );
+        }
+
+        return CodecRegistries.fromRegistries(
+                getDefaultCodecRegistry(),
+                CodecRegistries.fromProviders(
+                        PojoCodecProvider.builder().automatic(true).build()
+                )
+        );
+    }
+
     private void ensureIndexes() {
         logger.info("Ensuring indexes exist...");
+        long start = System.nanoTime();
 
-        mandateCollection.createIndex(
+        int created = ensureIndexes(mandateCollection, List.of(new IndexModel(
                 Indexes.compoundIndex(
                         Indexes.ascending("mandateId"),
                         Indexes.ascending("lastUpdateDate")
                 ),
                 new IndexOptions().name("idx_mandate_lookup").unique(true)
-        );
+        )));
 
-        auditCollection.createIndex(
-                Indexes.ascending("mandateId"),
-                new IndexOptions().name("idx_audit_mandateId")
-        );
-        auditCollection.createIndex(
-                Indexes.descending("changeTimestamp"),
-                new IndexOptions().name("idx_audit_timestamp")
-        );
+        created += ensureIndexes(auditCollection, List.of(
+                new IndexModel(
+                        Indexes.ascending("mandateId"),
+                        new IndexOptions().name("idx_audit_mandateId")
+                ),
+                new IndexModel(
+                        Indexes.descending("changeTimestamp"),
+                        new IndexOptions().name("idx_audit_timestamp")
+                )
+        ));
 
-        creditorCollection.createIndex(
+        created += ensureIndexes(creditorCollection, List.of(new IndexModel(
                 Indexes.ascending("creditorId"),
                 new IndexOptions().name("idx_creditor_id").unique(true)
-        );
+        )));
 
-        debtorCollection.createIndex(
+        created += ensureIndexes(debtorCollection, List.of(new IndexModel(
                 Indexes.ascending("debtorId"),
                 new IndexOptions().name("idx_debtor_id").unique(true)
-        );
+        )));
+
+        logger.info("Indexes verified in {} ms, {} created",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), created);
+    }
+
+    /**
+     * Creates those of the indexes the collection does not have yet. The
+     * catalogue is read with one listIndexes, and an index with the same
+     * keys and uniqueness as one already there is not sent again, so a
+     * start against an existing database makes no createIndex round trips.
+     * Returns how many were created.
+     */
+    private static int ensureIndexes(MongoCollection<?> collection, List<IndexModel> indexes) {
+        Set<BsonDocument> existing = new HashSet<>();
+        for (BsonDocument index : collection.listIndexes(BsonDocument.class)) {
+            existing.add(indexSignature(index.getDocument("key"),
+                    index.getBoolean("unique", BsonBoolean.FALSE).getValue()));
+        }
+
+        List<IndexModel> missing = new ArrayList<>();
+        for (IndexModel index : indexes) {
+            BsonDocument keys = index.getKeys().toBsonDocument(BsonDocument.class, getDefaultCodecRegistry());
+            if (!existing.contains(indexSignature(keys, Boolean.TRUE.equals(index.getOptions().isUnique())))) {
+                missing.add(index);
+            }
+        }
+        if (!missing.isEmpty()) {
+            collection.createIndexes(missing);
+        }
+        return missing.size();
+    }
 
-        logger.info("Indexes created successfully");
+    // Key directions compared as 1 or -1, whatever numeric type the creating client used
+    private static BsonDocument indexSignature(BsonDocument keys, boolean unique) {
+        BsonDocument normalized = new BsonDocument();
+        keys.forEach((field, value) -> normalized.append(field,
+                value.isNumber() ? new BsonInt32(value.asNumber().doubleValue() < 0 ? -1 : 1) : value));
+        return new BsonDocument("key", normalized).append("unique", BsonBoolean.valueOf(unique));
     }
 
     public MongoClient getMongoClient() {
         return mongoClient;
     }
 
-    // Batch lookup for mandate dates
-    public Map<String, LocalDateTime> batchGetMandateUpdateDates(List<String> mandateIds) {
-        Map<String, LocalDateTime> result = new HashMap<>();
+    // Limits from the hello command; defaults where the server leaves one out or lacks hello
+    @Override
+    public WriteLimits getWriteLimits() {
+        Document hello;
+        try {
+            hello = database.runCommand(new Document("hello", 1));
+        } catch (MongoCommandException e) {
+            logger.warn("hello failed, assuming the default write limits: {}", e.getMessage());
+            return WriteLimits.DEFAULT;
+        }
+        return new WriteLimits(
+                intField(hello, "maxBsonObjectSize", WriteLimits.DEFAULT.maxBsonObjectSize()),
+                intField(hello, "maxWriteBatchSize", WriteLimits.DEFAULT.maxWriteBatchSize()));
+    }
+
+    /**
+     * The chunks of mandates from the config database, as mongos sees them.
+     * Only a range shard key on mandateId can be routed here: a hashed key
+     * spreads adjacent ids over every shard, and with a compound key a
+     * chunk boundary inside one mandateId's values is rounded to its start.
+     */
+    @Override
+    public ShardRanges getShardRanges() {
+        MongoDatabase config = mongoClient.getDatabase("config");
+        String namespace = database.getName() + ".mandates";
+
+        BsonDocument collection;
+        try {
+            collection = config.getCollection("collections", BsonDocument.class)
+                    .find(Filters.eq("_id", namespace))
+                    .first();
+        } catch (MongoCommandException e) {
+            logger.warn("Could not read the config database, routing no batches by shard: {}", e.getMessage());
+            return null;
+        }
+        if (collection == null || collection.getBoolean("dropped", BsonBoolean.FALSE).getValue()) {
+            return null;
+        }
+        BsonDocument key = collection.getDocument("key", new BsonDocument());
+        if (key.isEmpty() || !key.getFirstKey().equals("mandateId") || !key.get("mandateId").isNumber()) {
+            logger.warn("{} is sharded on {}, not a range of mandateId; chunks cannot be routed by mandateId",
+                    namespace, key.toJson());
+            return null;
+        }
+
+        // Chunks are keyed by the collection's uuid since MongoDB 5.0 and by namespace before
+        Bson chunksOf = collection.containsKey("uuid")
+                ? Filters.eq("uuid", collection.get("uuid"))
+                : Filters.eq("ns", namespace);
+        Map<String, String> chunks = new TreeMap<>();
+        for (BsonDocument chunk : config.getCollection("chunks", BsonDocument.class)
+                .find(chunksOf)
+                .projection(Projections.include("min", "shard"))) {
+            BsonValue min = chunk.getDocument("min").get("mandateId");
+            String lowerBound = min != null && min.isString() ? min.asString().getValue() : "";
+            // With a compound key several chunks can start inside one mandateId; the first one wins
+            chunks.putIfAbsent(lowerBound, chunk.getString("shard").getValue());
+        }
+        return chunks.isEmpty() ? null : new ShardRanges(chunks);
+    }
+
+    private static int intField(Document document, String key, int defaultValue) {
+        Number value = document.get(key, Number.class);
+        return value != null ? value.intValue() : defaultValue;
+    }
+
+    // BSON size of a document as this repository's codecs would write it
+    @Override
+    public <T> int encodedSize(T document) {
+        @SuppressWarnings("unchecked")
+        Codec<T> codec = (Codec<T>) database.getCodecRegistry().get(document.getClass());
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.getPosition();
+    }
+
+    @Override
+    public InsertTransaction startInsertTransaction() {
+        return new MongoInsertTransaction(this, mongoClient.startSession());
+    }
+
+    /**
+     * Adds contentHash to the mandate lookups. Its index extends
+     * idx_mandate_lookup with contentHash so the lookups stay covered.
+     */
+    @Override
+    public void enableContentHashLookups() {
+        ensureIndexes(mandateCollection, List.of(new IndexModel(
+                Indexes.compoundIndex(
+                        Indexes.ascending("mandateId"),
+                        Indexes.ascending("lastUpdateDate"),
+                        Indexes.ascending("contentHash")
+                ),
+                new IndexOptions().name("idx_mandate_change_lookup")
+        )));
+        contentHashLookups = true;
+    }
+
+    // Audits are written to mandate_audit_buckets; see AuditBuckets
+    @Override
+    public void enableAuditBuckets(int maxEntries) {
+        ensureIndexes(auditBucketCollection, List.of(
+                new IndexModel(
+                        Indexes.ascending("entries.mandateId"),
+                        new IndexOptions().name("idx_audit_bucket_mandateId")
+                ),
+                new IndexModel(
+                        Indexes.descending("changeTimestamp"),
+                        new IndexOptions().name("idx_audit_bucket_timestamp")
+                )
+        ));
+        auditBucketEntries = maxEntries;
+    }
+
+    // Batch lookup for mandate dates (and content hashes)
+    @Override
+    public Map<String, MandateState> batchGetMandateStates(List<String> mandateIds) {
+        Map<String, MandateState> result = new HashMap<>();
         if (mandateIds.isEmpty()) return result;
 
-        mandateCollection.find(Filters.in("mandateId", mandateIds))
-                .projection(Projections.fields(
-                        Projections.include("mandateId", "lastUpdateDate"),
-                        Projections.excludeId()
-                ))
-                .forEach(mandate -> result.put(mandate.getMandateId(), mandate.getLastUpdateDate()));
+        findStates(Filters.in("mandateId", mandateIds), 0)
+                .forEach(row -> result.put(row.mandateId(), row.state()));
 
         return result;
     }
 
+    /**
+     * Up to limit mandate states from fromMandateId (inclusive) upwards, in
+     * mandateId order. Sorted on the index prefix and projected to the
+     * indexed fields, so this is a single covered index scan.
+     */
+    @Override
+    public LinkedHashMap<String, MandateState> scanMandateStates(String fromMandateId, int limit) {
+        LinkedHashMap<String, MandateState> result = new LinkedHashMap<>();
+
+        findStates(Filters.gte("mandateId", fromMandateId), limit)
+                .forEach(row -> result.put(row.mandateId(), row.state()));
+
+        return result;
+    }
+
+    // Lookup rows matching the filter; a limit makes it an ordered range scan
+    private MongoIterable<MandateStateRow> findStates(Bson filter, int limit) {
+        if (stateCollection != null) {
+            return lookupQuery(stateCollection, filter, limit);
+        }
+        return lookupQuery(mandateCollection, filter, limit)
+                .map(mandate -> new MandateStateRow(mandate.getMandateId(), stateOf(mandate)));
+    }
+
+    private <T> FindIterable<T> lookupQuery(MongoCollection<T> collection, Bson filter, int limit) {
+        FindIterable<T> find = collection.find(filter).projection(lookupProjection(contentHashLookups));
+        if (limit > 0) {
+            find = find.sort(Sorts.ascending("mandateId"))
+                    .hintString(contentHashLookups ? "idx_mandate_change_lookup" : "idx_mandate_lookup")
+                    .limit(limit)
+                    .batchSize(limit);
+        }
+        return find;
+    }
+
+    static Bson lookupProjection(boolean contentHashLookups) {
+        return Projections.fields(
+                contentHashLookups
+                        ? Projections.include("mandateId", "lastUpdateDate", "contentHash")
+                        : Projections.include("mandateId", "lastUpdateDate"),
+                Projections.excludeId()
+        );
+    }
+
+    static MandateState stateOf(DirectDebitMandate mandate) {
+        return new MandateState(mandate.getLastUpdateDate(), mandate.getContentHash());
+    }
+
     // Batch get full mandates
+    @Override
     public Map<String, DirectDebitMandate> batchGetMandates(List<String> mandateIds) {
         Map<String, DirectDebitMandate> result = new HashMap<>();
         if (mandateIds.isEmpty()) return result;
@@ -109,6 +366,7 @@ public class MandateRepository implements Closeable {
     }
 
     // Check existing creditors
+    @Override
     public Set<String> getExistingCreditorIds(Set<String> creditorIds) {
         Set<String> existing = new HashSet<>();
         if (creditorIds.isEmpty()) return existing;
@@ -120,7 +378,18 @@ public class MandateRepository implements Closeable {
         return existing;
     }
 
+    @Override
+    public Set<String> getAllCreditorIds() {
+        Set<String> all = new HashSet<>();
+        creditorCollection.find()
+                .projection(Projections.include("creditorId"))
+                .forEach(c -> all.add(c.getCreditorId()));
+
+        return all;
+    }
+
     // Check existing debtors
+    @Override
     public Set<String> getExistingDebtorIds(Set<String> debtorIds) {
         Set<String> existing = new HashSet<>();
         if (debtorIds.isEmpty()) return existing;
@@ -153,29 +422,226 @@ public class MandateRepository implements Closeable {
     // Batch insert audits with session
     public void batchInsertAudits(ClientSession session, List<MandateAudit> audits) {
         if (audits.isEmpty()) return;
-        auditCollection.insertMany(session, audits, new InsertManyOptions().ordered(false));
+        if (auditBucketEntries > 0) {
+            auditBucketCollection.insertMany(session, buckets(audits), new InsertManyOptions().ordered(false));
+        } else {
+            auditCollection.insertMany(session, audits, new InsertManyOptions().ordered(false));
+        }
     }
 
     // Batch insert audits without session (for updates)
+    @Override
     public void batchInsertAudits(List<MandateAudit> audits) {
         if (audits.isEmpty()) return;
-        auditCollection.insertMany(audits, new InsertManyOptions().ordered(false));
+        if (auditBucketEntries > 0) {
+            auditBucketCollection.insertMany(buckets(audits), new InsertManyOptions().ordered(false));
+        } else {
+            auditCollection.insertMany(audits, new InsertManyOptions().ordered(false));
+        }
     }
 
-    // Batch update mandates using bulk write
-    public void batchUpdateMandates(List<DirectDebitMandate> mandates) {
-        if (mandates.isEmpty()) return;
+    private List<BsonDocument> buckets(List<MandateAudit> audits) {
+        return AuditBuckets.of(audits, auditCollection.getCodecRegistry().get(MandateAudit.class), auditBucketEntries);
+    }
+
+    /**
+     * A mandate's audits, oldest first, from both layouts: audit documents
+     * and the entries of audit buckets. Audits read from a bucket carry the
+     * bucket's _id.
+     */
+    public List<MandateAudit> findAudits(String mandateId) {
+        List<MandateAudit> audits = new ArrayList<>();
+        auditCollection.find(Filters.eq("mandateId", mandateId)).into(audits);
+        auditBucketCollection.aggregate(AuditBuckets.byMandate(mandateId), MandateAudit.class).into(audits);
+        audits.sort(Comparator.comparing(MandateAudit::getChangeTimestamp,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        return audits;
+    }
+
+    /**
+     * Updates mandates in place: $set (or $unset for null) of the changed
+     * fields and $inc of version, each matched on mandateId and the
+     * lastUpdateDate it was diffed against. Returns the mandateIds whose
+     * mandate had changed in the meantime, so their update was not applied.
+     */
+    @Override
+    public Set<String> batchUpdateMandateFields(List<MandateFieldUpdate> mandateUpdates) {
+        if (mandateUpdates.isEmpty()) return Collections.emptySet();
+
+        BulkWriteResult result = mandateCollection.bulkWrite(fieldUpdateModels(mandateUpdates),
+                new BulkWriteOptions().ordered(false));
+        if (result.getMatchedCount() == mandateUpdates.size()) {
+            return Collections.emptySet();
+        }
+        return unapplied(mandateUpdates, batchGetMandateStates(mandateUpdates.stream()
+                .map(MandateFieldUpdate::mandateId)
+                .toList()));
+    }
 
-        List<WriteModel<DirectDebitMandate>> updates = new ArrayList<>();
+    @Override
+    public MergeResult mergeMandates(List<DirectDebitMandate> mandates, String mergeId) {
+        MandateMerge merge = new MandateMerge(mandates, mergeId, mandateCollection.getCodecRegistry()
+                .get(DirectDebitMandate.class));
+        if (merge.models().isEmpty()) {
+            return merge.notSent();
+        }
 
-        for (DirectDebitMandate mandate : mandates) {
-            updates.add(new ReplaceOneModel<>(
-                    Filters.eq("mandateId", mandate.getMandateId()),
-                    mandate
+        try {
+            merge.written(mandateCollection.bulkWrite(merge.models(), new BulkWriteOptions().ordered(false)),
+                    Collections.emptyList());
+        } catch (MongoBulkWriteException e) {
+            merge.written(e.getWriteResult(), e.getWriteErrors());
+        }
+
+        List<String> unresolved = merge.unresolvedIds();
+        Set<String> replaced = new HashSet<>();
+        if (!unresolved.isEmpty()) {
+            mandateCollection.find(Filters.and(
+                            Filters.in("mandateId", unresolved),
+                            Filters.eq(MandateMerge.MERGE_ID, mergeId)))
+                    .projection(Projections.include("mandateId"))
+                    .forEach(m -> replaced.add(m.getMandateId()));
+        }
+        MergeResult result = merge.result(replaced);
+
+        List<String> written = merge.writtenIds(result);
+        if (!written.isEmpty()) {
+            try {
+                mandateCollection.updateMany(MandateMerge.stamped(written, mergeId), MandateMerge.removeStamp());
+            } catch (MongoException e) {
+                // The mandates are written; a stamp left behind is harmless, later merges look for their own
+                logger.warn("Could not remove the merge stamp from {} mandates: {}", written.size(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Turns on pre- and post-images for mandates (MongoDB 6.0 or later), so
+     * an update's change event carries the document before and after it.
+     */
+    @Override
+    public void enableChangeStreamImages() {
+        database.runCommand(new Document("collMod", "mandates")
+                .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+    }
+
+    // Mandate inserts, updates and replacements after resumeToken, or from now when it is null
+    @Override
+    public MongoChangeStreamCursor<ChangeStreamDocument<DirectDebitMandate>> watchMandates(
+            BsonDocument resumeToken, int batchSize, long maxAwaitMs) {
+        ChangeStreamIterable<DirectDebitMandate> stream = mandateCollection
+                .watch(List.of(Aggregates.match(Filters.in("operationType", "insert", "update", "replace"))))
+                .fullDocument(FullDocument.WHEN_AVAILABLE)
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                .batchSize(batchSize)
+                .maxAwaitTime(maxAwaitMs, TimeUnit.MILLISECONDS);
+        return (resumeToken != null ? stream.resumeAfter(resumeToken) : stream).cursor();
+    }
+
+    // The token saved with the last audits written from the change stream, or null before the first
+    @Override
+    public BsonDocument getAuditResumeToken() {
+        BsonDocument saved = streamCheckpointCollection.find(Filters.eq("_id", AUDIT_STREAM)).first();
+        return saved != null ? saved.getDocument("resumeToken") : null;
+    }
+
+    /**
+     * Inserts audits made from change events together with the resume token
+     * of the last of those events, in one transaction: after a restart the
+     * stream resumes right after the last event audited, so every event is
+     * audited exactly once.
+     */
+    @Override
+    public void insertStreamAudits(List<MandateAudit> audits, BsonDocument resumeToken) {
+        try (ClientSession session = mongoClient.startSession()) {
+            session.withTransaction(() -> {
+                batchInsertAudits(session, audits);
+                streamCheckpointCollection.replaceOne(session, Filters.eq("_id", AUDIT_STREAM),
+                        streamCheckpoint(resumeToken), new ReplaceOptions().upsert(true));
+                return null;
+            });
+        }
+    }
+
+    // No audits go with it, so no transaction is needed
+    @Override
+    public void saveAuditResumeToken(BsonDocument resumeToken) {
+        streamCheckpointCollection.replaceOne(Filters.eq("_id", AUDIT_STREAM), streamCheckpoint(resumeToken),
+                new ReplaceOptions().upsert(true));
+    }
+
+    private static BsonDocument streamCheckpoint(BsonDocument resumeToken) {
+        return new BsonDocument("_id", new BsonString(AUDIT_STREAM))
+                .append("resumeToken", resumeToken)
+                .append("updatedAt", new BsonDateTime(System.currentTimeMillis()));
+    }
+
+    @Override
+    public int insertMissingCreditors(List<Creditor> creditors) {
+        return insertMissing(creditorCollection, creditors);
+    }
+
+    @Override
+    public int insertMissingDebtors(List<Debtor> debtors) {
+        return insertMissing(debtorCollection, debtors);
+    }
+
+    // Always audit documents: AuditSink is not used with the bucketed layout
+    @Override
+    public int insertMissingAudits(List<MandateAudit> audits) {
+        return insertMissing(auditCollection, audits);
+    }
+
+    // Duplicate key errors mean someone else inserted it first; anything else is thrown
+    private <T> int insertMissing(MongoCollection<T> collection, List<T> documents) {
+        if (documents.isEmpty()) return 0;
+
+        try {
+            return collection.insertMany(documents, new InsertManyOptions().ordered(false)).getInsertedIds().size();
+        } catch (MongoBulkWriteException e) {
+            if (!onlyDuplicateKeys(e.getWriteErrors())) {
+                throw e;
+            }
+            return e.getWriteResult().getInsertedCount();
+        }
+    }
+
+    static boolean onlyDuplicateKeys(List<BulkWriteError> errors) {
+        return errors.stream().allMatch(error ->
+                ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+    }
+
+    static List<WriteModel<DirectDebitMandate>> fieldUpdateModels(List<MandateFieldUpdate> mandateUpdates) {
+        List<WriteModel<DirectDebitMandate>> updates = new ArrayList<>(mandateUpdates.size());
+
+        for (MandateFieldUpdate update : mandateUpdates) {
+            List<Bson> fields = new ArrayList<>(update.changedValues().size() + 1);
+            update.changedValues().forEach((name, value) ->
+                    fields.add(value != null ? Updates.set(name, value) : Updates.unset(name)));
+            fields.add(Updates.inc("version", 1));
+
+            updates.add(new UpdateOneModel<>(
+                    Filters.and(
+                            Filters.eq("mandateId", update.mandateId()),
+                            Filters.eq("lastUpdateDate", update.previousUpdateDate())
+                    ),
+                    Updates.combine(fields)
             ));
         }
+        return updates;
+    }
 
-        mandateCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+    // Updates whose mandate does not now carry their new lastUpdateDate
+    static Set<String> unapplied(List<MandateFieldUpdate> mandateUpdates, Map<String, MandateState> states) {
+        Set<String> unapplied = new HashSet<>();
+        for (MandateFieldUpdate update : mandateUpdates) {
+            MandateState state = states.get(update.mandateId());
+            if (state == null || !Objects.equals(state.lastUpdateDate(), update.newUpdateDate())) {
+                unapplied.add(update.mandateId());
+            }
+        }
+        return unapplied;
     }
 
     @Override
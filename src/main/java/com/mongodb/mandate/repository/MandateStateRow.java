@@ -0,0 +1,10 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.MandateState;
+
+/**
+ * One result of a mandate lookup query: the projected mandateId,
+ * lastUpdateDate and (with content hashing) contentHash.
+ */
+record MandateStateRow(String mandateId, MandateState state) {
+}
@@ -0,0 +1,51 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.MandateState;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.time.LocalDateTime;
+
+import static com.mongodb.mandate.repository.BsonFields.*;
+
+/**
+ * Decodes the projected lookup documents straight into a mandateId and
+ * {@link MandateState}, without building a DirectDebitMandate. Read only:
+ * the rows are never written back.
+ */
+final class MandateStateRowCodec implements Codec<MandateStateRow> {
+
+    @Override
+    public MandateStateRow decode(BsonReader reader, DecoderContext decoderContext) {
+        String mandateId = null;
+        LocalDateTime lastUpdateDate = null;
+        Long contentHash = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "mandateId" -> mandateId = readString(reader);
+                case "lastUpdateDate" -> lastUpdateDate = readDateTime(reader);
+                case "contentHash" -> contentHash = readInt64(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new MandateStateRow(mandateId, new MandateState(lastUpdateDate, contentHash));
+    }
+
+    @Override
+    public void encode(BsonWriter writer, MandateStateRow value, EncoderContext encoderContext) {
+        throw new UnsupportedOperationException("Mandate lookup rows are read only");
+    }
+
+    @Override
+    public Class<MandateStateRow> getEncoderClass() {
+        return MandateStateRow.class;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.mandate.model.*;
+
+import java.io.Closeable;
+import java.util.*;
+
+/**
+ * Everything MandateProcessor reads and writes: mandate lookups by
+ * mandateId, insert transactions, in-place field updates and audits.
+ * {@link MandateRepository} keeps them in MongoDB;
+ * {@link InMemoryMandateStore} keeps them in concurrent maps so the
+ * processing itself can be measured without a server.
+ */
+public interface MandateStore extends Closeable {
+
+    // Lookups also return the stored contentHash
+    void enableContentHashLookups();
+
+    // Audits are written as buckets of at most maxEntries
+    void enableAuditBuckets(int maxEntries);
+
+    Map<String, MandateState> batchGetMandateStates(List<String> mandateIds);
+
+    // Up to limit states from fromMandateId (inclusive) upwards, in mandateId order
+    LinkedHashMap<String, MandateState> scanMandateStates(String fromMandateId, int limit);
+
+    Map<String, DirectDebitMandate> batchGetMandates(List<String> mandateIds);
+
+    Set<String> getExistingCreditorIds(Set<String> creditorIds);
+
+    // Every stored creditorId, for callers that cache them
+    Set<String> getAllCreditorIds();
+
+    Set<String> getExistingDebtorIds(Set<String> debtorIds);
+
+    InsertTransaction startInsertTransaction();
+
+    /**
+     * $set (or $unset for null) of the changed fields and $inc of version,
+     * each applied only if the mandate still has the lastUpdateDate it was
+     * diffed against. Returns the mandateIds whose update was not applied.
+     */
+    Set<String> batchUpdateMandateFields(List<MandateFieldUpdate> mandateUpdates);
+
+    // Outside any transaction (for updates)
+    void batchInsertAudits(List<MandateAudit> audits);
+
+    /**
+     * One conditional upsert per mandate, keyed on mandateId and sent
+     * together: a missing mandate is inserted, a stored one is replaced if
+     * its lastUpdateDate is older and its contentHash differs, and any
+     * other is left as it is. Replaced mandates keep their createdAt and
+     * have their version incremented.
+     */
+    MergeResult mergeMandates(List<DirectDebitMandate> mandates, String mergeId);
+
+    // Outside any transaction; ids already stored are skipped. Returns how many were inserted
+    int insertMissingCreditors(List<Creditor> creditors);
+
+    int insertMissingDebtors(List<Debtor> debtors);
+
+    // Audits carrying their _id; any already stored are skipped. Returns how many were inserted
+    int insertMissingAudits(List<MandateAudit> audits);
+
+    WriteLimits getWriteLimits();
+
+    // Chunk ranges of mandates by shard; null when mandates is not sharded on a range of mandateId
+    ShardRanges getShardRanges();
+
+    // Encoded size of a document as it would be stored
+    <T> int encodedSize(T document);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,12 @@
+package com.mongodb.mandate.repository;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link MandateStore#mergeMandates} did with each mandate, by its
+ * index in the merged list. An index in none of these was left unchanged.
+ * Failed indexes map to the reason.
+ */
+public record MergeResult(Set<Integer> inserted, Set<Integer> updated, Map<Integer, String> failed) {
+}
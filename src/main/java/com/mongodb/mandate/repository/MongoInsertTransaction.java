@@ -0,0 +1,55 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.client.ClientSession;
+import com.mongodb.mandate.model.*;
+
+import java.util.List;
+
+// A MongoDB multi-document transaction on its own session
+class MongoInsertTransaction implements InsertTransaction {
+
+    private final MandateRepository repository;
+    private final ClientSession session;
+
+    MongoInsertTransaction(MandateRepository repository, ClientSession session) {
+        this.repository = repository;
+        this.session = session;
+        session.startTransaction();
+    }
+
+    @Override
+    public void insertCreditors(List<Creditor> creditors) {
+        repository.batchInsertCreditors(session, creditors);
+    }
+
+    @Override
+    public void insertDebtors(List<Debtor> debtors) {
+        repository.batchInsertDebtors(session, debtors);
+    }
+
+    @Override
+    public void insertMandates(List<DirectDebitMandate> mandates) {
+        repository.batchInsertMandates(session, mandates);
+    }
+
+    @Override
+    public void insertAudits(List<MandateAudit> audits) {
+        repository.batchInsertAudits(session, audits);
+    }
+
+    @Override
+    public void commit() {
+        session.commitTransaction();
+    }
+
+    @Override
+    public void abort() {
+        session.abortTransaction();
+    }
+
+    // The server aborts a transaction still open when its session ends
+    @Override
+    public void close() {
+        session.close();
+    }
+}
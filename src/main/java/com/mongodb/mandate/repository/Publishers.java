@@ -0,0 +1,60 @@
+package com.mongodb.mandate.repository;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Turns driver publishers into futures. Every publisher here is a single
+ * query or command whose results fit in memory, so everything is
+ * requested up front.
+ */
+final class Publishers {
+
+    private Publishers() {}
+
+    // Completes after every item has been passed to action, on the driver thread that delivered it
+    static <T> CompletableFuture<Void> forEach(Publisher<T> publisher, Consumer<? super T> action) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T item) {
+                try {
+                    action.accept(item);
+                } catch (RuntimeException e) {
+                    subscription.cancel();
+                    done.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    // The last item, or null for an empty publisher such as a commit
+    static <T> CompletableFuture<T> last(Publisher<T> publisher) {
+        AtomicReference<T> result = new AtomicReference<>();
+        return forEach(publisher, result::set).thenApply(v -> result.get());
+    }
+}
@@ -0,0 +1,76 @@
+package com.mongodb.mandate.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Which shard holds which mandateIds: the chunk ranges of mandates, keyed
+ * by each chunk's inclusive lower bound, with the empty string standing
+ * for MinKey. A mandateId belongs to the chunk with the greatest lower
+ * bound not above it.
+ *
+ * The ranges come from config.chunks, or from the shard.ranges property
+ * for a simulated cluster, written as shard=lowerBound pairs in key order:
+ *
+ * <pre>
+ * shard.ranges=shard-a=,shard-b=MND-0000002000,shard-a=MND-0000004000
+ * </pre>
+ *
+ * A snapshot goes stale when the balancer moves a chunk. Routing is only
+ * a grouping, so stale ranges make batches span two shards again but
+ * never send a write to the wrong place; mongos routes every write itself.
+ */
+public final class ShardRanges {
+
+    private final NavigableMap<String, String> chunks;
+    private final Set<String> shards;
+
+    public ShardRanges(Map<String, String> chunksByLowerBound) {
+        this.chunks = new TreeMap<>(chunksByLowerBound);
+        if (chunks.isEmpty() || !chunks.firstKey().isEmpty()) {
+            throw new IllegalArgumentException("Shard ranges must start at MinKey (an empty lower bound)");
+        }
+        Set<String> names = new LinkedHashSet<>(chunks.values());
+        this.shards = Collections.unmodifiableSet(names);
+    }
+
+    public static ShardRanges parse(String spec) {
+        Map<String, String> chunks = new TreeMap<>();
+        for (String range : spec.split(",")) {
+            int equals = range.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Invalid shard range '" + range.trim()
+                        + "', expected shard=lowerBound");
+            }
+            String shard = range.substring(0, equals).trim();
+            String lowerBound = range.substring(equals + 1).trim();
+            if (chunks.put(lowerBound, shard) != null) {
+                throw new IllegalArgumentException("Lower bound '" + lowerBound + "' appears twice in shard ranges");
+            }
+        }
+        return new ShardRanges(chunks);
+    }
+
+    // A null mandateId sorts below every other, as a missing field does in MongoDB
+    public String shardOf(String mandateId) {
+        return chunks.floorEntry(mandateId != null ? mandateId : "").getValue();
+    }
+
+    // In the order they first appear in the key space
+    public Set<String> getShards() {
+        return shards;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    @Override
+    public String toString() {
+        return chunks.size() + " chunks on " + shards.size() + " shards " + shards;
+    }
+}
@@ -0,0 +1,14 @@
+package com.mongodb.mandate.repository;
+
+public enum StoreType {
+
+    // MandateRepository against mongodb.uri
+    MONGO,
+
+    // InMemoryMandateStore, for benchmarking without a server
+    MEMORY;
+
+    public static StoreType fromString(String value) {
+        return StoreType.valueOf(value.trim().toUpperCase());
+    }
+}
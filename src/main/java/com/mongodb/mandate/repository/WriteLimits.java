@@ -0,0 +1,12 @@
+package com.mongodb.mandate.repository;
+
+/**
+ * Write limits the server reports in its hello response: the largest BSON
+ * document (and command) it accepts and the most operations one write
+ * command may carry.
+ */
+public record WriteLimits(int maxBsonObjectSize, int maxWriteBatchSize) {
+
+    // What every MongoDB version since 3.6 reports
+    public static final WriteLimits DEFAULT = new WriteLimits(16 * 1024 * 1024, 100_000);
+}
@@ -0,0 +1,112 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.repository.WriteLimits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the size of the next batch read from the file so that a batch's
+ * lookup and write take about the target latency.
+ *
+ * Each measured batch of n records that took L suggests n * target / L
+ * records, at most double or half of n. The suggestions are smoothed over
+ * recent batches; since latency grows with n, this settles where a batch
+ * takes the target. Moves of less than a tenth are ignored so the size
+ * settles instead of jittering. The size also stays within the configured
+ * bounds, the server's maxWriteBatchSize, and the number of records whose
+ * encoded mandate and audit fit in maxBsonObjectSize, so each insertMany
+ * goes to the server as one command.
+ *
+ * Batches finish out of order in pipelined and concurrent modes and may
+ * have been read at an older size; each is judged by its own size.
+ */
+class AdaptiveBatchSizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+
+    private static final double SMOOTHING = 0.3;
+    private static final double DEADBAND = 0.1;
+
+    private final long targetNanos;
+    private final int minSize;
+    private final int maxSize;
+    private final WriteLimits limits;
+
+    private volatile int size;
+    private double suggestedSize;
+    private double bytesPerRecord;
+
+    private long measured;
+    private int smallest;
+    private int largest;
+
+    AdaptiveBatchSizer(int initialSize, long targetLatencyMs, int minSize, int maxSize, WriteLimits limits) {
+        this.targetNanos = targetLatencyMs * 1_000_000;
+        this.minSize = Math.min(minSize, maxSize);
+        this.maxSize = Math.min(maxSize, limits.maxWriteBatchSize());
+        this.limits = limits;
+        this.size = clamp(initialSize, this.minSize, this.maxSize);
+        this.suggestedSize = size;
+        this.smallest = size;
+        this.largest = size;
+
+        logger.info("Adaptive batch size: starting at {}, target {} ms per batch, between {} and {} records"
+                        + " (server maxWriteBatchSize {}, maxBsonObjectSize {} bytes)",
+                size, targetLatencyMs, this.minSize, this.maxSize,
+                limits.maxWriteBatchSize(), limits.maxBsonObjectSize());
+    }
+
+    int nextSize() {
+        return size;
+    }
+
+    /**
+     * Folds in one finished batch. bytesPerRecord is 0 when the batch wrote
+     * nothing that could be measured.
+     */
+    synchronized void record(int records, long lookupNanos, long writeNanos, int bytesPerRecord) {
+        long latency = lookupNanos + writeNanos;
+        if (records == 0 || latency <= 0) {
+            return;
+        }
+        measured++;
+
+        double suggestion = records * (double) targetNanos / latency;
+        suggestion = Math.max(records / 2.0, Math.min(records * 2.0, suggestion));
+        suggestedSize = SMOOTHING * suggestion + (1 - SMOOTHING) * suggestedSize;
+
+        if (bytesPerRecord > 0) {
+            this.bytesPerRecord = this.bytesPerRecord == 0
+                    ? bytesPerRecord
+                    : SMOOTHING * bytesPerRecord + (1 - SMOOTHING) * this.bytesPerRecord;
+        }
+
+        int limit = maxSize;
+        if (this.bytesPerRecord > 0) {
+            limit = (int) Math.min(limit, limits.maxBsonObjectSize() / this.bytesPerRecord);
+        }
+        // The server limits win over batch.min.size
+        int candidate = Math.max(1, Math.min(limit, Math.max(minSize, (int) Math.round(suggestedSize))));
+
+        boolean overLimit = size > limit;
+        if (!overLimit && Math.abs(candidate - size) < DEADBAND * size) {
+            return;
+        }
+
+        logger.info("Batch size {} -> {}: last batch of {} took {} ms (lookup {} ms, write {} ms), target {} ms, ~{} bytes per record",
+                size, candidate, records, latency / 1_000_000, lookupNanos / 1_000_000, writeNanos / 1_000_000,
+                targetNanos / 1_000_000, Math.round(this.bytesPerRecord));
+        size = candidate;
+        smallest = Math.min(smallest, candidate);
+        largest = Math.max(largest, candidate);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    synchronized String describe() {
+        return String.format("%d batches measured, final size %d (ranged %d to %d), ~%d bytes per record",
+                measured, size, smallest, largest, Math.round(bytesPerRecord));
+    }
+}
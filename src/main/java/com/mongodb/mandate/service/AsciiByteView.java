@@ -0,0 +1,41 @@
+package com.mongodb.mandate.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CharSequence over the bytes of a buffer, one char per byte, so the
+ * fixed-layout decoders can read digits without decoding a String. Indexes
+ * are absolute buffer positions. Only meaningful for ASCII content.
+ */
+class AsciiByteView implements CharSequence {
+
+    private ByteBuffer buffer;
+
+    AsciiByteView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+}
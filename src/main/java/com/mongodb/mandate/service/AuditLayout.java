@@ -0,0 +1,14 @@
+package com.mongodb.mandate.service;
+
+public enum AuditLayout {
+
+    // One mandate_audits document per audit
+    DOCUMENT,
+
+    // One mandate_audit_buckets document per write, batch and change type, with an entry per mandate
+    BUCKET;
+
+    public static AuditLayout fromString(String value) {
+        return AuditLayout.valueOf(value.trim().toUpperCase());
+    }
+}
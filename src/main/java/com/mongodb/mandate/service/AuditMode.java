@@ -0,0 +1,17 @@
+package com.mongodb.mandate.service;
+
+public enum AuditMode {
+
+    // Audit records are built and written by the ingest path, with the changes they record
+    INLINE,
+
+    // The ingest path only writes mandates; ChangeStreamAuditWriter audits them from the change stream
+    CHANGE_STREAM,
+
+    // Audit records are built by the ingest path and written after their batch by AuditSink
+    ASYNC;
+
+    public static AuditMode fromString(String value) {
+        return AuditMode.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,325 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AuditSpool;
+import com.mongodb.mandate.repository.MandateStore;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes audits for audit.mode=async off the batch's critical path. The
+ * ingest path hands over a batch's audits once its mandates are written
+ * and moves on; audit.sink.writers threads take whatever has queued up, to
+ * audit.sink.max.batch at a time, and write it as one unordered insertMany.
+ *
+ * The {@link AuditSpool} on local disk is a write-ahead log: submit()
+ * appends the audits to it, forced to disk, before queueing them, and the
+ * queue is only the fast path to MongoDB. The spool's head moves past each
+ * append once all of its audits are written, so audits survive the process
+ * being killed as well as an orderly shutdown. The queue holds at most
+ * audit.sink.queue.capacity audits. An append that does not fit, because
+ * MongoDB is not keeping up, or that a writer fails to write, is left to a
+ * drainer thread, which reads it back from the spool while the queue is
+ * less than half full. A spool left by an earlier run is drained the same
+ * way. Every audit gets its _id before it is logged, so one written twice
+ * (a write that failed after storing part of its audits, or a crash before
+ * the head moved past it) is skipped as a duplicate.
+ */
+class AuditSink implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditSink.class);
+
+    private static final long POLL_MS = 100;
+    private static final long RETRY_BACKOFF_MS = 1_000;
+    // Consecutive failed writes of the spool after which close() leaves the rest to the next run
+    private static final int CLOSE_DRAIN_ATTEMPTS = 3;
+
+    private final MandateStore store;
+    private final AuditSpool spool;
+    private final BlockingQueue<Queued> queue;
+    // Appends not yet all written, in spool order; guarded by itself
+    private final Deque<Append> appends = new ArrayDeque<>();
+    private final int maxBatch;
+    private final List<Thread> writers = new ArrayList<>();
+    private final Thread drainer;
+
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder writtenFromSpool = new LongAdder();
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder totalLagMs = new LongAdder();
+    private final LongAccumulator maxLagMs = new LongAccumulator(Math::max, 0);
+
+    // One submit() in the spool; written from the queue, or read back by the drainer when queued is false
+    private static final class Append {
+        final AuditSpool.Extent extent;
+        final int audits;
+        final AtomicInteger unwritten;
+        final AtomicBoolean queued = new AtomicBoolean(true);
+        volatile boolean drained;
+
+        Append(AuditSpool.Extent extent, int audits) {
+            this.extent = extent;
+            this.audits = audits;
+            this.unwritten = new AtomicInteger(audits);
+        }
+
+        boolean isWritten() {
+            return drained || unwritten.get() <= 0;
+        }
+    }
+
+    private record Queued(MandateAudit audit, Append append) {}
+
+    AuditSink(MandateStore store, ProcessorOptions options) throws IOException {
+        Path spoolDir = options.getAuditSpoolDir() != null ? options.getAuditSpoolDir() : Paths.get("");
+        this.store = store;
+        this.spool = new AuditSpool(spoolDir.toAbsolutePath());
+        this.queue = new ArrayBlockingQueue<>(options.getAuditSinkQueueCapacity());
+        this.maxBatch = options.getAuditSinkMaxBatch();
+
+        if (spool.getPendingAudits() > 0) {
+            Append earlier = new Append(spool.pending(), (int) spool.getPendingAudits());
+            earlier.queued.set(false);
+            appends.add(earlier);
+        }
+        for (int i = 0; i < options.getAuditSinkWriters(); i++) {
+            writers.add(Thread.ofPlatform().name("audit-sink-" + i).daemon().start(this::write));
+        }
+        drainer = Thread.ofPlatform().name("audit-spool-drainer").daemon().start(this::drain);
+
+        logger.info("Audit sink: {} writer(s), queue of {} audits, spool {}",
+                writers.size(), options.getAuditSinkQueueCapacity(), spool.getPath());
+    }
+
+    // Never blocks on MongoDB; returns once the audits are on disk
+    void submit(List<MandateAudit> audits) {
+        if (audits.isEmpty()) return;
+
+        for (MandateAudit audit : audits) {
+            if (audit.getId() == null) {
+                audit.setId(new ObjectId());
+            }
+        }
+        Append append;
+        synchronized (appends) {
+            append = new Append(spool.append(audits), audits.size());
+            appends.add(append);
+        }
+
+        for (MandateAudit audit : audits) {
+            if (closing || !queue.offer(new Queued(audit, append))) {
+                // Those already queued are written twice, the second time as duplicates
+                leaveToDrainer(append);
+                return;
+            }
+        }
+    }
+
+    private void leaveToDrainer(Append append) {
+        if (append.queued.compareAndSet(true, false)) {
+            spooled.add(append.audits);
+        }
+    }
+
+    private void write() {
+        List<Queued> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            Queued first;
+            try {
+                first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first == null) {
+                if (closing) break;
+                continue;
+            }
+
+            // Everything queued while the last insert was out goes in the next one
+            batch.add(first);
+            queue.drainTo(batch, maxBatch - 1);
+            List<MandateAudit> audits = batch.stream().map(Queued::audit).toList();
+            try {
+                written(audits, store.insertMissingAudits(audits));
+                for (Queued queued : batch) {
+                    queued.append().unwritten.decrementAndGet();
+                }
+                advance();
+            } catch (RuntimeException e) {
+                logger.warn("Audit sink: writing {} audits failed, leaving them to the spool drainer: {}",
+                        batch.size(), e.getMessage());
+                failedWrites.increment();
+                for (Queued queued : batch) {
+                    leaveToDrainer(queued.append());
+                }
+                if (!closing) {
+                    sleep(RETRY_BACKOFF_MS);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Moves the spool's head past the appends at its front that are written
+    private void advance() {
+        synchronized (appends) {
+            long endOffset = -1;
+            long count = 0;
+            while (!appends.isEmpty() && appends.peek().isWritten()) {
+                Append written = appends.poll();
+                endOffset = written.extent.endOffset();
+                count += written.audits;
+            }
+            if (endOffset >= 0) {
+                spool.written(endOffset, count);
+            }
+        }
+    }
+
+    // The oldest append left to the drainer, or null when there is none
+    private Append nextToDrain() {
+        synchronized (appends) {
+            for (Append append : appends) {
+                if (!append.queued.get() && !append.isWritten()) {
+                    return append;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Writes the appends left to it, oldest first, whenever the queue has room to spare
+    private void drain() {
+        while (!closed) {
+            Append append = queue.size() > queue.remainingCapacity() ? null : nextToDrain();
+            if (append == null) {
+                sleep(POLL_MS);
+                continue;
+            }
+            if (!drainAppend(append)) {
+                sleep(RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    // Reads the append back from the spool, audit.sink.max.batch at a time; a failure starts it again later
+    private boolean drainAppend(Append append) {
+        long offset = append.extent.startOffset();
+        while (offset < append.extent.endOffset()) {
+            AuditSpool.Chunk chunk = spool.read(offset, append.extent.endOffset(), maxBatch);
+            int inserted;
+            try {
+                inserted = store.insertMissingAudits(chunk.audits());
+            } catch (RuntimeException e) {
+                logger.warn("Audit sink: writing {} spooled audits failed: {}", chunk.audits().size(), e.getMessage());
+                failedWrites.increment();
+                return false;
+            }
+            written(chunk.audits(), inserted);
+            writtenFromSpool.add(inserted);
+            offset = chunk.endOffset();
+        }
+        append.drained = true;
+        advance();
+        return true;
+    }
+
+    // Lag is from when the audit was made to when it is in MongoDB; duplicates are not counted as written
+    private void written(List<MandateAudit> audits, int inserted) {
+        written.add(inserted);
+        LocalDateTime now = LocalDateTime.now();
+        for (MandateAudit audit : audits) {
+            if (audit.getChangeTimestamp() != null) {
+                long lagMs = Duration.between(audit.getChangeTimestamp(), now).toMillis();
+                totalLagMs.add(lagMs);
+                maxLagMs.accumulate(lagMs);
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String describe() {
+        long count = written.sum();
+        return String.format("%d written (%d from the spool), %d spooled, %d failed writes, "
+                        + "queue %d/%d, spool depth %d audits (%d KB), lag avg %d ms, max %d ms",
+                count, writtenFromSpool.sum(), spooled.sum(), failedWrites.sum(),
+                queue.size(), queue.size() + queue.remainingCapacity(),
+                spool.getPendingAudits(), spool.getPendingBytes() / 1024,
+                count > 0 ? totalLagMs.sum() / count : 0, maxLagMs.get());
+    }
+
+    /**
+     * Stops taking audits into the queue, lets the writers empty it, then
+     * drains the spool until it is empty or writes keep failing. What is
+     * left in the spool is written by the next run.
+     */
+    @Override
+    public synchronized void close() {
+        if (closing) return;
+        closing = true;
+        try {
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            closed = true;
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Audits queued just as the writers stopped are read back from the spool
+        List<Queued> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (Queued queued : rest) {
+            leaveToDrainer(queued.append());
+        }
+
+        int failures = 0;
+        Append append;
+        while (failures < CLOSE_DRAIN_ATTEMPTS && (append = nextToDrain()) != null) {
+            if (drainAppend(append)) {
+                failures = 0;
+            } else if (++failures < CLOSE_DRAIN_ATTEMPTS) {
+                sleep(RETRY_BACKOFF_MS);
+            }
+        }
+        if (spool.getPendingAudits() > 0) {
+            logger.warn("Audit sink: {} audits left in {}, written by the next run",
+                    spool.getPendingAudits(), spool.getPath());
+        }
+        logger.info("Audit sink: {}", describe());
+        spool.close();
+    }
+}
@@ -0,0 +1,148 @@
+package com.mongodb.mandate.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a decompressing InputStream on a dedicated thread that fills a fixed
+ * ring of byte buffers, so decompression and parsing overlap. Empty buffers
+ * circulate from the free queue to the decompressor and back through the
+ * filled queue to the consumer, which hands each one back with
+ * {@link #release(Filled)} once it has finished with it. No buffer is
+ * allocated after start-up.
+ */
+class BackgroundDecompressor implements AutoCloseable {
+
+    record Filled(byte[] data, int length) {}
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundDecompressor.class);
+
+    // How long close() waits for the thread to leave the stream before closing it anyway
+    private static final long CLOSE_TIMEOUT_MS = 5_000;
+
+    // Terminal markers placed on the filled queue
+    private static final Filled END = new Filled(new byte[0], 0);
+    private static final Filled FAILED = new Filled(new byte[0], 0);
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Filled> filled;
+    private final Thread thread;
+
+    private volatile IOException failure;
+    private volatile long decompressedBytes;
+    private volatile long busyNanos;
+    private volatile boolean closed;
+
+    BackgroundDecompressor(InputStream source, String name, int bufferCount, int bufferSize) {
+        this.source = source;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+
+        this.thread = new Thread(this::run, "decompressor-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                byte[] buffer = free.take();
+                long start = System.nanoTime();
+                int length = fill(buffer);
+                busyNanos += System.nanoTime() - start;
+
+                if (length > 0) {
+                    decompressedBytes += length;
+                    filled.put(new Filled(buffer, length));
+                }
+                if (length < buffer.length) {
+                    filled.put(END);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+            filled.offer(FAILED);
+        }
+    }
+
+    // Reads until the buffer is full or the stream ends
+    private int fill(byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length && !closed) {
+            int read = source.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Next buffer of decompressed bytes, or null at end of stream.
+     */
+    Filled next() throws IOException {
+        Filled next;
+        try {
+            next = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+        }
+
+        if (next == FAILED) {
+            throw new IOException("Decompression failed: " + failure.getMessage(), failure);
+        }
+        if (next == END) {
+            filled.offer(END);
+            return null;
+        }
+        return next;
+    }
+
+    void release(Filled buffer) {
+        free.offer(buffer.data());
+    }
+
+    long getDecompressedBytes() {
+        return decompressedBytes;
+    }
+
+    long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Stops the thread and waits for it to finish its current read before
+     * closing the stream, so the stream and its Inflater are never closed
+     * under a read in progress.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Decompressor thread {} did not stop within {} ms, closing its stream anyway",
+                    thread.getName(), CLOSE_TIMEOUT_MS);
+        }
+        source.close();
+    }
+}
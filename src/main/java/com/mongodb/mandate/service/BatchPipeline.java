@@ -0,0 +1,235 @@
+package com.mongodb.mandate.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A chain of stages connected by bounded queues. The source runs on the
+ * calling thread and every other stage on its own pool of worker threads.
+ * A full queue blocks the stage feeding it, so the pipeline moves at the
+ * pace of its slowest stage and holds at most {@code queueCapacity} items
+ * between any two stages.
+ *
+ * Items may leave a stage with several workers in a different order than
+ * they entered it; callers that need ordering enforce it themselves.
+ * The first exception thrown by any stage stops the whole pipeline and is
+ * rethrown from {@link #run(Source)}.
+ */
+class BatchPipeline<T> {
+
+    @FunctionalInterface
+    interface Source<T> {
+        // Next item, or null when the input is exhausted
+        T next() throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Task<T> {
+        void process(T item) throws Exception;
+    }
+
+    record StageMetrics(String name, int threads, long items, long busyMs, long starvedMs,
+                        long blockedMs, int queueCapacity, int maxQueueDepth) {}
+
+    private static final Object END = new Object();
+    private static final long OFFER_POLL_MS = 100;
+
+    private final int queueCapacity;
+    private final List<Stage> stages = new ArrayList<>();
+    private final Stage source;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    BatchPipeline(String sourceName, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.source = new Stage(sourceName, 1, null, null);
+    }
+
+    BatchPipeline<T> stage(String name, int threads, Task<T> task) {
+        stages.add(new Stage(name, threads, task, new ArrayBlockingQueue<>(queueCapacity)));
+        return this;
+    }
+
+    /**
+     * Pulls items from the source until it is exhausted, then waits for
+     * every stage to drain.
+     */
+    void run(Source<T> input) throws IOException {
+        CountDownLatch finished = startWorkers();
+
+        try {
+            while (failure.get() == null) {
+                long start = System.nanoTime();
+                T item = input.next();
+                source.busyNanos.add(System.nanoTime() - start);
+                if (item == null) {
+                    break;
+                }
+                source.items.increment();
+                if (!handOff(source, stages.get(0), item)) {
+                    break;
+                }
+            }
+            handOff(source, stages.get(0), END);
+        } catch (Exception e) {
+            fail(e);
+        }
+
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+
+        Throwable cause = failure.get();
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof InterruptedException) {
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause != null) {
+            throw new IOException("Pipeline stage failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private CountDownLatch startWorkers() {
+        int total = stages.stream().mapToInt(s -> s.threads).sum();
+        CountDownLatch finished = new CountDownLatch(total);
+
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            Stage next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            for (int t = 1; t <= stage.threads; t++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        work(stage, next);
+                    } finally {
+                        finished.countDown();
+                    }
+                }, "pipeline-" + stage.name + "-" + t);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+        }
+        // Started only once the list is complete, as fail() walks it
+        workers.forEach(Thread::start);
+        return finished;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(Stage stage, Stage next) {
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Object item = stage.input.take();
+                stage.starvedNanos.add(System.nanoTime() - start);
+
+                if (item == END) {
+                    // Leave the marker for sibling workers; the last one out passes it on
+                    stage.input.put(END);
+                    if (stage.running.decrementAndGet() == 0 && next != null) {
+                        handOff(stage, next, END);
+                    }
+                    return;
+                }
+
+                start = System.nanoTime();
+                stage.task.process((T) item);
+                stage.busyNanos.add(System.nanoTime() - start);
+                stage.items.increment();
+
+                if (next != null && !handOff(stage, next, item)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped by another stage's failure
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    // Blocks while the next queue is full; false once the pipeline has failed
+    private boolean handOff(Stage from, Stage to, Object item) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            while (!to.input.offer(item, OFFER_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    return false;
+                }
+            }
+            to.recordDepth();
+            return failure.get() == null;
+        } finally {
+            from.blockedNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    List<StageMetrics> metrics() {
+        List<StageMetrics> result = new ArrayList<>();
+        result.add(source.metrics());
+        for (Stage stage : stages) {
+            result.add(stage.metrics());
+        }
+        return result;
+    }
+
+    // Current number of items waiting in front of each worker stage
+    List<Integer> queueDepths() {
+        return stages.stream().map(s -> s.input.size()).toList();
+    }
+
+    private final class Stage {
+        final String name;
+        final int threads;
+        final Task<T> task;
+        final BlockingQueue<Object> input;
+        final AtomicInteger running;
+
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder starvedNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        Stage(String name, int threads, Task<T> task, BlockingQueue<Object> input) {
+            this.name = name;
+            this.threads = threads;
+            this.task = task;
+            this.input = input;
+            this.running = new AtomicInteger(threads);
+        }
+
+        void recordDepth() {
+            maxDepth.accumulateAndGet(input.size(), Math::max);
+        }
+
+        StageMetrics metrics() {
+            return new StageMetrics(name, threads, items.sum(),
+                    busyNanos.sum() / 1_000_000, starvedNanos.sum() / 1_000_000, blockedNanos.sum() / 1_000_000,
+                    input != null ? queueCapacity : 0, maxDepth.get());
+        }
+    }
+}
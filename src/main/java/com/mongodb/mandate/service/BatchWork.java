@@ -0,0 +1,74 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * One batch of file records and everything derived from it on its way to
+ * MongoDB. Each processing phase fills in the fields the next one reads, so
+ * a batch can be handed from one pipeline stage to another.
+ */
+class BatchWork {
+
+    final long sequence;
+    final List<MandateFileRecord> records;
+    final String sourceFile;
+    final String batchId;
+    // Reader position just after the last line of this batch
+    final ReaderPosition position;
+
+    KeyOrderingGate.Ticket ticket;
+
+    // processing.mode=sharded: the shard this part of a read batch goes to, the
+    // read batch itself, and how many of its parts are still being written
+    String shard;
+    BatchWork readBatch;
+    AtomicInteger unfinishedParts;
+
+    // Filled by lookup
+    List<MandateFileRecord> toInsert = Collections.emptyList();
+    List<String> toCheckForUpdate = Collections.emptyList();
+    // Newer lastUpdateDate but the same content hash: no fetch or diff needed
+    List<MandateFileRecord> dateOnly = Collections.emptyList();
+    Map<String, MandateState> existingStates = Collections.emptyMap();
+    Set<String> existingCreditors = Collections.emptySet();
+    Set<String> existingDebtors = Collections.emptySet();
+    Map<String, DirectDebitMandate> existingMandates = Collections.emptyMap();
+    // write.mode=merge: every record that parsed, with no lookup
+    List<MandateFileRecord> toMerge = Collections.emptyList();
+
+    // Filled by build
+    List<Creditor> creditorsToInsert = Collections.emptyList();
+    List<Debtor> debtorsToInsert = Collections.emptyList();
+    List<DirectDebitMandate> mandatesToInsert = Collections.emptyList();
+    List<MandateAudit> insertAudits = Collections.emptyList();
+    List<MandateFieldUpdate> mandateUpdates = Collections.emptyList();
+    List<MandateFieldUpdate> dateOnlyUpdates = Collections.emptyList();
+    List<MandateAudit> updateAudits = Collections.emptyList();
+    // Lines up with toMerge
+    List<DirectDebitMandate> mandatesToMerge = Collections.emptyList();
+
+    // Measured for the adaptive batch size
+    long lookupNanos;
+    long writeNanos;
+    int encodedBytesPerRecord;
+
+    BatchWork(long sequence, List<MandateFileRecord> records, String sourceFile, String batchId,
+              ReaderPosition position) {
+        this.sequence = sequence;
+        this.records = records;
+        this.sourceFile = sourceFile;
+        this.batchId = batchId;
+        this.position = position;
+    }
+
+    List<String> mandateIds() {
+        return records.stream()
+                .map(MandateFileRecord::getMandateId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,245 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import com.mongodb.mandate.model.FieldChange;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AuditStream;
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the audit records for audit.mode=change-stream, from a change
+ * stream on mandates with pre- and post-images. An insert is audited as
+ * INSERT, an update or replacement as UPDATE with the fields that differ
+ * between the two images, as the ingest path would have diffed them. An
+ * update that changed no audited field, such as a version bump, gets no
+ * audit record.
+ *
+ * Events are collected until audit.stream.batch.size of them arrive or
+ * audit.stream.max.wait.ms passes, then their audits are written in one
+ * transaction with the resume token of the last one. A restart, or a
+ * reconnect after an error, resumes after that token. While no events
+ * arrive, the cursor's post-batch token is saved instead, at most every
+ * audit.stream.idle.save.ms, so that the saved token does not age out of
+ * the oplog on a quiet collection.
+ *
+ * The source file and batch id come from the mandate itself, which the
+ * ingest path stamps in this mode.
+ */
+public class ChangeStreamAuditWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeStreamAuditWriter.class);
+
+    private static final long RECONNECT_BACKOFF_MS = 1_000;
+
+    private final AuditStream repository;
+    private final MandateDiffService diffService = new MandateDiffService();
+    private final int batchSize;
+    private final int maxWaitMs;
+    private final long idleSaveNanos;
+    private final String processedBy = System.getProperty("user.name", "system");
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    private long events;
+    private long audits;
+    private long unaudited;
+    private long withoutPreImage;
+    private long batches;
+    private long idleSaves;
+
+    public ChangeStreamAuditWriter(AuditStream repository, ProcessorOptions options) {
+        this.repository = repository;
+        this.batchSize = options.getAuditStreamBatchSize();
+        this.maxWaitMs = options.getAuditStreamMaxWaitMs();
+        this.idleSaveNanos = TimeUnit.MILLISECONDS.toNanos(options.getAuditStreamIdleSaveMs());
+        if (options.getAuditLayout() == AuditLayout.BUCKET) {
+            repository.enableAuditBuckets(options.getAuditBucketMaxEntries());
+        }
+    }
+
+    // Runs until close() is called from another thread
+    public void run() {
+        try {
+            repository.enableChangeStreamImages();
+
+            while (running) {
+                try {
+                    // Read back rather than remembered: a commit whose outcome was unknown may have saved it
+                    BsonDocument resumeToken = repository.getAuditResumeToken();
+                    if (resumeToken == null) {
+                        logger.info("Audit stream: no resume token saved, auditing changes from now on");
+                    } else {
+                        logger.info("Audit stream: resuming after {}", resumeToken.toJson());
+                    }
+                    tail(resumeToken);
+                } catch (MongoException e) {
+                    if (!running) break;
+                    logger.warn("Audit stream failed, reopening after the last saved token: {}", e.getMessage());
+                    sleep(RECONNECT_BACKOFF_MS);
+                }
+            }
+            logStatistics();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    // Reads the stream until stopped; events read but not written are read again after a failure
+    private void tail(BsonDocument resumeToken) {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<DirectDebitMandate>> cursor =
+                     repository.watchMandates(resumeToken, batchSize, maxWaitMs)) {
+            List<MandateAudit> pending = new ArrayList<>();
+            BsonDocument pendingToken = null;
+            int pendingEvents = 0;
+            long deadline = 0;
+            BsonDocument savedToken = resumeToken;
+            long savedAt = System.nanoTime();
+
+            while (running) {
+                // Waits up to maxWaitMs on the server when nothing is there
+                ChangeStreamDocument<DirectDebitMandate> event = cursor.tryNext();
+                if (event != null) {
+                    if (pendingEvents == 0) {
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                    }
+                    MandateAudit audit = auditOf(event);
+                    if (audit != null) {
+                        pending.add(audit);
+                    }
+                    pendingToken = event.getResumeToken();
+                    pendingEvents++;
+                }
+
+                if (pendingEvents > 0
+                        && (event == null || pendingEvents >= batchSize || System.nanoTime() >= deadline)) {
+                    write(pending, pendingToken, pendingEvents);
+                    pending = new ArrayList<>();
+                    pendingEvents = 0;
+                    savedToken = pendingToken;
+                    savedAt = System.nanoTime();
+                } else if (event == null && pendingEvents == 0 && System.nanoTime() - savedAt >= idleSaveNanos) {
+                    // Nothing to audit up to the end of the batch, whose token moves on with the oplog
+                    BsonDocument idleToken = cursor.getResumeToken();
+                    if (idleToken != null && !idleToken.equals(savedToken)) {
+                        repository.saveAuditResumeToken(idleToken);
+                        idleSaves++;
+                        savedToken = idleToken;
+                    }
+                    savedAt = System.nanoTime();
+                }
+            }
+
+            if (pendingEvents > 0) {
+                write(pending, pendingToken, pendingEvents);
+            }
+        }
+    }
+
+    private void write(List<MandateAudit> pending, BsonDocument token, int eventCount) {
+        repository.insertStreamAudits(pending, token);
+        events += eventCount;
+        audits += pending.size();
+        batches++;
+        logger.debug("Audit stream: {} audits written for {} events", pending.size(), eventCount);
+    }
+
+    // Null for an update that changed no audited field
+    private MandateAudit auditOf(ChangeStreamDocument<DirectDebitMandate> event) {
+        DirectDebitMandate after = event.getFullDocument();
+        if (after == null) {
+            // Deleted again before the event was read; there is no post-image to audit
+            logger.warn("Audit stream: no post-image for {} of {}", event.getOperationType().getValue(),
+                    event.getDocumentKey());
+            unaudited++;
+            return null;
+        }
+
+        MandateAudit.MandateAuditBuilder audit = MandateAudit.builder()
+                .mandateId(after.getMandateId())
+                .changeTimestamp(timestampOf(event))
+                .sourceFile(after.getSourceFile())
+                .newUpdateDate(after.getLastUpdateDate())
+                .processedBy(processedBy)
+                .batchId(after.getBatchId());
+
+        if (event.getOperationType() == OperationType.INSERT) {
+            return audit.changeType("INSERT")
+                    .fieldChanges(Collections.emptyList())
+                    .build();
+        }
+
+        DirectDebitMandate before = event.getFullDocumentBeforeChange();
+        if (before == null) {
+            // Pre-images were off or have expired: the change is recorded without its fields
+            withoutPreImage++;
+            return audit.changeType("UPDATE")
+                    .fieldChanges(Collections.emptyList())
+                    .build();
+        }
+
+        List<FieldChange> changes = diffService.diff(before, after);
+        if (changes.isEmpty()) {
+            unaudited++;
+            return null;
+        }
+        return audit.changeType("UPDATE")
+                .previousUpdateDate(before.getLastUpdateDate())
+                .fieldChanges(changes)
+                .build();
+    }
+
+    // When the change was made, in the local time the ingest path would have used
+    private static LocalDateTime timestampOf(ChangeStreamDocument<DirectDebitMandate> event) {
+        if (event.getWallTime() != null) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getWallTime().getValue()), ZoneId.systemDefault());
+        }
+        if (event.getClusterTime() != null) {
+            return LocalDateTime.ofInstant(Instant.ofEpochSecond(event.getClusterTime().getTime()), ZoneId.systemDefault());
+        }
+        return LocalDateTime.now();
+    }
+
+    private void logStatistics() {
+        logger.info("Audit stream: {} events, {} audits written in {} transactions, {} not audited, "
+                + "{} updates without a pre-image, {} idle token saves", events, audits, batches, unaudited,
+                withoutPreImage, idleSaves);
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    // Stops reading, writes what was already read and waits for run() to return
+    @Override
+    public void close() {
+        running = false;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
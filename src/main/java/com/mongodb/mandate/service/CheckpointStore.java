@@ -0,0 +1,123 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.service.FileCheckpoint.FileIdentity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Persists a {@link FileCheckpoint} per input file as a small properties
+ * file, {@code <input-file>.checkpoint}, either next to the input or in a
+ * configured directory. Each save writes a temporary file, forces it to
+ * disk and atomically renames it over the previous checkpoint, so a crash
+ * leaves either the old or the new checkpoint, never a torn one.
+ */
+public class CheckpointStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointStore.class);
+
+    private static final String SUFFIX = ".checkpoint";
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    private final Path directory;
+
+    // A null directory keeps checkpoints next to their input files
+    public CheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path pathFor(Path inputFile) {
+        Path dir = directory != null ? directory : inputFile.toAbsolutePath().getParent();
+        return dir.resolve(inputFile.getFileName() + SUFFIX);
+    }
+
+    public static FileIdentity identify(Path inputFile) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            crc.update(in.readNBytes(FINGERPRINT_BYTES));
+        }
+        return new FileIdentity(
+                inputFile.getFileName().toString(),
+                Files.size(inputFile),
+                Files.getLastModifiedTime(inputFile).toMillis(),
+                crc.getValue());
+    }
+
+    public Optional<FileCheckpoint> load(Path inputFile) throws IOException {
+        Path path = pathFor(inputFile);
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+
+        try {
+            return Optional.of(new FileCheckpoint(
+                    new FileIdentity(
+                            props.getProperty("file.name"),
+                            Long.parseLong(props.getProperty("file.size")),
+                            Long.parseLong(props.getProperty("file.lastModified")),
+                            Long.parseLong(props.getProperty("file.fingerprint"))),
+                    new ReaderPosition(
+                            Long.parseLong(props.getProperty("offset")),
+                            Long.parseLong(props.getProperty("lineNumber"))),
+                    props.getProperty("batchId"),
+                    Long.parseLong(props.getProperty("recordsProcessed", "0")),
+                    Instant.parse(props.getProperty("savedAt"))));
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable checkpoint " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void save(Path inputFile, FileCheckpoint checkpoint) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("file.name", checkpoint.file().fileName());
+        props.setProperty("file.size", Long.toString(checkpoint.file().size()));
+        props.setProperty("file.lastModified", Long.toString(checkpoint.file().lastModified()));
+        props.setProperty("file.fingerprint", Long.toString(checkpoint.file().fingerprint()));
+        props.setProperty("offset", Long.toString(checkpoint.position().offset()));
+        props.setProperty("lineNumber", Long.toString(checkpoint.position().lineNumber()));
+        props.setProperty("batchId", checkpoint.batchId());
+        props.setProperty("recordsProcessed", Long.toString(checkpoint.recordsProcessed()));
+        props.setProperty("savedAt", checkpoint.savedAt().toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        props.store(bytes, "Mandate ingestion checkpoint");
+
+        Path path = pathFor(inputFile);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public void delete(Path inputFile) throws IOException {
+        if (Files.deleteIfExists(pathFor(inputFile))) {
+            logger.debug("Removed checkpoint for {}", inputFile.getFileName());
+        }
+    }
+}
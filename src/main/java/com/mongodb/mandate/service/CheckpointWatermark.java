@@ -0,0 +1,60 @@
+package com.mongodb.mandate.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Turns batch completions, which may arrive out of order when several
+ * batches are written concurrently, into checkpoints. The checkpoint only
+ * ever advances to the end of the longest run of consecutive completed
+ * batches, so resuming from it never skips a batch that was still in flight.
+ */
+class CheckpointWatermark {
+
+    private final CheckpointStore store;
+    private final Path filePath;
+    private final FileCheckpoint.FileIdentity identity;
+    private final String batchId;
+
+    // A lock rather than synchronized, so a virtual thread saving a checkpoint is not pinned
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, BatchWork> pending = new HashMap<>();
+    private long nextSequence = 0;
+    private long recordsProcessed;
+
+    // A null store disables checkpointing; completions are still tracked
+    CheckpointWatermark(CheckpointStore store, Path filePath, FileCheckpoint.FileIdentity identity,
+                        String batchId, long previouslyProcessed) {
+        this.store = store;
+        this.filePath = filePath;
+        this.identity = identity;
+        this.batchId = batchId;
+        this.recordsProcessed = previouslyProcessed;
+    }
+
+    void completed(BatchWork work) throws IOException {
+        lock.lock();
+        try {
+            pending.put(work.sequence, work);
+
+            BatchWork last = null;
+            BatchWork next;
+            while ((next = pending.remove(nextSequence)) != null) {
+                recordsProcessed += next.records.size();
+                nextSequence++;
+                last = next;
+            }
+
+            if (last != null && store != null) {
+                store.save(filePath, new FileCheckpoint(identity, last.position, batchId,
+                        recordsProcessed, Instant.now()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.mongodb.mandate.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs each item on its own virtual thread, with at most a fixed number in
+ * flight. The source is read on the calling thread, which blocks while
+ * every slot is taken. Blocking calls inside a task park the virtual
+ * thread rather than a platform thread, so the in-flight count can be far
+ * larger than the number of cores.
+ *
+ * The first exception thrown by a task stops the source and is rethrown
+ * from {@link #run} once every running task has finished.
+ *
+ * {@link #runAsync} takes tasks that start non-blocking work and return a
+ * future instead; a slot is held until the future completes, with no
+ * thread tied to it.
+ */
+class ConcurrentBatchRunner<T> {
+
+    record Metrics(int maxInFlight, long items, int peakInFlight, long sourceBlockedMs) {}
+
+    private final int maxInFlight;
+    private final Semaphore slots;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final LongAdder items = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+    private final LongAdder sourceBlockedNanos = new LongAdder();
+
+    ConcurrentBatchRunner(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.slots = new Semaphore(maxInFlight);
+    }
+
+    void run(BatchPipeline.Source<T> source, BatchPipeline.Task<T> task) throws IOException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (failure.get() == null) {
+                T item = source.next();
+                if (item == null) {
+                    break;
+                }
+
+                long start = System.nanoTime();
+                slots.acquire();
+                sourceBlockedNanos.add(System.nanoTime() - start);
+
+                items.increment();
+                peakInFlight.accumulate(inFlight.incrementAndGet());
+                executor.execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            task.process(item);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.decrementAndGet();
+                        slots.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+        // Closing the executor above waited for every submitted task
+        rethrowFailure();
+    }
+
+    void runAsync(BatchPipeline.Source<T> source, Function<T, CompletableFuture<Void>> task) throws IOException {
+        try {
+            while (failure.get() == null) {
+                T item = source.next();
+                if (item == null) {
+                    break;
+                }
+
+                long start = System.nanoTime();
+                slots.acquire();
+                sourceBlockedNanos.add(System.nanoTime() - start);
+
+                items.increment();
+                peakInFlight.accumulate(inFlight.incrementAndGet());
+                CompletableFuture<Void> future;
+                try {
+                    future = task.apply(item);
+                } catch (Throwable e) {
+                    future = CompletableFuture.failedFuture(e);
+                }
+                future.whenComplete((v, error) -> {
+                    if (error != null) {
+                        failure.compareAndSet(null, error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error);
+                    }
+                    inFlight.decrementAndGet();
+                    slots.release();
+                });
+            }
+
+            // Every slot free again means every task has finished
+            slots.acquire(maxInFlight);
+            slots.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        }
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() throws IOException {
+        Throwable cause = failure.get();
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof InterruptedException) {
+            throw new InterruptedIOException("Batch processing interrupted");
+        }
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause != null) {
+            throw new IOException("Batch failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    Metrics metrics() {
+        return new Metrics(maxInFlight, items.sum(), peakInFlight.intValue(),
+                sourceBlockedNanos.sum() / 1_000_000);
+    }
+}
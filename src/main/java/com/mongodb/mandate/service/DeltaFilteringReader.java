@@ -0,0 +1,68 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops records whose line is unchanged since the delta snapshot, so only
+ * new and changed lines reach the database. Batches are refilled from the
+ * underlying reader, so they stay full however many lines are dropped, and
+ * the position still covers the dropped lines.
+ */
+class DeltaFilteringReader implements MandateRecordReader {
+
+    private final MandateRecordReader delegate;
+    private final DeltaSnapshot snapshot;
+
+    DeltaFilteringReader(MandateRecordReader delegate, DeltaSnapshot snapshot) {
+        this.delegate = delegate;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public String getFileName() {
+        return delegate.getFileName();
+    }
+
+    @Override
+    public List<MandateFileRecord> readBatch(int batchSize) throws IOException {
+        List<MandateFileRecord> batch = new ArrayList<>(batchSize);
+
+        while (batch.size() < batchSize) {
+            List<MandateFileRecord> read = delegate.readBatch(batchSize - batch.size());
+            if (read.isEmpty()) {
+                break;
+            }
+            for (MandateFileRecord record : read) {
+                if (!snapshot.isUnchanged(record)) {
+                    batch.add(record);
+                }
+            }
+        }
+
+        return batch;
+    }
+
+    @Override
+    public ReaderPosition getPosition() {
+        return delegate.getPosition();
+    }
+
+    @Override
+    public long getDecompressedBytes() {
+        return delegate.getDecompressedBytes();
+    }
+
+    @Override
+    public long getDecompressionNanos() {
+        return delegate.getDecompressionNanos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
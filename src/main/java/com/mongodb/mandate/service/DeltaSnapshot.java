@@ -0,0 +1,164 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The line last seen for each mandate, carried from one run to the next so
+ * lines that are byte-for-byte unchanged since the previous file can be
+ * dropped before any database work. Keys are 64-bit hashes of the mandateId
+ * and values the {@link LineHash} of the line, held in one open-addressing
+ * table of longs (about 32 bytes per mandate).
+ *
+ * On disk it is a short header followed by the key/value pairs, written to
+ * a temporary file, forced and atomically renamed like a checkpoint.
+ */
+class DeltaSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaSnapshot.class);
+
+    private static final int MAGIC = 0x4D534E50; // "MSNP"
+    private static final int VERSION = 1;
+    private static final int MIN_CAPACITY = 1024;
+
+    // Key at 2 * slot, value at 2 * slot + 1; a zero key marks a free slot
+    private long[] table;
+    private int size;
+    private long unchanged;
+
+    DeltaSnapshot(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        this.table = new long[capacity * 2];
+    }
+
+    /**
+     * Reads a snapshot written by {@link #save}. A missing file gives an
+     * empty snapshot; so does an unreadable one, since without it every
+     * line simply goes to the database.
+     */
+    static DeltaSnapshot load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new DeltaSnapshot(0);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a version " + VERSION + " delta snapshot");
+            }
+            int count = in.readInt();
+            DeltaSnapshot snapshot = new DeltaSnapshot(count);
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                snapshot.put(key, in.readLong());
+            }
+            return snapshot;
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable delta snapshot {}: {}", path, e.getMessage());
+            return new DeltaSnapshot(0);
+        }
+    }
+
+    void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < table.length; i += 2) {
+                if (table[i] != 0) {
+                    out.writeLong(table[i]);
+                    out.writeLong(table[i + 1]);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * True when the record's line is identical to the one recorded for its
+     * mandate. Otherwise the record's line becomes the recorded one.
+     */
+    boolean isUnchanged(MandateFileRecord record) {
+        if (record.getMandateId() == null) {
+            return false;
+        }
+        long key = keyOf(record.getMandateId());
+        int slot = find(key);
+        if (table[slot] == key && table[slot + 1] == record.getLineHash()) {
+            unchanged++;
+            return true;
+        }
+        put(key, record.getLineHash());
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getUnchangedCount() {
+        return unchanged;
+    }
+
+    private static long keyOf(String mandateId) {
+        long key = LineHash.of(mandateId);
+        return key != 0 ? key : 1;
+    }
+
+    // Slot holding the key, or the free slot where it would go
+    private int find(long key) {
+        int mask = table.length - 2;
+        int slot = (int) (key ^ (key >>> 32)) << 1 & mask;
+        while (table[slot] != 0 && table[slot] != key) {
+            slot = (slot + 2) & mask;
+        }
+        return slot;
+    }
+
+    private void put(long key, long value) {
+        int slot = find(key);
+        if (table[slot] == 0) {
+            if ((size + 1) * 4L > table.length) {
+                grow();
+                slot = find(key);
+            }
+            table[slot] = key;
+            size++;
+        }
+        table[slot + 1] = value;
+    }
+
+    // Keeps the table at most half full
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != 0) {
+                int slot = find(old[i]);
+                table[slot] = old[i];
+                table[slot + 1] = old[i + 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.mongodb.mandate.service;
+
+import java.time.Instant;
+
+/**
+ * Progress of one input file as of its last committed batch.
+ */
+public record FileCheckpoint(FileIdentity file, ReaderPosition position, String batchId,
+                             long recordsProcessed, Instant savedAt) {
+
+    /**
+     * Identifies the exact file a checkpoint was taken from, so a checkpoint
+     * is never applied to a regenerated or edited copy of the same name. The
+     * fingerprint is a CRC32 of the first 64 KB.
+     */
+    public record FileIdentity(String fileName, long size, long lastModified, long fingerprint) {}
+}
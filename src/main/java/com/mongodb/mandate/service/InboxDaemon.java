@@ -0,0 +1,331 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Processes files as they arrive in an inbox directory, for as long as the
+ * process runs, with one warm store, reference cache and JIT instead of a
+ * fresh JVM per file.
+ *
+ * A file is picked up once its size and modification time have stayed the
+ * same for daemon.settle.ms, so one still being copied in is left alone.
+ * Ready files start in the order of the timestamp in their names (the
+ * generator's yyyy-MM-dd_HH-mm-ss, or yyyyMMdd[_HHmm[ss]]; the last one in
+ * the name wins), then by name. Up to daemon.file.concurrency files run at
+ * once, each on its own {@link MandateProcessor} sharing the first one's
+ * store, cache, audit sink, key ordering and insert locks. A finished file moves to the done directory
+ * and one that failed to the failed directory; a line of its statistics is
+ * appended to statistics.csv in the done directory.
+ *
+ * Files already in the inbox at startup are processed first, and a file
+ * interrupted by a crash resumes from its checkpoint.
+ */
+public class InboxDaemon implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxDaemon.class);
+
+    static final String STATISTICS_FILE = "statistics.csv";
+    private static final String STATISTICS_HEADER = "file,started,durationMs,outcome,processed,inserted,updated,"
+            + "skipped,errors,rejected,newCreditors,newDebtors";
+
+    // Names the daemon or a copy in progress writes next to input files
+    private static final List<String> IGNORED_SUFFIXES = List.of(".rejects", ".checkpoint", ".part", ".tmp");
+
+    // yyyy-MM-dd_HH-mm-ss as the generator names files, or yyyyMMdd[_HHmm[ss]]
+    private static final Pattern NAME_TIMESTAMP = Pattern.compile(
+            "(\\d{4})-?(\\d{2})-?(\\d{2})(?:[_T-](\\d{2})-?(\\d{2})(?:-?(\\d{2}))?)?");
+
+    private final Path inbox;
+    private final Path doneDir;
+    private final Path failedDir;
+    private final String glob;
+    private final PathMatcher matcher;
+    private final long settleMs;
+    private final int concurrency;
+    private final BlockingQueue<MandateProcessor> processors;
+    private final WatchService watchService;
+    private final ExecutorService executor;
+
+    // Files seen but not yet settled: their size and modification time, and since when they were so
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    // Picked up and not yet moved out of the inbox; touched by the workers too
+    private final Set<Path> running = ConcurrentHashMap.newKeySet();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean stopping;
+
+    private long filesProcessed;
+    private long filesFailed;
+
+    private record Candidate(long size, long lastModified, long since) {}
+
+    public InboxDaemon(MandateProcessor processor, ProcessorOptions options, Path inbox) throws IOException {
+        this.inbox = inbox.toAbsolutePath();
+        this.doneDir = options.getDaemonDoneDir() != null ? options.getDaemonDoneDir() : this.inbox.resolve("done");
+        this.failedDir = options.getDaemonFailedDir() != null
+                ? options.getDaemonFailedDir()
+                : this.inbox.resolve("failed");
+        this.glob = options.getDaemonFileGlob();
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.settleMs = options.getDaemonSettleMs();
+        this.concurrency = options.getDaemonFileConcurrency();
+
+        if (concurrency > 1 && options.getSnapshotFile() != null) {
+            throw new IllegalArgumentException("snapshot.file holds one snapshot; it needs daemon.file.concurrency=1");
+        }
+        if (!Files.isDirectory(this.inbox)) {
+            throw new IOException("Inbox " + this.inbox + " is not a directory");
+        }
+        Files.createDirectories(doneDir);
+        Files.createDirectories(failedDir);
+
+        this.processors = new LinkedBlockingQueue<>();
+        processors.add(processor);
+        for (int i = 1; i < concurrency; i++) {
+            processors.add(new MandateProcessor(processor));
+        }
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.executor = Executors.newFixedThreadPool(concurrency, r -> new Thread(r, "inbox-file"));
+    }
+
+    /**
+     * Watches the inbox until close() is called from another thread, then
+     * waits for the files already started. An inbox that can no longer be
+     * listed stops it the same way, and the error is rethrown.
+     */
+    public void run() throws IOException {
+        logger.info("Watching {} for {} ({} file(s) at a time, settled after {} ms); done files go to {}, "
+                + "failed ones to {}", inbox, glob, concurrency, settleMs, doneDir, failedDir);
+        try {
+            while (!stopping) {
+                scan();
+                startReady();
+                awaitChange();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() was called
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Inbox daemon stopped: {} files processed, {} failed", filesProcessed, filesFailed);
+            stopped.countDown();
+        }
+    }
+
+    // Events only say something changed; the directory listing is what counts
+    private void awaitChange() {
+        try {
+            WatchKey key = watchService.poll(Math.max(100, settleMs / 2), TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopping = true;
+        }
+    }
+
+    private void scan() throws IOException {
+        long now = System.currentTimeMillis();
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+            for (Path file : files) {
+                if (!isInput(file)) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // Moved away between listing and reading
+                    continue;
+                }
+                if (!attributes.isRegularFile() || running.contains(file)) {
+                    continue;
+                }
+                present.add(file);
+                Candidate seen = candidates.get(file);
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                if (seen == null || seen.size() != attributes.size() || seen.lastModified() != lastModified) {
+                    candidates.put(file, new Candidate(attributes.size(), lastModified, now));
+                }
+            }
+        }
+        candidates.keySet().retainAll(present);
+    }
+
+    private boolean isInput(Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".")) {
+            return false;
+        }
+        for (String suffix : IGNORED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return false;
+            }
+        }
+        return matcher.matches(file.getFileName());
+    }
+
+    private void startReady() {
+        long now = System.currentTimeMillis();
+        List<Path> ready = new ArrayList<>();
+        candidates.forEach((file, candidate) -> {
+            if (now - candidate.since() >= settleMs) {
+                ready.add(file);
+            }
+        });
+        ready.sort(FILE_ORDER);
+
+        for (Path file : ready) {
+            if (running.size() >= concurrency) {
+                break;
+            }
+            candidates.remove(file);
+            running.add(file);
+            executor.execute(() -> process(file));
+        }
+    }
+
+    static final Comparator<Path> FILE_ORDER = Comparator
+            .comparing((Path file) -> timestampOf(file.getFileName().toString()))
+            .thenComparing(file -> file.getFileName().toString());
+
+    // Digits of the last timestamp in the name, yyyyMMddHHmmss; names without one sort first
+    static String timestampOf(String name) {
+        Matcher matcher = NAME_TIMESTAMP.matcher(name);
+        String timestamp = "";
+        while (matcher.find()) {
+            StringBuilder digits = new StringBuilder();
+            for (int group = 1; group <= 6; group++) {
+                digits.append(matcher.group(group) != null ? matcher.group(group) : "00");
+            }
+            timestamp = digits.toString();
+        }
+        return timestamp;
+    }
+
+    private void process(Path file) {
+        MandateProcessor processor = processors.remove();
+        LocalDateTime started = LocalDateTime.now();
+        long start = System.currentTimeMillis();
+        String outcome = "done";
+        try {
+            processor.processFile(file);
+            moveTo(file, doneDir);
+        } catch (Exception e) {
+            outcome = "failed";
+            logger.error("Processing {} failed, moving it to {}: {}", file.getFileName(), failedDir, e.getMessage(), e);
+            moveTo(file, failedDir);
+        } finally {
+            long durationMs = System.currentTimeMillis() - start;
+            ProcessingStatistics statistics = processor.getStatistics();
+            processors.add(processor);
+            record(file, started, durationMs, outcome, statistics);
+            running.remove(file);
+        }
+    }
+
+    private void moveTo(Path file, Path directory) {
+        try {
+            Files.move(file, directory.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // Left in the inbox it would be processed again; stop rather than loop on it
+            logger.error("Could not move {} to {}, stopping: {}", file, directory, e.getMessage());
+            stopping = true;
+        }
+    }
+
+    private synchronized void record(Path file, LocalDateTime started, long durationMs, String outcome,
+                                     ProcessingStatistics statistics) {
+        if (outcome.equals("done")) {
+            filesProcessed++;
+        } else {
+            filesFailed++;
+        }
+        logger.info("Inbox: {} {} in {} ms, {} records ({} inserted, {} updated, {} skipped, {} errors); "
+                        + "{} files processed, {} failed so far",
+                file.getFileName(), outcome, durationMs, statistics.getTotalProcessed(), statistics.getInserted(),
+                statistics.getUpdated(), statistics.getSkipped(), statistics.getErrors(), filesProcessed, filesFailed);
+
+        Path statisticsFile = doneDir.resolve(STATISTICS_FILE);
+        try {
+            boolean header = !Files.exists(statisticsFile);
+            try (BufferedWriter writer = Files.newBufferedWriter(statisticsFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if (header) {
+                    writer.write(STATISTICS_HEADER);
+                    writer.newLine();
+                }
+                writer.write(String.join(",", file.getFileName().toString(), started.toString(),
+                        Long.toString(durationMs), outcome, Long.toString(statistics.getTotalProcessed()),
+                        Long.toString(statistics.getInserted()), Long.toString(statistics.getUpdated()),
+                        Long.toString(statistics.getSkipped()), Long.toString(statistics.getErrors()),
+                        Long.toString(statistics.getRejected()), Long.toString(statistics.getNewCreditors()),
+                        Long.toString(statistics.getNewDebtors())));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not append to {}: {}", statisticsFile, e.getMessage());
+        }
+    }
+
+    // Stops picking up files and waits for those already started
+    @Override
+    public void close() {
+        stopping = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the inbox watch: {}", e.getMessage());
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
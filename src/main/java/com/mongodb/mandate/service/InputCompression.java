@@ -0,0 +1,57 @@
+package com.mongodb.mandate.service;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+enum InputCompression {
+
+    NONE,
+
+    // RFC 1952, magic 1F 8B
+    GZIP,
+
+    // RFC 8878 frame, magic 28 B5 2F FD
+    ZSTD;
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    static InputCompression detect(Path filePath) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // fill up to four bytes
+            }
+        }
+
+        if (magic.position() >= 2 && (magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B) {
+            return GZIP;
+        }
+        if (magic.position() == 4 && magic.getInt(0) == 0x28B52FFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    InputStream open(Path filePath) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(filePath), READ_BUFFER_SIZE);
+        try {
+            return switch (this) {
+                case GZIP -> new GZIPInputStream(in, READ_BUFFER_SIZE);
+                case ZSTD -> new ZstdInputStream(in);
+                case NONE -> in;
+            };
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
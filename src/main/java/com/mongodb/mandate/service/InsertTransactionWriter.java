@@ -0,0 +1,300 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.mandate.model.Creditor;
+import com.mongodb.mandate.model.Debtor;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AsyncMandateRepository;
+import com.mongodb.mandate.repository.InsertTransaction;
+import com.mongodb.mandate.repository.MandateStore;
+import com.mongodb.reactivestreams.client.ClientSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Writes a batch's inserts in one transaction. A transient transaction
+ * error retries the transaction and an unknown commit result retries the
+ * commit, both with exponential backoff.
+ *
+ * Any other failure is taken to come from the data: the mandates are split
+ * in two and each half is written in its own transaction, recursively,
+ * until the offending mandates fail alone and go to the reject sink. A
+ * single poison record in a batch of n costs about 2 log2(n) extra
+ * transactions, and every other record is still written. Each part takes
+ * the creditors and debtors its mandates need that no earlier part wrote.
+ *
+ * With an {@link AsyncMandateRepository} the same steps are chained as
+ * futures: backoff is a scheduled delay and each part starts when the one
+ * before it completes, so no thread waits in between.
+ */
+class InsertTransactionWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(InsertTransactionWriter.class);
+
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    private final MandateStore store;
+    // Null unless processing.mode=async
+    private final AsyncMandateRepository asyncRepository;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final ProcessingStatistics statistics;
+    private final RejectSink rejects;
+    // Null when reference.cache.enabled is off
+    private final ReferenceDataCache referenceCache;
+    // With audit.mode=async audits go here once their mandates are committed; null otherwise
+    private final AuditSink auditSink;
+
+    InsertTransactionWriter(MandateStore store, AsyncMandateRepository asyncRepository,
+                            int maxAttempts, long backoffMs, ProcessingStatistics statistics, RejectSink rejects,
+                            ReferenceDataCache referenceCache, AuditSink auditSink) {
+        this.store = store;
+        this.asyncRepository = asyncRepository;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.statistics = statistics;
+        this.rejects = rejects;
+        this.referenceCache = referenceCache;
+        this.auditSink = auditSink;
+    }
+
+    // Records, mandates and audits (if any) of a batch line up by index
+    void write(BatchWork work) {
+        try {
+            write(work, 0, work.mandatesToInsert.size(), new HashSet<>(), new HashSet<>(), null).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    // Bookkeeping after each transaction runs on continuations rather than a driver thread
+    CompletableFuture<Void> writeAsync(BatchWork work, Executor continuations) {
+        return write(work, 0, work.mandatesToInsert.size(), new HashSet<>(), new HashSet<>(), continuations);
+    }
+
+    // Without continuations the blocking driver is used and the future is complete on return
+    private CompletableFuture<Void> write(BatchWork work, int from, int to, Set<String> writtenCreditors,
+                                          Set<String> writtenDebtors, Executor continuations) {
+        List<DirectDebitMandate> mandates = work.mandatesToInsert.subList(from, to);
+        // No audits are built with audit.mode=change-stream
+        List<MandateAudit> audits = work.insertAudits.isEmpty()
+                ? Collections.emptyList()
+                : work.insertAudits.subList(from, to);
+        List<MandateAudit> transactionAudits = auditSink != null ? Collections.emptyList() : audits;
+
+        Set<String> creditorIds = mandates.stream().map(DirectDebitMandate::getCreditorId).collect(Collectors.toSet());
+        Set<String> debtorIds = mandates.stream().map(DirectDebitMandate::getDebtorId).collect(Collectors.toSet());
+        List<Creditor> creditors = work.creditorsToInsert.stream()
+                .filter(c -> creditorIds.contains(c.getCreditorId()) && !writtenCreditors.contains(c.getCreditorId()))
+                .collect(Collectors.toList());
+        List<Debtor> debtors = work.debtorsToInsert.stream()
+                .filter(d -> debtorIds.contains(d.getDebtorId()) && !writtenDebtors.contains(d.getDebtorId()))
+                .collect(Collectors.toList());
+
+        CompletableFuture<Void> transaction = continuations == null
+                ? runTransaction(creditors, debtors, mandates, transactionAudits)
+                // Hop off the driver thread whether the transaction succeeded or not
+                : runTransactionAsync(creditors, debtors, mandates, transactionAudits, 1, continuations)
+                        .whenCompleteAsync((v, error) -> {}, continuations);
+
+        return transaction.handle((v, error) -> error).thenCompose(error -> {
+            if (error == null) {
+                written(creditors, debtors, mandates, writtenCreditors, writtenDebtors);
+                if (auditSink != null) {
+                    auditSink.submit(audits);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+
+            RuntimeException e = unwrap(error);
+            if (!isCausedByData(e)) {
+                logger.error("Batch transaction failed: {}", e.getMessage());
+                statistics.addErrors(to - from);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (to - from == 1) {
+                rejects.reject(work.toInsert.get(from), e.getMessage());
+                statistics.addRejected(1);
+                statistics.addErrors(1);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            logger.debug("Insert of {} mandates failed, splitting: {}", to - from, e.getMessage());
+            statistics.addSplitTransactions(1);
+            int middle = (from + to) >>> 1;
+            return write(work, from, middle, writtenCreditors, writtenDebtors, continuations)
+                    .thenCompose(x -> write(work, middle, to, writtenCreditors, writtenDebtors, continuations));
+        });
+    }
+
+    private void written(List<Creditor> creditors, List<Debtor> debtors, List<DirectDebitMandate> mandates,
+                         Set<String> writtenCreditors, Set<String> writtenDebtors) {
+        creditors.forEach(c -> writtenCreditors.add(c.getCreditorId()));
+        debtors.forEach(d -> writtenDebtors.add(d.getDebtorId()));
+        if (referenceCache != null) {
+            referenceCache.creditors().add(creditors.stream().map(Creditor::getCreditorId).toList());
+            referenceCache.debtors().add(debtors.stream().map(Debtor::getDebtorId).toList());
+        }
+        statistics.addNewCreditors(creditors.size());
+        statistics.addNewDebtors(debtors.size());
+        statistics.addInserted(mandates.size());
+
+        logger.debug("Batch inserted {} mandates, {} creditors, {} debtors",
+                mandates.size(), creditors.size(), debtors.size());
+    }
+
+    private CompletableFuture<Void> runTransaction(List<Creditor> creditors, List<Debtor> debtors,
+                                                   List<DirectDebitMandate> mandates, List<MandateAudit> audits) {
+        try {
+            runTransactionBlocking(creditors, debtors, mandates, audits);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void runTransactionBlocking(List<Creditor> creditors, List<Debtor> debtors,
+                                        List<DirectDebitMandate> mandates, List<MandateAudit> audits) {
+        for (int attempt = 1; ; attempt++) {
+            try (InsertTransaction transaction = store.startInsertTransaction()) {
+                try {
+                    if (!creditors.isEmpty()) {
+                        transaction.insertCreditors(creditors);
+                    }
+                    if (!debtors.isEmpty()) {
+                        transaction.insertDebtors(debtors);
+                    }
+                    transaction.insertMandates(mandates);
+                    transaction.insertAudits(audits);
+                } catch (RuntimeException e) {
+                    transaction.abort();
+                    throw e;
+                }
+
+                commit(transaction);
+                return;
+            } catch (MongoException e) {
+                if (!e.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                logger.debug("Transient transaction error, attempt {} of {}: {}", attempt, maxAttempts, e.getMessage());
+                statistics.addTransactionRetries(1);
+                backoff(attempt);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> runTransactionAsync(List<Creditor> creditors, List<Debtor> debtors,
+                                                        List<DirectDebitMandate> mandates, List<MandateAudit> audits,
+                                                        int attempt, Executor continuations) {
+        return asyncRepository.startTransaction().thenCompose(session ->
+                asyncRepository.batchInsertCreditors(session, creditors)
+                        .thenCompose(v -> asyncRepository.batchInsertDebtors(session, debtors))
+                        .thenCompose(v -> asyncRepository.batchInsertMandates(session, mandates))
+                        .thenCompose(v -> asyncRepository.batchInsertAudits(session, audits))
+                        .handle((v, error) -> error == null
+                                ? commitAsync(session, 1, continuations)
+                                : asyncRepository.abortTransaction(session)
+                                        .handle((x, abortError) -> null)
+                                        .<Void>thenCompose(x -> CompletableFuture.failedFuture(error)))
+                        .thenCompose(result -> result)
+                        .whenComplete((v, error) -> session.close())
+        ).exceptionallyCompose(error -> {
+            RuntimeException e = unwrap(error);
+            if (!(e instanceof MongoException mongo)
+                    || !mongo.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)
+                    || attempt >= maxAttempts) {
+                return CompletableFuture.failedFuture(e);
+            }
+            logger.debug("Transient transaction error, attempt {} of {}: {}", attempt, maxAttempts, e.getMessage());
+            statistics.addTransactionRetries(1);
+            return delay(attempt, continuations).thenCompose(v ->
+                    runTransactionAsync(creditors, debtors, mandates, audits, attempt + 1, continuations));
+        });
+    }
+
+    private CompletableFuture<Void> commitAsync(ClientSession session,
+                                                int attempt, Executor continuations) {
+        return asyncRepository.commitTransaction(session).exceptionallyCompose(error -> {
+            RuntimeException e = unwrap(error);
+            if (!(e instanceof MongoException mongo)
+                    || !mongo.hasErrorLabel(MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)
+                    || attempt >= maxAttempts) {
+                return CompletableFuture.failedFuture(e);
+            }
+            logger.debug("Unknown commit result, attempt {} of {}: {}", attempt, maxAttempts, e.getMessage());
+            statistics.addTransactionRetries(1);
+            return delay(attempt, continuations).thenCompose(v -> commitAsync(session, attempt + 1, continuations));
+        });
+    }
+
+    // Committing again is safe: the server reports an earlier successful commit
+    private void commit(InsertTransaction transaction) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transaction.commit();
+                return;
+            } catch (MongoException e) {
+                if (!e.hasErrorLabel(MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                logger.debug("Unknown commit result, attempt {} of {}: {}", attempt, maxAttempts, e.getMessage());
+                statistics.addTransactionRetries(1);
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(int attempt) {
+        try {
+            Thread.sleep(backoffDelayMs(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoInterruptedException("Interrupted while waiting to retry a transaction", e);
+        }
+    }
+
+    private CompletableFuture<Void> delay(int attempt, Executor continuations) {
+        return CompletableFuture.runAsync(() -> {},
+                CompletableFuture.delayedExecutor(backoffDelayMs(attempt), TimeUnit.MILLISECONDS, continuations));
+    }
+
+    // Exponential with jitter: between half and all of backoffMs * 2^(attempt - 1)
+    private long backoffDelayMs(int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RuntimeException e ? e : new CompletionException(cause);
+    }
+
+    /**
+     * Whether a smaller transaction might succeed. Not for retries that ran
+     * out, connectivity failures, or a commit whose outcome is unknown
+     * (it may have been applied).
+     */
+    private static boolean isCausedByData(RuntimeException e) {
+        if (e instanceof MongoException mongo) {
+            return !mongo.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)
+                    && !mongo.hasErrorLabel(MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)
+                    && !(e instanceof MongoSocketException)
+                    && !(e instanceof MongoTimeoutException)
+                    && !(e instanceof MongoInterruptedException);
+        }
+        return true;
+    }
+}
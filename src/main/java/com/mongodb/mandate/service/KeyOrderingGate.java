@@ -0,0 +1,62 @@
+package com.mongodb.mandate.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Orders batches that share a key while letting unrelated batches run
+ * concurrently. Batches are registered one at a time in file order; each
+ * ticket's {@link Ticket#ready()} completes once every earlier batch that
+ * touches any of the same keys has been released. Files processed at once
+ * share a gate, so their batches are ordered the same way. Only keys of
+ * batches still in flight are held, so memory is bounded by the pipeline depth.
+ */
+class KeyOrderingGate {
+
+    static final class Ticket {
+        private final Collection<String> keys;
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private CompletableFuture<Void> ready;
+
+        private Ticket(Collection<String> keys) {
+            this.keys = keys;
+        }
+
+        // Completes when this batch may read and write its keys
+        CompletableFuture<Void> ready() {
+            return ready;
+        }
+    }
+
+    private final Map<String, Ticket> lastByKey = new ConcurrentHashMap<>();
+
+    // In the order batches are to be applied; all of a batch's keys are taken in one step
+    synchronized Ticket register(Collection<String> keys) {
+        Ticket ticket = new Ticket(keys);
+        List<CompletableFuture<Void>> predecessors = new ArrayList<>();
+
+        for (String key : keys) {
+            Ticket previous = lastByKey.put(key, ticket);
+            if (previous != null && previous != ticket && !previous.released.isDone()
+                    && !predecessors.contains(previous.released)) {
+                predecessors.add(previous.released);
+            }
+        }
+
+        ticket.ready = predecessors.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.allOf(predecessors.toArray(new CompletableFuture[0]));
+        return ticket;
+    }
+
+    void release(Ticket ticket) {
+        ticket.released.complete(null);
+        for (String key : ticket.keys) {
+            lastByKey.remove(key, ticket);
+        }
+    }
+}
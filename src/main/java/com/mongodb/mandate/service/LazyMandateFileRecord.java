@@ -0,0 +1,337 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Read-only view of one mandate line that keeps the raw line bytes and a
+ * table of trimmed column offsets, and decodes a column the first time its
+ * getter is called. mandateId and lastUpdateDate are decoded when the line
+ * is read, so the skip path of MandateProcessor pays for two columns only.
+ *
+ * Because the other columns are decoded late, a malformed value surfaces as
+ * an exception from its getter. {@link #materialize()} decodes everything
+ * up front so callers can reject such a record with its line number before
+ * building documents from it. Instances are not thread-safe.
+ */
+class LazyMandateFileRecord extends MandateFileRecord {
+
+    private final byte[] line;
+    private final int[] starts;
+    private final int[] ends;
+    private final int fieldCount;
+    private final MandateFieldDecoder decoder;
+    private final boolean amountsAsMinorUnits;
+    private long lineNumber;
+
+    // Bit i set once column i has been decoded into the superclass field
+    private int decoded;
+    private AsciiByteView view;
+
+    LazyMandateFileRecord(byte[] line, int[] starts, int[] ends, int fieldCount,
+                          MandateFieldDecoder decoder, boolean amountsAsMinorUnits, long lineNumber) {
+        this.line = line;
+        this.starts = starts;
+        this.ends = ends;
+        this.fieldCount = fieldCount;
+        this.decoder = decoder;
+        this.amountsAsMinorUnits = amountsAsMinorUnits;
+        this.lineNumber = lineNumber;
+
+        getMandateId();
+        getLastUpdateDate();
+    }
+
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    void setLineNumber(long lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Decodes every remaining column, throwing the same exception the eager
+     * parser would have raised for the first malformed one.
+     */
+    void materialize() {
+        getCreditorId();
+        getCreditorName();
+        getCreditorAccountNumber();
+        getCreditorSortCode();
+        getCreditorIban();
+        getCreditorBic();
+        getDebtorName();
+        getDebtorAccountNumber();
+        getDebtorSortCode();
+        getDebtorIban();
+        getDebtorBic();
+        getDebtorEmail();
+        getDebtorPhone();
+        getMandateReference();
+        getMandateType();
+        getFrequency();
+        getStatus();
+        getSignatureDate();
+        getEffectiveDate();
+        getExpiryDate();
+        getMaxAmountPerTransaction();
+        getMaxAmountPerMonth();
+        getMaxTransactionsPerMonth();
+        getCurrency();
+        getDescription();
+        getSchemeType();
+    }
+
+    private boolean pending(int index) {
+        return (decoded & (1 << index)) == 0;
+    }
+
+    private void done(int index) {
+        decoded |= 1 << index;
+    }
+
+    private boolean isMissing(int index) {
+        return index >= fieldCount || starts[index] == ends[index];
+    }
+
+    private AsciiByteView view() {
+        if (view == null) {
+            view = new AsciiByteView().wrap(ByteBuffer.wrap(line));
+        }
+        return view;
+    }
+
+    // Line bytes were validated as UTF-8 when the record was created
+    private String text(int index) {
+        if (isMissing(index)) return null;
+        return new String(line, starts[index], ends[index] - starts[index], StandardCharsets.UTF_8);
+    }
+
+    private LocalDateTime dateTime(int index) {
+        if (isMissing(index)) return null;
+        LocalDateTime value = decoder.fastDateTime(view(), starts[index], ends[index]);
+        return value != null ? value : decoder.parseDateTime(text(index));
+    }
+
+    private LocalDate date(int index) {
+        if (isMissing(index)) return null;
+        LocalDate value = decoder.fastDate(view(), starts[index], ends[index]);
+        return value != null ? value : decoder.parseDate(text(index));
+    }
+
+    private Integer integer(int index) {
+        if (isMissing(index)) return null;
+        Integer value = decoder.fastInteger(view(), starts[index], ends[index]);
+        return value != null ? value : decoder.parseInteger(text(index));
+    }
+
+    private void decodeAmount(int index) {
+        long minor = isMissing(index) ? NO_MINOR_UNITS
+                : decoder.fastAmountMinorUnits(view(), starts[index], ends[index]);
+        BigDecimal value = null;
+        if (minor == NO_MINOR_UNITS && !isMissing(index)) {
+            value = decoder.parseAmount(text(index));
+        }
+
+        if (index == 22) {
+            if (amountsAsMinorUnits && minor != NO_MINOR_UNITS) {
+                setMaxAmountPerTransactionMinorUnits(minor);
+            } else {
+                setMaxAmountPerTransaction(minor != NO_MINOR_UNITS ? BigDecimal.valueOf(minor, 2) : value);
+            }
+        } else {
+            if (amountsAsMinorUnits && minor != NO_MINOR_UNITS) {
+                setMaxAmountPerMonthMinorUnits(minor);
+            } else {
+                setMaxAmountPerMonth(minor != NO_MINOR_UNITS ? BigDecimal.valueOf(minor, 2) : value);
+            }
+        }
+        done(index);
+    }
+
+    @Override
+    public String getMandateId() {
+        if (pending(0)) { setMandateId(text(0)); done(0); }
+        return super.getMandateId();
+    }
+
+    @Override
+    public LocalDateTime getLastUpdateDate() {
+        if (pending(1)) { setLastUpdateDate(dateTime(1)); done(1); }
+        return super.getLastUpdateDate();
+    }
+
+    @Override
+    public String getCreditorId() {
+        if (pending(2)) { setCreditorId(text(2)); done(2); }
+        return super.getCreditorId();
+    }
+
+    @Override
+    public String getCreditorName() {
+        if (pending(3)) { setCreditorName(text(3)); done(3); }
+        return super.getCreditorName();
+    }
+
+    @Override
+    public String getCreditorAccountNumber() {
+        if (pending(4)) { setCreditorAccountNumber(text(4)); done(4); }
+        return super.getCreditorAccountNumber();
+    }
+
+    @Override
+    public String getCreditorSortCode() {
+        if (pending(5)) { setCreditorSortCode(text(5)); done(5); }
+        return super.getCreditorSortCode();
+    }
+
+    @Override
+    public String getCreditorIban() {
+        if (pending(6)) { setCreditorIban(text(6)); done(6); }
+        return super.getCreditorIban();
+    }
+
+    @Override
+    public String getCreditorBic() {
+        if (pending(7)) { setCreditorBic(text(7)); done(7); }
+        return super.getCreditorBic();
+    }
+
+    @Override
+    public String getDebtorName() {
+        if (pending(8)) { setDebtorName(text(8)); done(8); }
+        return super.getDebtorName();
+    }
+
+    @Override
+    public String getDebtorAccountNumber() {
+        if (pending(9)) { setDebtorAccountNumber(text(9)); done(9); }
+        return super.getDebtorAccountNumber();
+    }
+
+    @Override
+    public String getDebtorSortCode() {
+        if (pending(10)) { setDebtorSortCode(text(10)); done(10); }
+        return super.getDebtorSortCode();
+    }
+
+    @Override
+    public String getDebtorIban() {
+        if (pending(11)) { setDebtorIban(text(11)); done(11); }
+        return super.getDebtorIban();
+    }
+
+    @Override
+    public String getDebtorBic() {
+        if (pending(12)) { setDebtorBic(text(12)); done(12); }
+        return super.getDebtorBic();
+    }
+
+    @Override
+    public String getDebtorEmail() {
+        if (pending(13)) { setDebtorEmail(text(13)); done(13); }
+        return super.getDebtorEmail();
+    }
+
+    @Override
+    public String getDebtorPhone() {
+        if (pending(14)) { setDebtorPhone(text(14)); done(14); }
+        return super.getDebtorPhone();
+    }
+
+    @Override
+    public String getMandateReference() {
+        if (pending(15)) { setMandateReference(text(15)); done(15); }
+        return super.getMandateReference();
+    }
+
+    @Override
+    public String getMandateType() {
+        if (pending(16)) { setMandateType(text(16)); done(16); }
+        return super.getMandateType();
+    }
+
+    @Override
+    public String getFrequency() {
+        if (pending(17)) { setFrequency(text(17)); done(17); }
+        return super.getFrequency();
+    }
+
+    @Override
+    public String getStatus() {
+        if (pending(18)) { setStatus(text(18)); done(18); }
+        return super.getStatus();
+    }
+
+    @Override
+    public LocalDate getSignatureDate() {
+        if (pending(19)) { setSignatureDate(date(19)); done(19); }
+        return super.getSignatureDate();
+    }
+
+    @Override
+    public LocalDate getEffectiveDate() {
+        if (pending(20)) { setEffectiveDate(date(20)); done(20); }
+        return super.getEffectiveDate();
+    }
+
+    @Override
+    public LocalDate getExpiryDate() {
+        if (pending(21)) { setExpiryDate(date(21)); done(21); }
+        return super.getExpiryDate();
+    }
+
+    @Override
+    public BigDecimal getMaxAmountPerTransaction() {
+        if (pending(22)) decodeAmount(22);
+        return super.getMaxAmountPerTransaction();
+    }
+
+    @Override
+    public long getMaxAmountPerTransactionMinorUnits() {
+        if (pending(22)) decodeAmount(22);
+        return super.getMaxAmountPerTransactionMinorUnits();
+    }
+
+    @Override
+    public BigDecimal getMaxAmountPerMonth() {
+        if (pending(23)) decodeAmount(23);
+        return super.getMaxAmountPerMonth();
+    }
+
+    @Override
+    public long getMaxAmountPerMonthMinorUnits() {
+        if (pending(23)) decodeAmount(23);
+        return super.getMaxAmountPerMonthMinorUnits();
+    }
+
+    @Override
+    public Integer getMaxTransactionsPerMonth() {
+        if (pending(24)) { setMaxTransactionsPerMonth(integer(24)); done(24); }
+        return super.getMaxTransactionsPerMonth();
+    }
+
+    @Override
+    public String getCurrency() {
+        if (pending(25)) { setCurrency(text(25)); done(25); }
+        return super.getCurrency();
+    }
+
+    @Override
+    public String getDescription() {
+        if (pending(26)) { setDescription(text(26)); done(26); }
+        return super.getDescription();
+    }
+
+    @Override
+    public String getSchemeType() {
+        if (pending(27)) { setSchemeType(text(27)); done(27); }
+        return super.getSchemeType();
+    }
+}
@@ -0,0 +1,64 @@
+package com.mongodb.mandate.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64-bit hash of a raw file line (FNV-1a over the UTF-8 bytes, followed by
+ * a final avalanche mix). A trailing '\r' is excluded, so a line hashes the
+ * same whichever reader produced it and whether the file uses '\n' or
+ * "\r\n" terminators. Not cryptographic; used to recognise lines that are
+ * byte-for-byte unchanged since the previous file.
+ */
+final class LineHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private LineHash() {}
+
+    static long of(ByteBuffer buf, int start, int end) {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        long h = OFFSET_BASIS;
+        for (int i = start; i < end; i++) {
+            h ^= buf.get(i) & 0xFF;
+            h *= PRIME;
+        }
+        return mix(h);
+    }
+
+    static long of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    static long of(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) >= 0x80) {
+                return of(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // ASCII: each char is its own UTF-8 byte
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        long h = OFFSET_BASIS;
+        for (int i = 0; i < end; i++) {
+            h ^= line.charAt(i);
+            h *= PRIME;
+        }
+        return mix(h);
+    }
+
+    // MurmurHash3 fmix64, so similar lines spread over the whole range
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb53a85ec34cbL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
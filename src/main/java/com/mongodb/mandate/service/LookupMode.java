@@ -0,0 +1,14 @@
+package com.mongodb.mandate.service;
+
+public enum LookupMode {
+
+    // One $in query on mandateId per batch
+    IN,
+
+    // Contiguous range scans of idx_mandate_lookup spanning several batches
+    RANGE;
+
+    public static LookupMode fromString(String value) {
+        return LookupMode.valueOf(value.trim().toUpperCase());
+    }
+}
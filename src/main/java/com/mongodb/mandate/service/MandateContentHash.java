@@ -0,0 +1,52 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.DirectDebitMandate;
+
+import java.math.BigDecimal;
+
+/**
+ * 64-bit hash of the fields MandateDiffService compares, other than
+ * lastUpdateDate. Two mandates with equal hashes differ at most in
+ * lastUpdateDate, so a record whose hash matches the stored one needs
+ * neither the full document nor a diff. Amounts are hashed without
+ * trailing zeros, matching the diff's compareTo equality.
+ */
+final class MandateContentHash {
+
+    private static final char SEPARATOR = '\u001F';
+    private static final char NULL = '\u0000';
+
+    private MandateContentHash() {}
+
+    static long of(DirectDebitMandate m) {
+        StringBuilder sb = new StringBuilder(256);
+        append(sb, m.getMandateId());
+        append(sb, m.getCreditorId());
+        append(sb, m.getDebtorId());
+        append(sb, m.getMandateReference());
+        append(sb, m.getMandateType());
+        append(sb, m.getFrequency());
+        append(sb, m.getStatus());
+        append(sb, m.getSignatureDate());
+        append(sb, m.getEffectiveDate());
+        append(sb, m.getExpiryDate());
+        append(sb, m.getMaxAmountPerTransaction());
+        append(sb, m.getMaxAmountPerMonth());
+        append(sb, m.getMaxTransactionsPerMonth());
+        append(sb, m.getCurrency());
+        append(sb, m.getDescription());
+        append(sb, m.getSchemeType());
+        return LineHash.of(sb.toString());
+    }
+
+    private static void append(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append(NULL);
+        } else if (value instanceof BigDecimal amount) {
+            sb.append(amount.stripTrailingZeros().toPlainString());
+        } else {
+            sb.append(value);
+        }
+        sb.append(SEPARATOR);
+    }
+}
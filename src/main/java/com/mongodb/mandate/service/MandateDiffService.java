@@ -10,7 +10,9 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -20,7 +22,7 @@ public class MandateDiffService {
 
     // Fields to exclude from diff comparison
     private static final Set<String> EXCLUDED_FIELDS = Set.of(
-            "id", "createdAt", "version"
+            "id", "createdAt", "version", "contentHash", "sourceFile", "batchId"
     );
 
     /**
@@ -43,11 +45,7 @@ public class MandateDiffService {
                 Object updatedValue = field.get(updated);
 
                 if (!areEqual(existingValue, updatedValue)) {
-                    changes.add(FieldChange.builder()
-                            .fieldName(field.getName())
-                            .oldValue(formatValue(existingValue))
-                            .newValue(formatValue(updatedValue))
-                            .build());
+                    changes.add(fieldChange(field.getName(), existingValue, updatedValue));
                 }
             } catch (IllegalAccessException e) {
                 logger.error("Error accessing field {}: {}", field.getName(), e.getMessage());
@@ -57,6 +55,37 @@ public class MandateDiffService {
         return changes;
     }
 
+    /**
+     * A single field change, formatted as diff reports it
+     */
+    public FieldChange fieldChange(String fieldName, Object oldValue, Object newValue) {
+        return FieldChange.builder()
+                .fieldName(fieldName)
+                .oldValue(formatValue(oldValue))
+                .newValue(formatValue(newValue))
+                .build();
+    }
+
+    /**
+     * The new value of each changed field, keyed by field name, for an
+     * in-place update of the stored mandate
+     */
+    public Map<String, Object> changedValues(DirectDebitMandate updated, List<FieldChange> changes) {
+        Map<String, Object> values = new LinkedHashMap<>();
+
+        for (FieldChange change : changes) {
+            try {
+                Field field = DirectDebitMandate.class.getDeclaredField(change.getFieldName());
+                field.setAccessible(true);
+                values.put(change.getFieldName(), field.get(updated));
+            } catch (ReflectiveOperationException e) {
+                logger.error("Error accessing field {}: {}", change.getFieldName(), e.getMessage());
+            }
+        }
+
+        return values;
+    }
+
     /**
      * Apply changes from updated mandate to existing mandate while preserving
      * system fields like id, createdAt
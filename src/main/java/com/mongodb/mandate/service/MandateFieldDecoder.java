@@ -0,0 +1,231 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Decoders for the fixed column layouts of the mandate file:
+ * {@code yyyy-MM-dd HH:mm:ss}, {@code yyyy-MM-dd}, two-decimal amounts and
+ * plain integers. The fast* methods read digits directly from a character
+ * range and allocate nothing beyond the result; they return null (or
+ * {@link MandateFileRecord#NO_MINOR_UNITS}) when the value is not in the
+ * fixed layout.
+ *
+ * Values outside the fixed layout go through the parse* methods. In lenient
+ * mode these are the java.time / BigDecimal / Integer parsers the reader has
+ * always used, so results and error messages are unchanged. In strict mode
+ * a value is first run through the same parser, so malformed input fails
+ * with the usual message, and anything it accepts that is not in the fixed
+ * layout (a day clamped by the SMART resolver, "12.5", "+7", "1e3") is
+ * rejected. Long digit runs that merely miss the fast path are accepted.
+ */
+class MandateFieldDecoder {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private static final int DATE_LENGTH = 10;
+    private static final int DATE_TIME_LENGTH = 19;
+
+    // 18 digits always fit in a long
+    private static final int MAX_AMOUNT_DIGITS = 18;
+    private static final int MAX_INT_DIGITS = 9;
+
+    private final boolean strict;
+
+    MandateFieldDecoder(boolean strict) {
+        this.strict = strict;
+    }
+
+    // Convenience entry points for String-backed columns
+
+    LocalDateTime dateTime(CharSequence cs, int start, int end) {
+        LocalDateTime value = fastDateTime(cs, start, end);
+        return value != null ? value : parseDateTime(cs.subSequence(start, end).toString());
+    }
+
+    LocalDate date(CharSequence cs, int start, int end) {
+        LocalDate value = fastDate(cs, start, end);
+        return value != null ? value : parseDate(cs.subSequence(start, end).toString());
+    }
+
+    BigDecimal amount(CharSequence cs, int start, int end) {
+        long minor = fastAmountMinorUnits(cs, start, end);
+        return minor != MandateFileRecord.NO_MINOR_UNITS
+                ? BigDecimal.valueOf(minor, 2)
+                : parseAmount(cs.subSequence(start, end).toString());
+    }
+
+    Integer integer(CharSequence cs, int start, int end) {
+        Integer value = fastInteger(cs, start, end);
+        return value != null ? value : parseInteger(cs.subSequence(start, end).toString());
+    }
+
+    // Fixed-layout fast paths
+
+    LocalDateTime fastDateTime(CharSequence cs, int start, int end) {
+        if (end - start != DATE_TIME_LENGTH
+                || cs.charAt(start + 4) != '-' || cs.charAt(start + 7) != '-'
+                || cs.charAt(start + 10) != ' '
+                || cs.charAt(start + 13) != ':' || cs.charAt(start + 16) != ':') {
+            return null;
+        }
+        int year = digits(cs, start, 4);
+        int month = digits(cs, start + 5, 2);
+        int day = digits(cs, start + 8, 2);
+        int hour = digits(cs, start + 11, 2);
+        int minute = digits(cs, start + 14, 2);
+        int second = digits(cs, start + 17, 2);
+
+        if ((year | month | day | hour | minute | second) < 0
+                || !isValidDate(year, month, day)
+                || hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second);
+    }
+
+    LocalDate fastDate(CharSequence cs, int start, int end) {
+        if (end - start != DATE_LENGTH
+                || cs.charAt(start + 4) != '-' || cs.charAt(start + 7) != '-') {
+            return null;
+        }
+        int year = digits(cs, start, 4);
+        int month = digits(cs, start + 5, 2);
+        int day = digits(cs, start + 8, 2);
+
+        if ((year | month | day) < 0 || !isValidDate(year, month, day)) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    /**
+     * Amount as a scaled long of minor units (hundredths) when the value is
+     * in {@code -?d+.dd} form, otherwise NO_MINOR_UNITS.
+     */
+    long fastAmountMinorUnits(CharSequence cs, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && cs.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        int point = end - 3;
+        int integerDigits = point - i;
+        if (integerDigits < 1 || integerDigits + 2 > MAX_AMOUNT_DIGITS || cs.charAt(point) != '.') {
+            return MandateFileRecord.NO_MINOR_UNITS;
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            if (i == point) continue;
+            int d = cs.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return MandateFileRecord.NO_MINOR_UNITS;
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    Integer fastInteger(CharSequence cs, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && cs.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        int length = end - i;
+        if (length < 1 || length > MAX_INT_DIGITS) {
+            return null;
+        }
+        int value = digits(cs, i, length);
+        if (value < 0) {
+            return null;
+        }
+        return negative ? -value : value;
+    }
+
+    // General parsers for values outside the fixed layout
+
+    LocalDateTime parseDateTime(String value) {
+        LocalDateTime parsed = LocalDateTime.parse(value, DATE_TIME_FORMATTER);
+        if (strict) {
+            throw new DateTimeParseException("Text '" + value
+                    + "' could not be parsed: not in fixed layout yyyy-MM-dd HH:mm:ss", value, 0);
+        }
+        return parsed;
+    }
+
+    LocalDate parseDate(String value) {
+        LocalDate parsed = LocalDate.parse(value, DATE_FORMATTER);
+        if (strict) {
+            throw new DateTimeParseException("Text '" + value
+                    + "' could not be parsed: not in fixed layout yyyy-MM-dd", value, 0);
+        }
+        return parsed;
+    }
+
+    BigDecimal parseAmount(String value) {
+        BigDecimal parsed = new BigDecimal(value);
+        if (strict && !hasLayout(value, 2)) {
+            throw new NumberFormatException("Amount '" + value + "' is not in fixed two-decimal format");
+        }
+        return parsed;
+    }
+
+    Integer parseInteger(String value) {
+        int parsed = Integer.parseInt(value);
+        if (strict && !hasLayout(value, 0)) {
+            throw new NumberFormatException("Integer '" + value + "' is not in fixed decimal format");
+        }
+        return parsed;
+    }
+
+    // -?d+ optionally followed by '.' and exactly `decimals` digits
+    private static boolean hasLayout(String value, int decimals) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int point = decimals > 0 ? value.length() - decimals - 1 : value.length();
+        if (point <= start || (decimals > 0 && value.charAt(point) != '.')) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (i != point && (value.charAt(i) < '0' || value.charAt(i) > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Non-negative value of count ASCII digits, or -1 if any is not a digit
+    private static int digits(CharSequence cs, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int d = cs.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    // Year 0 is rejected as the yyyy (year-of-era) pattern does
+    private static boolean isValidDate(int year, int month, int day) {
+        if (year < 1 || month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        return day <= switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+}
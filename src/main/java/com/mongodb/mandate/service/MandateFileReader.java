@@ -1,5 +1,6 @@
 package com.mongodb.mandate.service;
 
+import com.mongodb.mandate.config.ProcessorOptions;
 import com.mongodb.mandate.model.MandateFileRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,29 +8,60 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MandateFileReader implements AutoCloseable {
+public class MandateFileReader implements MandateRecordReader {
 
     private static final Logger logger = LoggerFactory.getLogger(MandateFileReader.class);
     private static final String DELIMITER = "\\|";
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     private final BufferedReader reader;
     private final String fileName;
+    private final MandateFieldDecoder decoder;
+    private final boolean amountsAsMinorUnits;
+    private final boolean hashLines;
     private long lineNumber = 0;
 
     public MandateFileReader(Path filePath) throws IOException {
+        this(filePath, new ProcessorOptions());
+    }
+
+    public MandateFileReader(Path filePath, ProcessorOptions options) throws IOException {
+        this(filePath, options, ReaderPosition.START);
+    }
+
+    /**
+     * Resumes at a byte offset when the position has one (it was recorded by
+     * a byte-level reader), otherwise skips already consumed lines unparsed.
+     */
+    public MandateFileReader(Path filePath, ProcessorOptions options, ReaderPosition start) throws IOException {
         this.fileName = filePath.getFileName().toString();
-        this.reader = Files.newBufferedReader(filePath);
-        readHeaders();
+        this.decoder = new MandateFieldDecoder(options.isStrictParsing());
+        this.amountsAsMinorUnits = options.isAmountsAsMinorUnits();
+        this.hashLines = options.getSnapshotFile() != null;
+
+        if (start.isStart()) {
+            this.reader = Files.newBufferedReader(filePath);
+            readHeaders();
+        } else if (start.hasOffset()) {
+            SeekableByteChannel channel = Files.newByteChannel(filePath);
+            channel.position(start.offset());
+            this.reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+            this.lineNumber = start.lineNumber();
+        } else {
+            this.reader = Files.newBufferedReader(filePath);
+            while (lineNumber < start.lineNumber() && reader.readLine() != null) {
+                lineNumber++;
+            }
+        }
     }
 
     private void readHeaders() throws IOException {
@@ -41,10 +73,12 @@ public class MandateFileReader implements AutoCloseable {
         }
     }
 
+    @Override
     public String getFileName() {
         return fileName;
     }
 
+    @Override
     public List<MandateFileRecord> readBatch(int batchSize) throws IOException {
         List<MandateFileRecord> batch = new ArrayList<>(batchSize);
         String line;
@@ -54,6 +88,9 @@ public class MandateFileReader implements AutoCloseable {
             try {
                 MandateFileRecord record = parseLine(line);
                 if (record != null) {
+                    if (hashLines) {
+                        record.setLineHash(LineHash.of(line));
+                    }
                     batch.add(record);
                 }
             } catch (Exception e) {
@@ -64,6 +101,12 @@ public class MandateFileReader implements AutoCloseable {
         return batch;
     }
 
+    // BufferedReader reads ahead, so only the line count is known
+    @Override
+    public ReaderPosition getPosition() {
+        return new ReaderPosition(ReaderPosition.UNKNOWN_OFFSET, lineNumber);
+    }
+
     private MandateFileRecord parseLine(String line) {
         if (line == null || line.trim().isEmpty()) {
             return null;
@@ -72,7 +115,7 @@ public class MandateFileReader implements AutoCloseable {
         String[] values = line.split(DELIMITER, -1);
 
         try {
-            return MandateFileRecord.builder()
+            MandateFileRecord.Builder builder = MandateFileRecord.builder()
                     .mandateId(getStringValue(values, 0))
                     .lastUpdateDate(getDateTimeValue(values, 1))
                     .creditorId(getStringValue(values, 2))
@@ -94,9 +137,16 @@ public class MandateFileReader implements AutoCloseable {
                     .status(getStringValue(values, 18))
                     .signatureDate(getDateValue(values, 19))
                     .effectiveDate(getDateValue(values, 20))
-                    .expiryDate(getDateValue(values, 21))
-                    .maxAmountPerTransaction(getBigDecimalValue(values, 22))
-                    .maxAmountPerMonth(getBigDecimalValue(values, 23))
+                    .expiryDate(getDateValue(values, 21));
+
+            if (amountsAsMinorUnits) {
+                setAmounts(builder, values);
+            } else {
+                builder.maxAmountPerTransaction(getBigDecimalValue(values, 22))
+                        .maxAmountPerMonth(getBigDecimalValue(values, 23));
+            }
+
+            return builder
                     .maxTransactionsPerMonth(getIntegerValue(values, 24))
                     .currency(getStringValue(values, 25))
                     .description(getStringValue(values, 26))
@@ -117,25 +167,46 @@ public class MandateFileReader implements AutoCloseable {
     private LocalDateTime getDateTimeValue(String[] values, int index) {
         String value = getStringValue(values, index);
         if (value == null) return null;
-        return LocalDateTime.parse(value, DATE_TIME_FORMATTER);
+        return decoder.dateTime(value, 0, value.length());
     }
 
     private LocalDate getDateValue(String[] values, int index) {
         String value = getStringValue(values, index);
         if (value == null) return null;
-        return LocalDate.parse(value, DATE_FORMATTER);
+        return decoder.date(value, 0, value.length());
     }
 
     private BigDecimal getBigDecimalValue(String[] values, int index) {
         String value = getStringValue(values, index);
         if (value == null) return null;
-        return new BigDecimal(value);
+        return decoder.amount(value, 0, value.length());
     }
 
     private Integer getIntegerValue(String[] values, int index) {
         String value = getStringValue(values, index);
         if (value == null) return null;
-        return Integer.parseInt(value);
+        return decoder.integer(value, 0, value.length());
+    }
+
+    // Two-decimal amounts are kept as minor units, anything else as BigDecimal
+    private void setAmounts(MandateFileRecord.Builder builder, String[] values) {
+        String perTransaction = getStringValue(values, 22);
+        long perTransactionMinor = perTransaction == null ? MandateFileRecord.NO_MINOR_UNITS
+                : decoder.fastAmountMinorUnits(perTransaction, 0, perTransaction.length());
+        if (perTransactionMinor != MandateFileRecord.NO_MINOR_UNITS) {
+            builder.maxAmountPerTransactionMinorUnits(perTransactionMinor);
+        } else {
+            builder.maxAmountPerTransaction(getBigDecimalValue(values, 22));
+        }
+
+        String perMonth = getStringValue(values, 23);
+        long perMonthMinor = perMonth == null ? MandateFileRecord.NO_MINOR_UNITS
+                : decoder.fastAmountMinorUnits(perMonth, 0, perMonth.length());
+        if (perMonthMinor != MandateFileRecord.NO_MINOR_UNITS) {
+            builder.maxAmountPerMonthMinorUnits(perMonthMinor);
+        } else {
+            builder.maxAmountPerMonth(getBigDecimalValue(values, 23));
+        }
     }
 
     @Override
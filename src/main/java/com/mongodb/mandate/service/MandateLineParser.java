@@ -0,0 +1,278 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Splits a pipe-delimited mandate line held in a ByteBuffer and decodes its
+ * columns straight into a MandateFileRecord.
+ *
+ * Field semantics match MandateFileReader: a column is trimmed of bytes
+ * <= ' ' (String.trim), an empty column is null, a missing column is null and
+ * columns beyond the 28th are ignored. Text is UTF-8 and malformed input is
+ * reported rather than replaced, as BufferedReader does. Dates, amounts and
+ * integers are decoded from the bytes by MandateFieldDecoder; only values
+ * outside the fixed layouts are turned into a String first.
+ *
+ * When hashing is on, each record also carries the {@link LineHash} of
+ * its raw line for the delta snapshot.
+ *
+ * Instances keep a reusable field-offset table and scratch buffer, so they
+ * are not thread-safe.
+ */
+class MandateLineParser {
+
+    static final int FIELD_COUNT = 28;
+
+    private static final byte DELIMITER = '|';
+
+    private final MandateFieldDecoder decoder;
+    private final boolean amountsAsMinorUnits;
+    private final boolean hashLines;
+    private final AsciiByteView view = new AsciiByteView();
+
+    private final int[] fieldStarts = new int[FIELD_COUNT];
+    private final int[] fieldEnds = new int[FIELD_COUNT];
+    private int fieldCount;
+
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private byte[] scratch = new byte[256];
+
+    MandateLineParser(MandateFieldDecoder decoder, boolean amountsAsMinorUnits) {
+        this(decoder, amountsAsMinorUnits, false);
+    }
+
+    MandateLineParser(MandateFieldDecoder decoder, boolean amountsAsMinorUnits, boolean hashLines) {
+        this.decoder = decoder;
+        this.amountsAsMinorUnits = amountsAsMinorUnits;
+        this.hashLines = hashLines;
+    }
+
+    /**
+     * Returns null for a blank line. Column conversion failures surface as
+     * the same exceptions the String-based reader raises; malformed UTF-8
+     * surfaces as CharacterCodingException.
+     */
+    MandateFileRecord parse(ByteBuffer buf, int start, int end) throws CharacterCodingException {
+        if (isBlank(buf, start, end)) {
+            return null;
+        }
+
+        split(buf, start, end);
+        view.wrap(buf);
+
+        MandateFileRecord.Builder builder = MandateFileRecord.builder()
+                .mandateId(stringValue(buf, 0))
+                .lastUpdateDate(dateTimeValue(buf, 1))
+                .creditorId(stringValue(buf, 2))
+                .creditorName(stringValue(buf, 3))
+                .creditorAccountNumber(stringValue(buf, 4))
+                .creditorSortCode(stringValue(buf, 5))
+                .creditorIban(stringValue(buf, 6))
+                .creditorBic(stringValue(buf, 7))
+                .debtorName(stringValue(buf, 8))
+                .debtorAccountNumber(stringValue(buf, 9))
+                .debtorSortCode(stringValue(buf, 10))
+                .debtorIban(stringValue(buf, 11))
+                .debtorBic(stringValue(buf, 12))
+                .debtorEmail(stringValue(buf, 13))
+                .debtorPhone(stringValue(buf, 14))
+                .mandateReference(stringValue(buf, 15))
+                .mandateType(stringValue(buf, 16))
+                .frequency(stringValue(buf, 17))
+                .status(stringValue(buf, 18))
+                .signatureDate(dateValue(buf, 19))
+                .effectiveDate(dateValue(buf, 20))
+                .expiryDate(dateValue(buf, 21));
+
+        if (amountsAsMinorUnits) {
+            long perTransaction = minorUnitsValue(buf, 22);
+            if (perTransaction != MandateFileRecord.NO_MINOR_UNITS) {
+                builder.maxAmountPerTransactionMinorUnits(perTransaction);
+            } else {
+                builder.maxAmountPerTransaction(bigDecimalValue(buf, 22));
+            }
+            long perMonth = minorUnitsValue(buf, 23);
+            if (perMonth != MandateFileRecord.NO_MINOR_UNITS) {
+                builder.maxAmountPerMonthMinorUnits(perMonth);
+            } else {
+                builder.maxAmountPerMonth(bigDecimalValue(buf, 23));
+            }
+        } else {
+            builder.maxAmountPerTransaction(bigDecimalValue(buf, 22))
+                    .maxAmountPerMonth(bigDecimalValue(buf, 23));
+        }
+
+        if (hashLines) {
+            builder.lineHash(LineHash.of(buf, start, end));
+        }
+
+        return builder
+                .maxTransactionsPerMonth(integerValue(buf, 24))
+                .currency(stringValue(buf, 25))
+                .description(stringValue(buf, 26))
+                .schemeType(stringValue(buf, 27))
+                .build();
+    }
+
+    /**
+     * Lazy variant of {@link #parse}: copies the line bytes, records the
+     * trimmed column offsets and decodes only mandateId and lastUpdateDate.
+     */
+    LazyMandateFileRecord parseLazy(ByteBuffer buf, int start, int end, long lineNumber)
+            throws CharacterCodingException {
+        if (isBlank(buf, start, end)) {
+            return null;
+        }
+
+        split(buf, start, end);
+
+        byte[] line = new byte[end - start];
+        buf.get(start, line);
+        for (byte b : line) {
+            if (b < 0) {
+                // Validate once so column decoding later cannot fail on encoding
+                utf8.decode(ByteBuffer.wrap(line));
+                break;
+            }
+        }
+
+        int[] starts = new int[fieldCount];
+        int[] ends = new int[fieldCount];
+        for (int f = 0; f < fieldCount; f++) {
+            starts[f] = fieldStarts[f] - start;
+            ends[f] = fieldEnds[f] - start;
+        }
+
+        LazyMandateFileRecord record = new LazyMandateFileRecord(line, starts, ends, fieldCount,
+                decoder, amountsAsMinorUnits, lineNumber);
+        if (hashLines) {
+            record.setLineHash(LineHash.of(line));
+        }
+        return record;
+    }
+
+    /**
+     * Number of header columns as String.split("\\|") would report them,
+     * i.e. with trailing empty columns dropped.
+     */
+    static int countHeaderColumns(ByteBuffer buf, int start, int end) {
+        if (start == end) {
+            return 1;
+        }
+        int last = end;
+        while (last > start && buf.get(last - 1) == DELIMITER) {
+            last--;
+        }
+        if (last == start) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = start; i < last; i++) {
+            if (buf.get(i) == DELIMITER) count++;
+        }
+        return count;
+    }
+
+    private static boolean isBlank(ByteBuffer buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buf.get(i) & 0xFF) > ' ') return false;
+        }
+        return true;
+    }
+
+    private void split(ByteBuffer buf, int start, int end) {
+        int field = 0;
+        int fieldStart = start;
+
+        for (int i = start; i < end && field < FIELD_COUNT; i++) {
+            if (buf.get(i) == DELIMITER) {
+                fieldStarts[field] = fieldStart;
+                fieldEnds[field] = i;
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        if (field < FIELD_COUNT) {
+            fieldStarts[field] = fieldStart;
+            fieldEnds[field] = end;
+            field++;
+        }
+        fieldCount = field;
+
+        // Trim each column in place
+        for (int f = 0; f < fieldCount; f++) {
+            int s = fieldStarts[f];
+            int e = fieldEnds[f];
+            while (s < e && (buf.get(s) & 0xFF) <= ' ') s++;
+            while (e > s && (buf.get(e - 1) & 0xFF) <= ' ') e--;
+            fieldStarts[f] = s;
+            fieldEnds[f] = e;
+        }
+    }
+
+    private String stringValue(ByteBuffer buf, int index) throws CharacterCodingException {
+        if (index >= fieldCount) return null;
+        int start = fieldStarts[index];
+        int length = fieldEnds[index] - start;
+        if (length == 0) return null;
+
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buf.get(start, scratch, 0, length);
+
+        for (int i = 0; i < length; i++) {
+            if (scratch[i] < 0) {
+                return utf8.decode(ByteBuffer.wrap(scratch, 0, length)).toString();
+            }
+        }
+        return new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean isMissing(int index) {
+        return index >= fieldCount || fieldStarts[index] == fieldEnds[index];
+    }
+
+    private LocalDateTime dateTimeValue(ByteBuffer buf, int index) throws CharacterCodingException {
+        if (isMissing(index)) return null;
+        LocalDateTime value = decoder.fastDateTime(view, fieldStarts[index], fieldEnds[index]);
+        return value != null ? value : decoder.parseDateTime(stringValue(buf, index));
+    }
+
+    private LocalDate dateValue(ByteBuffer buf, int index) throws CharacterCodingException {
+        if (isMissing(index)) return null;
+        LocalDate value = decoder.fastDate(view, fieldStarts[index], fieldEnds[index]);
+        return value != null ? value : decoder.parseDate(stringValue(buf, index));
+    }
+
+    // NO_MINOR_UNITS for a missing column as well as a non-fixed layout
+    private long minorUnitsValue(ByteBuffer buf, int index) {
+        if (isMissing(index)) return MandateFileRecord.NO_MINOR_UNITS;
+        return decoder.fastAmountMinorUnits(view, fieldStarts[index], fieldEnds[index]);
+    }
+
+    private BigDecimal bigDecimalValue(ByteBuffer buf, int index) throws CharacterCodingException {
+        if (isMissing(index)) return null;
+        long minor = decoder.fastAmountMinorUnits(view, fieldStarts[index], fieldEnds[index]);
+        return minor != MandateFileRecord.NO_MINOR_UNITS
+                ? BigDecimal.valueOf(minor, 2)
+                : decoder.parseAmount(stringValue(buf, index));
+    }
+
+    private Integer integerValue(ByteBuffer buf, int index) throws CharacterCodingException {
+        if (isMissing(index)) return null;
+        Integer value = decoder.fastInteger(view, fieldStarts[index], fieldEnds[index]);
+        return value != null ? value : decoder.parseInteger(stringValue(buf, index));
+    }
+}
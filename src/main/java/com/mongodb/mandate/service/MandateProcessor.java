@@ -1,60 +1,255 @@
 package com.mongodb.mandate.service;
 
-import com.mongodb.client.ClientSession;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.mandate.config.ProcessorOptions;
 import com.mongodb.mandate.model.*;
-import com.mongodb.mandate.repository.MandateRepository;
+import com.mongodb.mandate.repository.AsyncMandateRepository;
+import com.mongodb.mandate.repository.MandateStore;
+import com.mongodb.mandate.repository.ShardRanges;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public class MandateProcessor {
+public class MandateProcessor implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(MandateProcessor.class);
 
-    private final MandateRepository repository;
+    private static final int INSERT_LOCK_STRIPES = 256;
+
+    private final MandateStore store;
+    // Null unless processing.mode=async
+    private final AsyncMandateRepository asyncRepository;
     private final MandateDiffService diffService;
+    private final ProcessorOptions options;
     private final int batchSize;
+    private final CheckpointStore checkpoints;
+    // Creditor and debtor ids known to exist, kept across files; null when disabled
+    private final ReferenceDataCache referenceCache;
+    // Null unless audit.mode=async
+    private final AuditSink auditSink;
+    // shard.ranges parsed; null to read config.chunks
+    private final ShardRanges configuredShardRanges;
+    // Made for files run alongside another processor's, whose audit sink it shares
+    private final boolean sibling;
+    // Shared with sibling processors, so batches of files run at once are ordered
+    // by mandateId and insert their creditors and debtors under the same locks
+    private final KeyOrderingGate keyGate;
+    private final KeyOrderingGate insertGate;
+    private final StripedLocks insertLocks;
+    // Set once a sibling is made; until then sequential batches have nothing to wait for
+    private final AtomicBoolean hasSiblings;
+    // Startup is reported with the first file of this processor and its siblings; a
+    // store.memory.preload file runs on a processor of its own and does not count
+    private final AtomicBoolean startupReported;
+
+    // Statistics of the file being processed, or the last one
+    private ProcessingStatistics statistics = new ProcessingStatistics();
+    private List<BatchPipeline.StageMetrics> stageMetrics = Collections.emptyList();
+    private ConcurrentBatchRunner.Metrics concurrentMetrics;
+    private List<ShardedBatchRunner.LaneMetrics> laneMetrics = Collections.emptyList();
+    // Per-file window of prefetched update dates when lookup.mode=range
+    private RangePrefetchLookup rangeLookup;
+    // Per-file insert transactions and the sink for records they reject
+    private RejectSink rejects;
+    private InsertTransactionWriter insertWriter;
+    private MergeWriter mergeWriter;
+    // Per-file batch size controller when batch.adaptive is set
+    private AdaptiveBatchSizer batchSizer;
+    private final LongAdder orderingWaitNanos = new LongAdder();
+    private long fileStartNanos;
+
+    public MandateProcessor(MandateStore store, int batchSize) {
+        this(store, ProcessorOptions.builder().batchSize(batchSize).build());
+    }
+
+    public MandateProcessor(MandateStore store, ProcessorOptions options) {
+        this(store, null, options);
+    }
+
+    public MandateProcessor(MandateStore store, AsyncMandateRepository asyncRepository,
+                            ProcessorOptions options) {
+        if (options.getProcessingMode() == ProcessingMode.ASYNC && asyncRepository == null) {
+            throw new IllegalArgumentException("processing.mode=async needs an AsyncMandateRepository");
+        }
+        if (options.getAuditLayout() == AuditLayout.BUCKET && options.getAuditMode() == AuditMode.ASYNC) {
+            throw new IllegalArgumentException("audit.layout=bucket does not work with audit.mode=async");
+        }
+        this.store = store;
+        this.asyncRepository = asyncRepository;
+        this.diffService = new MandateDiffService();
+        this.options = options;
+        this.batchSize = options.getBatchSize();
+        this.checkpoints = options.isCheckpointEnabled() ? new CheckpointStore(options.getCheckpointDir()) : null;
+        this.configuredShardRanges = options.getShardRanges().isEmpty()
+                ? null
+                : ShardRanges.parse(options.getShardRanges());
+
+        if (options.isContentHashEnabled()) {
+            store.enableContentHashLookups();
+            if (asyncRepository != null) {
+                asyncRepository.enableContentHashLookups();
+            }
+        }
+
+        if (options.getAuditLayout() == AuditLayout.BUCKET) {
+            store.enableAuditBuckets(options.getAuditBucketMaxEntries());
+            if (asyncRepository != null) {
+                asyncRepository.enableAuditBuckets(options.getAuditBucketMaxEntries());
+            }
+        }
+
+        if (options.isReferenceCacheEnabled()) {
+            referenceCache = new ReferenceDataCache(options.getReferenceCacheMaxDebtors());
+            Set<String> creditorIds = store.getAllCreditorIds();
+            referenceCache.creditors().add(creditorIds);
+            logger.info("Reference cache: loaded {} creditors", creditorIds.size());
+        } else {
+            referenceCache = null;
+        }
+
+        if (options.getAuditMode() == AuditMode.ASYNC) {
+            try {
+                auditSink = new AuditSink(store, options);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the audit spool", e);
+            }
+        } else {
+            auditSink = null;
+        }
+        sibling = false;
+        keyGate = new KeyOrderingGate();
+        insertGate = new KeyOrderingGate();
+        insertLocks = new StripedLocks(INSERT_LOCK_STRIPES);
+        hasSiblings = new AtomicBoolean();
+        startupReported = new AtomicBoolean();
+    }
 
-    // Statistics
-    private long totalProcessed = 0;
-    private long insertCount = 0;
-    private long updateCount = 0;
-    private long skipCount = 0;
-    private long errorCount = 0;
-    private long newCreditors = 0;
-    private long newDebtors = 0;
-
-    public MandateProcessor(MandateRepository repository, int batchSize) {
-        this.repository = repository;
+    // For another file at the same time: the same store, caches, audit sink and key ordering, its own per-file state
+    MandateProcessor(MandateProcessor first) {
+        this.store = first.store;
+        this.asyncRepository = first.asyncRepository;
         this.diffService = new MandateDiffService();
-        this.batchSize = batchSize;
+        this.options = first.options;
+        this.batchSize = first.batchSize;
+        this.checkpoints = first.checkpoints;
+        this.configuredShardRanges = first.configuredShardRanges;
+        this.referenceCache = first.referenceCache;
+        this.auditSink = first.auditSink;
+        this.sibling = true;
+        this.keyGate = first.keyGate;
+        this.insertGate = first.insertGate;
+        this.insertLocks = first.insertLocks;
+        this.hasSiblings = first.hasSiblings;
+        this.startupReported = first.startupReported;
+        hasSiblings.set(true);
+    }
+
+    public ProcessingStatistics getStatistics() {
+        return statistics;
     }
 
     public void processFile(Path filePath) throws IOException {
         logger.info("Starting to process file: {}", filePath);
         long startTime = System.currentTimeMillis();
+        fileStartNanos = System.nanoTime();
         String batchId = UUID.randomUUID().toString();
+        ReaderPosition start = ReaderPosition.START;
+        long previouslyProcessed = 0;
 
         resetStatistics();
+        if (startupReported.compareAndSet(false, true)) {
+            // Class loading, JIT, connecting and checking indexes, up to here
+            statistics.setStartupMs(ManagementFactory.getRuntimeMXBean().getUptime());
+        }
 
-        try (MandateFileReader reader = new MandateFileReader(filePath)) {
-            List<MandateFileRecord> batch;
+        FileCheckpoint.FileIdentity identity = checkpoints != null ? CheckpointStore.identify(filePath) : null;
+        if (checkpoints != null && options.isResume()) {
+            Optional<FileCheckpoint> checkpoint = checkpoints.load(filePath);
+            if (checkpoint.isEmpty()) {
+                logger.info("No checkpoint for {}, starting from the beginning", filePath.getFileName());
+            } else if (!checkpoint.get().file().equals(identity)) {
+                logger.warn("Checkpoint {} was taken from a different version of {}, starting from the beginning",
+                        checkpoints.pathFor(filePath), filePath.getFileName());
+            } else {
+                start = checkpoint.get().position();
+                batchId = checkpoint.get().batchId();
+                previouslyProcessed = checkpoint.get().recordsProcessed();
+                logger.info("Resuming batch {} at line {} (byte offset {}), {} records already processed",
+                        batchId, start.lineNumber(), start.offset(), previouslyProcessed);
+            }
+        }
 
-            while (!(batch = reader.readBatch(batchSize)).isEmpty()) {
-                processBatch(batch, reader.getFileName(), batchId);
-                totalProcessed += batch.size();
+        CheckpointWatermark watermark = new CheckpointWatermark(checkpoints, filePath, identity,
+                batchId, previouslyProcessed);
 
-                if (totalProcessed % 10000 == 0) {
-                    logger.info("Processed {} records...", totalProcessed);
-                }
+        Path snapshotFile = options.getSnapshotFile();
+        DeltaSnapshot snapshot = null;
+        if (snapshotFile != null) {
+            snapshot = DeltaSnapshot.load(snapshotFile);
+            // Once this run writes anything the database may be ahead of the old snapshot
+            Files.deleteIfExists(snapshotFile);
+            logger.info("Delta snapshot: {} mandates from {}", snapshot.size(), snapshotFile);
+        }
+
+        if (options.getLookupMode() == LookupMode.RANGE) {
+            rangeLookup = new RangePrefetchLookup(store, options.getLookupRangeBatches() * batchSize);
+        }
+
+        rejects = new RejectSink(RejectSink.pathFor(filePath, options.getRejectDir()), start != ReaderPosition.START);
+        insertWriter = new InsertTransactionWriter(store, asyncRepository, options.getTransactionAttempts(),
+                options.getTransactionRetryBackoffMs(), statistics, rejects, referenceCache, auditSink);
+        mergeWriter = new MergeWriter(store, asyncRepository, statistics, rejects, referenceCache,
+                !auditsFromStream(), auditSink);
+
+        if (options.isAdaptiveBatchSize()) {
+            batchSizer = new AdaptiveBatchSizer(batchSize, options.getBatchTargetLatencyMs(),
+                    options.getBatchMinSize(), options.getBatchMaxSize(), store.getWriteLimits());
+        }
+
+        try (RejectSink sink = rejects;
+             MandateRecordReader reader = openReader(filePath, start, snapshot)) {
+            switch (options.getProcessingMode()) {
+                case PIPELINED -> processPipelined(reader, batchId, watermark);
+                case CONCURRENT -> processConcurrent(reader, batchId, watermark);
+                case ASYNC -> processAsync(reader, batchId, watermark);
+                case SHARDED -> processSharded(reader, batchId, watermark);
+                default -> processSequential(reader, batchId, watermark);
+            }
+
+            statistics.setDecompression(reader.getDecompressedBytes(), reader.getDecompressionNanos());
+        }
+
+        // A finished file needs no checkpoint; running it again is a fresh pass
+        if (checkpoints != null) {
+            checkpoints.delete(filePath);
+        }
+
+        if (snapshot != null) {
+            statistics.setUnchangedSinceSnapshot(snapshot.getUnchangedCount());
+            if (statistics.getErrors() == 0) {
+                snapshot.save(snapshotFile);
+                logger.info("Delta snapshot of {} mandates written to {}", snapshot.size(), snapshotFile);
+            } else {
+                logger.warn("Delta snapshot not written after {} errors; the next run compares every line",
+                        statistics.getErrors());
             }
         }
 
@@ -62,58 +257,577 @@ public class MandateProcessor {
         logStatistics(duration);
     }
 
-    private void processBatch(List<MandateFileRecord> records, String sourceFile, String batchId) {
-        List<String> mandateIds = records.stream()
-                .map(MandateFileRecord::getMandateId)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+    private MandateRecordReader openReader(Path filePath, ReaderPosition start,
+                                           DeltaSnapshot snapshot) throws IOException {
+        MandateRecordReader reader = MandateRecordReader.open(filePath, options, start);
+        return snapshot != null ? new DeltaFilteringReader(reader, snapshot) : reader;
+    }
+
+    private void processSequential(MandateRecordReader reader, String batchId,
+                                   CheckpointWatermark watermark) throws IOException {
+        List<MandateFileRecord> batch;
+        long sequence = 0;
+
+        while (!(batch = reader.readBatch(nextBatchSize())).isEmpty()) {
+            BatchWork work = new BatchWork(sequence++, batch, reader.getFileName(), batchId, reader.getPosition());
+            if (hasSiblings.get()) {
+                processAlongsideSiblings(work);
+            } else {
+                lookup(work);
+                build(work);
+                write(work, null);
+            }
+            completed(work, watermark);
+        }
+    }
+
+    // Waits for sibling files' batches with the same mandates, and inserts under the shared locks
+    private void processAlongsideSiblings(BatchWork work) throws IOException {
+        work.ticket = keyGate.register(work.mandateIds());
+        try {
+            awaitTurn(work);
+            lookup(work);
+            build(work);
+            write(work, insertLocks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for another file's batch");
+        } catch (ExecutionException e) {
+            throw new IOException("Waiting for another file's batch failed", e.getCause());
+        } finally {
+            keyGate.release(work.ticket);
+        }
+    }
 
-        Map<String, LocalDateTime> existingDates = repository.batchGetMandateUpdateDates(mandateIds);
+    /**
+     * Runs parse, lookup, build and write as separate stages so network
+     * round trips of one batch overlap with parsing and diffing of others.
+     * Batches that share a mandateId are released to the lookup stage only
+     * after the earlier batch has been written, so each sees the other's
+     * result exactly as in sequential mode.
+     */
+    private void processPipelined(MandateRecordReader reader, String batchId,
+                                  CheckpointWatermark watermark) throws IOException {
+        long[] sequence = {0};
 
+        BatchPipeline<BatchWork> pipeline = new BatchPipeline<BatchWork>("parse", options.getPipelineQueueCapacity())
+                .stage("lookup", options.getPipelineLookupThreads(), work -> {
+                    awaitTurn(work);
+                    lookup(work);
+                })
+                .stage("build", options.getPipelineBuildThreads(), this::build)
+                .stage("write", options.getPipelineWriteThreads(), work -> {
+                    try {
+                        write(work, insertLocks);
+                    } finally {
+                        keyGate.release(work.ticket);
+                    }
+                    completed(work, watermark);
+                });
+
+        logger.info("Pipeline threads: lookup {}, build {}, write {}; queue capacity {}",
+                options.getPipelineLookupThreads(), options.getPipelineBuildThreads(),
+                options.getPipelineWriteThreads(), options.getPipelineQueueCapacity());
+
+        try {
+            pipeline.run(() -> {
+                List<MandateFileRecord> batch = reader.readBatch(nextBatchSize());
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                BatchWork work = new BatchWork(sequence[0]++, batch, reader.getFileName(), batchId,
+                        reader.getPosition());
+                work.ticket = keyGate.register(work.mandateIds());
+                return work;
+            });
+        } finally {
+            stageMetrics = pipeline.metrics();
+        }
+    }
+
+    /**
+     * Runs up to concurrent.batches whole batches at once, each on its own
+     * virtual thread, so the number of round trips in flight is no longer
+     * tied to the number of platform threads. Ordering is the same as in
+     * pipelined mode: batches sharing a mandateId wait for the earlier one,
+     * and new creditors and debtors are inserted under per-id locks.
+     */
+    private void processConcurrent(MandateRecordReader reader, String batchId,
+                                   CheckpointWatermark watermark) throws IOException {
+        ConcurrentBatchRunner<BatchWork> runner = new ConcurrentBatchRunner<>(options.getConcurrentBatches());
+        long[] sequence = {0};
+
+        logger.info("Concurrent batches: up to {} in flight on virtual threads", options.getConcurrentBatches());
+
+        try {
+            runner.run(() -> {
+                List<MandateFileRecord> batch = reader.readBatch(nextBatchSize());
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                BatchWork work = new BatchWork(sequence[0]++, batch, reader.getFileName(), batchId,
+                        reader.getPosition());
+                work.ticket = keyGate.register(work.mandateIds());
+                return work;
+            }, work -> {
+                try {
+                    awaitTurn(work);
+                    lookup(work);
+                    build(work);
+                    write(work, insertLocks);
+                } finally {
+                    keyGate.release(work.ticket);
+                }
+                completed(work, watermark);
+            });
+        } finally {
+            concurrentMetrics = runner.metrics();
+        }
+    }
+
+    /**
+     * Runs up to concurrent.batches whole batches at once as chains of
+     * non-blocking calls on the Reactive Streams driver, so a batch waiting
+     * on the server holds no thread. Classification, diffs, checkpoints and
+     * rejects run on one worker thread per core. Ordering is the same as in
+     * concurrent mode; the per-id insert locks are a second key gate, taken
+     * as a future instead of by blocking.
+     */
+    private void processAsync(MandateRecordReader reader, String batchId,
+                              CheckpointWatermark watermark) throws IOException {
+        ConcurrentBatchRunner<BatchWork> runner = new ConcurrentBatchRunner<>(options.getConcurrentBatches());
+        long[] sequence = {0};
+
+        logger.info("Async batches: up to {} in flight, at most {} requests outstanding",
+                options.getConcurrentBatches(), options.getAsyncMaxInFlight());
+
+        try (ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+            runner.runAsync(() -> {
+                List<MandateFileRecord> batch = reader.readBatch(nextBatchSize());
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                BatchWork work = new BatchWork(sequence[0]++, batch, reader.getFileName(), batchId,
+                        reader.getPosition());
+                work.ticket = keyGate.register(work.mandateIds());
+                return work;
+            }, work -> awaitTurnAsync(work)
+                    .thenComposeAsync(v -> lookupAsync(work, workers), workers)
+                    .thenRunAsync(() -> build(work), workers)
+                    .thenCompose(v -> writeAsync(work, workers))
+                    .whenComplete((v, error) -> keyGate.release(work.ticket))
+                    .thenRunAsync(() -> {
+                        try {
+                            completed(work, watermark);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, workers));
+        } finally {
+            concurrentMetrics = runner.metrics();
+        }
+    }
+
+    /**
+     * Splits each read batch by the shard its mandates live on and writes
+     * each part in that shard's lane, with shard.writers writers per shard.
+     * A part goes to one shard instead of being split by mongos across all
+     * of them, so a slow shard holds up only its own lane. A read batch is
+     * batch.size records per shard, so parts stay about batch.size long.
+     * Ordering is the same as in concurrent mode, and the checkpoint moves
+     * past a read batch once every one of its parts is written.
+     */
+    private void processSharded(MandateRecordReader reader, String batchId,
+                                CheckpointWatermark watermark) throws IOException {
+        ShardRanges ranges = shardRanges();
+        int shards = ranges.getShards().size();
+        ShardedBatchRunner<BatchWork> runner = new ShardedBatchRunner<>(ranges.getShards(),
+                options.getShardWriters(), options.getShardQueueCapacity());
+        Deque<BatchWork> parts = new ArrayDeque<>();
+        long[] sequence = {0};
+
+        logger.info("Sharded batches: {}; {} writer(s) and a queue of {} batches per shard",
+                ranges, options.getShardWriters(), options.getShardQueueCapacity());
+
+        try {
+            runner.run(() -> {
+                if (parts.isEmpty()) {
+                    List<MandateFileRecord> batch = reader.readBatch(nextBatchSize() * shards);
+                    if (batch.isEmpty()) {
+                        return null;
+                    }
+                    BatchWork readBatch = new BatchWork(sequence[0]++, batch, reader.getFileName(), batchId,
+                            reader.getPosition());
+                    for (BatchWork part : splitByShard(readBatch, ranges)) {
+                        part.ticket = keyGate.register(part.mandateIds());
+                        parts.add(part);
+                    }
+                }
+                return parts.poll();
+            }, part -> part.shard, part -> {
+                try {
+                    awaitTurn(part);
+                    lookup(part);
+                    build(part);
+                    write(part, insertLocks);
+                } finally {
+                    keyGate.release(part.ticket);
+                }
+                partCompleted(part, watermark);
+            });
+        } finally {
+            laneMetrics = runner.metrics();
+        }
+    }
+
+    // shard.ranges when set, otherwise the chunks of mandates, read again for every file
+    private ShardRanges shardRanges() {
+        if (configuredShardRanges != null) {
+            return configuredShardRanges;
+        }
+        ShardRanges ranges = store.getShardRanges();
+        if (ranges == null) {
+            logger.warn("No chunk ranges for mandates by mandateId; every batch goes to one lane");
+            return new ShardRanges(Map.of("", "unsharded"));
+        }
+        return ranges;
+    }
+
+    // One part per shard, records in file order within each
+    static List<BatchWork> splitByShard(BatchWork readBatch, ShardRanges ranges) {
+        Map<String, List<MandateFileRecord>> byShard = new LinkedHashMap<>();
+        for (MandateFileRecord record : readBatch.records) {
+            byShard.computeIfAbsent(ranges.shardOf(record.getMandateId()), shard -> new ArrayList<>())
+                    .add(record);
+        }
+
+        readBatch.unfinishedParts = new AtomicInteger(byShard.size());
+        List<BatchWork> parts = new ArrayList<>(byShard.size());
+        byShard.forEach((shard, records) -> {
+            BatchWork part = new BatchWork(readBatch.sequence, records, readBatch.sourceFile,
+                    readBatch.batchId, readBatch.position);
+            part.shard = shard;
+            part.readBatch = readBatch;
+            parts.add(part);
+        });
+        return parts;
+    }
+
+    private CompletableFuture<Void> awaitTurnAsync(BatchWork work) {
+        if (work.ticket.ready().isDone()) {
+            return work.ticket.ready();
+        }
+        long start = System.nanoTime();
+        return work.ticket.ready().thenRun(() -> orderingWaitNanos.add(System.nanoTime() - start));
+    }
+
+    private int nextBatchSize() {
+        return batchSizer != null ? batchSizer.nextSize() : batchSize;
+    }
+
+    private void awaitTurn(BatchWork work) throws InterruptedException, ExecutionException {
+        if (!work.ticket.ready().isDone()) {
+            long start = System.nanoTime();
+            work.ticket.ready().get();
+            orderingWaitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void completed(BatchWork work, CheckpointWatermark watermark) throws IOException {
+        if (batchSizer != null) {
+            batchSizer.record(work.records.size(), work.lookupNanos, work.writeNanos, work.encodedBytesPerRecord);
+        }
+        processed(work, watermark);
+    }
+
+    // The batch size is measured per part; the read batch counts as processed once its last part is written
+    private void partCompleted(BatchWork part, CheckpointWatermark watermark) throws IOException {
+        if (batchSizer != null) {
+            batchSizer.record(part.records.size(), part.lookupNanos, part.writeNanos, part.encodedBytesPerRecord);
+        }
+        if (part.readBatch.unfinishedParts.decrementAndGet() == 0) {
+            processed(part.readBatch, watermark);
+        }
+    }
+
+    private void processed(BatchWork work, CheckpointWatermark watermark) throws IOException {
+        statistics.firstBatchWritten((System.nanoTime() - fileStartNanos) / 1_000_000);
+        long total = statistics.addProcessed(work.records.size());
+        watermark.completed(work);
+
+        if (total % 10000 == 0) {
+            logger.info("Processed {} records...", total);
+        }
+    }
+
+    /**
+     * Existing mandate dates decide insert, skip or update; then fetch what
+     * each path needs. With content hashes, an update whose business fields
+     * hash the same as the stored ones only moves lastUpdateDate and is
+     * never fetched or diffed.
+     */
+    private void lookup(BatchWork work) {
+        if (options.getWriteMode() == WriteMode.MERGE) {
+            prepareMerge(work);
+            return;
+        }
+        long start = System.nanoTime();
+        classify(work, rangeLookup != null
+                ? rangeLookup.getStates(work.mandateIds())
+                : store.batchGetMandateStates(work.mandateIds()));
+
+        if (!work.toInsert.isEmpty()) {
+            work.existingCreditors = existingIds(referenceCache != null ? referenceCache.creditors() : null,
+                    creditorIdsOf(work.toInsert), store::getExistingCreditorIds);
+            work.existingDebtors = existingIds(referenceCache != null ? referenceCache.debtors() : null,
+                    debtorIdsOf(work.toInsert), store::getExistingDebtorIds);
+        }
+
+        if (!work.toCheckForUpdate.isEmpty()) {
+            work.existingMandates = store.batchGetMandates(work.toCheckForUpdate);
+        }
+        work.lookupNanos = System.nanoTime() - start;
+    }
+
+    // The same lookups with the creditor, debtor and mandate queries sent together
+    private CompletableFuture<Void> lookupAsync(BatchWork work, Executor workers) {
+        if (options.getWriteMode() == WriteMode.MERGE) {
+            return CompletableFuture.runAsync(() -> prepareMerge(work), workers);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Map<String, MandateState>> states = rangeLookup != null
+                ? CompletableFuture.supplyAsync(() -> rangeLookup.getStates(work.mandateIds()), workers)
+                : asyncRepository.batchGetMandateStates(work.mandateIds());
+
+        return states.thenComposeAsync(existingStates -> {
+            classify(work, existingStates);
+            List<CompletableFuture<?>> fetches = new ArrayList<>();
+
+            if (!work.toInsert.isEmpty()) {
+                fetches.add(existingIdsAsync(referenceCache != null ? referenceCache.creditors() : null,
+                        creditorIdsOf(work.toInsert), asyncRepository::getExistingCreditorIds)
+                        .thenAccept(ids -> work.existingCreditors = ids));
+                fetches.add(existingIdsAsync(referenceCache != null ? referenceCache.debtors() : null,
+                        debtorIdsOf(work.toInsert), asyncRepository::getExistingDebtorIds)
+                        .thenAccept(ids -> work.existingDebtors = ids));
+            }
+
+            if (!work.toCheckForUpdate.isEmpty()) {
+                fetches.add(asyncRepository.batchGetMandates(work.toCheckForUpdate)
+                        .thenAccept(mandates -> work.existingMandates = mandates));
+            }
+            return CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0]));
+        }, workers).thenRun(() -> work.lookupNanos = System.nanoTime() - start);
+    }
+
+    // Merge mode reads nothing: every record that parses goes to the server to decide
+    private void prepareMerge(BatchWork work) {
+        List<MandateFileRecord> toMerge = new ArrayList<>();
+        for (MandateFileRecord record : work.records) {
+            if (materialize(record)) {
+                toMerge.add(record);
+            }
+        }
+        work.toMerge = toMerge;
+    }
+
+    // Cached ids count as existing without a query; only the rest are looked up, and those found are cached
+    private static Set<String> existingIds(ReferenceDataCache.KnownIds cache, Set<String> ids,
+                                           Function<Set<String>, Set<String>> lookup) {
+        if (cache == null) {
+            return lookup.apply(ids);
+        }
+        Set<String> existing = cache.known(ids);
+        Set<String> found = lookup.apply(unknownIds(ids, existing));
+        cache.add(found);
+        existing.addAll(found);
+        return existing;
+    }
+
+    private static CompletableFuture<Set<String>> existingIdsAsync(
+            ReferenceDataCache.KnownIds cache, Set<String> ids,
+            Function<Set<String>, CompletableFuture<Set<String>>> lookup) {
+        if (cache == null) {
+            return lookup.apply(ids);
+        }
+        Set<String> existing = cache.known(ids);
+        return lookup.apply(unknownIds(ids, existing)).thenApply(found -> {
+            cache.add(found);
+            existing.addAll(found);
+            return existing;
+        });
+    }
+
+    private static Set<String> unknownIds(Set<String> ids, Set<String> known) {
+        if (known.isEmpty()) {
+            return ids;
+        }
+        Set<String> unknown = new HashSet<>(ids);
+        unknown.removeAll(known);
+        return unknown;
+    }
+
+    private void classify(BatchWork work, Map<String, MandateState> existingStates) {
         List<MandateFileRecord> toInsert = new ArrayList<>();
         List<String> toCheckForUpdate = new ArrayList<>();
+        List<MandateFileRecord> dateOnly = new ArrayList<>();
+        // Files run at once can finish in any order, so an older one must not undo a newer one
+        boolean newerOnly = options.isUpdateNewerOnly() || hasSiblings.get();
 
-        for (MandateFileRecord record : records) {
+        for (MandateFileRecord record : work.records) {
             String mandateId = record.getMandateId();
+            MandateState existing = existingStates.get(mandateId);
 
-            if (!existingDates.containsKey(mandateId)) {
-                toInsert.add(record);
+            if (existing == null) {
+                if (materialize(record)) {
+                    toInsert.add(record);
+                }
             } else {
-                LocalDateTime existingDate = existingDates.get(mandateId);
+                LocalDateTime existingDate = existing.lastUpdateDate();
                 LocalDateTime newDate = record.getLastUpdateDate();
 
-                if (existingDate != null && newDate != null && existingDate.equals(newDate)) {
-                    skipCount++;
-                } else {
-                    toCheckForUpdate.add(mandateId);
+                if (existingDate != null && newDate != null
+                        && (existingDate.equals(newDate) || newerOnly && newDate.isBefore(existingDate))) {
+                    statistics.addSkipped(1);
+                } else if (materialize(record)) {
+                    if (hasSameContent(record, existing)) {
+                        dateOnly.add(record);
+                    } else {
+                        toCheckForUpdate.add(mandateId);
+                    }
                 }
             }
         }
 
-        if (!toInsert.isEmpty()) {
-            processBatchInserts(toInsert, sourceFile, batchId);
-        }
-
-        if (!toCheckForUpdate.isEmpty()) {
-            processUpdates(records, toCheckForUpdate, sourceFile, batchId);
-        }
+        work.toInsert = toInsert;
+        work.toCheckForUpdate = toCheckForUpdate;
+        work.dateOnly = dateOnly;
+        work.existingStates = existingStates;
     }
 
-    private void processBatchInserts(List<MandateFileRecord> records, String sourceFile, String batchId) {
-        // Collect all creditor and debtor IDs
-        Set<String> creditorIds = records.stream()
+    private static Set<String> creditorIdsOf(List<MandateFileRecord> records) {
+        return records.stream()
                 .map(MandateFileRecord::getCreditorId)
                 .collect(Collectors.toSet());
+    }
 
-        Set<String> debtorIds = records.stream()
+    private static Set<String> debtorIdsOf(List<MandateFileRecord> records) {
+        return records.stream()
                 .map(MandateFileRecord::generateDebtorId)
                 .collect(Collectors.toSet());
+    }
+
+    private boolean hasSameContent(MandateFileRecord record, MandateState existing) {
+        if (!options.isContentHashEnabled() || existing.contentHash() == null) {
+            return false;
+        }
+        DirectDebitMandate mandate = buildMandate(record, record.generateDebtorId());
+        return existing.contentHash().equals(mandate.getContentHash());
+    }
 
-        // Check which already exist
-        Set<String> existingCreditors = repository.getExistingCreditorIds(creditorIds);
-        Set<String> existingDebtors = repository.getExistingDebtorIds(debtorIds);
+    // Lazy records decode their remaining columns here; a malformed one is dropped
+    private boolean materialize(MandateFileRecord record) {
+        if (!(record instanceof LazyMandateFileRecord lazy)) {
+            return true;
+        }
+        try {
+            lazy.materialize();
+            return true;
+        } catch (Exception e) {
+            logger.error("Error parsing record at line {}: {}", lazy.getLineNumber(), e.getMessage());
+            statistics.addErrors(1);
+            return false;
+        }
+    }
 
-        // Build batch lists
+    private void build(BatchWork work) {
+        if (!work.toMerge.isEmpty()) {
+            buildMerges(work);
+        }
+        if (!work.toInsert.isEmpty()) {
+            buildInserts(work);
+        }
+        if (!work.toCheckForUpdate.isEmpty()) {
+            buildUpdates(work);
+        }
+        if (!work.dateOnly.isEmpty()) {
+            buildDateOnlyUpdates(work);
+        }
+        if (batchSizer != null) {
+            work.encodedBytesPerRecord = sampleEncodedBytes(work);
+        }
+    }
+
+    // One encoded mandate and audit stand in for the batch; 0 when there is nothing to write
+    private int sampleEncodedBytes(BatchWork work) {
+        if (!work.mandatesToInsert.isEmpty()) {
+            return store.encodedSize(work.mandatesToInsert.get(0))
+                    + (work.insertAudits.isEmpty() || auditSink != null ? 0 : store.encodedSize(work.insertAudits.get(0)));
+        }
+        if (!work.updateAudits.isEmpty()) {
+            return store.encodedSize(work.updateAudits.get(0));
+        }
+        if (!work.mandatesToMerge.isEmpty()) {
+            return store.encodedSize(work.mandatesToMerge.get(0));
+        }
+        return 0;
+    }
+
+    /**
+     * Every record becomes a full mandate as if new; the merge keeps the
+     * stored createdAt and version when it replaces one. Creditors and
+     * debtors the cache does not know are built too, and only those of
+     * mandates the merge inserts are written. The content hash is what the
+     * merge compares, so it is set whether or not content.hash.enabled is.
+     */
+    private void buildMerges(BatchWork work) {
+        List<Creditor> creditorsToInsert = new ArrayList<>();
+        List<Debtor> debtorsToInsert = new ArrayList<>();
+        List<DirectDebitMandate> mandatesToMerge = new ArrayList<>();
+
+        LocalDateTime now = LocalDateTime.now();
+        Set<String> creditorsInBatch = new HashSet<>();
+        Set<String> debtorsInBatch = new HashSet<>();
+        Set<String> knownCreditors = referenceCache != null
+                ? referenceCache.creditors().known(creditorIdsOf(work.toMerge))
+                : Collections.emptySet();
+        Set<String> knownDebtors = referenceCache != null
+                ? referenceCache.debtors().known(debtorIdsOf(work.toMerge))
+                : Collections.emptySet();
+
+        for (MandateFileRecord record : work.toMerge) {
+            String debtorId = record.generateDebtorId();
+
+            if (!knownCreditors.contains(record.getCreditorId()) && creditorsInBatch.add(record.getCreditorId())) {
+                Creditor creditor = buildCreditor(record);
+                creditor.setCreatedAt(now);
+                creditor.setUpdatedAt(now);
+                creditorsToInsert.add(creditor);
+            }
+
+            if (!knownDebtors.contains(debtorId) && debtorsInBatch.add(debtorId)) {
+                Debtor debtor = buildDebtor(record, debtorId);
+                debtor.setCreatedAt(now);
+                debtor.setUpdatedAt(now);
+                debtorsToInsert.add(debtor);
+            }
+
+            DirectDebitMandate mandate = buildMandate(record, debtorId);
+            if (mandate.getContentHash() == null) {
+                mandate.setContentHash(MandateContentHash.of(mandate));
+            }
+            mandate.setCreatedAt(now);
+            mandate.setVersion(1);
+            stamp(mandate, work);
+            mandatesToMerge.add(mandate);
+        }
+
+        work.creditorsToInsert = creditorsToInsert;
+        work.debtorsToInsert = debtorsToInsert;
+        work.mandatesToMerge = mandatesToMerge;
+    }
+
+    private void buildInserts(BatchWork work) {
         List<Creditor> creditorsToInsert = new ArrayList<>();
         List<Debtor> debtorsToInsert = new ArrayList<>();
         List<DirectDebitMandate> mandatesToInsert = new ArrayList<>();
@@ -123,11 +837,11 @@ public class MandateProcessor {
         Set<String> creditorsInBatch = new HashSet<>();
         Set<String> debtorsInBatch = new HashSet<>();
 
-        for (MandateFileRecord record : records) {
+        for (MandateFileRecord record : work.toInsert) {
             String debtorId = record.generateDebtorId();
 
             // Build creditor if new (and not already in this batch)
-            if (!existingCreditors.contains(record.getCreditorId())
+            if (!work.existingCreditors.contains(record.getCreditorId())
                     && !creditorsInBatch.contains(record.getCreditorId())) {
                 Creditor creditor = buildCreditor(record);
                 creditor.setCreatedAt(now);
@@ -137,7 +851,7 @@ public class MandateProcessor {
             }
 
             // Build debtor if new (and not already in this batch)
-            if (!existingDebtors.contains(debtorId)
+            if (!work.existingDebtors.contains(debtorId)
                     && !debtorsInBatch.contains(debtorId)) {
                 Debtor debtor = buildDebtor(record, debtorId);
                 debtor.setCreatedAt(now);
@@ -150,73 +864,47 @@ public class MandateProcessor {
             DirectDebitMandate mandate = buildMandate(record, debtorId);
             mandate.setCreatedAt(now);
             mandate.setVersion(1);
+            stamp(mandate, work);
             mandatesToInsert.add(mandate);
 
+            if (auditsFromStream()) {
+                continue;
+            }
+
             // Build audit
             audits.add(MandateAudit.builder()
                     .mandateId(record.getMandateId())
                     .changeType("INSERT")
                     .changeTimestamp(now)
-                    .sourceFile(sourceFile)
+                    .sourceFile(work.sourceFile)
                     .newUpdateDate(record.getLastUpdateDate())
                     .fieldChanges(Collections.emptyList())
                     .processedBy(System.getProperty("user.name", "system"))
-                    .batchId(batchId)
+                    .batchId(work.batchId)
                     .build());
         }
 
-        // Execute batch insert in a single transaction
-        try (ClientSession session = repository.getMongoClient().startSession()) {
-            session.startTransaction();
-
-            try {
-                if (!creditorsToInsert.isEmpty()) {
-                    repository.batchInsertCreditors(session, creditorsToInsert);
-                    newCreditors += creditorsToInsert.size();
-                }
-
-                if (!debtorsToInsert.isEmpty()) {
-                    repository.batchInsertDebtors(session, debtorsToInsert);
-                    newDebtors += debtorsToInsert.size();
-                }
-
-                repository.batchInsertMandates(session, mandatesToInsert);
-                repository.batchInsertAudits(session, audits);
-
-                session.commitTransaction();
-                insertCount += mandatesToInsert.size();
-
-                logger.debug("Batch inserted {} mandates, {} creditors, {} debtors",
-                        mandatesToInsert.size(), creditorsToInsert.size(), debtorsToInsert.size());
-
-            } catch (Exception e) {
-                session.abortTransaction();
-                logger.error("Batch transaction failed: {}", e.getMessage());
-                errorCount += records.size();
-            }
-        }
+        work.creditorsToInsert = creditorsToInsert;
+        work.debtorsToInsert = debtorsToInsert;
+        work.mandatesToInsert = mandatesToInsert;
+        work.insertAudits = audits;
     }
 
-    private void processUpdates(List<MandateFileRecord> allRecords,
-                                List<String> mandateIdsToUpdate,
-                                String sourceFile, String batchId) {
-
-        Map<String, MandateFileRecord> recordsMap = allRecords.stream()
-                .filter(r -> mandateIdsToUpdate.contains(r.getMandateId()))
+    private void buildUpdates(BatchWork work) {
+        Map<String, MandateFileRecord> recordsMap = work.records.stream()
+                .filter(r -> work.toCheckForUpdate.contains(r.getMandateId()))
                 .collect(Collectors.toMap(MandateFileRecord::getMandateId, r -> r));
 
-        Map<String, DirectDebitMandate> existingMandates = repository.batchGetMandates(mandateIdsToUpdate);
-
-        List<DirectDebitMandate> mandatesToUpdate = new ArrayList<>();
+        List<MandateFieldUpdate> mandateUpdates = new ArrayList<>();
         List<MandateAudit> audits = new ArrayList<>();
         LocalDateTime now = LocalDateTime.now();
 
-        for (String mandateId : mandateIdsToUpdate) {
-            DirectDebitMandate existing = existingMandates.get(mandateId);
+        for (String mandateId : work.toCheckForUpdate) {
+            DirectDebitMandate existing = work.existingMandates.get(mandateId);
             MandateFileRecord record = recordsMap.get(mandateId);
 
             if (existing == null || record == null) {
-                errorCount++;
+                statistics.addErrors(1);
                 continue;
             }
 
@@ -226,37 +914,285 @@ public class MandateProcessor {
             List<FieldChange> changes = diffService.diff(existing, updated);
 
             if (!changes.isEmpty()) {
-                updated.setId(existing.getId());
-                updated.setCreatedAt(existing.getCreatedAt());
-                updated.setVersion(existing.getVersion() != null ? existing.getVersion() + 1 : 1);
-                mandatesToUpdate.add(updated);
+                // The hash is not diffed; dropped like a replacement would when hashing is off
+                Map<String, Object> changedValues = diffService.changedValues(updated, changes);
+                if (updated.getContentHash() != null || existing.getContentHash() != null) {
+                    changedValues.put("contentHash", updated.getContentHash());
+                }
+                stamp(changedValues, work);
+                mandateUpdates.add(new MandateFieldUpdate(mandateId, existing.getLastUpdateDate(),
+                        updated.getLastUpdateDate(), changedValues));
+                if (auditsFromStream()) {
+                    continue;
+                }
 
                 audits.add(MandateAudit.builder()
                         .mandateId(mandateId)
                         .changeType("UPDATE")
                         .changeTimestamp(now)
-                        .sourceFile(sourceFile)
+                        .sourceFile(work.sourceFile)
                         .previousUpdateDate(existing.getLastUpdateDate())
                         .newUpdateDate(record.getLastUpdateDate())
                         .fieldChanges(changes)
                         .processedBy(System.getProperty("user.name", "system"))
-                        .batchId(batchId)
+                        .batchId(work.batchId)
                         .build());
             } else {
-                skipCount++;
+                statistics.addSkipped(1);
             }
         }
 
-        if (!mandatesToUpdate.isEmpty()) {
-            try {
-                repository.batchUpdateMandates(mandatesToUpdate);
-                repository.batchInsertAudits(audits);
-                updateCount += mandatesToUpdate.size();
-            } catch (Exception e) {
-                logger.error("Batch update failed: {}", e.getMessage());
-                errorCount += mandatesToUpdate.size();
+        work.mandateUpdates = mandateUpdates;
+        work.updateAudits = audits;
+    }
+
+    // The audit matches what diff would report: lastUpdateDate is the only change
+    private void buildDateOnlyUpdates(BatchWork work) {
+        List<MandateFieldUpdate> dateOnlyUpdates = new ArrayList<>();
+        List<MandateAudit> audits = new ArrayList<>(work.updateAudits);
+        LocalDateTime now = LocalDateTime.now();
+
+        for (MandateFileRecord record : work.dateOnly) {
+            String mandateId = record.getMandateId();
+            LocalDateTime previous = work.existingStates.get(mandateId).lastUpdateDate();
+            Map<String, Object> changedValues = new LinkedHashMap<>();
+            changedValues.put("lastUpdateDate", record.getLastUpdateDate());
+            stamp(changedValues, work);
+            dateOnlyUpdates.add(new MandateFieldUpdate(mandateId, previous, record.getLastUpdateDate(),
+                    changedValues));
+            if (auditsFromStream()) {
+                continue;
+            }
+
+            audits.add(MandateAudit.builder()
+                    .mandateId(mandateId)
+                    .changeType("UPDATE")
+                    .changeTimestamp(now)
+                    .sourceFile(work.sourceFile)
+                    .previousUpdateDate(previous)
+                    .newUpdateDate(record.getLastUpdateDate())
+                    .fieldChanges(List.of(diffService.fieldChange("lastUpdateDate",
+                            previous, record.getLastUpdateDate())))
+                    .processedBy(System.getProperty("user.name", "system"))
+                    .batchId(work.batchId)
+                    .build());
+        }
+
+        work.dateOnlyUpdates = dateOnlyUpdates;
+        work.updateAudits = audits;
+    }
+
+    /**
+     * Inserts run in a single transaction, updates as one bulk write. With
+     * insert locks, creditors and debtors another batch may have created
+     * since the lookup are re-checked under a per-id lock and dropped, so
+     * two concurrent batches never insert the same one.
+     */
+    private void write(BatchWork work, StripedLocks insertLocks) {
+        long start = System.nanoTime();
+        if (!work.mandatesToMerge.isEmpty()) {
+            mergeWriter.write(work);
+        }
+        if (!work.mandatesToInsert.isEmpty()) {
+            if (insertLocks == null || (work.creditorsToInsert.isEmpty() && work.debtorsToInsert.isEmpty())) {
+                insertWriter.write(work);
+            } else {
+                List<String> keys = new ArrayList<>();
+                work.creditorsToInsert.forEach(c -> keys.add("creditor:" + c.getCreditorId()));
+                work.debtorsToInsert.forEach(d -> keys.add("debtor:" + d.getDebtorId()));
+
+                try (StripedLocks.Held held = insertLocks.lockAll(keys)) {
+                    recheckReferenceData(work);
+                    insertWriter.write(work);
+                }
+            }
+        }
+
+        if (!work.mandateUpdates.isEmpty() || !work.dateOnlyUpdates.isEmpty()) {
+            writeUpdates(work);
+        }
+        work.writeNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * The same writes as chained futures, with inserts and updates running
+     * side by side (they never share a mandate). Registering in the insert
+     * gate takes all of a batch's creditor and debtor ids in one step, so
+     * two batches cannot each wait on the other.
+     */
+    private CompletableFuture<Void> writeAsync(BatchWork work, Executor workers) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> inserts = CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> updates = CompletableFuture.completedFuture(null);
+
+        if (!work.mandatesToMerge.isEmpty()) {
+            inserts = mergeWriter.writeAsync(work, workers);
+        }
+
+        if (!work.mandatesToInsert.isEmpty()) {
+            if (work.creditorsToInsert.isEmpty() && work.debtorsToInsert.isEmpty()) {
+                inserts = insertWriter.writeAsync(work, workers);
+            } else {
+                List<String> keys = new ArrayList<>();
+                work.creditorsToInsert.forEach(c -> keys.add("creditor:" + c.getCreditorId()));
+                work.debtorsToInsert.forEach(d -> keys.add("debtor:" + d.getDebtorId()));
+
+                KeyOrderingGate.Ticket held = insertGate.register(keys);
+                inserts = held.ready()
+                        .thenCompose(v -> recheckReferenceDataAsync(work))
+                        .thenComposeAsync(v -> insertWriter.writeAsync(work, workers), workers)
+                        .whenComplete((v, error) -> insertGate.release(held));
             }
         }
+
+        if (!work.mandateUpdates.isEmpty() || !work.dateOnlyUpdates.isEmpty()) {
+            updates = writeUpdatesAsync(work);
+        }
+
+        return CompletableFuture.allOf(inserts, updates)
+                .thenRun(() -> work.writeNanos = System.nanoTime() - start);
+    }
+
+    private void recheckReferenceData(BatchWork work) {
+        if (!work.creditorsToInsert.isEmpty()) {
+            dropCreatedCreditors(work, store.getExistingCreditorIds(creditorIdsToInsert(work)));
+        }
+
+        if (!work.debtorsToInsert.isEmpty()) {
+            dropCreatedDebtors(work, store.getExistingDebtorIds(debtorIdsToInsert(work)));
+        }
+    }
+
+    private CompletableFuture<Void> recheckReferenceDataAsync(BatchWork work) {
+        CompletableFuture<Void> creditors = work.creditorsToInsert.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : asyncRepository.getExistingCreditorIds(creditorIdsToInsert(work))
+                        .thenAccept(created -> dropCreatedCreditors(work, created));
+        CompletableFuture<Void> debtors = work.debtorsToInsert.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : asyncRepository.getExistingDebtorIds(debtorIdsToInsert(work))
+                        .thenAccept(created -> dropCreatedDebtors(work, created));
+        return CompletableFuture.allOf(creditors, debtors);
+    }
+
+    private static Set<String> creditorIdsToInsert(BatchWork work) {
+        return work.creditorsToInsert.stream()
+                .map(Creditor::getCreditorId)
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> debtorIdsToInsert(BatchWork work) {
+        return work.debtorsToInsert.stream()
+                .map(Debtor::getDebtorId)
+                .collect(Collectors.toSet());
+    }
+
+    private static void dropCreatedCreditors(BatchWork work, Set<String> created) {
+        if (!created.isEmpty()) {
+            work.creditorsToInsert = work.creditorsToInsert.stream()
+                    .filter(c -> !created.contains(c.getCreditorId()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void dropCreatedDebtors(BatchWork work, Set<String> created) {
+        if (!created.isEmpty()) {
+            work.debtorsToInsert = work.debtorsToInsert.stream()
+                    .filter(d -> !created.contains(d.getDebtorId()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Field and date-only updates go in one bulk write. An update whose
+     * mandate was changed by someone else since the lookup is not applied;
+     * it is counted as an error and gets no audit record.
+     */
+    private void writeUpdates(BatchWork work) {
+        List<MandateFieldUpdate> updates = updatesOf(work);
+        try {
+            Set<String> unapplied = store.batchUpdateMandateFields(updates);
+            writeAudits(appliedAudits(work, unapplied));
+            countApplied(work, unapplied);
+        } catch (Exception e) {
+            logger.error("Batch update failed: {}", e.getMessage());
+            statistics.addErrors(updates.size());
+        }
+    }
+
+    private CompletableFuture<Void> writeUpdatesAsync(BatchWork work) {
+        List<MandateFieldUpdate> updates = updatesOf(work);
+        return asyncRepository.batchUpdateMandateFields(updates)
+                .thenCompose(unapplied -> writeAuditsAsync(appliedAudits(work, unapplied))
+                        .thenRun(() -> countApplied(work, unapplied)))
+                .exceptionally(error -> {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    logger.error("Batch update failed: {}", cause.getMessage());
+                    statistics.addErrors(updates.size());
+                    return null;
+                });
+    }
+
+    private void writeAudits(List<MandateAudit> audits) {
+        if (auditSink != null) {
+            auditSink.submit(audits);
+        } else {
+            store.batchInsertAudits(audits);
+        }
+    }
+
+    private CompletableFuture<Void> writeAuditsAsync(List<MandateAudit> audits) {
+        if (auditSink != null) {
+            auditSink.submit(audits);
+            return CompletableFuture.completedFuture(null);
+        }
+        return asyncRepository.batchInsertAudits(audits);
+    }
+
+    private static List<MandateFieldUpdate> updatesOf(BatchWork work) {
+        List<MandateFieldUpdate> updates = new ArrayList<>(work.mandateUpdates);
+        updates.addAll(work.dateOnlyUpdates);
+        return updates;
+    }
+
+    // Audits of the updates that were applied; the rest are counted as errors
+    private List<MandateAudit> appliedAudits(BatchWork work, Set<String> unapplied) {
+        if (unapplied.isEmpty()) {
+            return work.updateAudits;
+        }
+        logger.warn("{} mandates changed since they were looked up, updates not applied: {}",
+                unapplied.size(), unapplied);
+        statistics.addErrors(unapplied.size());
+        return work.updateAudits.stream()
+                .filter(a -> !unapplied.contains(a.getMandateId()))
+                .collect(Collectors.toList());
+    }
+
+    private void countApplied(BatchWork work, Set<String> unapplied) {
+        statistics.addUpdated(work.mandateUpdates.size() + work.dateOnlyUpdates.size() - unapplied.size());
+        statistics.addDateOnlyUpdates(work.dateOnlyUpdates.stream()
+                .filter(u -> !unapplied.contains(u.mandateId()))
+                .count());
+    }
+
+    // With audit.mode=change-stream only ChangeStreamAuditWriter writes audits
+    private boolean auditsFromStream() {
+        return options.getAuditMode() == AuditMode.CHANGE_STREAM;
+    }
+
+    // The file and batch the change stream audit writer records; left unset otherwise
+    private void stamp(DirectDebitMandate mandate, BatchWork work) {
+        if (auditsFromStream()) {
+            mandate.setSourceFile(work.sourceFile);
+            mandate.setBatchId(work.batchId);
+        }
+    }
+
+    private void stamp(Map<String, Object> changedValues, BatchWork work) {
+        if (auditsFromStream()) {
+            changedValues.put("sourceFile", work.sourceFile);
+            changedValues.put("batchId", work.batchId);
+        }
     }
 
     private Creditor buildCreditor(MandateFileRecord record) {
@@ -284,7 +1220,7 @@ public class MandateProcessor {
     }
 
     private DirectDebitMandate buildMandate(MandateFileRecord record, String debtorId) {
-        return DirectDebitMandate.builder()
+        DirectDebitMandate mandate = DirectDebitMandate.builder()
                 .mandateId(record.getMandateId())
                 .lastUpdateDate(record.getLastUpdateDate())
                 .creditorId(record.getCreditorId())
@@ -303,32 +1239,120 @@ public class MandateProcessor {
                 .description(record.getDescription())
                 .schemeType(record.getSchemeType())
                 .build();
+
+        if (options.isContentHashEnabled()) {
+            mandate.setContentHash(MandateContentHash.of(mandate));
+        }
+        return mandate;
     }
 
     private void resetStatistics() {
-        totalProcessed = 0;
-        insertCount = 0;
-        updateCount = 0;
-        skipCount = 0;
-        errorCount = 0;
-        newCreditors = 0;
-        newDebtors = 0;
+        statistics = new ProcessingStatistics();
+        stageMetrics = Collections.emptyList();
+        concurrentMetrics = null;
+        laneMetrics = Collections.emptyList();
+        rangeLookup = null;
+        batchSizer = null;
+        orderingWaitNanos.reset();
+        if (referenceCache != null) {
+            referenceCache.resetCounters();
+        }
     }
 
     private void logStatistics(long durationMs) {
+        ProcessingStatistics stats = statistics;
+        long totalProcessed = stats.getTotalProcessed();
+
         logger.info("========================================");
         logger.info("Processing Complete");
         logger.info("========================================");
         logger.info("Total Records Processed: {}", totalProcessed);
-        logger.info("Inserted: {}", insertCount);
-        logger.info("Updated: {}", updateCount);
-        logger.info("Skipped (unchanged): {}", skipCount);
-        logger.info("Errors: {}", errorCount);
-        logger.info("New Creditors: {}", newCreditors);
-        logger.info("New Debtors: {}", newDebtors);
+        logger.info("Inserted: {}", stats.getInserted());
+        logger.info("Updated: {}", stats.getUpdated());
+        if (options.isContentHashEnabled()) {
+            logger.info("Date-only updates (no fetch or diff): {}", stats.getDateOnlyUpdates());
+        }
+        logger.info("Skipped (unchanged): {}", stats.getSkipped());
+        if (options.getSnapshotFile() != null) {
+            logger.info("Unchanged since snapshot (not looked up): {}", stats.getUnchangedSinceSnapshot());
+        }
+        logger.info("Errors: {}", stats.getErrors());
+        if (stats.getRejected() > 0) {
+            logger.info("Rejected (written to {}): {}", rejects.getPath(), stats.getRejected());
+        }
+        if (stats.getTransactionRetries() > 0 || stats.getSplitTransactions() > 0) {
+            logger.info("Transaction retries: {}, split transactions: {}",
+                    stats.getTransactionRetries(), stats.getSplitTransactions());
+        }
+        logger.info("New Creditors: {}", stats.getNewCreditors());
+        logger.info("New Debtors: {}", stats.getNewDebtors());
         logger.info("Duration: {} ms", durationMs);
+        if (stats.getStartupMs() >= 0) {
+            logger.info("Startup: {} ms from JVM start to the first file, {} ms to its first batch written ({})",
+                    stats.getStartupMs(), stats.getStartupMs() + Math.max(0, stats.getFirstBatchMs()),
+                    classDataSharing());
+        }
+        logger.info("Time to first batch: {} ms", stats.getFirstBatchMs());
         logger.info("Throughput: {} records/sec",
                 durationMs > 0 ? (totalProcessed * 1000 / durationMs) : 0);
+        if (stats.getDecompressedBytes() > 0) {
+            long decompressionMs = stats.getDecompressionNanos() / 1_000_000;
+            logger.info("Decompressed: {} MB in {} ms on the decompression thread",
+                    stats.getDecompressedBytes() / (1024 * 1024), decompressionMs);
+            logger.info("Decompression Throughput: {} MB/sec",
+                    decompressionMs > 0 ? (stats.getDecompressedBytes() * 1000 / decompressionMs / (1024 * 1024)) : 0);
+        }
+        if (rangeLookup != null) {
+            logger.info("Range lookup: {}", rangeLookup.describe());
+        }
+        if (referenceCache != null) {
+            logger.info("Reference cache: {}", referenceCache.describe());
+        }
+        if (batchSizer != null) {
+            logger.info("Adaptive batch size: {}", batchSizer.describe());
+        }
+        // busy = working, starved = waiting for input, blocked = waiting for room downstream
+        for (BatchPipeline.StageMetrics stage : stageMetrics) {
+            logger.info("Stage {}: {} thread(s), {} batches, busy {} ms, starved {} ms, blocked {} ms, max queue {}/{}",
+                    stage.name(), stage.threads(), stage.items(), stage.busyMs(), stage.starvedMs(),
+                    stage.blockedMs(), stage.maxQueueDepth(), stage.queueCapacity());
+        }
+        if (concurrentMetrics != null) {
+            logger.info("Concurrent batches: {} run, peak {}/{} in flight, reader waited {} ms for a free slot",
+                    concurrentMetrics.items(), concurrentMetrics.peakInFlight(),
+                    concurrentMetrics.maxInFlight(), concurrentMetrics.sourceBlockedMs());
+        }
+        for (ShardedBatchRunner.LaneMetrics lane : laneMetrics) {
+            logger.info("Shard {}: {} writer(s), {} batches, busy {} ms, reader blocked {} ms, max queue {}/{}",
+                    lane.shard(), lane.writers(), lane.items(), lane.busyMs(), lane.sourceBlockedMs(),
+                    lane.maxQueueDepth(), lane.queueCapacity());
+        }
+        if (asyncRepository != null && options.getProcessingMode() == ProcessingMode.ASYNC) {
+            logger.info("Async requests: {}", asyncRepository.describeWindow());
+        }
+        if (auditSink != null) {
+            logger.info("Audit sink: {}", auditSink.describe());
+        }
+        if (!stageMetrics.isEmpty() || concurrentMetrics != null || !laneMetrics.isEmpty()) {
+            logger.info("Ordering wait (batches sharing a mandateId): {} ms", orderingWaitNanos.sum() / 1_000_000);
+        }
         logger.info("========================================");
     }
+
+    // The archive this JVM was started with, as given on the command line
+    private static String classDataSharing() {
+        return ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .filter(arg -> arg.startsWith("-XX:SharedArchiveFile="))
+                .map(arg -> "AppCDS archive " + arg.substring("-XX:SharedArchiveFile=".length()))
+                .findFirst()
+                .orElse("no AppCDS archive");
+    }
+
+    // Writes or spools the audits still queued with audit.mode=async
+    @Override
+    public void close() {
+        if (auditSink != null && !sibling) {
+            auditSink.close();
+        }
+    }
 }
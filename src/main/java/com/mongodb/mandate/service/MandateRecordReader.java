@@ -0,0 +1,56 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Source of parsed mandate records for a single input file.
+ */
+public interface MandateRecordReader extends AutoCloseable {
+
+    String getFileName();
+
+    List<MandateFileRecord> readBatch(int batchSize) throws IOException;
+
+    // Position just past the last line consumed by readBatch
+    ReaderPosition getPosition();
+
+    @Override
+    void close() throws IOException;
+
+    // Uncompressed bytes produced so far; zero for plain input files
+    default long getDecompressedBytes() {
+        return 0;
+    }
+
+    // Time the decompression thread has spent reading and inflating
+    default long getDecompressionNanos() {
+        return 0;
+    }
+
+    static MandateRecordReader open(Path filePath, ProcessorOptions options) throws IOException {
+        return open(filePath, options, ReaderPosition.START);
+    }
+
+    /**
+     * Compressed files are always streamed; reader.mode selects the reader
+     * for plain files. A reader opened at a position other than START skips
+     * the header and continues numbering lines from that position.
+     */
+    static MandateRecordReader open(Path filePath, ProcessorOptions options, ReaderPosition start) throws IOException {
+        InputCompression compression = InputCompression.detect(filePath);
+        if (compression != InputCompression.NONE) {
+            return new StreamingMandateFileReader(filePath, compression, options, start);
+        }
+
+        return switch (options.getReaderMode()) {
+            case BUFFERED -> new MandateFileReader(filePath, options, start);
+            case MAPPED -> new MappedMandateFileReader(filePath, options, start);
+            case PARALLEL -> new ParallelMandateFileReader(filePath, options, start);
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.mongodb.mandate.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Walks the lines of a byte range of a file through read-only memory
+ * mappings. A line ends at '\n', '\r' or "\r\n", as with BufferedReader.
+ * The file is mapped in windows so multi-GB inputs do not hit the 2 GB
+ * MappedByteBuffer limit; a line that straddles the end of a window is
+ * re-mapped from its first byte.
+ *
+ * After {@link #nextLine()} returns true the current line occupies
+ * [{@link #lineStart()}, {@link #lineEnd()}) of {@link #buffer()}, excluding
+ * the terminator.
+ */
+class MappedLineScanner {
+
+    static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long rangeEnd;
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private int lineStart;
+    private int lineEnd;
+
+    MappedLineScanner(FileChannel channel, long rangeStart, long rangeEnd) {
+        this(channel, rangeStart, rangeEnd, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLineScanner(FileChannel channel, long rangeStart, long rangeEnd, long windowSize) {
+        this.channel = channel;
+        this.rangeEnd = rangeEnd;
+        this.windowSize = windowSize;
+        this.position = rangeStart;
+    }
+
+    boolean nextLine() throws IOException {
+        if (position >= rangeEnd) {
+            return false;
+        }
+        if (window == null || position >= windowStart + window.limit()) {
+            map(position);
+        }
+
+        int start = (int) (position - windowStart);
+        int i = start;
+
+        while (true) {
+            int limit = window.limit();
+            while (i < limit && !isLineEnd(window.get(i))) {
+                i++;
+            }
+
+            if (i < limit) {
+                lineStart = start;
+                lineEnd = i;
+                position = windowStart + i + 1;
+                if (window.get(i) == '\r' && position < rangeEnd && byteAt(position) == '\n') {
+                    position++;
+                }
+                return true;
+            }
+
+            if (windowStart + limit >= rangeEnd) {
+                // Final line without a terminator
+                lineStart = start;
+                lineEnd = limit;
+                position = rangeEnd;
+                return true;
+            }
+
+            if (start == 0) {
+                throw new IOException("Line at byte offset " + windowStart
+                        + " is longer than the mapping window of " + windowSize + " bytes");
+            }
+
+            int scanned = i - start;
+            map(windowStart + start);
+            start = 0;
+            i = scanned;
+        }
+    }
+
+    static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    // A "\r\n" can straddle the end of the window; the '\n' is then read from the channel
+    private byte byteAt(long offset) throws IOException {
+        if (offset < windowStart + window.limit()) {
+            return window.get((int) (offset - windowStart));
+        }
+        ByteBuffer single = ByteBuffer.allocate(1);
+        return channel.read(single, offset) == 1 ? single.get(0) : 0;
+    }
+
+    private void map(long offset) throws IOException {
+        long size = Math.min(windowSize, rangeEnd - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+    }
+
+    MappedByteBuffer buffer() {
+        return window;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineEnd() {
+        return lineEnd;
+    }
+
+    // File offset of the first byte after the current line's terminator
+    long position() {
+        return position;
+    }
+}
@@ -0,0 +1,185 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.*;
+import com.mongodb.mandate.repository.AsyncMandateRepository;
+import com.mongodb.mandate.repository.MandateStore;
+import com.mongodb.mandate.repository.MergeResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * Writes a batch with write.mode=merge: one bulk write of conditional
+ * upserts for all its mandates, then the creditors and debtors of the
+ * mandates that turned out to be new, then the audits. Nothing is looked
+ * up beforehand, and creditors or debtors someone else inserted meanwhile
+ * are skipped rather than locked against.
+ *
+ * There is no transaction, so a failure after the merge leaves mandates
+ * without audits; a rerun finds them unchanged. Replacements are audited
+ * without field changes or previous date, since the stored document is
+ * never read. A mandate that fails on its own goes to the reject sink and
+ * the rest of the batch is still written.
+ */
+class MergeWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MergeWriter.class);
+
+    private final MandateStore store;
+    // Null unless processing.mode=async
+    private final AsyncMandateRepository asyncRepository;
+    private final ProcessingStatistics statistics;
+    private final RejectSink rejects;
+    // Null when reference.cache.enabled is off
+    private final ReferenceDataCache referenceCache;
+    // False with audit.mode=change-stream
+    private final boolean writeAudits;
+    // With audit.mode=async audits go here instead of being inserted; null otherwise
+    private final AuditSink auditSink;
+
+    MergeWriter(MandateStore store, AsyncMandateRepository asyncRepository, ProcessingStatistics statistics,
+                RejectSink rejects, ReferenceDataCache referenceCache, boolean writeAudits, AuditSink auditSink) {
+        this.store = store;
+        this.asyncRepository = asyncRepository;
+        this.statistics = statistics;
+        this.rejects = rejects;
+        this.referenceCache = referenceCache;
+        this.writeAudits = writeAudits;
+        this.auditSink = auditSink;
+    }
+
+    // What the merge leaves to write
+    private record Merged(List<Creditor> creditors, List<Debtor> debtors, List<MandateAudit> audits) {}
+
+    void write(BatchWork work) {
+        if (work.mandatesToMerge.isEmpty()) return;
+
+        Merged merged;
+        try {
+            merged = merged(work, store.mergeMandates(work.mandatesToMerge, UUID.randomUUID().toString()));
+        } catch (RuntimeException e) {
+            failed(work, e);
+            return;
+        }
+
+        statistics.addNewCreditors(store.insertMissingCreditors(merged.creditors()));
+        statistics.addNewDebtors(store.insertMissingDebtors(merged.debtors()));
+        cache(merged);
+        if (auditSink != null) {
+            auditSink.submit(merged.audits());
+        } else {
+            store.batchInsertAudits(merged.audits());
+        }
+    }
+
+    // The reference data and audits go out together once the merge result is in
+    CompletableFuture<Void> writeAsync(BatchWork work, Executor continuations) {
+        if (work.mandatesToMerge.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        return asyncRepository.mergeMandates(work.mandatesToMerge, UUID.randomUUID().toString())
+                .handleAsync((result, error) -> {
+                    if (error != null) {
+                        failed(work, InsertTransactionWriter.unwrap(error));
+                        return null;
+                    }
+                    return merged(work, result);
+                }, continuations)
+                .thenCompose(merged -> merged == null
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.allOf(
+                                asyncRepository.insertMissingCreditors(merged.creditors())
+                                        .thenAccept(statistics::addNewCreditors),
+                                asyncRepository.insertMissingDebtors(merged.debtors())
+                                        .thenAccept(statistics::addNewDebtors),
+                                auditsAsync(merged))
+                        .thenRun(() -> cache(merged)));
+    }
+
+    private CompletableFuture<Void> auditsAsync(Merged merged) {
+        if (auditSink != null) {
+            auditSink.submit(merged.audits());
+            return CompletableFuture.completedFuture(null);
+        }
+        return asyncRepository.batchInsertAudits(merged.audits());
+    }
+
+    private void failed(BatchWork work, RuntimeException e) {
+        logger.error("Batch merge failed: {}", e.getMessage());
+        statistics.addErrors(work.mandatesToMerge.size());
+    }
+
+    private Merged merged(BatchWork work, MergeResult result) {
+        LocalDateTime now = LocalDateTime.now();
+        Set<String> newCreditorIds = new HashSet<>();
+        Set<String> newDebtorIds = new HashSet<>();
+        List<MandateAudit> audits = new ArrayList<>();
+        long unchanged = 0;
+
+        for (int i = 0; i < work.toMerge.size(); i++) {
+            MandateFileRecord record = work.toMerge.get(i);
+            DirectDebitMandate mandate = work.mandatesToMerge.get(i);
+
+            String reason = result.failed().get(i);
+            if (reason != null) {
+                rejects.reject(record, reason);
+                statistics.addRejected(1);
+                statistics.addErrors(1);
+            } else if (result.inserted().contains(i)) {
+                newCreditorIds.add(mandate.getCreditorId());
+                newDebtorIds.add(mandate.getDebtorId());
+                if (writeAudits) {
+                    audits.add(audit(work, record, "INSERT", now));
+                }
+            } else if (result.updated().contains(i)) {
+                if (writeAudits) {
+                    audits.add(audit(work, record, "UPDATE", now));
+                }
+            } else {
+                unchanged++;
+            }
+        }
+
+        statistics.addInserted(result.inserted().size());
+        statistics.addUpdated(result.updated().size());
+        statistics.addSkipped(unchanged);
+
+        logger.debug("Batch merged: {} inserted, {} replaced, {} unchanged, {} failed",
+                result.inserted().size(), result.updated().size(), unchanged, result.failed().size());
+
+        return new Merged(
+                work.creditorsToInsert.stream()
+                        .filter(c -> newCreditorIds.contains(c.getCreditorId()))
+                        .collect(Collectors.toList()),
+                work.debtorsToInsert.stream()
+                        .filter(d -> newDebtorIds.contains(d.getDebtorId()))
+                        .collect(Collectors.toList()),
+                audits);
+    }
+
+    private static MandateAudit audit(BatchWork work, MandateFileRecord record, String changeType,
+                                      LocalDateTime now) {
+        return MandateAudit.builder()
+                .mandateId(record.getMandateId())
+                .changeType(changeType)
+                .changeTimestamp(now)
+                .sourceFile(work.sourceFile)
+                .newUpdateDate(record.getLastUpdateDate())
+                .fieldChanges(Collections.emptyList())
+                .processedBy(System.getProperty("user.name", "system"))
+                .batchId(work.batchId)
+                .build();
+    }
+
+    // Inserted or not, every creditor and debtor written here now exists
+    private void cache(Merged merged) {
+        if (referenceCache != null) {
+            referenceCache.creditors().add(merged.creditors().stream().map(Creditor::getCreditorId).toList());
+            referenceCache.debtors().add(merged.debtors().stream().map(Debtor::getDebtorId).toList());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses a single mandate file on several cores. The body of the file is cut
+ * into byte ranges that start and end on line boundaries, each range is
+ * parsed by a worker into a chunk of records, and chunks are handed back to
+ * the caller strictly in file order. Records therefore reach the processing
+ * stage in the same sequence as with the single-threaded readers, so updates
+ * to one mandateId are still applied in file order.
+ *
+ * At most {@code 2 * parallelism} chunks are parsed ahead of the consumer,
+ * which bounds memory when MongoDB is the bottleneck.
+ */
+public class ParallelMandateFileReader implements MandateRecordReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelMandateFileReader.class);
+
+    private final FileChannel channel;
+    private final String fileName;
+    private final ExecutorService parsers;
+    private final Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+    private final int maxInFlight;
+    private final MandateFieldDecoder decoder;
+    private final boolean amountsAsMinorUnits;
+    private final boolean lazy;
+    private final boolean hashLines;
+
+    private final long[] boundaries;
+    private int nextChunk = 0;
+
+    private Chunk current;
+    private int currentIndex = 0;
+    private long currentBaseLine = 0;
+    private long lineNumber = 0;
+
+    public ParallelMandateFileReader(Path filePath, ProcessorOptions options) throws IOException {
+        this(filePath, options, ReaderPosition.START);
+    }
+
+    public ParallelMandateFileReader(Path filePath, ProcessorOptions options, ReaderPosition start) throws IOException {
+        int parallelism = options.getReaderParallelism();
+        this.fileName = filePath.getFileName().toString();
+        this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        this.maxInFlight = parallelism * 2;
+        this.decoder = new MandateFieldDecoder(options.isStrictParsing());
+        this.amountsAsMinorUnits = options.isAmountsAsMinorUnits();
+        this.lazy = options.isLazyRecords();
+        this.hashLines = options.getSnapshotFile() != null;
+
+        long bodyStart;
+        if (start.isStart()) {
+            bodyStart = readHeaders();
+        } else if (start.hasOffset()) {
+            bodyStart = start.offset();
+            lineNumber = start.lineNumber();
+        } else {
+            bodyStart = skipLines(start.lineNumber());
+        }
+        this.current = Chunk.empty(bodyStart);
+        this.currentBaseLine = lineNumber;
+        this.boundaries = splitOnLines(bodyStart, channel.size(), options.getReaderChunkSize());
+
+        AtomicInteger threadIds = new AtomicInteger();
+        this.parsers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "mandate-parser-" + threadIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        logger.info("Parsing {} chunks on {} threads", boundaries.length - 1, parallelism);
+    }
+
+    private long readHeaders() throws IOException {
+        MappedLineScanner scanner = new MappedLineScanner(channel, 0, channel.size());
+        if (scanner.nextLine()) {
+            lineNumber++;
+            int columns = MandateLineParser.countHeaderColumns(
+                    scanner.buffer(), scanner.lineStart(), scanner.lineEnd());
+            logger.info("Read {} columns from header", columns);
+        }
+        return scanner.position();
+    }
+
+    private long skipLines(long count) throws IOException {
+        MappedLineScanner scanner = new MappedLineScanner(channel, 0, channel.size());
+        while (lineNumber < count && scanner.nextLine()) {
+            lineNumber++;
+        }
+        return scanner.position();
+    }
+
+    // Chunk boundaries, each one the first byte of a line
+    private long[] splitOnLines(long start, long end, long chunkSize) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        offsets.add(start);
+
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        // Each boundary lies past the previous one even for a non-positive size
+        long step = Math.max(1, chunkSize);
+        long offset = start + step;
+
+        while (offset < end) {
+            long lineStart = nextLineStart(offset, end, probe);
+            if (lineStart >= end) {
+                break;
+            }
+            offsets.add(lineStart);
+            offset = lineStart + step;
+        }
+        offsets.add(end);
+
+        return offsets.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private long nextLineStart(long offset, long end, ByteBuffer probe) throws IOException {
+        long position = offset - 1;
+        while (position < end) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                return end;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                if (b == '\r') {
+                    // Never split a "\r\n" between two chunks
+                    long next = position + i + 1;
+                    if (next >= end) {
+                        return end;
+                    }
+                    byte following = i + 1 < read ? probe.get(i + 1) : byteAt(next);
+                    return following == '\n' ? next + 1 : next;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    private byte byteAt(long offset) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        return channel.read(single, offset) == 1 ? single.get(0) : 0;
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public List<MandateFileRecord> readBatch(int batchSize) throws IOException {
+        List<MandateFileRecord> batch = new ArrayList<>(batchSize);
+
+        while (batch.size() < batchSize) {
+            if (currentIndex == current.records.size()) {
+                if (!advance()) {
+                    break;
+                }
+                continue;
+            }
+            int take = Math.min(batchSize - batch.size(), current.records.size() - currentIndex);
+            batch.addAll(current.records.subList(currentIndex, currentIndex + take));
+            currentIndex += take;
+        }
+
+        return batch;
+    }
+
+    private boolean advance() throws IOException {
+        while (inFlight.size() < maxInFlight && nextChunk < boundaries.length - 1) {
+            long start = boundaries[nextChunk];
+            long end = boundaries[nextChunk + 1];
+            inFlight.add(parsers.submit(() -> parseChunk(start, end)));
+            nextChunk++;
+        }
+
+        Future<Chunk> next = inFlight.poll();
+        if (next == null) {
+            return false;
+        }
+
+        Chunk chunk;
+        try {
+            chunk = next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parsed chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Chunk parsing failed", e.getCause());
+        }
+
+        for (ParseError error : chunk.errors) {
+            logger.error("Error parsing record at line {}: {}", lineNumber + error.line, error.message);
+        }
+        if (lazy) {
+            // Lazy records carry chunk-relative line numbers until now
+            for (MandateFileRecord record : chunk.records) {
+                LazyMandateFileRecord lazyRecord = (LazyMandateFileRecord) record;
+                lazyRecord.setLineNumber(lineNumber + lazyRecord.getLineNumber());
+            }
+        }
+        currentBaseLine = lineNumber;
+        lineNumber += chunk.lineCount;
+
+        current = chunk;
+        currentIndex = 0;
+        return true;
+    }
+
+    /**
+     * Only whole chunks count as consumed in the line number, so the position
+     * after a partly consumed chunk is taken from the last record handed out.
+     */
+    @Override
+    public ReaderPosition getPosition() {
+        if (currentIndex == current.records.size()) {
+            return new ReaderPosition(current.end, lineNumber);
+        }
+        if (currentIndex == 0) {
+            return new ReaderPosition(current.start, currentBaseLine);
+        }
+        int last = currentIndex - 1;
+        return new ReaderPosition(current.recordEnds[last], currentBaseLine + current.recordLines[last]);
+    }
+
+    private Chunk parseChunk(long start, long end) throws IOException {
+        MappedLineScanner scanner = new MappedLineScanner(channel, start, end);
+        MandateLineParser parser = new MandateLineParser(decoder, amountsAsMinorUnits, hashLines);
+        List<MandateFileRecord> records = new ArrayList<>();
+        List<ParseError> errors = new ArrayList<>();
+        long[] recordEnds = new long[256];
+        long[] recordLines = new long[256];
+        long lines = 0;
+
+        while (scanner.nextLine()) {
+            lines++;
+            try {
+                MandateFileRecord record = lazy
+                        ? parser.parseLazy(scanner.buffer(), scanner.lineStart(), scanner.lineEnd(), lines)
+                        : parser.parse(scanner.buffer(), scanner.lineStart(), scanner.lineEnd());
+                if (record != null) {
+                    if (records.size() == recordEnds.length) {
+                        recordEnds = Arrays.copyOf(recordEnds, recordEnds.length * 2);
+                        recordLines = Arrays.copyOf(recordLines, recordLines.length * 2);
+                    }
+                    recordEnds[records.size()] = scanner.position();
+                    recordLines[records.size()] = lines;
+                    records.add(record);
+                }
+            } catch (CharacterCodingException e) {
+                throw e;
+            } catch (Exception e) {
+                errors.add(new ParseError(lines, e.getMessage()));
+            }
+        }
+
+        return new Chunk(records, errors, lines, start, end, recordEnds, recordLines);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parsers.shutdownNow();
+        channel.close();
+    }
+
+    // Line numbers are relative to the start of the chunk, 1-based
+    private record ParseError(long line, String message) {}
+
+    // recordEnds and recordLines give, per record, the offset after its line and its chunk-relative line
+    private record Chunk(List<MandateFileRecord> records, List<ParseError> errors, long lineCount,
+                         long start, long end, long[] recordEnds, long[] recordLines) {
+        static Chunk empty(long offset) {
+            return new Chunk(Collections.emptyList(), Collections.emptyList(), 0,
+                    offset, offset, new long[0], new long[0]);
+        }
+    }
+}
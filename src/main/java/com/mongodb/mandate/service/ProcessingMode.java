@@ -0,0 +1,23 @@
+package com.mongodb.mandate.service;
+
+public enum ProcessingMode {
+
+    // Read, look up, build and write one batch at a time
+    SEQUENTIAL,
+
+    // Parse, lookup, build and write stages overlapping through bounded queues
+    PIPELINED,
+
+    // Whole batches running side by side on virtual threads
+    CONCURRENT,
+
+    // Whole batches running side by side as non-blocking calls on the Reactive Streams driver
+    ASYNC,
+
+    // Read batches split by shard, each shard with its own queue and writers
+    SHARDED;
+
+    public static ProcessingMode fromString(String value) {
+        return ProcessingMode.valueOf(value.trim().toUpperCase());
+    }
+}
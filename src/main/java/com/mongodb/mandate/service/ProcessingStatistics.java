@@ -0,0 +1,79 @@
+package com.mongodb.mandate.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one processed file. Safe to update from several pipeline
+ * stages or batches at once.
+ */
+public class ProcessingStatistics {
+
+    private final AtomicLong totalProcessed = new AtomicLong();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder dateOnlyUpdates = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder newCreditors = new LongAdder();
+    private final LongAdder newDebtors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder transactionRetries = new LongAdder();
+    private final LongAdder splitTransactions = new LongAdder();
+
+    private volatile long unchangedSinceSnapshot;
+    private volatile long decompressedBytes;
+    private volatile long decompressionNanos;
+    // JVM start to the start of the file; only for the first file a JVM processes, -1 otherwise
+    private volatile long startupMs = -1;
+    // Start of the file to its first batch written; -1 until then
+    private final AtomicLong firstBatchMs = new AtomicLong(-1);
+
+    // Returns the running total, for progress logging
+    long addProcessed(long count) {
+        return totalProcessed.addAndGet(count);
+    }
+
+    void addInserted(long count) { inserted.add(count); }
+    void addUpdated(long count) { updated.add(count); }
+    void addDateOnlyUpdates(long count) { dateOnlyUpdates.add(count); }
+    void addSkipped(long count) { skipped.add(count); }
+    void addErrors(long count) { errors.add(count); }
+    void addNewCreditors(long count) { newCreditors.add(count); }
+    void addNewDebtors(long count) { newDebtors.add(count); }
+    void addRejected(long count) { rejected.add(count); }
+    void addTransactionRetries(long count) { transactionRetries.add(count); }
+    void addSplitTransactions(long count) { splitTransactions.add(count); }
+
+    void setUnchangedSinceSnapshot(long count) { this.unchangedSinceSnapshot = count; }
+
+    void setStartupMs(long ms) { this.startupMs = ms; }
+
+    void firstBatchWritten(long ms) {
+        if (firstBatchMs.get() < 0) {
+            firstBatchMs.compareAndSet(-1, ms);
+        }
+    }
+
+    void setDecompression(long bytes, long nanos) {
+        this.decompressedBytes = bytes;
+        this.decompressionNanos = nanos;
+    }
+
+    public long getTotalProcessed() { return totalProcessed.get(); }
+    public long getInserted() { return inserted.sum(); }
+    public long getUpdated() { return updated.sum(); }
+    public long getDateOnlyUpdates() { return dateOnlyUpdates.sum(); }
+    public long getSkipped() { return skipped.sum(); }
+    public long getErrors() { return errors.sum(); }
+    public long getNewCreditors() { return newCreditors.sum(); }
+    public long getNewDebtors() { return newDebtors.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getTransactionRetries() { return transactionRetries.sum(); }
+    public long getSplitTransactions() { return splitTransactions.sum(); }
+    public long getUnchangedSinceSnapshot() { return unchangedSinceSnapshot; }
+    public long getDecompressedBytes() { return decompressedBytes; }
+    public long getDecompressionNanos() { return decompressionNanos; }
+    public long getStartupMs() { return startupMs; }
+    public long getFirstBatchMs() { return firstBatchMs.get(); }
+}
@@ -0,0 +1,132 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateState;
+import com.mongodb.mandate.repository.MandateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Answers mandateId to {@link MandateState} lookups for input sorted by
+ * mandateId from a window filled by contiguous range scans of the lookup
+ * index.
+ * Each scan reads the next windowSize index entries from the first id the
+ * window does not cover, so one scan serves several upcoming batches. An id
+ * inside the scanned range that the scan did not return has no mandate.
+ *
+ * An id is served from the window at most once. A later request for it
+ * (a duplicate line, possibly after an earlier batch has written it) is
+ * queried directly, as are ids below the window, which batches looked up
+ * out of order by concurrent stages can ask for. The first batch whose ids
+ * are not ascending switches the rest of the file to $in lookups.
+ */
+class RangePrefetchLookup {
+
+    private static final Logger logger = LoggerFactory.getLogger(RangePrefetchLookup.class);
+
+    private final MandateStore store;
+    private final int windowSize;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, MandateState> window = new HashMap<>();
+    private final Set<String> served = new HashSet<>();
+    // Null before the first scan
+    private String windowStart;
+    // Last id of a full scan; null when the last scan reached the end of the index
+    private String windowEnd;
+    private boolean unsorted;
+
+    private long scans;
+    private long scannedEntries;
+    private long fromWindow;
+    private long queriedDirectly;
+
+    RangePrefetchLookup(MandateStore store, int windowSize) {
+        this.store = store;
+        this.windowSize = windowSize;
+    }
+
+    Map<String, MandateState> getStates(List<String> mandateIds) {
+        Map<String, MandateState> result = new HashMap<>();
+        List<String> direct = new ArrayList<>();
+
+        lock.lock();
+        try {
+            if (!unsorted && !isAscending(mandateIds)) {
+                unsorted = true;
+                window.clear();
+                served.clear();
+                logger.info("Input is not sorted by mandateId, using $in lookups for the rest of the file");
+            }
+
+            if (unsorted) {
+                direct = mandateIds;
+            } else {
+                String previous = null;
+                for (String id : mandateIds) {
+                    if (id.equals(previous)) {
+                        continue;
+                    }
+                    previous = id;
+
+                    if ((windowStart != null && id.compareTo(windowStart) < 0) || served.contains(id)) {
+                        direct.add(id);
+                        continue;
+                    }
+                    if (windowStart == null || (windowEnd != null && id.compareTo(windowEnd) > 0)) {
+                        scan(id);
+                    }
+
+                    served.add(id);
+                    fromWindow++;
+                    if (window.containsKey(id)) {
+                        result.put(id, window.remove(id));
+                    }
+                }
+            }
+            queriedDirectly += direct.size();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!direct.isEmpty()) {
+            result.putAll(store.batchGetMandateStates(direct));
+        }
+        return result;
+    }
+
+    // Everything below the new start is outside the window, so the old state can go
+    private void scan(String from) {
+        LinkedHashMap<String, MandateState> scanned = store.scanMandateStates(from, windowSize);
+
+        window.clear();
+        served.clear();
+        window.putAll(scanned);
+        windowStart = from;
+        windowEnd = scanned.size() < windowSize ? null : scanned.lastEntry().getKey();
+
+        scans++;
+        scannedEntries += scanned.size();
+    }
+
+    private static boolean isAscending(List<String> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i - 1).compareTo(ids.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String describe() {
+        lock.lock();
+        try {
+            return String.format("%d range scans read %d index entries; %d ids served from the window, %d by $in",
+                    scans, scannedEntries, fromWindow, queriedDirectly);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
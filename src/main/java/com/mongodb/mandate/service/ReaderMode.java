@@ -0,0 +1,17 @@
+package com.mongodb.mandate.service;
+
+public enum ReaderMode {
+
+    // Line-oriented BufferedReader with String.split per line
+    BUFFERED,
+
+    // Memory-mapped FileChannel scanned byte by byte, no per-line String
+    MAPPED,
+
+    // Newline-aligned byte ranges of one file parsed on several cores
+    PARALLEL;
+
+    public static ReaderMode fromString(String value) {
+        return ReaderMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,22 @@
+package com.mongodb.mandate.service;
+
+/**
+ * How far a reader has got through its file: the byte offset just past the
+ * last line it consumed and the number of lines consumed, header included.
+ * For compressed input the offset counts decompressed bytes. The buffered
+ * reader cannot tell byte offsets and reports {@link #UNKNOWN_OFFSET}.
+ */
+public record ReaderPosition(long offset, long lineNumber) {
+
+    public static final long UNKNOWN_OFFSET = -1;
+
+    public static final ReaderPosition START = new ReaderPosition(0, 0);
+
+    public boolean isStart() {
+        return lineNumber == 0;
+    }
+
+    public boolean hasOffset() {
+        return offset != UNKNOWN_OFFSET;
+    }
+}
@@ -0,0 +1,108 @@
+package com.mongodb.mandate.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creditor and debtor ids known to exist, kept for the life of the
+ * processor so a batch only asks the store about ids no earlier batch or
+ * file has seen. An id is added when a lookup finds it or when the
+ * transaction inserting it commits. Creditors and debtors are never
+ * deleted, so a cached id cannot go stale.
+ *
+ * There are few creditors, so all of them are loaded up front and kept.
+ * Debtors are roughly one per mandate, so only the maxDebtors most recently
+ * used are kept.
+ */
+final class ReferenceDataCache {
+
+    private final KnownIds creditors = new KnownIds(new ConcurrentHashMap<>(), 0);
+    private final KnownIds debtors;
+
+    ReferenceDataCache(int maxDebtors) {
+        // A bound of zero would evict every id as it is added and only count misses
+        if (maxDebtors <= 0) {
+            throw new IllegalArgumentException("reference.cache.max.debtors must be positive, was " + maxDebtors
+                    + "; set reference.cache.enabled=false to turn the cache off");
+        }
+        this.debtors = new KnownIds(null, maxDebtors);
+    }
+
+    KnownIds creditors() {
+        return creditors;
+    }
+
+    KnownIds debtors() {
+        return debtors;
+    }
+
+    // Counts are per file; the ids are kept
+    void resetCounters() {
+        creditors.resetCounters();
+        debtors.resetCounters();
+    }
+
+    String describe() {
+        return "creditors " + creditors.describe() + "; debtors " + debtors.describe();
+    }
+
+    static final class KnownIds {
+
+        private final Map<String, Boolean> ids;
+        private final int maxSize;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        // With no map given, a synchronized LinkedHashMap in access order that drops its eldest entry past maxSize
+        private KnownIds(Map<String, Boolean> unbounded, int maxSize) {
+            this.maxSize = maxSize;
+            this.ids = unbounded != null ? unbounded : Collections.synchronizedMap(
+                    new LinkedHashMap<>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                            if (size() > maxSize) {
+                                evictions.increment();
+                                return true;
+                            }
+                            return false;
+                        }
+                    });
+        }
+
+        // The cached subset of ids; the rest count as misses for the caller to look up
+        Set<String> known(Set<String> lookup) {
+            Set<String> known = new HashSet<>();
+            for (String id : lookup) {
+                if (ids.get(id) != null) {
+                    known.add(id);
+                }
+            }
+            hits.add(known.size());
+            misses.add(lookup.size() - known.size());
+            return known;
+        }
+
+        void add(Collection<String> existing) {
+            for (String id : existing) {
+                ids.put(id, Boolean.TRUE);
+            }
+        }
+
+        private void resetCounters() {
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+        }
+
+        private String describe() {
+            long hit = hits.sum();
+            long lookups = hit + misses.sum();
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %d cached%s",
+                    hit, lookups - hit, lookups > 0 ? hit * 100.0 / lookups : 0.0, ids.size(),
+                    maxSize > 0 ? " of at most " + maxSize + ", " + evictions.sum() + " evicted" : "");
+        }
+    }
+}
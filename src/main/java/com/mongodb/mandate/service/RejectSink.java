@@ -0,0 +1,133 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.StringJoiner;
+
+/**
+ * Collects records the database would not accept in
+ * {@code <input-file>.rejects}, next to the input or in reject.dir. The
+ * file has the input's header and column layout, so rejected records can be
+ * corrected and loaded like any other file; the reason for each is logged.
+ * A fresh run replaces the previous run's file, a resumed run appends to it.
+ */
+class RejectSink implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RejectSink.class);
+
+    private static final String SUFFIX = ".rejects";
+    private static final String DELIMITER = "|";
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String HEADER = String.join(DELIMITER,
+            "mandateId", "lastUpdateDate", "creditorId", "creditorName",
+            "creditorAccountNumber", "creditorSortCode", "creditorIban", "creditorBic",
+            "debtorName", "debtorAccountNumber", "debtorSortCode", "debtorIban", "debtorBic",
+            "debtorEmail", "debtorPhone", "mandateReference", "mandateType", "frequency",
+            "status", "signatureDate", "effectiveDate", "expiryDate",
+            "maxAmountPerTransaction", "maxAmountPerMonth", "maxTransactionsPerMonth",
+            "currency", "description", "schemeType");
+
+    private final Path path;
+    private BufferedWriter writer;
+    private long count;
+
+    RejectSink(Path path, boolean append) throws IOException {
+        this.path = path;
+        if (!append) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    static Path pathFor(Path inputFile, Path directory) {
+        Path dir = directory != null ? directory : inputFile.toAbsolutePath().getParent();
+        return dir.resolve(inputFile.getFileName() + SUFFIX);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    synchronized void reject(MandateFileRecord record, String reason) {
+        logger.warn("Rejected mandate {}: {}", record.getMandateId(), reason);
+        count++;
+        try {
+            if (writer == null) {
+                boolean exists = Files.exists(path) && Files.size(path) > 0;
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (!exists) {
+                    writer.write(HEADER);
+                    writer.newLine();
+                }
+            }
+            writer.write(toLine(record));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            logger.error("Could not write mandate {} to {}: {}", record.getMandateId(), path, e.getMessage());
+        }
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    private static String toLine(MandateFileRecord r) {
+        StringJoiner line = new StringJoiner(DELIMITER);
+        line.add(text(r.getMandateId()));
+        line.add(r.getLastUpdateDate() != null ? r.getLastUpdateDate().format(DATE_TIME_FORMAT) : "");
+        line.add(text(r.getCreditorId()));
+        line.add(text(r.getCreditorName()));
+        line.add(text(r.getCreditorAccountNumber()));
+        line.add(text(r.getCreditorSortCode()));
+        line.add(text(r.getCreditorIban()));
+        line.add(text(r.getCreditorBic()));
+        line.add(text(r.getDebtorName()));
+        line.add(text(r.getDebtorAccountNumber()));
+        line.add(text(r.getDebtorSortCode()));
+        line.add(text(r.getDebtorIban()));
+        line.add(text(r.getDebtorBic()));
+        line.add(text(r.getDebtorEmail()));
+        line.add(text(r.getDebtorPhone()));
+        line.add(text(r.getMandateReference()));
+        line.add(text(r.getMandateType()));
+        line.add(text(r.getFrequency()));
+        line.add(text(r.getStatus()));
+        line.add(text(r.getSignatureDate()));
+        line.add(text(r.getEffectiveDate()));
+        line.add(text(r.getExpiryDate()));
+        line.add(text(r.getMaxAmountPerTransaction()));
+        line.add(text(r.getMaxAmountPerMonth()));
+        line.add(text(r.getMaxTransactionsPerMonth()));
+        line.add(text(r.getCurrency()));
+        line.add(text(r.getDescription()));
+        line.add(text(r.getSchemeType()));
+        return line.toString();
+    }
+
+    private static String text(Object value) {
+        if (value == null) {
+            return "";
+        }
+        return value instanceof BigDecimal amount ? amount.toPlainString() : value.toString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.mongodb.mandate.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs items in one lane per shard. Each lane has its own bounded queue
+ * and its own writers, virtual threads that take items from that queue
+ * only. A slow shard backs up its own lane; the source, reading on the
+ * calling thread, blocks only when it has an item for a lane whose queue
+ * is full, and until then the other shards' writers keep going.
+ *
+ * Items within a lane start in the order they were queued. The first
+ * exception thrown by a task stops the source and every lane, and is
+ * rethrown from {@link #run} once the running tasks have finished.
+ */
+class ShardedBatchRunner<T> {
+
+    record LaneMetrics(String shard, int writers, long items, long busyMs, long sourceBlockedMs,
+                       int maxQueueDepth, int queueCapacity) {}
+
+    private static final long POLL_MS = 100;
+
+    private final int writersPerLane;
+    private final int queueCapacity;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean sourceDone;
+
+    private final class Lane {
+        final String shard;
+        final BlockingQueue<T> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder sourceBlockedNanos = new LongAdder();
+        final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+        Lane(String shard) {
+            this.shard = shard;
+        }
+    }
+
+    ShardedBatchRunner(Collection<String> shards, int writersPerLane, int queueCapacity) {
+        this.writersPerLane = writersPerLane;
+        this.queueCapacity = queueCapacity;
+        for (String shard : shards) {
+            lanes.put(shard, new Lane(shard));
+        }
+    }
+
+    void run(BatchPipeline.Source<T> source, Function<T, String> shardOf,
+             BatchPipeline.Task<T> task) throws IOException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Lane lane : lanes.values()) {
+                for (int i = 0; i < writersPerLane; i++) {
+                    executor.execute(() -> write(lane, task));
+                }
+            }
+
+            try {
+                while (failure.get() == null) {
+                    T item = source.next();
+                    if (item == null) {
+                        break;
+                    }
+                    Lane lane = lanes.get(shardOf.apply(item));
+                    if (lane == null) {
+                        throw new IllegalStateException("No lane for shard " + shardOf.apply(item));
+                    }
+                    enqueue(lane, item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                sourceDone = true;
+            }
+        }
+        // Closing the executor above waited for every writer to empty its lane
+        rethrowFailure();
+    }
+
+    private void enqueue(Lane lane, T item) throws InterruptedException {
+        long start = System.nanoTime();
+        while (!lane.queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                return;
+            }
+        }
+        lane.sourceBlockedNanos.add(System.nanoTime() - start);
+        lane.maxQueueDepth.accumulate(lane.queue.size());
+    }
+
+    private void write(Lane lane, BatchPipeline.Task<T> task) {
+        try {
+            while (failure.get() == null) {
+                T item = lane.queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (sourceDone && lane.queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                long start = System.nanoTime();
+                task.process(item);
+                lane.busyNanos.add(System.nanoTime() - start);
+                lane.items.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void rethrowFailure() throws IOException {
+        Throwable cause = failure.get();
+        if (cause instanceof IOException io) {
+            throw io;
+        }
+        if (cause instanceof InterruptedException) {
+            throw new InterruptedIOException("Batch processing interrupted");
+        }
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause != null) {
+            throw new IOException("Batch failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    List<LaneMetrics> metrics() {
+        List<LaneMetrics> metrics = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            metrics.add(new LaneMetrics(lane.shard, writersPerLane, lane.items.sum(),
+                    lane.busyNanos.sum() / 1_000_000, lane.sourceBlockedNanos.sum() / 1_000_000,
+                    lane.maxQueueDepth.intValue(), queueCapacity));
+        }
+        return metrics;
+    }
+}
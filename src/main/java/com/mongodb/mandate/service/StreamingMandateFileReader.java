@@ -0,0 +1,223 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a compressed mandate file as a stream. A {@link BackgroundDecompressor}
+ * inflates the file on its own thread into a ring of buffers while this
+ * reader scans lines out of them with the same byte parser as the mapped
+ * reader. Lines that straddle two buffers are joined in a carry buffer, so
+ * nothing is ever decompressed to disk.
+ *
+ * Positions count decompressed bytes. Resuming still has to inflate the
+ * skipped prefix, but it is discarded without being scanned or parsed.
+ */
+public class StreamingMandateFileReader implements MandateRecordReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingMandateFileReader.class);
+
+    private final String fileName;
+    private final BackgroundDecompressor decompressor;
+    private final MandateLineParser parser;
+    private final boolean lazy;
+    private long lineNumber = 0;
+
+    private BackgroundDecompressor.Filled current;
+    private ByteBuffer currentBuffer;
+    private int position;
+
+    // Decompressed offset of the first byte of current, and just past the last line
+    private long bufferBase;
+    private long streamPosition;
+
+    private byte[] carry = new byte[8192];
+    private ByteBuffer carryBuffer = ByteBuffer.wrap(carry);
+    private int carryLength;
+    // The carried line ended in a '\r' at the end of a buffer; a '\n' starting the next one belongs to it
+    private boolean carryEndsInCr;
+
+    // Current line is [lineStart, lineEnd) of lineBuffer
+    private ByteBuffer lineBuffer;
+    private int lineStart;
+    private int lineEnd;
+
+    StreamingMandateFileReader(Path filePath, InputCompression compression, ProcessorOptions options,
+                               ReaderPosition start) throws IOException {
+        this.fileName = filePath.getFileName().toString();
+        this.parser = new MandateLineParser(new MandateFieldDecoder(options.isStrictParsing()),
+                options.isAmountsAsMinorUnits(), options.getSnapshotFile() != null);
+        this.lazy = options.isLazyRecords();
+
+        InputStream in = compression.open(filePath);
+        if (!start.isStart() && start.hasOffset()) {
+            try {
+                in.skipNBytes(start.offset());
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            bufferBase = start.offset();
+            streamPosition = start.offset();
+        }
+
+        this.decompressor = new BackgroundDecompressor(in, fileName,
+                options.getDecompressBuffers(), options.getDecompressBufferSize());
+        logger.info("Streaming {} input through {} x {} KB buffers", compression,
+                options.getDecompressBuffers(), options.getDecompressBufferSize() / 1024);
+
+        if (start.isStart()) {
+            readHeaders();
+        } else if (start.hasOffset()) {
+            lineNumber = start.lineNumber();
+        } else {
+            while (lineNumber < start.lineNumber() && nextLine()) {
+                lineNumber++;
+            }
+        }
+    }
+
+    private void readHeaders() throws IOException {
+        if (nextLine()) {
+            lineNumber++;
+            int columns = MandateLineParser.countHeaderColumns(lineBuffer, lineStart, lineEnd);
+            logger.info("Read {} columns from header", columns);
+        }
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public List<MandateFileRecord> readBatch(int batchSize) throws IOException {
+        List<MandateFileRecord> batch = new ArrayList<>(batchSize);
+
+        while (batch.size() < batchSize && nextLine()) {
+            lineNumber++;
+            try {
+                MandateFileRecord record = lazy
+                        ? parser.parseLazy(lineBuffer, lineStart, lineEnd, lineNumber)
+                        : parser.parse(lineBuffer, lineStart, lineEnd);
+                if (record != null) {
+                    batch.add(record);
+                }
+            } catch (CharacterCodingException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.error("Error parsing record at line {}: {}", lineNumber, e.getMessage());
+            }
+        }
+
+        return batch;
+    }
+
+    // Same contract as MappedLineScanner.nextLine: ends at '\n', '\r' or "\r\n"
+    private boolean nextLine() throws IOException {
+        carryLength = 0;
+        carryEndsInCr = false;
+
+        while (true) {
+            if (current == null) {
+                current = decompressor.next();
+                if (current == null) {
+                    // Final line without a terminator
+                    streamPosition = bufferBase;
+                    return (carryLength > 0 || carryEndsInCr) && setLine(carryBuffer, 0, carryLength);
+                }
+                currentBuffer = ByteBuffer.wrap(current.data(), 0, current.length());
+                position = 0;
+            }
+
+            byte[] data = current.data();
+            int limit = current.length();
+
+            if (carryEndsInCr) {
+                if (limit > 0 && data[0] == '\n') {
+                    position = 1;
+                }
+                streamPosition = bufferBase + position;
+                return setLine(carryBuffer, 0, carryLength);
+            }
+
+            int i = position;
+            while (i < limit && !MappedLineScanner.isLineEnd(data[i])) {
+                i++;
+            }
+
+            if (i < limit) {
+                int start = position;
+                if (data[i] == '\r' && i + 1 == limit) {
+                    // Whether a '\n' follows is only known from the next buffer
+                    appendCarry(data, start, i);
+                    carryEndsInCr = true;
+                    bufferBase += limit;
+                    decompressor.release(current);
+                    current = null;
+                    continue;
+                }
+                position = data[i] == '\r' && data[i + 1] == '\n' ? i + 2 : i + 1;
+                streamPosition = bufferBase + position;
+                if (carryLength == 0) {
+                    return setLine(currentBuffer, start, i);
+                }
+                appendCarry(data, start, i);
+                return setLine(carryBuffer, 0, carryLength);
+            }
+
+            appendCarry(data, position, limit);
+            bufferBase += limit;
+            decompressor.release(current);
+            current = null;
+        }
+    }
+
+    private boolean setLine(ByteBuffer buffer, int start, int end) {
+        lineBuffer = buffer;
+        lineStart = start;
+        lineEnd = end;
+        return true;
+    }
+
+    private void appendCarry(byte[] data, int from, int to) {
+        int length = to - from;
+        if (carryLength + length > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + length));
+            carryBuffer = ByteBuffer.wrap(carry);
+        }
+        System.arraycopy(data, from, carry, carryLength, length);
+        carryLength += length;
+    }
+
+    @Override
+    public ReaderPosition getPosition() {
+        return new ReaderPosition(streamPosition, lineNumber);
+    }
+
+    @Override
+    public long getDecompressedBytes() {
+        return decompressor.getDecompressedBytes();
+    }
+
+    @Override
+    public long getDecompressionNanos() {
+        return decompressor.getBusyNanos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        decompressor.close();
+    }
+}
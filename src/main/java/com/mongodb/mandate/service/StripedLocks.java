@@ -0,0 +1,50 @@
+package com.mongodb.mandate.service;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that keys hash onto. Every caller takes its stripes
+ * in ascending index order, so two callers locking overlapping key sets
+ * cannot deadlock.
+ */
+class StripedLocks {
+
+    private final ReentrantLock[] stripes;
+
+    StripedLocks(int count) {
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    Held lockAll(Collection<String> keys) {
+        BitSet indexes = new BitSet(stripes.length);
+        for (String key : keys) {
+            indexes.set(Math.floorMod(key.hashCode(), stripes.length));
+        }
+
+        int[] held = indexes.stream().toArray();
+        for (int i = 0; i < held.length; i++) {
+            stripes[held[i]].lock();
+        }
+        return new Held(held);
+    }
+
+    final class Held implements AutoCloseable {
+        private final int[] indexes;
+
+        private Held(int[] indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void close() {
+            for (int i = indexes.length - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.mongodb.mandate.service;
+
+public enum WriteMode {
+
+    // Look up existing mandates, diff them, then insert in a transaction and update changed fields
+    LOOKUP,
+
+    // One bulk write of conditional upserts per batch; the server decides insert, replace or skip
+    MERGE;
+
+    public static WriteMode fromString(String value) {
+        return WriteMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,30 @@
+package com.mongodb.mandate.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProcessorOptionsTest {
+
+    @Test
+    void nonPositiveChunkSizeFallsBackToTheDefault() {
+        for (String value : new String[] {"", "0", "-3"}) {
+            Properties props = new Properties();
+            props.setProperty("reader.chunk.size.mb", value);
+            assertEquals(4L * 1024 * 1024, ProcessorOptions.fromProperties(props).getReaderChunkSize(), "'" + value + "'");
+        }
+    }
+
+    @Test
+    void chunkSizeIsReadInMegabytes() {
+        Properties props = new Properties();
+        props.setProperty("reader.chunk.size.mb", " 16 ");
+        assertEquals(16L * 1024 * 1024, ProcessorOptions.fromProperties(props).getReaderChunkSize());
+
+        props.setProperty("reader.chunk.size.mb", "four");
+        assertThrows(NumberFormatException.class, () -> ProcessorOptions.fromProperties(props));
+    }
+}
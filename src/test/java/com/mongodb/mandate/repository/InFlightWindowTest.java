@@ -0,0 +1,82 @@
+package com.mongodb.mandate.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InFlightWindowTest {
+
+    @Test
+    void longBacklogOfQuickRequestsDrainsWithoutNesting() {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<Integer> blocker = new CompletableFuture<>();
+        window.submit(() -> blocker);
+
+        // Each queued request completes as soon as it is sent
+        int backlog = 200_000;
+        List<Integer> sentOrder = new ArrayList<>(backlog);
+        List<CompletableFuture<Integer>> results = new ArrayList<>(backlog);
+        for (int i = 0; i < backlog; i++) {
+            int request = i;
+            results.add(window.submit(() -> {
+                sentOrder.add(request);
+                return CompletableFuture.completedFuture(request);
+            }));
+        }
+        assertTrue(sentOrder.isEmpty());
+
+        blocker.complete(-1);
+
+        assertEquals(backlog, sentOrder.size());
+        for (int i = 0; i < backlog; i++) {
+            assertEquals(i, sentOrder.get(i));
+            assertEquals(i, results.get(i).join());
+        }
+    }
+
+    @Test
+    void neverExceedsTheLimit() {
+        InFlightWindow window = new InFlightWindow(3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            window.submit(() -> {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                CompletableFuture<Void> request = new CompletableFuture<>();
+                pending.add(request);
+                return request;
+            });
+        }
+        assertEquals(3, pending.size());
+
+        // Completing one request sends exactly one more
+        for (int completed = 0; completed < 10; completed++) {
+            inFlight.decrementAndGet();
+            pending.get(completed).complete(null);
+        }
+        assertEquals(10, pending.size());
+        assertEquals(3, peak.get());
+    }
+
+    @Test
+    void failedRequestFreesItsSlot() {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<String> failed = window.submit(() -> {
+            throw new IllegalStateException("not sent");
+        });
+        CompletableFuture<String> next = window.submit(() -> CompletableFuture.completedFuture("sent"));
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertFalse(next.isCompletedExceptionally());
+        assertEquals("sent", next.join());
+    }
+}
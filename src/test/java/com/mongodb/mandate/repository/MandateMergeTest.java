@@ -0,0 +1,112 @@
+package com.mongodb.mandate.repository;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MandateMergeTest {
+
+    private static final Codec<DirectDebitMandate> CODEC =
+            MandateRepository.codecRegistry(CodecMode.POJO).get(DirectDebitMandate.class);
+
+    // A new mandate, one whose content changed and one that is stale or unchanged
+    private final List<DirectDebitMandate> mandates = List.of(mandate("MND-1", 1L), mandate("MND-2", 2L),
+            mandate("MND-3", 3L));
+
+    @Test
+    void eachMandateIsAConditionalUpsertOnItsMandateId() {
+        MandateMerge merge = new MandateMerge(mandates, "merge-1", CODEC);
+        assertEquals(3, merge.models().size());
+
+        UpdateOneModel<DirectDebitMandate> model = (UpdateOneModel<DirectDebitMandate>) merge.models().get(1);
+        assertTrue(model.getOptions().isUpsert());
+        assertEquals(BsonDocument.parse("{mandateId: 'MND-2'}"), render(model.getFilter()));
+
+        BsonDocument cond = render(model.getUpdatePipeline().get(0)).getDocument("$replaceWith").getDocument("$cond");
+        assertEquals(BsonDocument.parse("{$and: [{$lt: ['$lastUpdateDate', {$date: '2025-12-15T14:57:06Z'}]},"
+                + " {$ne: ['$contentHash', {$numberLong: '2'}]}]}"), cond.getDocument("if"));
+        assertEquals("$$ROOT", cond.getString("else").getValue());
+
+        BsonDocument incoming = cond.getDocument("then").getArray("$mergeObjects").get(1).asDocument()
+                .getDocument("$literal");
+        assertEquals("merge-1", incoming.getString(MandateMerge.MERGE_ID).getValue());
+        assertFalse(incoming.containsKey("_id"));
+        assertFalse(incoming.containsKey("version"));
+        assertFalse(incoming.containsKey("createdAt"));
+    }
+
+    @Test
+    void stampTellsWhichMatchedMandatesWereReplaced() {
+        MandateMerge merge = new MandateMerge(mandates, "merge-1", CODEC);
+        // MND-1 upserted, MND-2 and MND-3 matched, one of them modified
+        merge.written(BulkWriteResult.acknowledged(0, 2, 0, 1,
+                List.of(new BulkWriteUpsert(0, new BsonObjectId()))), Collections.emptyList());
+
+        assertEquals(List.of("MND-2", "MND-3"), merge.unresolvedIds());
+        MergeResult result = merge.result(Set.of("MND-2"));
+
+        assertEquals(Set.of(0), result.inserted());
+        assertEquals(Set.of(1), result.updated());
+        assertTrue(result.failed().isEmpty());
+        // Only the written mandates carry the stamp to remove
+        assertEquals(List.of("MND-1", "MND-2"), merge.writtenIds(result));
+    }
+
+    @Test
+    void countsAloneResolveAllOrNoneReplaced() {
+        MandateMerge all = new MandateMerge(mandates, "merge-1", CODEC);
+        all.written(BulkWriteResult.acknowledged(0, 3, 0, 3, Collections.emptyList()), Collections.emptyList());
+        assertTrue(all.unresolvedIds().isEmpty());
+        assertEquals(Set.of(0, 1, 2), all.result(Collections.emptySet()).updated());
+
+        MandateMerge none = new MandateMerge(mandates, "merge-1", CODEC);
+        none.written(BulkWriteResult.acknowledged(0, 3, 0, 0, Collections.emptyList()), Collections.emptyList());
+        assertTrue(none.unresolvedIds().isEmpty());
+        MergeResult skipped = none.result(Collections.emptySet());
+        assertTrue(skipped.updated().isEmpty());
+        assertTrue(none.writtenIds(skipped).isEmpty());
+    }
+
+    @Test
+    void failedOperationIsNeitherInsertedNorMatched() {
+        MandateMerge merge = new MandateMerge(mandates, "merge-1", CODEC);
+        merge.written(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(new BulkWriteUpsert(0, new BsonObjectId()))),
+                List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 2)));
+
+        MergeResult result = merge.result(Collections.emptySet());
+        assertEquals(Set.of(0), result.inserted());
+        assertEquals(Set.of(1), result.updated());
+        assertEquals(Map.of(2, "duplicate key"), result.failed());
+    }
+
+    private static BsonDocument render(Bson bson) {
+        return bson.toBsonDocument(DirectDebitMandate.class, MandateRepository.codecRegistry(CodecMode.POJO));
+    }
+
+    private static DirectDebitMandate mandate(String mandateId, long contentHash) {
+        DirectDebitMandate mandate = new DirectDebitMandate();
+        mandate.setMandateId(mandateId);
+        mandate.setLastUpdateDate(LocalDateTime.of(2025, 12, 15, 14, 57, 6));
+        mandate.setContentHash(contentHash);
+        mandate.setCreatedAt(LocalDateTime.of(2025, 12, 15, 15, 0));
+        mandate.setVersion(4);
+        return mandate;
+    }
+}
@@ -0,0 +1,47 @@
+package com.mongodb.mandate.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardRangesTest {
+
+    private final ShardRanges ranges = ShardRanges.parse(
+            "shard-a=, shard-b=MND-0000002000, shard-a=MND-0000004000");
+
+    @Test
+    void mandateIdBelongsToTheChunkWithTheGreatestLowerBoundNotAboveIt() {
+        assertEquals("shard-a", ranges.shardOf("MND-0000000001"));
+        assertEquals("shard-a", ranges.shardOf("MND-0000001999"));
+        // Lower bounds are inclusive
+        assertEquals("shard-b", ranges.shardOf("MND-0000002000"));
+        assertEquals("shard-b", ranges.shardOf("MND-0000003999"));
+        assertEquals("shard-a", ranges.shardOf("MND-0000004000"));
+        assertEquals("shard-a", ranges.shardOf("ZZZ"));
+        assertEquals("shard-a", ranges.shardOf(""));
+        assertEquals("shard-a", ranges.shardOf(null));
+    }
+
+    @Test
+    void shardsAreListedOnceInKeyOrder() {
+        assertEquals(List.of("shard-a", "shard-b"), List.copyOf(ranges.getShards()));
+        assertEquals(3, ranges.getChunkCount());
+    }
+
+    @Test
+    void rangesMustStartAtMinKey() {
+        assertThrows(IllegalArgumentException.class, () -> ShardRanges.parse("shard-a=MND-1"));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRanges(Map.of()));
+    }
+
+    @Test
+    void malformedSpecIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ShardRanges.parse("shard-a"));
+        assertThrows(IllegalArgumentException.class, () -> ShardRanges.parse("=MND-1"));
+        assertThrows(IllegalArgumentException.class, () -> ShardRanges.parse("shard-a=,shard-b="));
+    }
+}
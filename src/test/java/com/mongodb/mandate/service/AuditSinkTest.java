@@ -0,0 +1,136 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AuditSpool;
+import com.mongodb.mandate.repository.InMemoryMandateStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class AuditSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void submittedAuditsAreOnDiskBeforeAnyIsWritten() throws Exception {
+        GatedStore store = new GatedStore();
+        AuditSink sink = new AuditSink(store, options(dir, 100));
+        sink.submit(audits(3));
+        sink.submit(audits(2));
+
+        // What a kill now would leave behind
+        assertEquals(5, pendingInCopyOfSpool());
+        assertEquals(0, store.getAuditCount());
+
+        store.open.countDown();
+        sink.close();
+        assertEquals(5, store.getAuditCount());
+        assertFalse(Files.exists(dir.resolve(AuditSpool.FILE_NAME)));
+    }
+
+    @Test
+    void spoolHeadMovesPastWrittenAudits() throws Exception {
+        GatedStore store = new GatedStore();
+        store.open.countDown();
+        AuditSink sink = new AuditSink(store, options(dir, 100));
+        sink.submit(audits(4));
+        while (store.getAuditCount() < 4) {
+            Thread.sleep(1);
+        }
+        // The head moves just after the insert returns
+        while (pendingInCopyOfSpool() > 0) {
+            Thread.sleep(1);
+        }
+        sink.close();
+    }
+
+    @Test
+    void auditsThatDoNotFitTheQueueAreReadBackFromTheSpool() throws Exception {
+        GatedStore store = new GatedStore();
+        AuditSink sink = new AuditSink(store, options(dir, 2));
+        List<MandateAudit> audits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            audits.addAll(audits(3));
+            sink.submit(audits.subList(audits.size() - 3, audits.size()));
+        }
+        assertEquals(12, pendingInCopyOfSpool());
+
+        store.open.countDown();
+        sink.close();
+        // Partly queued appends are written again, and skipped as duplicates
+        assertEquals(12, store.getAuditCount());
+        assertEquals(12, audits.stream().map(MandateAudit::getId).distinct().count());
+    }
+
+    @Test
+    void spoolLeftByAnEarlierRunIsWritten() throws Exception {
+        try (AuditSpool spool = new AuditSpool(dir)) {
+            spool.append(audits(3));
+        }
+
+        GatedStore store = new GatedStore();
+        store.open.countDown();
+        try (AuditSink sink = new AuditSink(store, options(dir, 100))) {
+            sink.submit(audits(1));
+        }
+        assertEquals(4, store.getAuditCount());
+        assertFalse(Files.exists(dir.resolve(AuditSpool.FILE_NAME)));
+    }
+
+    // The spool is locked by the sink, so a copy is opened instead
+    private long pendingInCopyOfSpool() throws Exception {
+        Path copy = Files.createTempDirectory(dir.getParent(), "spool-copy");
+        Files.copy(dir.resolve(AuditSpool.FILE_NAME), copy.resolve(AuditSpool.FILE_NAME));
+        try (AuditSpool spool = new AuditSpool(copy)) {
+            return spool.getPendingAudits();
+        }
+    }
+
+    private static ProcessorOptions options(Path dir, int queueCapacity) {
+        return ProcessorOptions.builder()
+                .auditSpoolDir(dir)
+                .auditSinkQueueCapacity(queueCapacity)
+                .auditSinkWriters(2)
+                .auditSinkMaxBatch(5)
+                .build();
+    }
+
+    private static List<MandateAudit> audits(int count) {
+        List<MandateAudit> audits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            audits.add(MandateAudit.builder()
+                    .mandateId("MND-" + i)
+                    .changeType("INSERT")
+                    .changeTimestamp(LocalDateTime.now())
+                    .fieldChanges(new ArrayList<>())
+                    .build());
+        }
+        return audits;
+    }
+
+    // Audit writes wait until open
+    private static class GatedStore extends InMemoryMandateStore {
+        final CountDownLatch open = new CountDownLatch(1);
+
+        @Override
+        public int insertMissingAudits(List<MandateAudit> audits) {
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.insertMissingAudits(audits);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.mongodb.mandate.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BackgroundDecompressorTest {
+
+    @Test
+    void deliversTheStreamInOrderThroughTheRing() throws IOException {
+        byte[] data = new byte[10_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        byte[] out = new byte[data.length];
+        int length = 0;
+        try (BackgroundDecompressor decompressor =
+                     new BackgroundDecompressor(new ByteArrayInputStream(data), "test", 2, 333)) {
+            BackgroundDecompressor.Filled filled;
+            while ((filled = decompressor.next()) != null) {
+                System.arraycopy(filled.data(), 0, out, length, filled.length());
+                length += filled.length();
+                decompressor.release(filled);
+            }
+            assertNull(decompressor.next());
+            assertEquals(data.length, decompressor.getDecompressedBytes());
+        }
+        assertEquals(data.length, length);
+        assertArrayEquals(data, out);
+    }
+
+    @Test
+    void closeWaitsForTheReadInProgress() throws Exception {
+        SlowStream source = new SlowStream();
+        BackgroundDecompressor decompressor = new BackgroundDecompressor(source, "slow", 2, 64);
+        decompressor.release(decompressor.next());
+        source.reads.set(0);
+        while (source.reads.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        // The thread is inside a read; the stream must not be closed under it
+        decompressor.close();
+        assertFalse(source.readAfterClose.get());
+        assertFalse(source.reading.get());
+    }
+
+    // Endless stream with a slow, uninterruptible read
+    private static class SlowStream extends InputStream {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicBoolean reading = new AtomicBoolean();
+        final AtomicBoolean readAfterClose = new AtomicBoolean();
+        private volatile boolean closed;
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            reading.set(true);
+            reads.incrementAndGet();
+            long until = System.nanoTime() + 20_000_000;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            if (closed) {
+                readAfterClose.set(true);
+            }
+            Arrays.fill(b, off, off + len, (byte) 1);
+            reading.set(false);
+            return len;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import com.mongodb.mandate.model.MandateAudit;
+import com.mongodb.mandate.repository.AuditStream;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeStreamAuditWriterTest {
+
+    @Test
+    void quietStreamSavesThePostBatchToken() throws Exception {
+        FakeStream stream = new FakeStream(null);
+        // Empty batches only, with the post-batch token moving on, then staying
+        FakeCursor cursor = stream.cursor(token(1), token(2), token(3), token(3), token(3));
+
+        run(stream, options(0), cursor);
+
+        assertEquals(List.of(token(1), token(2), token(3)), stream.idleTokens);
+        assertTrue(stream.auditBatches.isEmpty());
+        assertNull(stream.watchedAfter.get(0));
+    }
+
+    @Test
+    void eventsAreWrittenWithTheirOwnTokenBeforeAnyIdleSave() throws Exception {
+        FakeStream stream = new FakeStream(token(1));
+        FakeCursor cursor = stream.cursor(insert("MND-1", 2), insert("MND-2", 3), token(4), token(5));
+
+        run(stream, options(0), cursor);
+
+        assertEquals(List.of(token(1)), stream.watchedAfter);
+        assertEquals(1, stream.auditBatches.size());
+        assertEquals(2, stream.auditBatches.get(0).size());
+        assertEquals(List.of(token(3)), stream.auditTokens);
+        // The first empty batch writes the pending audits, the next is idle
+        assertEquals(List.of(token(5)), stream.idleTokens);
+    }
+
+    @Test
+    void idleTokenIsNotSavedMoreOftenThanTheInterval() throws Exception {
+        FakeStream stream = new FakeStream(token(1));
+        FakeCursor cursor = stream.cursor(token(2), token(3), token(4));
+
+        run(stream, options(60_000), cursor);
+
+        assertTrue(stream.idleTokens.isEmpty());
+    }
+
+    @Test
+    void reconnectResumesAfterTheLastSavedToken() throws Exception {
+        FakeStream stream = new FakeStream(null);
+        FakeCursor failing = stream.cursor(token(1), new MongoException("connection reset"));
+        FakeCursor resumed = stream.cursor(insert("MND-1", 2));
+
+        run(stream, options(0), failing, resumed);
+
+        assertNull(stream.watchedAfter.get(0));
+        assertEquals(token(1), stream.watchedAfter.get(1));
+        assertEquals(List.of(token(2)), stream.auditTokens);
+    }
+
+    // Runs the writer until the last cursor has nothing left
+    private static void run(FakeStream stream, ProcessorOptions options, FakeCursor... cursors) throws Exception {
+        Collections.addAll(stream.cursors, cursors);
+        ChangeStreamAuditWriter writer = new ChangeStreamAuditWriter(stream, options);
+        Thread thread = new Thread(writer::run, "audit-stream-test");
+        thread.start();
+        assertTrue(cursors[cursors.length - 1].drained.await(30, TimeUnit.SECONDS));
+        writer.close();
+        thread.join();
+    }
+
+    private static ProcessorOptions options(int idleSaveMs) {
+        return ProcessorOptions.builder()
+                .auditStreamBatchSize(10)
+                .auditStreamMaxWaitMs(60_000)
+                .auditStreamIdleSaveMs(idleSaveMs)
+                .build();
+    }
+
+    private static BsonDocument token(int n) {
+        return new BsonDocument("_data", new BsonInt32(n));
+    }
+
+    private static ChangeStreamDocument<DirectDebitMandate> insert(String mandateId, int token) {
+        DirectDebitMandate mandate = new DirectDebitMandate();
+        mandate.setMandateId(mandateId);
+        mandate.setLastUpdateDate(LocalDateTime.of(2025, 12, 15, 14, 57, 6));
+        return new ChangeStreamDocument<>("insert", token(token), null, null, mandate, null,
+                new BsonDocument("mandateId", new BsonString(mandateId)), null, null, null, null,
+                new BsonDateTime(0), null, null);
+    }
+
+    private static class FakeStream implements AuditStream {
+        final Deque<FakeCursor> cursors = new ArrayDeque<>();
+        final List<BsonDocument> watchedAfter = new ArrayList<>();
+        final List<List<MandateAudit>> auditBatches = new ArrayList<>();
+        final List<BsonDocument> auditTokens = new ArrayList<>();
+        final List<BsonDocument> idleTokens = new ArrayList<>();
+        private BsonDocument saved;
+
+        FakeStream(BsonDocument saved) {
+            this.saved = saved;
+        }
+
+        // Each step is an event, an empty batch ending at a post-batch token, or a failure
+        FakeCursor cursor(Object... steps) {
+            return new FakeCursor(steps);
+        }
+
+        @Override
+        public void enableChangeStreamImages() {
+        }
+
+        @Override
+        public void enableAuditBuckets(int maxEntries) {
+        }
+
+        @Override
+        public MongoChangeStreamCursor<ChangeStreamDocument<DirectDebitMandate>> watchMandates(
+                BsonDocument resumeToken, int batchSize, long maxAwaitMs) {
+            watchedAfter.add(resumeToken);
+            return cursors.size() > 1 ? cursors.poll() : cursors.peek();
+        }
+
+        @Override
+        public BsonDocument getAuditResumeToken() {
+            return saved;
+        }
+
+        @Override
+        public void insertStreamAudits(List<MandateAudit> audits, BsonDocument resumeToken) {
+            auditBatches.add(audits);
+            auditTokens.add(resumeToken);
+            saved = resumeToken;
+        }
+
+        @Override
+        public void saveAuditResumeToken(BsonDocument resumeToken) {
+            idleTokens.add(resumeToken);
+            saved = resumeToken;
+        }
+    }
+
+    private static class FakeCursor implements MongoChangeStreamCursor<ChangeStreamDocument<DirectDebitMandate>> {
+        final CountDownLatch drained = new CountDownLatch(1);
+        private final Deque<Object> steps = new ArrayDeque<>();
+        private BsonDocument resumeToken;
+
+        FakeCursor(Object... steps) {
+            Collections.addAll(this.steps, steps);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ChangeStreamDocument<DirectDebitMandate> tryNext() {
+            Object step = steps.poll();
+            if (step == null) {
+                drained.countDown();
+                Thread.onSpinWait();
+                return null;
+            }
+            if (step instanceof MongoException e) {
+                throw e;
+            }
+            if (step instanceof BsonDocument postBatchToken) {
+                resumeToken = postBatchToken;
+                return null;
+            }
+            ChangeStreamDocument<DirectDebitMandate> event = (ChangeStreamDocument<DirectDebitMandate>) step;
+            resumeToken = event.getResumeToken();
+            return event;
+        }
+
+        @Override
+        public BsonDocument getResumeToken() {
+            return resumeToken;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ChangeStreamDocument<DirectDebitMandate> next() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return new ServerAddress();
+        }
+    }
+}
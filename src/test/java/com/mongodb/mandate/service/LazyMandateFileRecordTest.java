@@ -0,0 +1,98 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LazyMandateFileRecordTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void lazyAndEagerRecordsMatchTheBaselineParser(boolean amountsAsMinorUnits) throws Exception {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), amountsAsMinorUnits);
+        long lineNumber = 2;
+        for (String line : MandateLines.VALID) {
+            MandateFileRecord expected = MandateLines.baseline(line);
+            MandateLines.assertSameRecord(expected, parser.parse(buffer(line), 0, bytes(line).length));
+
+            LazyMandateFileRecord lazy = parser.parseLazy(buffer(line), 0, bytes(line).length, lineNumber);
+            assertEquals(lineNumber++, lazy.getLineNumber());
+            MandateLines.assertSameRecord(expected, lazy);
+        }
+    }
+
+    @Test
+    void minorUnitsAreKeptForTwoDecimalAmountsOnly() throws Exception {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), true);
+        String line = MandateLines.VALID.get(2);
+        for (MandateFileRecord record : new MandateFileRecord[] {
+                parser.parse(buffer(line), 0, bytes(line).length),
+                parser.parseLazy(buffer(line), 0, bytes(line).length, 1)}) {
+            // 12.5 is not in the two-decimal layout, -0.07 is
+            assertEquals(MandateFileRecord.NO_MINOR_UNITS, record.getMaxAmountPerTransactionMinorUnits());
+            assertEquals(-7, record.getMaxAmountPerMonthMinorUnits());
+        }
+    }
+
+    @Test
+    void malformedColumnSurfacesFromMaterializeAsTheBaselineError() throws Exception {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), false);
+        for (String line : MandateLines.MALFORMED) {
+            Exception baseline = assertThrows(Exception.class, () -> MandateLines.baseline(line));
+            Exception eager = assertThrows(Exception.class, () -> parser.parse(buffer(line), 0, bytes(line).length));
+
+            // The lazy record reads its key columns and defers the rest
+            LazyMandateFileRecord lazy = parser.parseLazy(buffer(line), 0, bytes(line).length, 7);
+            assertEquals(line.substring(0, 14), lazy.getMandateId());
+            assertEquals(LocalDateTime.of(2025, 12, 15, 14, 57, 6), lazy.getLastUpdateDate());
+            Exception deferred = assertThrows(Exception.class, lazy::materialize);
+
+            for (Exception e : new Exception[] {eager, deferred}) {
+                assertEquals(baseline.getClass(), e.getClass(), line);
+                assertEquals(baseline.getMessage(), e.getMessage(), line);
+            }
+        }
+    }
+
+    @Test
+    void malformedKeyColumnFailsWhenTheLineIsRead() {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), false);
+        String line = "MND-0000000201|2025-12-15T14:57:06|CRED|Acme";
+        assertThrows(DateTimeParseException.class, () -> parser.parseLazy(buffer(line), 0, bytes(line).length, 1));
+    }
+
+    @Test
+    void malformedUtf8IsReportedByBothParsers() {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), false);
+        byte[] line = "MND-0000000301|2025-12-15 14:57:06|CRED|Ac?me".getBytes(StandardCharsets.US_ASCII);
+        line[line.length - 3] = (byte) 0xC3;
+        assertThrows(CharacterCodingException.class, () -> parser.parse(ByteBuffer.wrap(line), 0, line.length));
+        assertThrows(CharacterCodingException.class, () -> parser.parseLazy(ByteBuffer.wrap(line), 0, line.length, 1));
+    }
+
+    @Test
+    void blankLinesGiveNoRecord() throws Exception {
+        MandateLineParser parser = new MandateLineParser(new MandateFieldDecoder(false), false);
+        assertNull(parser.parse(buffer(" \t "), 0, 3));
+        assertNull(parser.parseLazy(buffer(" \t "), 0, 3, 1));
+    }
+
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer buffer(String line) {
+        return ByteBuffer.wrap(bytes(line));
+    }
+}
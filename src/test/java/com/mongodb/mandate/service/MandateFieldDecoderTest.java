@@ -0,0 +1,113 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.ThrowingSupplier;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The fixed-layout fast paths must give the java.time, BigDecimal and
+ * Integer parsers' result, or fail with the same exception, for any value.
+ */
+class MandateFieldDecoderTest {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final MandateFieldDecoder lenient = new MandateFieldDecoder(false);
+    private final MandateFieldDecoder strict = new MandateFieldDecoder(true);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2025-12-15 14:57:06", "2024-02-29 00:00:00", "2023-02-29 12:00:00",
+            "2025-04-31 23:59:59", "2025-13-01 00:00:00", "0000-01-01 00:00:00", "9999-12-31 23:59:59",
+            "2025-01-01 24:00:00", "2025-01-01 23:60:00", "2025-1-01 00:00:00", "2025-01-01T00:00:00",
+            "2025-01-01 00:00", "abcd-ef-gh ij:kl:mn", "2025-01-01 0a:00:00"})
+    void dateTimeMatchesLocalDateTimeParse(String value) {
+        assertSameOutcome(() -> LocalDateTime.parse(value, DATE_TIME_FORMATTER),
+                () -> lenient.dateTime(value, 0, value.length()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2022-09-19", "2024-02-29", "2023-02-29", "2025-02-30", "2025-06-31", "2025-00-10",
+            "0001-01-01", "0000-06-15", "2025/06/15", "2025-6-15", "20250615", "2025-06-15x", "-025-06-15"})
+    void dateMatchesLocalDateParse(String value) {
+        assertSameOutcome(() -> LocalDate.parse(value, DATE_FORMATTER),
+                () -> lenient.date(value, 0, value.length()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"3096.51", "0.00", "-0.07", "12.5", "100", "1e3", "+7.00", "-.50", "12,50",
+            "999999999999999999.99", "9999999999999999.99", "0012.30", "1.234", "-", "."})
+    void amountMatchesBigDecimal(String value) {
+        assertSameOutcome(() -> new BigDecimal(value), () -> lenient.amount(value, 0, value.length()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"7", "-12", "+7", "0009", "999999999", "2147483647", "2147483648", "-2147483648",
+            "1.0", "seven", "-", "1 2"})
+    void integerMatchesIntegerParseInt(String value) {
+        assertSameOutcome(() -> Integer.parseInt(value), () -> lenient.integer(value, 0, value.length()));
+    }
+
+    @Test
+    void fastPathsDecodeFromTheMiddleOfALine() {
+        String line = "x|2025-12-15 14:57:06|2022-09-19|-3096.51|42|";
+        assertEquals(LocalDateTime.of(2025, 12, 15, 14, 57, 6), lenient.fastDateTime(line, 2, 21));
+        assertEquals(LocalDate.of(2022, 9, 19), lenient.fastDate(line, 22, 32));
+        assertEquals(-309651, lenient.fastAmountMinorUnits(line, 33, 41));
+        assertEquals(42, lenient.fastInteger(line, 42, 44));
+    }
+
+    @Test
+    void fastPathsDeclineValuesOutsideTheFixedLayout() {
+        assertNull(lenient.fastDateTime("2023-02-29 00:00:00", 0, 19));
+        assertNull(lenient.fastDate("2025-6-15", 0, 9));
+        assertEquals(MandateFileRecord.NO_MINOR_UNITS, lenient.fastAmountMinorUnits("12.5", 0, 4));
+        assertEquals(MandateFileRecord.NO_MINOR_UNITS, lenient.fastAmountMinorUnits("1234567890123456789.00", 0, 22));
+        assertNull(lenient.fastInteger("+7", 0, 2));
+        assertNull(lenient.fastInteger("2147483647", 0, 10));
+    }
+
+    @Test
+    void strictModeAcceptsTheFixedLayoutOnly() {
+        assertEquals(LocalDate.of(2024, 2, 29), strict.date("2024-02-29", 0, 10));
+        assertEquals(new BigDecimal("-0.07"), strict.amount("-0.07", 0, 5));
+        assertEquals(2147483647, strict.integer("2147483647", 0, 10));
+        assertEquals(new BigDecimal("12345678901234567890.12"), strict.amount("12345678901234567890.12", 0, 23));
+
+        // Accepted by the lenient parsers, but not in the file layout
+        assertThrows(DateTimeParseException.class, () -> strict.date("2023-02-29", 0, 10));
+        assertThrows(NumberFormatException.class, () -> strict.amount("12.5", 0, 4));
+        assertThrows(NumberFormatException.class, () -> strict.amount("1e3", 0, 3));
+        assertThrows(NumberFormatException.class, () -> strict.integer("+7", 0, 2));
+    }
+
+    // Same value, or the same exception type and message
+    private static void assertSameOutcome(ThrowingSupplier<Object> baseline, ThrowingSupplier<Object> decoder) {
+        Object expected;
+        try {
+            expected = baseline.get();
+        } catch (Throwable e) {
+            Throwable actual = assertThrows(Throwable.class, decoder::get);
+            assertEquals(e.getClass(), actual.getClass());
+            assertEquals(e.getMessage(), actual.getMessage());
+            return;
+        }
+        try {
+            assertEquals(expected, decoder.get());
+        } catch (Throwable e) {
+            throw new AssertionError("Expected " + expected + " but the decoder threw " + e, e);
+        }
+    }
+}
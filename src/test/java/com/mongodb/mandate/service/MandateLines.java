@@ -0,0 +1,158 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.model.MandateFileRecord;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sample mandate lines, and the String-based parser MandateFileReader used
+ * before the byte readers and fixed-layout decoders were added, kept here
+ * as the reference the fast paths must agree with.
+ */
+final class MandateLines {
+
+    static final String HEADER = "mandateId|lastUpdateDate|creditorId|creditorName|creditorAccountNumber|"
+            + "creditorSortCode|creditorIban|creditorBic|debtorName|debtorAccountNumber|debtorSortCode|"
+            + "debtorIban|debtorBic|debtorEmail|debtorPhone|mandateReference|mandateType|frequency|status|"
+            + "signatureDate|effectiveDate|expiryDate|maxAmountPerTransaction|maxAmountPerMonth|"
+            + "maxTransactionsPerMonth|currency|description|schemeType";
+
+    static final List<String> VALID = List.of(
+            "MND-0000000001|2025-12-15 14:57:06|CRED000443|Kindle Unlimited|46265641|52-50-47|"
+                    + "GB15NWBK52504746265641|BARCIEMM|Eva Wright|18113665|31-76-10|GB92NWBK31761018113665|"
+                    + "BARCGB2S|eva.wright93@outlook.com|+447907117356|REF-KIND-420044|RECURRING|MONTHLY|ACTIVE|"
+                    + "2022-09-19|2022-10-08|2027-10-08|3096.51|9289.53|7|GBP|Service subscription|BACS",
+            // Padded columns, empty columns and a non-ASCII name
+            "  MND-0000000002 | 2025-04-11 14:38:19 |CRED000776| Zoë Müller-Øster ||10-42-36|||"
+                    + "Sarah Patel|56297131|08-32-03|||||REF-YORK-877534|ONE_OFF|ONE_OFF|ACTIVE|"
+                    + " 2022-12-15 ||2027-12-18| 3140.06 |15700.30| 9 |EUR||SEPA_CORE",
+            // Amounts and integers outside the fixed layout, leap day
+            "MND-0000000003|2024-02-29 00:00:00|CRED000001|Acme|1|2|3|4|Bob|5|6|7|8|b@x.io|9|REF-3|"
+                    + "RECURRING|ANNUAL|CANCELLED|2024-02-29|2024-03-01|2099-12-31|12.5|-0.07|+7|GBP|Gym|BACS",
+            "MND-0000000004|2025-01-01 23:59:59|CRED000002|Acme|1|2|3|4|Bob|5|6|7|8|b@x.io|9|REF-4|"
+                    + "RECURRING|WEEKLY|ACTIVE|2020-01-01|2020-01-02||1e3|100|-12|GBP|Loan|BACS",
+            // Fewer columns than the header, then more
+            "MND-0000000005|2025-06-30 12:00:00|CRED000003|Short",
+            "MND-0000000006|2025-06-30 12:00:00|CRED000004|Long|1|2|3|4|Bob|5|6|7|8|b@x.io|9|REF-6|"
+                    + "RECURRING|MONTHLY|ACTIVE|2021-05-05|2021-05-06|2026-05-06|0.00|123456789012345.67|"
+                    + "999999999|GBP|Extra columns|BACS|ignored|also ignored");
+
+    // Each throws from the baseline parser for the column named
+    static final List<String> MALFORMED = List.of(
+            "MND-0000000101|2025-12-15 14:57:06|CRED|Acme|1|2|3|4|Bob|5|6|7|8|e|9|R|T|F|S|"
+                    + "2022-13-01|2022-10-08|2027-10-08|1.00|2.00|1|GBP|D|BACS",
+            "MND-0000000102|2025-12-15 14:57:06|CRED|Acme|1|2|3|4|Bob|5|6|7|8|e|9|R|T|F|S|"
+                    + "2022-09-19|2022-10-08|2027-10-08|12,50|2.00|1|GBP|D|BACS",
+            "MND-0000000103|2025-12-15 14:57:06|CRED|Acme|1|2|3|4|Bob|5|6|7|8|e|9|R|T|F|S|"
+                    + "2022-09-19|2022-10-08|2027-10-08|1.00|2.00|seven|GBP|D|BACS",
+            "MND-0000000104|2025-12-15 14:57:06|CRED|Acme|1|2|3|4|Bob|5|6|7|8|e|9|R|T|F|S|"
+                    + "2022-09-19|2022/10/08|2027-10-08|1.00|2.00|1|GBP|D|BACS");
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private MandateLines() {}
+
+    // Null for a blank line; a malformed column throws
+    static MandateFileRecord baseline(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        String[] values = line.split("\\|", -1);
+        return MandateFileRecord.builder()
+                .mandateId(string(values, 0))
+                .lastUpdateDate(dateTime(values, 1))
+                .creditorId(string(values, 2))
+                .creditorName(string(values, 3))
+                .creditorAccountNumber(string(values, 4))
+                .creditorSortCode(string(values, 5))
+                .creditorIban(string(values, 6))
+                .creditorBic(string(values, 7))
+                .debtorName(string(values, 8))
+                .debtorAccountNumber(string(values, 9))
+                .debtorSortCode(string(values, 10))
+                .debtorIban(string(values, 11))
+                .debtorBic(string(values, 12))
+                .debtorEmail(string(values, 13))
+                .debtorPhone(string(values, 14))
+                .mandateReference(string(values, 15))
+                .mandateType(string(values, 16))
+                .frequency(string(values, 17))
+                .status(string(values, 18))
+                .signatureDate(date(values, 19))
+                .effectiveDate(date(values, 20))
+                .expiryDate(date(values, 21))
+                .maxAmountPerTransaction(amount(values, 22))
+                .maxAmountPerMonth(amount(values, 23))
+                .maxTransactionsPerMonth(integer(values, 24))
+                .currency(string(values, 25))
+                .description(string(values, 26))
+                .schemeType(string(values, 27))
+                .build();
+    }
+
+    private static String string(String[] values, int index) {
+        if (index >= values.length) return null;
+        String value = values[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static LocalDateTime dateTime(String[] values, int index) {
+        String value = string(values, index);
+        return value == null ? null : LocalDateTime.parse(value, DATE_TIME_FORMATTER);
+    }
+
+    private static LocalDate date(String[] values, int index) {
+        String value = string(values, index);
+        return value == null ? null : LocalDate.parse(value, DATE_FORMATTER);
+    }
+
+    private static BigDecimal amount(String[] values, int index) {
+        String value = string(values, index);
+        return value == null ? null : new BigDecimal(value);
+    }
+
+    private static Integer integer(String[] values, int index) {
+        String value = string(values, index);
+        return value == null ? null : Integer.parseInt(value);
+    }
+
+    // Field by field, so a lazy record is compared through its getters
+    static void assertSameRecord(MandateFileRecord expected, MandateFileRecord actual) {
+        String id = expected.getMandateId();
+        assertEquals(expected.getMandateId(), actual.getMandateId(), id + " mandateId");
+        assertEquals(expected.getLastUpdateDate(), actual.getLastUpdateDate(), id + " lastUpdateDate");
+        assertEquals(expected.getCreditorId(), actual.getCreditorId(), id + " creditorId");
+        assertEquals(expected.getCreditorName(), actual.getCreditorName(), id + " creditorName");
+        assertEquals(expected.getCreditorAccountNumber(), actual.getCreditorAccountNumber(), id + " creditorAccountNumber");
+        assertEquals(expected.getCreditorSortCode(), actual.getCreditorSortCode(), id + " creditorSortCode");
+        assertEquals(expected.getCreditorIban(), actual.getCreditorIban(), id + " creditorIban");
+        assertEquals(expected.getCreditorBic(), actual.getCreditorBic(), id + " creditorBic");
+        assertEquals(expected.getDebtorName(), actual.getDebtorName(), id + " debtorName");
+        assertEquals(expected.getDebtorAccountNumber(), actual.getDebtorAccountNumber(), id + " debtorAccountNumber");
+        assertEquals(expected.getDebtorSortCode(), actual.getDebtorSortCode(), id + " debtorSortCode");
+        assertEquals(expected.getDebtorIban(), actual.getDebtorIban(), id + " debtorIban");
+        assertEquals(expected.getDebtorBic(), actual.getDebtorBic(), id + " debtorBic");
+        assertEquals(expected.getDebtorEmail(), actual.getDebtorEmail(), id + " debtorEmail");
+        assertEquals(expected.getDebtorPhone(), actual.getDebtorPhone(), id + " debtorPhone");
+        assertEquals(expected.getMandateReference(), actual.getMandateReference(), id + " mandateReference");
+        assertEquals(expected.getMandateType(), actual.getMandateType(), id + " mandateType");
+        assertEquals(expected.getFrequency(), actual.getFrequency(), id + " frequency");
+        assertEquals(expected.getStatus(), actual.getStatus(), id + " status");
+        assertEquals(expected.getSignatureDate(), actual.getSignatureDate(), id + " signatureDate");
+        assertEquals(expected.getEffectiveDate(), actual.getEffectiveDate(), id + " effectiveDate");
+        assertEquals(expected.getExpiryDate(), actual.getExpiryDate(), id + " expiryDate");
+        assertEquals(expected.getMaxAmountPerTransaction(), actual.getMaxAmountPerTransaction(), id + " maxAmountPerTransaction");
+        assertEquals(expected.getMaxAmountPerMonth(), actual.getMaxAmountPerMonth(), id + " maxAmountPerMonth");
+        assertEquals(expected.getMaxTransactionsPerMonth(), actual.getMaxTransactionsPerMonth(), id + " maxTransactionsPerMonth");
+        assertEquals(expected.getCurrency(), actual.getCurrency(), id + " currency");
+        assertEquals(expected.getDescription(), actual.getDescription(), id + " description");
+        assertEquals(expected.getSchemeType(), actual.getSchemeType(), id + " schemeType");
+    }
+}
@@ -0,0 +1,251 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.DirectDebitMandate;
+import com.mongodb.mandate.model.MandateFileRecord;
+import com.mongodb.mandate.repository.InMemoryMandateStore;
+import com.mongodb.mandate.repository.ShardRanges;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MandateProcessorTest {
+
+    private static final String SHARD_RANGES = "shard-a=,shard-b=MND-0000000020,shard-c=MND-0000000040";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readBatchIsSplitIntoOnePartPerShardInFileOrder() {
+        List<MandateFileRecord> records = new ArrayList<>();
+        for (int id : new int[] {41, 3, 25, 1, 59, 20}) {
+            records.add(MandateFileRecord.builder().mandateId(mandateId(id)).build());
+        }
+        BatchWork readBatch = new BatchWork(7, records, "file", "batch", null);
+
+        List<BatchWork> parts = MandateProcessor.splitByShard(readBatch, ShardRanges.parse(SHARD_RANGES));
+
+        assertEquals(List.of("shard-c", "shard-a", "shard-b"), parts.stream().map(part -> part.shard).toList());
+        assertEquals(List.of(mandateId(41), mandateId(59)), parts.get(0).mandateIds());
+        assertEquals(List.of(mandateId(3), mandateId(1)), parts.get(1).mandateIds());
+        assertEquals(List.of(mandateId(25), mandateId(20)), parts.get(2).mandateIds());
+        for (BatchWork part : parts) {
+            assertEquals(7, part.sequence);
+            assertSame(readBatch, part.readBatch);
+        }
+        assertEquals(3, readBatch.unfinishedParts.get());
+    }
+
+    @Test
+    void shardedRunWritesWhatASequentialRunWrites() throws Exception {
+        // Every mandate twice, the second newer, so parts of one shard must keep file order
+        List<String> lines = new ArrayList<>();
+        for (int id = 1; id <= 60; id++) {
+            lines.add(line(id, "2025-12-15 14:57:06", "Service subscription"));
+        }
+        for (int id = 1; id <= 60; id += 2) {
+            lines.add(line(id, "2025-12-16 09:00:00", "Changed"));
+        }
+        Path file = write("mandates.txt", lines);
+
+        InMemoryMandateStore sequentialStore = new InMemoryMandateStore();
+        ProcessingStatistics sequential = process(sequentialStore, ProcessingMode.SEQUENTIAL, file);
+        InMemoryMandateStore shardedStore = new InMemoryMandateStore();
+        ProcessingStatistics sharded = process(shardedStore, ProcessingMode.SHARDED, file);
+
+        assertEquals(60, sequential.getInserted());
+        assertEquals(30, sequential.getUpdated());
+        assertEquals(sequential.getInserted(), sharded.getInserted());
+        assertEquals(sequential.getUpdated(), sharded.getUpdated());
+        assertEquals(sequential.getSkipped(), sharded.getSkipped());
+        assertEquals(0, sharded.getErrors());
+        assertEquals(sequentialStore.getMandateCount(), shardedStore.getMandateCount());
+        assertEquals(sequentialStore.getAuditCount(), shardedStore.getAuditCount());
+    }
+
+    @Test
+    void olderFileUpdatesMandatesUnlessUpdatesAreNewerOnly() throws Exception {
+        List<String> newer = new ArrayList<>();
+        List<String> older = new ArrayList<>();
+        for (int id = 1; id <= 10; id++) {
+            newer.add(line(id, "2025-12-16 09:00:00", "Newer"));
+            older.add(line(id, "2025-12-15 14:57:06", "Older"));
+        }
+        Path newerFile = write("newer.txt", newer);
+        Path olderFile = write("older.txt", older);
+
+        InMemoryMandateStore store = new InMemoryMandateStore();
+        process(store, ProcessingMode.SEQUENTIAL, newerFile);
+        // Any other date is applied by default
+        assertEquals(10, process(store, ProcessingMode.SEQUENTIAL, olderFile).getUpdated());
+
+        InMemoryMandateStore newerOnlyStore = new InMemoryMandateStore();
+        ProcessorOptions newerOnly = ProcessorOptions.builder().updateNewerOnly(true).build();
+        try (MandateProcessor processor = new MandateProcessor(newerOnlyStore, newerOnly)) {
+            processor.processFile(newerFile);
+            processor.processFile(olderFile);
+            assertEquals(0, processor.getStatistics().getUpdated());
+            assertEquals(10, processor.getStatistics().getSkipped());
+        }
+        assertEquals("Newer", newerOnlyStore.batchGetMandates(List.of(mandateId(1))).get(mandateId(1))
+                .getDescription());
+    }
+
+    @Test
+    void filesRunAtOnceKeepTheNewerVersionOfAMandate() throws Exception {
+        List<String> older = new ArrayList<>();
+        List<String> newer = new ArrayList<>();
+        for (int id = 1; id <= 20; id++) {
+            older.add(line(id, "2025-12-15 14:57:06", "Older"));
+            newer.add(line(id, "2025-12-16 09:00:00", "Newer"));
+        }
+        InMemoryMandateStore store = new InMemoryMandateStore(2_000);
+
+        List<ProcessingStatistics> statistics = processAtOnce(store, write("older.txt", older),
+                write("newer.txt", newer));
+
+        assertEquals(0, statistics.get(0).getErrors() + statistics.get(1).getErrors());
+        assertEquals(20, statistics.get(0).getInserted() + statistics.get(1).getInserted());
+        for (DirectDebitMandate mandate : store.batchGetMandates(older.stream()
+                .map(line -> line.substring(0, line.indexOf('|'))).toList()).values()) {
+            assertEquals("Newer", mandate.getDescription());
+        }
+    }
+
+    @Test
+    void startupIsReportedOnceEvenAfterAPreload() throws Exception {
+        Path file = write("mandates.txt", List.of(line(1, "2025-12-15 14:57:06", "Service subscription")));
+        InMemoryMandateStore store = new InMemoryMandateStore();
+        // As store.memory.preload does, on a processor of its own
+        process(store, ProcessingMode.SEQUENTIAL, file);
+
+        try (MandateProcessor processor = new MandateProcessor(store, ProcessorOptions.builder().build())) {
+            processor.processFile(file);
+            assertTrue(processor.getStatistics().getStartupMs() >= 0);
+
+            MandateProcessor sibling = new MandateProcessor(processor);
+            sibling.processFile(file);
+            assertEquals(-1, sibling.getStatistics().getStartupMs());
+        }
+    }
+
+    @Test
+    void filesRunAtOnceInsertANewCreditorAndDebtorOnce() throws Exception {
+        // The same new creditor and debtor on different mandates in each file
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        for (int id = 1; id <= 20; id++) {
+            first.add(line(id, "2025-12-15 14:57:06", "First"));
+            second.add(line(100 + id, "2025-12-15 14:57:06", "Second"));
+        }
+        InMemoryMandateStore store = new InMemoryMandateStore(2_000);
+
+        List<ProcessingStatistics> statistics = processAtOnce(store, write("first.txt", first),
+                write("second.txt", second));
+
+        for (ProcessingStatistics fileStatistics : statistics) {
+            assertEquals(20, fileStatistics.getInserted());
+            assertEquals(0, fileStatistics.getErrors());
+        }
+        assertEquals(1, statistics.get(0).getNewCreditors() + statistics.get(1).getNewCreditors());
+        assertEquals(40, store.getMandateCount());
+    }
+
+    @Test
+    void filesRunAtOnceInsertASharedMandateOnce() throws Exception {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        for (int id = 1; id <= 20; id++) {
+            first.add(line(id, "2025-12-15 14:57:06", "First"));
+            second.add(line(id, "2025-12-16 09:00:00", "Second"));
+        }
+        InMemoryMandateStore store = new InMemoryMandateStore(2_000);
+
+        List<ProcessingStatistics> statistics = processAtOnce(store, write("first.txt", first),
+                write("second.txt", second));
+
+        assertEquals(0, statistics.get(0).getErrors() + statistics.get(1).getErrors());
+        assertEquals(20, statistics.get(0).getInserted() + statistics.get(1).getInserted());
+        assertEquals(20, store.getMandateCount());
+    }
+
+    // The first file on the first processor and each other on a sibling, as the inbox daemon runs them
+    private static List<ProcessingStatistics> processAtOnce(InMemoryMandateStore store, Path... files)
+            throws Exception {
+        ProcessorOptions options = ProcessorOptions.builder().batchSize(4).build();
+        try (MandateProcessor first = new MandateProcessor(store, options)) {
+            List<MandateProcessor> processors = new ArrayList<>(List.of(first));
+            for (int i = 1; i < files.length; i++) {
+                processors.add(new MandateProcessor(first));
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> runs = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(files.length);
+            try {
+                for (int i = 0; i < files.length; i++) {
+                    MandateProcessor processor = processors.get(i);
+                    Path file = files[i];
+                    runs.add(executor.submit(() -> {
+                        start.await();
+                        processor.processFile(file);
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> run : runs) {
+                    run.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return processors.stream().map(MandateProcessor::getStatistics).toList();
+        }
+    }
+
+    private static ProcessingStatistics process(InMemoryMandateStore store, ProcessingMode mode,
+                                                Path file) throws Exception {
+        ProcessorOptions options = ProcessorOptions.builder()
+                .batchSize(4)
+                .processingMode(mode)
+                .shardRanges(SHARD_RANGES)
+                .shardWriters(2)
+                .shardQueueCapacity(2)
+                .build();
+        try (MandateProcessor processor = new MandateProcessor(store, options)) {
+            processor.processFile(file);
+            return processor.getStatistics();
+        }
+    }
+
+    private Path write(String name, List<String> lines) throws Exception {
+        List<String> content = new ArrayList<>();
+        content.add(MandateLines.HEADER);
+        content.addAll(lines);
+        return Files.write(dir.resolve(name), content);
+    }
+
+    private static String line(int id, String lastUpdateDate, String description) {
+        return MandateLines.VALID.get(0)
+                .replace("MND-0000000001", mandateId(id))
+                .replace("2025-12-15 14:57:06", lastUpdateDate)
+                .replace("Service subscription", description);
+    }
+
+    private static String mandateId(int id) {
+        return String.format("MND-%010d", id);
+    }
+}
@@ -0,0 +1,107 @@
+package com.mongodb.mandate.service;
+
+import com.mongodb.mandate.config.ProcessorOptions;
+import com.mongodb.mandate.model.MandateFileRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every reader mode, eager and lazy, against the baseline parser, for each
+ * line terminator BufferedReader accepts.
+ */
+class MandateRecordReaderTest {
+
+    @TempDir
+    Path dir;
+
+    static Stream<Arguments> readers() {
+        List<Arguments> arguments = new ArrayList<>();
+        for (String terminator : List.of("\n", "\r\n", "\r")) {
+            for (String reader : List.of("buffered", "mapped", "parallel", "gzip")) {
+                for (boolean lazy : List.of(false, true)) {
+                    arguments.add(Arguments.of(reader, terminator.replace("\r", "CR").replace("\n", "LF"), lazy));
+                }
+            }
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0} {1} lazy={2}")
+    @MethodSource("readers")
+    void readsTheSameRecordsAsTheBaselineParser(String reader, String terminator, boolean lazy) throws IOException {
+        String eol = terminator.replace("CR", "\r").replace("LF", "\n");
+        List<String> lines = new ArrayList<>();
+        for (int copy = 0; copy < 20; copy++) {
+            lines.addAll(MandateLines.VALID);
+            lines.add("   ");
+        }
+        Path file = write(reader, MandateLines.HEADER + eol + String.join(eol, lines) + eol);
+
+        ProcessorOptions options = new ProcessorOptions();
+        options.setReaderMode(ReaderMode.fromString(reader.equals("gzip") ? "buffered" : reader));
+        options.setLazyRecords(lazy);
+        // Small chunks and buffers, so lines and "\r\n" pairs straddle their edges
+        options.setReaderChunkSize(97);
+        options.setReaderParallelism(3);
+        options.setDecompressBufferSize(61);
+        options.setDecompressBuffers(2);
+
+        List<MandateFileRecord> records = new ArrayList<>();
+        try (MandateRecordReader recordReader = MandateRecordReader.open(file, options)) {
+            List<MandateFileRecord> batch;
+            while (!(batch = recordReader.readBatch(7)).isEmpty()) {
+                records.addAll(batch);
+            }
+            assertEquals(lines.size() + 1, recordReader.getPosition().lineNumber());
+        }
+
+        List<MandateFileRecord> expected = lines.stream().map(MandateLines::baseline)
+                .filter(record -> record != null).toList();
+        assertEquals(expected.size(), records.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MandateLines.assertSameRecord(expected.get(i), records.get(i));
+        }
+    }
+
+    @Test
+    void parallelReaderSplitsOnEveryLineWithANonPositiveChunkSize() throws IOException {
+        Path file = write("parallel", MandateLines.HEADER + "\n" + String.join("\n", MandateLines.VALID) + "\n");
+        for (long chunkSize : new long[] {0, -1, Long.MIN_VALUE / 2}) {
+            ProcessorOptions options = new ProcessorOptions();
+            options.setReaderMode(ReaderMode.PARALLEL);
+            options.setReaderChunkSize(chunkSize);
+            options.setReaderParallelism(2);
+
+            try (MandateRecordReader reader = MandateRecordReader.open(file, options)) {
+                assertEquals(MandateLines.VALID.size(), reader.readBatch(100).size(), "chunk size " + chunkSize);
+            }
+        }
+    }
+
+    private Path write(String reader, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (!reader.equals("gzip")) {
+            return Files.write(dir.resolve("mandates.txt"), bytes);
+        }
+        Path file = dir.resolve("mandates.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(bytes);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,93 @@
+package com.mongodb.mandate.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedLineScannerTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\n", "\r\n", "\r"})
+    void splitsLinesLikeBufferedReader(String terminator) throws IOException {
+        String text = String.join(terminator, "first", "", "third line", "4", "") + "last";
+        for (int window = 12; window <= 24; window++) {
+            assertEquals(bufferedReaderLines(text), scannedLines(text, window), "window " + window);
+        }
+    }
+
+    @Test
+    void mixedTerminatorsAndCrLfAcrossWindows() throws IOException {
+        String text = "ab\r\ncd\ref\n\r\ngh\r\r\nij\r";
+        // Every window size puts some '\r' on the last byte of a window
+        for (int window = 4; window <= text.length(); window++) {
+            assertEquals(bufferedReaderLines(text), scannedLines(text, window), "window " + window);
+        }
+    }
+
+    @Test
+    void positionIsTheStartOfTheNextLine() throws IOException {
+        String text = "one\r\ntwo\rthree\nfour\r\n";
+        Path file = write(text);
+        List<String> expected = bufferedReaderLines(text);
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            MappedLineScanner scanner = new MappedLineScanner(channel, 0, channel.size(), 8);
+            for (int consumed = 1; scanner.nextLine(); consumed++) {
+                // A scanner started at position() reads exactly the remaining lines
+                MappedLineScanner resumed = new MappedLineScanner(channel, scanner.position(), channel.size(), 8);
+                assertEquals(expected.subList(consumed, expected.size()), lines(resumed));
+            }
+        }
+    }
+
+    @Test
+    void rejectsALineLongerThanTheWindow() throws IOException {
+        Path file = write("short\nmuch longer line\n");
+        try (FileChannel channel = FileChannel.open(file)) {
+            MappedLineScanner scanner = new MappedLineScanner(channel, 0, channel.size(), 8);
+            scanner.nextLine();
+            assertThrows(IOException.class, scanner::nextLine);
+        }
+    }
+
+    private List<String> scannedLines(String text, long window) throws IOException {
+        try (FileChannel channel = FileChannel.open(write(text))) {
+            return lines(new MappedLineScanner(channel, 0, channel.size(), window));
+        }
+    }
+
+    private static List<String> lines(MappedLineScanner scanner) throws IOException {
+        List<String> lines = new ArrayList<>();
+        while (scanner.nextLine()) {
+            byte[] bytes = new byte[scanner.lineEnd() - scanner.lineStart()];
+            scanner.buffer().get(scanner.lineStart(), bytes);
+            lines.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static List<String> bufferedReaderLines(String text) throws IOException {
+        return new BufferedReader(new StringReader(text)).lines().toList();
+    }
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(Files.createTempFile(dir, "lines", ".txt"), text);
+    }
+}
@@ -0,0 +1,40 @@
+package com.mongodb.mandate.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReferenceDataCacheTest {
+
+    @Test
+    void rejectsANonPositiveDebtorBound() {
+        assertThrows(IllegalArgumentException.class, () -> new ReferenceDataCache(0));
+        assertThrows(IllegalArgumentException.class, () -> new ReferenceDataCache(-1));
+    }
+
+    @Test
+    void keepsTheMostRecentlyUsedDebtors() {
+        ReferenceDataCache cache = new ReferenceDataCache(2);
+        cache.debtors().add(List.of("D1", "D2"));
+        // D1 is used, so D2 is the eldest when D3 arrives
+        assertEquals(Set.of("D1"), cache.debtors().known(Set.of("D1")));
+        cache.debtors().add(List.of("D3"));
+
+        assertEquals(Set.of("D1", "D3"), cache.debtors().known(Set.of("D1", "D2", "D3")));
+        String debtors = cache.describe().substring(cache.describe().indexOf("debtors"));
+        assertTrue(debtors.startsWith("debtors 3 hits, 1 misses"), debtors);
+        assertTrue(debtors.endsWith("2 cached of at most 2, 1 evicted"), debtors);
+    }
+
+    @Test
+    void keepsEveryCreditor() {
+        ReferenceDataCache cache = new ReferenceDataCache(1);
+        cache.creditors().add(List.of("C1", "C2", "C3"));
+        assertEquals(Set.of("C1", "C2", "C3"), cache.creditors().known(Set.of("C1", "C2", "C3", "C4")));
+    }
+}
@@ -0,0 +1,111 @@
+package com.mongodb.mandate.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedBatchRunnerTest {
+
+    // Items are "shard:n"
+    private static String shardOf(String item) {
+        return item.substring(0, item.indexOf(':'));
+    }
+
+    @Test
+    void eachLaneRunsItsItemsInOrder() throws IOException {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            items.add((i % 3 == 0 ? "a" : i % 3 == 1 ? "b" : "c") + ":" + i);
+        }
+        Map<String, List<String>> processed = new ConcurrentHashMap<>();
+
+        ShardedBatchRunner<String> runner = new ShardedBatchRunner<>(List.of("a", "b", "c"), 1, 2);
+        runner.run(source(items), ShardedBatchRunnerTest::shardOf,
+                item -> processed.computeIfAbsent(shardOf(item), s -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(item));
+
+        for (String shard : List.of("a", "b", "c")) {
+            assertEquals(items.stream().filter(i -> shardOf(i).equals(shard)).toList(), processed.get(shard));
+        }
+        for (ShardedBatchRunner.LaneMetrics lane : runner.metrics()) {
+            assertEquals(processed.get(lane.shard()).size(), lane.items());
+            assertTrue(lane.maxQueueDepth() <= 2);
+        }
+    }
+
+    @Test
+    void slowShardHoldsUpOnlyItsOwnLane() throws Exception {
+        CountDownLatch slowShard = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(20);
+        // One slow item first; the fast lane gets every other item
+        List<String> items = new ArrayList<>(List.of("slow:0"));
+        for (int i = 1; i <= 20; i++) {
+            items.add("fast:" + i);
+        }
+
+        ShardedBatchRunner<String> runner = new ShardedBatchRunner<>(List.of("slow", "fast"), 1, 1);
+        Thread thread = new Thread(() -> {
+            try {
+                runner.run(source(items), ShardedBatchRunnerTest::shardOf, item -> {
+                    if (item.startsWith("slow")) {
+                        slowShard.await();
+                    } else {
+                        fastDone.countDown();
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        assertTrue(fastDone.await(30, TimeUnit.SECONDS));
+        slowShard.countDown();
+        thread.join();
+    }
+
+    @Test
+    void firstFailureStopsEveryLaneAndIsRethrown() {
+        IllegalStateException failure = new IllegalStateException("write failed");
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            items.add((i % 2 == 0 ? "a" : "b") + ":" + i);
+        }
+
+        ShardedBatchRunner<String> runner = new ShardedBatchRunner<>(List.of("a", "b"), 2, 2);
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> runner.run(source(items), ShardedBatchRunnerTest::shardOf, item -> {
+                    if (item.equals("b:11")) {
+                        throw failure;
+                    }
+                }));
+        assertSame(failure, thrown);
+        long processed = runner.metrics().stream().mapToLong(ShardedBatchRunner.LaneMetrics::items).sum();
+        assertTrue(processed < items.size(), "processed " + processed);
+    }
+
+    @Test
+    void itemForAnUnknownShardFails() {
+        ShardedBatchRunner<String> runner = new ShardedBatchRunner<>(List.of("a"), 1, 1);
+        assertThrows(IllegalStateException.class,
+                () -> runner.run(source(List.of("a:1", "z:2")), ShardedBatchRunnerTest::shardOf, item -> {}));
+    }
+
+    private static BatchPipeline.Source<String> source(List<String> items) {
+        Iterator<String> iterator = items.iterator();
+        return () -> iterator.hasNext() ? iterator.next() : null;
+    }
+}